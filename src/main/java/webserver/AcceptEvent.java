@@ -0,0 +1,27 @@
+/**
+ * AcceptEvent: JFR event of the accept of a connection
+ */
+
+package webserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of the accept of a connection
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+@Name("webserver.Accept")
+@Label("Accept")
+@Description("Connection accepted by the server socket")
+@Category({"Web Server", "Request Lifecycle"})
+@StackTrace(false)
+public class AcceptEvent extends Event {
+
+    @Label("Remote Address")
+    String remoteAddress;
+}
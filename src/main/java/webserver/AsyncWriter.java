@@ -0,0 +1,251 @@
+/**
+ * AsyncWriter: Completes the writes of large responses without blocking the workers
+ */
+
+package webserver;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Completes the writes of large responses without blocking the workers: a
+ * worker hands off the rest of the response (headers and a file region or a
+ * buffer) and the connection, and goes back to the pool, while a few selector
+ * threads write to the clients in non-blocking mode as fast as each one reads.
+ * Files are sent with transferTo and buffers with gathering writes. A client
+ * that reads nothing for WRITE_TIMEOUT is disconnected, and so is one whose
+ * file is truncated before its response is complete
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class AsyncWriter {
+
+    private static final long WRITE_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+    private static final Logger logger = LogManager.getLogger(AsyncWriter.class.getName());
+    private final int threshold;
+    private final SelectorLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Class constructor, starts the selector threads
+     * @param threshold     Min bytes of body of the responses handed off
+     * @param nThreads      Number of selector threads
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public AsyncWriter(int threshold, int nThreads) throws IOException {
+        this.threshold = threshold;
+        this.loops = new SelectorLoop[Math.max(nThreads, 1)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop(Selector.open());
+            Thread thread = new Thread(loops[i], "async-writer-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Get Min bytes of body of the responses handed off
+     * @return int
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Get Number of responses being written
+     * @return int
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Hands off a response with the content of a file. The connection is
+     * closed when the response is written
+     * @param channel   Connection of the client (in blocking mode, with no operation in progress)
+     * @param head      Status line, headers and start of the body
+     * @param file      File to serve
+     * @param position  Position in the file of the rest of the body
+     * @param length    Bytes of the rest of the body
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void submit(SocketChannel channel, ByteBuffer head, File file, long position, long length) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        submit(new WriteTask(channel, head, null, fileChannel, position, position + length));
+    }
+
+    /**
+     * Hands off a response held in memory (preloaded or mapped). The
+     * connection is closed when the response is written
+     * @param channel   Connection of the client (in blocking mode, with no operation in progress)
+     * @param head      Status line, headers and start of the body
+     * @param body      Rest of the body
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void submit(SocketChannel channel, ByteBuffer head, ByteBuffer body) throws IOException {
+        submit(new WriteTask(channel, head, body, null, 0, 0));
+    }
+
+    private void submit(WriteTask task) throws IOException {
+        try {
+            task.channel.configureBlocking(false);
+        } catch (IOException e) {
+            task.close();
+            throw e;
+        }
+        active.incrementAndGet();
+        SelectorLoop loop = loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+        loop.pending.add(task);
+        loop.selector.wakeup();
+    }
+
+    // Selector thread: registers the pending tasks and writes while the clients read
+    private class SelectorLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<WriteTask> pending = new ConcurrentLinkedQueue<>();
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(TimeUnit.NANOSECONDS.toMillis(WRITE_TIMEOUT) / 4);
+                    WriteTask task;
+                    while ((task = pending.poll()) != null) {
+                        register(task);
+                    }
+                    for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        write(key);
+                    }
+                    expire();
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Async writer: ", e);
+                }
+            }
+        }
+
+        private void register(WriteTask task) {
+            try {
+                task.channel.register(selector, SelectionKey.OP_WRITE, task);
+            } catch (IOException e) {
+                logger.trace("Async write aborted: ", e);
+                task.close();
+                active.decrementAndGet();
+            }
+        }
+
+        private void write(SelectionKey key) {
+            WriteTask task = (WriteTask) key.attachment();
+            try {
+                if (key.isValid() && key.isWritable() && task.write()) {
+                    finish(key, task);
+                }
+            } catch (IOException | CancelledKeyException e) {
+                logger.trace("Async write aborted: ", e);
+                finish(key, task);
+            }
+        }
+
+        private void expire() {
+            long now = System.nanoTime();
+            for (SelectionKey key : selector.keys()) {
+                WriteTask task = (WriteTask) key.attachment();
+                if (key.isValid() && now - task.lastProgress > WRITE_TIMEOUT) {
+                    logger.info("Async write timed out");
+                    finish(key, task);
+                }
+            }
+        }
+
+        private void finish(SelectionKey key, WriteTask task) {
+            key.cancel();
+            task.close();
+            active.decrementAndGet();
+        }
+    }
+
+    // Rest of a response and its progress
+    private static class WriteTask {
+
+        private final SocketChannel channel;
+        private final ByteBuffer[] buffers;
+        private final FileChannel file;
+        private long position;
+        private final long end;
+        private long lastProgress = System.nanoTime();
+
+        WriteTask(SocketChannel channel, ByteBuffer head, ByteBuffer body, FileChannel file, long position, long end) {
+            this.channel = channel;
+            this.buffers = (body == null) ? new ByteBuffer[] {head} : new ByteBuffer[] {head, body};
+            this.file = file;
+            this.position = position;
+            this.end = end;
+        }
+
+        // Writes what the socket accepts, true when the response is complete
+        boolean write() throws IOException {
+            long written = 0;
+            if (hasRemaining()) {
+                written = channel.write(buffers);
+            }
+            if (!hasRemaining() && file != null) {
+                long count;
+                while (position < end && (count = file.transferTo(position, end - position, channel)) > 0) {
+                    position += count;
+                    written += count;
+                }
+                if (position < end && position >= file.size()) {  // Truncated after the handoff, transferTo would return 0 forever
+                    throw new EOFException("File truncated at " + position + " of " + end + " bytes");
+                }
+            }
+            if (written > 0) {
+                lastProgress = System.nanoTime();
+            }
+            return !hasRemaining() && position >= end;
+        }
+
+        private boolean hasRemaining() {
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.hasRemaining()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void close() {
+            try {
+                channel.close();
+                if (file != null) {
+                    file.close();
+                }
+            } catch (IOException e) {
+                logger.trace("Async writer close: ", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * BandwidthShaper: Shapes the bandwidth of the bodies sent by the Web Server
+ */
+
+package webserver;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shapes the bandwidth of the bodies sent with two levels of token buckets:
+ * a bucket of the Web Server (the max bytes per second of the uplink) and a
+ * bucket of every transfer (the max bytes per second of a connection). A
+ * write takes its bytes from both buckets and waits for them, so a few fast
+ * clients cannot take the whole uplink. In fair share mode the rate of a
+ * transfer is the limit of the Web Server divided by the transfers active at
+ * that moment, so the uplink is split evenly and a transfer speeds up when
+ * the others end. Like RateLimiter, a bucket is a single "theoretical arrival
+ * time" (GCRA), updated with compare-and-set for the bucket of the Web Server,
+ * and holds BURST of its rate. The wait blocks the thread that writes, so a
+ * limited download holds its worker (or its thread of the large transfer
+ * lane) until it ends
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class BandwidthShaper {
+
+    /**
+     * Bytes sent at once by a full bucket, in nanoseconds of its rate
+     */
+    public static final long BURST = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long limit;
+    private final long perConnection;
+    private final boolean fairShare;
+    private final AtomicLong arrival = new AtomicLong(System.nanoTime());
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Class constructor
+     * @param limit             Max bytes per second of the Web Server (0 = no limit)
+     * @param perConnection     Max bytes per second of a connection (0 = no limit)
+     * @param fairShare         Limit of the Web Server divided among the active transfers
+     */
+    public BandwidthShaper(long limit, long perConnection, boolean fairShare) {
+        this.limit = Math.max(limit, 0);
+        this.perConnection = Math.max(perConnection, 0);
+        this.fairShare = fairShare && this.limit > 0;
+    }
+
+    /**
+     * Get Number of transfers active
+     * @return int
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * Starts a transfer, active until it is ended
+     * @return Transfer
+     */
+    public Transfer begin() {
+        active.incrementAndGet();
+        return new Transfer();
+    }
+
+    // Rate of a transfer (0 = no limit)
+    private long transferRate() {
+        long rate = perConnection;
+        if (fairShare) {
+            long share = Math.max(limit / Math.max(active.get(), 1), 1);
+            rate = (rate > 0) ? Math.min(rate, share) : share;
+        }
+        return rate;
+    }
+
+    // Takes bytes of the bucket of the Web Server, returns the nanoseconds to wait for them
+    private long acquire(int bytes, long now) {
+        if (limit == 0) {
+            return 0;
+        }
+        long cost = cost(bytes, limit);
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + cost;
+            if (arrival.compareAndSet(current, next)) {
+                return next - now - BURST;
+            }
+        }
+    }
+
+    private static long cost(int bytes, long rate) {
+        return bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Bandwidth wait interrupted");
+        }
+    }
+
+    /**
+     * Body sent to a connection, used by a single thread at a time
+     */
+    public final class Transfer {
+
+        private long arrival = System.nanoTime();
+        private boolean ended = false;
+
+        private Transfer() {
+        }
+
+        /**
+         * Waits until a write fits in the buckets of the transfer and of
+         * the Web Server
+         * @param bytes     Bytes of the write
+         * @throws InterruptedIOException If the thread is interrupted while waiting
+         */
+        public void acquire(int bytes) throws InterruptedIOException {
+            if (bytes <= 0) {
+                return;
+            }
+            long rate = transferRate();
+            if (rate > 0) {
+                long now = System.nanoTime();
+                arrival = Math.max(arrival, now) + cost(bytes, rate);
+                sleep(arrival - now - BURST);
+            }
+            sleep(BandwidthShaper.this.acquire(bytes, System.nanoTime()));
+        }
+
+        /**
+         * Ends the transfer, its share goes to the other transfers
+         */
+        public void end() {
+            if (!ended) {
+                ended = true;
+                active.decrementAndGet();
+            }
+        }
+    }
+}
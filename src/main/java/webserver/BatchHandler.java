@@ -0,0 +1,172 @@
+/**
+ * BatchHandler: Request handler that serves many files in one response
+ */
+
+package webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Request handler that serves many small files of the document root (or of
+ * the content pack) in one multipart/mixed response, so a client that needs
+ * hundreds of files pays a single round trip. The paths are the "path"
+ * parameters of the query, e.g. "/batch?path=/a.css&amp;path=/img/b.png", and
+ * every part has the headers of its file and a "Status" header: "200 OK",
+ * "404 Not Found" (missing file or directory) or "413 Payload Too Large"
+ * (over the max size of the response, to be fetched on its own), with an
+ * empty body if it is not 200. The parts come from the content preloaded in
+ * the file cache when there is one. A batch with a path that has a control
+ * character (CR or LF would inject headers into its part) or an invalid
+ * escape is a bad request
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class BatchHandler implements RequestHandler {
+
+    /**
+     * Max paths of a batch
+     */
+    public static final int MAX_PATHS = 1000;
+
+    private static final String CRLF = "\r\n";
+    private static final byte[] EMPTY = new byte[0];
+    private final ServerSettings serverSettings;
+    private final long maxSize;
+    private final Random random = new SecureRandom();
+
+    /**
+     * Class constructor
+     * @param serverSettings    Settings of the Web Server
+     */
+    public BatchHandler(ServerSettings serverSettings) {
+        this.serverSettings = serverSettings;
+        this.maxSize = serverSettings.getBatchMaxSize();
+    }
+
+    @Override
+    public HandlerResponse handle(String method, String requestUri, Map<String, String> headers) throws IOException {
+        List<String> paths = paths(requestUri);
+        if (paths == null || paths.isEmpty() || paths.size() > MAX_PATHS) {
+            return new HandlerResponse(ServerSettings.HTTP_STR_BAD_REQUEST, "text/html",
+                    Response.buildHttpErrorBody(ServerSettings.HTTP_STR_BAD_REQUEST).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        String boundary = "batch-" + Long.toHexString(random.nextLong());
+        ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+        long budget = maxSize;
+        VirtualHost host = serverSettings.getHost(Http2Connection.authority(headers));
+        for (String path : paths) {
+            Part part = (serverSettings.getContentPackHolder() != null) ? packPart(path, budget) : filePart(host, path, budget);
+            budget -= part.content.length;
+            StringBuilder head = new StringBuilder(160);
+            head.append("--").append(boundary).append(CRLF)
+                .append("Content-Location: ").append(path).append(CRLF)
+                .append("Status: ").append(part.status).append(CRLF);
+            if (part.mimeType != null && !"".equals(part.mimeType)) {
+                head.append("Content-Type: ").append(part.mimeType).append(CRLF);
+            }
+            if (part.etag != null) {
+                head.append("ETag: ").append(part.etag).append(CRLF);
+            }
+            head.append("Content-Length: ").append(part.content.length).append(CRLF).append(CRLF);
+            body.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            body.write(part.content);
+            body.write(CRLF.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        body.write(("--" + boundary + "--" + CRLF).getBytes(StandardCharsets.ISO_8859_1));
+        return new HandlerResponse(ServerSettings.HTTP_STR_OK, "multipart/mixed; boundary=" + boundary, body.toByteArray())
+                .addHeader("Cache-Control", "no-store");
+    }
+
+    // Part of a file of the document root of the host
+    private Part filePart(VirtualHost host, String path, long budget) throws IOException {
+        FileEntry entry = host.getFileCache().lookup(Response.fileAndPath(host, path));
+        if (entry == null || entry.isDirectory()) {
+            return new Part(ServerSettings.HTTP_STR_NOT_FOUND, null, null, EMPTY);
+        }
+        if (entry.getLength() > budget) {
+            return new Part(ServerSettings.HTTP_STR_PAYLOAD_TOO_LARGE, entry.getMimeType(), entry.getEtag(), EMPTY);
+        }
+        entry.hit();
+        byte[] content = entry.getContent();
+        if (content == null) {  // Not preloaded in memory
+            content = Files.readAllBytes(entry.getFile().toPath());
+        }
+        return new Part(ServerSettings.HTTP_STR_OK, entry.getMimeType(), entry.getEtag(), content);
+    }
+
+    // Part of a file of the content pack
+    private Part packPart(String path, long budget) throws IOException {
+        ContentPackEntry entry = serverSettings.getContentPackHolder().get().lookup(ContentPack.key(path));
+        if (entry == null || entry.isDirectory()) {
+            return new Part(ServerSettings.HTTP_STR_NOT_FOUND, null, null, EMPTY);
+        }
+        ByteBuffer content = entry.getContent();
+        if (content.remaining() > budget) {
+            return new Part(ServerSettings.HTTP_STR_PAYLOAD_TOO_LARGE, entry.getMimeType(), entry.getEtag(), EMPTY);
+        }
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return new Part(ServerSettings.HTTP_STR_OK, entry.getMimeType(), entry.getEtag(), bytes);
+    }
+
+    // Values of the "path" parameters of the query, null if one is not valid
+    private static List<String> paths(String requestUri) throws UnsupportedEncodingException {
+        List<String> paths = new ArrayList<>();
+        int query = requestUri.indexOf('?');
+        if (query < 0) {
+            return paths;
+        }
+        for (String parameter : requestUri.substring(query + 1).split("&")) {
+            if (parameter.startsWith("path=") && parameter.length() > 5) {
+                String path;
+                try {
+                    path = URLDecoder.decode(parameter.substring(5), "UTF-8");
+                } catch (IllegalArgumentException e) {  // Invalid escape
+                    return null;
+                }
+                if (hasControlCharacter(path)) {
+                    return null;
+                }
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    private static boolean hasControlCharacter(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c < 0x20 || c == 0x7f) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Status, headers and content of a part
+    private static final class Part {
+
+        private final String status;
+        private final String mimeType;
+        private final String etag;
+        private final byte[] content;
+
+        Part(String status, String mimeType, String etag, byte[] content) {
+            this.status = status;
+            this.mimeType = mimeType;
+            this.etag = etag;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * BodyWriteEvent: JFR event of the write of the body of a response
+ */
+
+package webserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of the write of the body of a response
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+@Name("webserver.BodyWrite")
+@Label("Body Write")
+@Description("Write of the rest of the body of a response, after the headers")
+@Category({"Web Server", "Request Lifecycle"})
+@StackTrace(false)
+public class BodyWriteEvent extends Event {
+
+    @Label("URI")
+    String uri;
+
+    @Label("Status")
+    String status;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
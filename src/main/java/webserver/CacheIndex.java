@@ -0,0 +1,458 @@
+/**
+ * CacheIndex: Persistent index of the file cache
+ */
+
+package webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Persistent index of the file cache, so a restarted Web Server does not
+ * start cold. It keeps, for every file of the document root served, its
+ * length, modification time, hits and gzip variant in two files of a
+ * directory:
+ * - index.dat: header (magic "WSCI", version, generation) and an append-only
+ *   log of records (path, length, last modified, hits, gzip offset and length),
+ *   the last record of a path wins. A record is appended when a file is first
+ *   seen or changes, when its gzip variant is made, and when its hits change
+ *   (every CHECKPOINT_INTERVAL and at shutdown)
+ * - variants-GENERATION.dat: gzip variants, appended
+ * At startup both files are mapped in memory, a torn record at the end (a
+ * crash while appending) is dropped, and they are compacted into a new
+ * generation when most of them are stale. The index is only a cache: if it
+ * is corrupt it is logged, deleted and a new generation is started. A record
+ * is used only while the length and the modification time of its file are
+ * the same. The gzip variants are served from the mapped variants file, so
+ * they are not kept on the heap
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class CacheIndex {
+
+    /**
+     * Seconds between the writes of the hits of the files
+     */
+    public static final int CHECKPOINT_INTERVAL = 30;
+
+    /**
+     * Max length of the files compressed to a gzip variant
+     */
+    public static final long GZIP_MAX_LENGTH = 4L * 1024 * 1024;
+
+    private static final int MAGIC = 0x57534349;  // "WSCI"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 12;
+    private static final int NOT_CHECKED = -2;  // gzip length of a file not compressed yet
+    private static final int NO_VARIANT = -1;  // gzip length of a file not worth it
+    private static final Logger logger = LogManager.getLogger(CacheIndex.class.getName());
+    private final File dir;
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+    private int generation = 0;
+    private FileChannel indexChannel = null;
+    private FileChannel variantsChannel = null;
+    private volatile MappedByteBuffer variants = null;
+    private ScheduledExecutorService checkpoints = null;
+
+    /**
+     * Class constructor
+     * @param dir       Directory of the index
+     */
+    public CacheIndex(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Get Directory of the index
+     * @return File
+     */
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Get Number of files in the index
+     * @return int
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Loads the index (creating it if it does not exist) and opens it to
+     * append records
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public synchronized void open() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory: " + dir);
+        }
+        File indexFile = new File(dir, "index.dat");
+        int count = 0;
+        long end = 0;
+        if (indexFile.length() >= HEADER_LENGTH) {
+            try {
+                long[] loaded = load(indexFile);
+                count = (int) loaded[0];
+                end = loaded[1];
+            } catch (IOException e) {  // Only a cache: started again
+                logger.warn("Cache index corrupt, a new one is started: " + indexFile, e);
+                Files.delete(indexFile.toPath());
+                records.clear();
+                count = 0;
+                end = 0;
+            }
+        }
+        File variantsFile = variantsFile(generation);
+        if (end == 0 || !variantsFile.exists()) {  // New index (or variants lost)
+            records.clear();
+            count = 0;
+            writeIndex(indexFile, ++generation);
+            end = HEADER_LENGTH;
+            variantsFile = variantsFile(generation);
+            Files.write(variantsFile.toPath(), new byte[0]);
+        } else if (count > 2 * records.size() + 1024 || variantsFile.length() > 2 * liveVariantsLength() + GZIP_MAX_LENGTH) {
+            compact(indexFile, variantsFile);
+            variantsFile = variantsFile(generation);
+            end = indexFile.length();
+        }
+        indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE);
+        indexChannel.truncate(end);  // Drop a torn record
+        indexChannel.position(end);
+        variantsChannel = FileChannel.open(variantsFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        variantsChannel.position(variantsChannel.size());
+        mapVariants();
+        deleteOldVariants();
+        logger.info("Cache index: " + records.size() + " files in " + dir.getAbsolutePath());
+    }
+
+    // Reads the records of the index: number of records and end of the last whole record
+    private long[] load(File indexFile) throws IOException {
+        int count = 0;
+        long end;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Cache index over 2 GB: " + indexFile);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a cache index: " + indexFile);
+            }
+            generation = buffer.getInt();
+            end = HEADER_LENGTH;
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {  // Torn record
+                    break;
+                }
+                Record record = readRecord(buffer, length, indexFile);
+                records.put(record.path, record);
+                count++;
+                end += 4 + length;
+                buffer.position((int) end);
+            }
+        }
+        return new long[] {count, end};
+    }
+
+    /**
+     * Makes the entry of a file from its record, if the file has not changed
+     * @param f             File
+     * @param length        Length of the file
+     * @param lastModified  Last modification time of the file
+     * @return FileEntry    Entry or null if the file is not in the index or it has changed
+     */
+    public FileEntry restore(File f, long length, long lastModified) {
+        Record record = records.get(f.getPath());
+        if (record == null || record.length != length || record.lastModified != lastModified) {
+            return null;
+        }
+        FileEntry entry = new FileEntry(f, false, length, lastModified, record.hits);
+        if (record.gzipLength == NO_VARIANT) {
+            entry.setGzipContent(null);
+        } else if (record.gzipLength >= 0) {
+            ByteBuffer variant = variant(record.gzipOffset, record.gzipLength);
+            if (variant != null) {
+                entry.setGzipContent(variant);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Appends the record of a file
+     * @param entry     Entry of the file
+     */
+    public void record(FileEntry entry) {
+        Record old = records.get(entry.getFile().getPath());
+        long gzipOffset = 0;
+        int gzipLength = NOT_CHECKED;
+        if (old != null && old.length == entry.getLength() && old.lastModified == entry.getLastModified()) {
+            gzipOffset = old.gzipOffset;
+            gzipLength = old.gzipLength;
+        }
+        append(new Record(entry.getFile().getPath(), entry.getLength(), entry.getLastModified(),
+                entry.getHits(), gzipOffset, gzipLength));
+    }
+
+    /**
+     * Gets the gzip variant of a file, making it and storing it the first time
+     * @param entry         Entry of the file
+     * @return ByteBuffer   Variant or null if the file is not worth it
+     */
+    public ByteBuffer gzipContent(FileEntry entry) {
+        if (entry.isGzipChecked()) {
+            return entry.getGzipContent();
+        }
+        synchronized (entry) {
+            if (!entry.isGzipChecked()) {
+                makeVariant(entry);
+            }
+        }
+        return entry.getGzipContent();
+    }
+
+    /**
+     * Appends the records of the files whose hits changed
+     * @param entries   Entries of the file cache
+     */
+    public void checkpoint(Collection<FileEntry> entries) {
+        int count = 0;
+        for (FileEntry entry : entries) {
+            long hits = entry.getHits();
+            if (!entry.isDirectory() && hits != entry.getPersistedHits()) {
+                record(entry);
+                entry.setPersistedHits(hits);
+                count++;
+            }
+        }
+        logger.trace("Cache index checkpoint: " + count + " records");
+    }
+
+    /**
+     * Starts writing the hits of the files every CHECKPOINT_INTERVAL seconds
+     * and at shutdown
+     * @param fileCache     File cache
+     */
+    public synchronized void startCheckpoints(final FileCache fileCache) {
+        if (checkpoints != null) {
+            return;
+        }
+        checkpoints = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-index-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpoints.scheduleWithFixedDelay(() -> checkpoint(fileCache.entries()),
+                CHECKPOINT_INTERVAL, CHECKPOINT_INTERVAL, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> checkpoint(fileCache.entries()), "cache-index-shutdown"));
+    }
+
+    private void makeVariant(FileEntry entry) {
+        String path = entry.getFile().getPath();
+        if (entry.getLength() < ContentPack.GZIP_MIN_LENGTH || entry.getLength() > GZIP_MAX_LENGTH
+                || !ContentPack.isCompressible(entry.getMimeType())) {
+            entry.setGzipContent(null);
+            return;
+        }
+        ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream();
+        try (InputStream is = new FileInputStream(entry.getFile());
+             GZIPOutputStream gzip = new GZIPOutputStream(gzipBytes)) {
+            byte[] buffer = new byte[ServerSettings.FILE_BUFFER_SIZE];
+            int read;
+            long length = 0;
+            while ((read = is.read(buffer)) > 0) {
+                gzip.write(buffer, 0, read);
+                length += read;
+            }
+            if (length != entry.getLength()) {  // Modified while reading
+                return;
+            }
+        } catch (IOException e) {
+            logger.info("Gzip variant skipped: " + path, e);
+            return;
+        }
+        if (gzipBytes.size() >= entry.getLength()) {  // Keep the variant only if it is smaller
+            entry.setGzipContent(null);
+            append(new Record(path, entry.getLength(), entry.getLastModified(), entry.getHits(), 0, NO_VARIANT));
+            return;
+        }
+        long offset;
+        try {
+            synchronized (this) {
+                offset = variantsChannel.position();
+                gzipBytes.writeTo(Channels.newOutputStream(variantsChannel));
+            }
+        } catch (IOException e) {
+            logger.error("Cache index write failed: " + dir, e);
+            entry.setGzipContent(null);
+            return;
+        }
+        append(new Record(path, entry.getLength(), entry.getLastModified(), entry.getHits(), offset, gzipBytes.size()));
+        entry.setGzipContent(variant(offset, gzipBytes.size()));  // Mapped, not on the heap
+    }
+
+    private synchronized void append(Record record) {
+        try {
+            ByteBuffer buffer = toBytes(record);
+            while (buffer.hasRemaining()) {
+                indexChannel.write(buffer);
+            }
+            records.put(record.path, record);
+        } catch (IOException e) {
+            logger.error("Cache index write failed: " + dir, e);
+        }
+    }
+
+    // Variant mapped in memory, remapped if it was appended after the last map
+    private ByteBuffer variant(long offset, int length) {
+        MappedByteBuffer mapped = variants;
+        if (mapped == null || offset + length > mapped.capacity()) {
+            try {
+                mapped = mapVariants();
+            } catch (IOException e) {
+                logger.error("Cache index read failed: " + dir, e);
+                return null;
+            }
+            if (mapped == null || offset + length > mapped.capacity()) {
+                return null;
+            }
+        }
+        ByteBuffer slice = mapped.duplicate();
+        slice.position((int) offset);
+        slice.limit((int) (offset + length));
+        return slice.slice().asReadOnlyBuffer();
+    }
+
+    private synchronized MappedByteBuffer mapVariants() throws IOException {
+        long size = variantsChannel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Gzip variants over 2 GB: " + dir);
+        }
+        variants = (size == 0) ? null : variantsChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        return variants;
+    }
+
+    // Writes the live records and variants to a new generation
+    private void compact(File indexFile, File variantsFile) throws IOException {
+        int newGeneration = generation + 1;
+        File newVariantsFile = variantsFile(newGeneration);
+        File tmpIndex = new File(dir, "index.dat.tmp");
+        try (FileChannel from = FileChannel.open(variantsFile.toPath(), StandardOpenOption.READ);
+             FileChannel to = FileChannel.open(newVariantsFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeIndex(tmpIndex, newGeneration);
+            try (FileChannel index = FileChannel.open(tmpIndex.toPath(), StandardOpenOption.APPEND)) {
+                for (Record record : records.values()) {
+                    Record live = record;
+                    if (record.gzipLength > 0) {
+                        long offset = to.position();
+                        from.transferTo(record.gzipOffset, record.gzipLength, to);
+                        to.position(offset + record.gzipLength);
+                        live = new Record(record.path, record.length, record.lastModified, record.hits, offset, record.gzipLength);
+                    }
+                    records.put(live.path, live);
+                    ByteBuffer buffer = toBytes(live);
+                    while (buffer.hasRemaining()) {
+                        index.write(buffer);
+                    }
+                }
+            }
+        }
+        Files.move(tmpIndex.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation = newGeneration;
+        logger.info("Cache index compacted: " + records.size() + " files");
+    }
+
+    private void deleteOldVariants() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("variants-") && name.endsWith(".dat"));
+        for (int i = 0; files != null && i < files.length; i++) {
+            if (!files[i].getName().equals(variantsFile(generation).getName()) && !files[i].delete()) {
+                logger.info("Cannot delete old gzip variants: " + files[i]);
+            }
+        }
+    }
+
+    private long liveVariantsLength() {
+        long length = 0;
+        for (Record record : records.values()) {
+            length += Math.max(record.gzipLength, 0);
+        }
+        return length;
+    }
+
+    private File variantsFile(int gen) {
+        return new File(dir, "variants-" + gen + ".dat");
+    }
+
+    private static void writeIndex(File file, int gen) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(VERSION).putInt(gen);
+        Files.write(file.toPath(), header.array());
+    }
+
+    private static ByteBuffer toBytes(Record record) {
+        byte[] path = record.path.getBytes(StandardCharsets.UTF_8);
+        int length = 4 + path.length + 8 * 4 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length).putInt(path.length).put(path).putLong(record.length).putLong(record.lastModified)
+              .putLong(record.hits).putLong(record.gzipOffset).putInt(record.gzipLength);
+        buffer.flip();
+        return buffer;
+    }
+
+    // Reads a whole record of the given length, checking its fields
+    private static Record readRecord(ByteBuffer buffer, int length, File indexFile) throws IOException {
+        int pathLength = buffer.getInt();
+        if (pathLength < 0 || pathLength != length - (4 + 8 * 4 + 4)) {
+            throw new IOException("Invalid cache index record at " + (buffer.position() - 8) + ": " + indexFile);
+        }
+        byte[] path = new byte[pathLength];
+        buffer.get(path);
+        Record record = new Record(new String(path, StandardCharsets.UTF_8), buffer.getLong(), buffer.getLong(),
+                buffer.getLong(), buffer.getLong(), buffer.getInt());
+        if (record.gzipOffset < 0 || record.gzipLength < NOT_CHECKED) {
+            throw new IOException("Invalid cache index record: " + record.path + " in " + indexFile);
+        }
+        return record;
+    }
+
+    // Last record of a file
+    private static class Record {
+        private final String path;
+        private final long length;
+        private final long lastModified;
+        private final long hits;
+        private final long gzipOffset;
+        private final int gzipLength;
+
+        Record(String path, long length, long lastModified, long hits, long gzipOffset, int gzipLength) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hits = hits;
+            this.gzipOffset = gzipOffset;
+            this.gzipLength = gzipLength;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * CachePolicy: Caching headers of the files served
+ */
+
+package webserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Caching headers (Cache-Control and Expires) of the files served, so the
+ * repeat requests are answered by the browser and CDN caches. The rules are
+ * "pattern=directive" pairs separated by commas, the first rule that matches
+ * a file is applied:
+ * - pattern: a path glob if it starts with "/" ("*" within a segment, "**"
+ *   across segments, "?" a character), a mime type if it has a "/" (e.g.
+ *   "image/*") or else an extension (e.g. "css")
+ * - directive: "no-store", "no-cache" or the seconds of max-age, followed by
+ *   " immutable" if the file never changes under its name
+ * The files whose name has a content hash (e.g. "app.3f2a9c1b.js") are cached
+ * for the fingerprinted max-age as immutable, before any rule
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class CachePolicy {
+
+    // A dot or dash, 8 or more hex digits (with a digit) and the extension
+    private static final Pattern FINGERPRINTED = Pattern.compile(".*[.-](?=[0-9a-fA-F]*[0-9])[0-9a-fA-F]{8,64}\\.[0-9A-Za-z]+");
+    private static final Logger logger = LogManager.getLogger(CachePolicy.class.getName());
+    private final List<Rule> rules = new ArrayList<>();
+    private final Rule fingerprinted;
+
+    /**
+     * Class constructor, parses the rules (an invalid rule is skipped)
+     * @param rules                 Rules, "pattern=directive" pairs separated by commas
+     * @param fingerprintedMaxAge   Seconds of max-age of the fingerprinted files (0 = not detected)
+     */
+    public CachePolicy(String rules, int fingerprintedMaxAge) {
+        for (String rule : rules.split(",")) {
+            if (rule.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = rule.trim().split("=", 2);
+            Rule parsed = (parts.length == 2 && !parts[0].trim().isEmpty()) ? parse(parts[0].trim(), parts[1].trim()) : null;
+            if (parsed == null) {
+                logger.warn("Invalid cache policy skipped: " + rule);
+            } else {
+                this.rules.add(parsed);
+                logger.info("Cache policy: " + parts[0].trim() + " -> " + parsed.getCacheControl());
+            }
+        }
+        this.fingerprinted = (fingerprintedMaxAge > 0) ? new Rule(null, fingerprintedMaxAge, true, null) : null;
+    }
+
+    /**
+     * Get Number of rules
+     * @return int
+     */
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Finds the caching headers of a file
+     * @param requestPath   Request path of the file
+     * @param mimeType      Mime type of the file ("" = unknown)
+     * @return Rule         Rule or null if no caching headers are sent
+     */
+    public Rule lookup(String requestPath, String mimeType) {
+        int query = requestPath.indexOf('?');
+        String path = (query < 0) ? requestPath : requestPath.substring(0, query);
+        int slash = path.lastIndexOf('/');
+        String name = path.substring(slash + 1);
+        if (fingerprinted != null && FINGERPRINTED.matcher(name).matches()) {
+            return fingerprinted;
+        }
+        if (rules.isEmpty()) {
+            return null;
+        }
+        int dot = name.lastIndexOf('.');
+        String extension = (dot < 0) ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        for (Rule rule : rules) {
+            if (rule.matches(path, extension, mimeType)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private static Rule parse(String pattern, String directive) {
+        String[] words = directive.toLowerCase(Locale.ROOT).split("\\s+");
+        boolean immutable = words.length == 2 && "immutable".equals(words[1]);
+        if (words.length > 2 || (words.length == 2 && !immutable)) {
+            return null;
+        }
+        if ("no-store".equals(words[0]) || "no-cache".equals(words[0])) {
+            return immutable ? null : new Rule(pattern, -1, false, words[0]);
+        }
+        try {
+            int maxAge = Integer.parseInt(words[0]);
+            return (maxAge < 0) ? null : new Rule(pattern, maxAge, immutable, null);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Regular expression of a path glob
+    private static Pattern glob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Caching headers of the files that match a pattern
+     */
+    public static class Rule {
+
+        private final Pattern pathGlob;
+        private final String mimeType;
+        private final String extension;
+        private final int maxAge;
+        private final String cacheControl;
+
+        Rule(String pattern, int maxAge, boolean immutable, String directive) {
+            if (pattern == null) {  // Fingerprinted files
+                pathGlob = null;
+                mimeType = null;
+                extension = null;
+            } else if (pattern.startsWith("/")) {
+                pathGlob = glob(pattern);
+                mimeType = null;
+                extension = null;
+            } else if (pattern.indexOf('/') > 0) {
+                pathGlob = null;
+                mimeType = pattern.toLowerCase(Locale.ROOT);
+                extension = null;
+            } else {
+                pathGlob = null;
+                mimeType = null;
+                extension = (pattern.startsWith(".") ? pattern.substring(1) : pattern).toLowerCase(Locale.ROOT);
+            }
+            this.maxAge = maxAge;
+            this.cacheControl = (directive != null) ? directive
+                    : "public, max-age=" + maxAge + (immutable ? ", immutable" : "");
+        }
+
+        /**
+         * Get Value of the Cache-Control header
+         * @return String
+         */
+        public String getCacheControl() {
+            return cacheControl;
+        }
+
+        /**
+         * Get Seconds of max-age (-1 = no-store or no-cache, without Expires)
+         * @return int
+         */
+        public int getMaxAge() {
+            return maxAge;
+        }
+
+        /**
+         * Gets the value of the Expires header, for the HTTP/1.0 caches
+         * @param now       Current time (milliseconds)
+         * @return String   Expires date or null if the rule has no max-age
+         */
+        public String getExpires(long now) {
+            return (maxAge < 0) ? null : Response.httpDate(now + maxAge * 1000L);
+        }
+
+        boolean matches(String path, String fileExtension, String fileMimeType) {
+            if (pathGlob != null) {
+                return pathGlob.matcher(path).matches();
+            }
+            if (mimeType != null) {
+                String type = fileMimeType.toLowerCase(Locale.ROOT);
+                return mimeType.endsWith("/*") ? type.startsWith(mimeType.substring(0, mimeType.length() - 1))
+                        : mimeType.equals(type);
+            }
+            return extension.equals(fileExtension);
+        }
+    }
+}
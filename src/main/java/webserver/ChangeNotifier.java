@@ -0,0 +1,404 @@
+/**
+ * ChangeNotifier: Streams the changes of the document root to its subscribers
+ */
+
+package webserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Streams the changes of the document root as Server-Sent Events, so the
+ * clients are told when a file changes instead of polling it. A thread waits
+ * on a WatchService of the document root (every directory, the new ones
+ * included) and publishes an event per change:
+ * - "create", "modify" or "delete" with the request path as data
+ * - "reset" when changes were lost (e.g. the watch overflowed or the client
+ *   asks for events older than the history): the client reloads everything
+ * The subscribers are not held by the workers: a worker reserves a slot of
+ * the MAX_SUBSCRIBERS (or answers "503 Service Unavailable" before sending
+ * any header), and once the headers are sent it hands off the connection to
+ * a single selector thread, which writes
+ * every event to all the subscribers in non-blocking mode and sends a comment
+ * every HEARTBEAT to keep the idle connections open. The ids of the events
+ * are "EPOCH-SEQUENCE", the epoch of this run and a sequence from 1, so an id
+ * of a previous run is never taken for one of this run. A subscriber that
+ * reconnects with "Last-Event-ID" gets the events it missed from the last
+ * HISTORY events (or a "reset" if the id is older or of another run), and a
+ * subscriber that does not read MAX_PENDING bytes of events is disconnected
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ChangeNotifier {
+
+    /**
+     * Max subscribers at the same time
+     */
+    public static final int MAX_SUBSCRIBERS = 65536;
+
+    /**
+     * Events kept for the subscribers that reconnect
+     */
+    public static final int HISTORY = 1024;
+
+    /**
+     * Seconds a client waits to subscribe again when there are MAX_SUBSCRIBERS
+     */
+    public static final int FULL_RETRY_AFTER = 30;
+
+    private static final int MAX_PENDING = 65536;
+    private static final long HEARTBEAT = TimeUnit.SECONDS.toNanos(30);
+    private static final long RETRY_MILLIS = 3000;
+    private static final ByteBuffer PING = ByteBuffer.wrap(": ping\n\n".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    private static final Logger logger = LogManager.getLogger(ChangeNotifier.class.getName());
+    private final Path root;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final Selector selector;
+    private final Queue<Subscriber> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    private final Event[] history = new Event[HISTORY];
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final ByteBuffer scratch = ByteBuffer.allocate(1024);
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private long lastId = 0;
+    private long lastSent = 0;
+    private long nextHeartbeat = System.nanoTime() + HEARTBEAT;
+
+    /**
+     * Class constructor, watches the document root and starts the watcher
+     * and selector threads
+     * @param documentRoot  Document root directory
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public ChangeNotifier(File documentRoot) throws IOException {
+        this.root = documentRoot.toPath().toAbsolutePath().normalize();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.selector = Selector.open();
+        registerAll(root);
+        logger.info("Change notifier: " + directories.size() + " directories watched");
+        Thread watcher = new Thread(this::watch, "change-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        Thread notifier = new Thread(this::notifySubscribers, "change-notifier");
+        notifier.setDaemon(true);
+        notifier.start();
+    }
+
+    /**
+     * Get Number of subscribers
+     * @return int
+     */
+    public int getSubscribers() {
+        return subscribers.get();
+    }
+
+    /**
+     * Reserves the slot of a subscriber, before the headers of the event
+     * stream are sent. The slot is taken by subscribe() or given back by
+     * release()
+     * @return boolean      False if there are MAX_SUBSCRIBERS
+     */
+    public boolean reserve() {
+        if (subscribers.incrementAndGet() > MAX_SUBSCRIBERS) {
+            subscribers.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back a slot reserved for a subscriber that is not handed off
+     */
+    public void release() {
+        subscribers.decrementAndGet();
+    }
+
+    /**
+     * Hands off a subscriber with a reserved slot, once the headers of the
+     * event stream are sent. The connection is closed when the client goes away
+     * @param channel       Connection of the client (in blocking mode, with no operation in progress)
+     * @param lastEventId   Id of the last event received by the client (null = new subscriber)
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void subscribe(SocketChannel channel, String lastEventId) throws IOException {
+        try {
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            subscribers.decrementAndGet();
+            channel.close();
+            throw e;
+        }
+        pending.add(new Subscriber(channel, lastEventId));
+        selector.wakeup();
+    }
+
+    // Watcher thread: publishes the changes of the directories watched
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = directories.get(key);
+            Set<String> published = new HashSet<>();  // Once per change in a batch of events
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                    publish("reset", "/", false);
+                    continue;
+                }
+                Path path = directory.resolve((Path) event.context());
+                if (path.getFileName().toString().startsWith(Upload.TEMP_PREFIX)) {
+                    continue;
+                }
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    registerAll(path);
+                }
+                String type = (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) ? "create"
+                        : (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) ? "delete" : "modify";
+                String requestPath = "/" + root.relativize(path).toString().replace(File.separatorChar, '/');
+                if (published.add(type + " " + requestPath)) {
+                    publish(type, requestPath, true);
+                }
+            }
+            if (!key.reset()) {  // Directory deleted
+                directories.remove(key);
+            }
+        }
+    }
+
+    private void registerAll(Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    directories.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Cannot watch: " + start, e);
+        }
+    }
+
+    private void publish(String type, String requestPath, boolean withId) {
+        long id = withId ? ++lastId : -1;
+        events.add(new Event(epoch, id, type, requestPath.replace('\r', ' ').replace('\n', ' ')));
+        selector.wakeup();
+        logger.trace("Change event: " + type + " " + requestPath);
+    }
+
+    // Selector thread: registers the new subscribers and writes the events to all of them
+    private void notifySubscribers() {
+        while (true) {
+            try {
+                selector.select(TimeUnit.NANOSECONDS.toMillis(HEARTBEAT) / 2);
+                Subscriber subscriber;
+                while ((subscriber = pending.poll()) != null) {
+                    register(subscriber);
+                }
+                Event event;
+                while ((event = events.poll()) != null) {
+                    if (event.id > 0) {
+                        history[(int) (event.id % HISTORY)] = event;
+                        lastSent = event.id;
+                    }
+                    for (SelectionKey key : selector.keys()) {
+                        send(key, event.bytes);
+                    }
+                }
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    ready(key);
+                }
+                long now = System.nanoTime();
+                if (now - nextHeartbeat >= 0) {
+                    nextHeartbeat = now + HEARTBEAT;
+                    for (SelectionKey key : selector.keys()) {
+                        send(key, PING);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Change notifier: ", e);
+            }
+        }
+    }
+
+    // Registers a subscriber and sends it the events it missed
+    private void register(Subscriber subscriber) {
+        SelectionKey key;
+        try {
+            key = subscriber.channel.register(selector, SelectionKey.OP_READ, subscriber);
+        } catch (IOException e) {
+            logger.trace("Subscriber aborted: ", e);
+            subscriber.close();
+            subscribers.decrementAndGet();
+            return;
+        }
+        send(key, ByteBuffer.wrap(("retry: " + RETRY_MILLIS + "\n\n").getBytes(StandardCharsets.UTF_8)));
+        if (subscriber.lastEventId == null) {  // New subscriber
+            return;
+        }
+        long id = sequence(subscriber.lastEventId);
+        if (id == lastSent) {
+            return;
+        }
+        Event next = (id < 0) ? null : history[(int) ((id + 1) % HISTORY)];
+        if (id < 0 || id > lastSent || next == null || next.id != id + 1) {  // Older than the history or from another run
+            send(key, new Event(epoch, -1, "reset", "/").bytes);
+            return;
+        }
+        for (long missed = id + 1; missed <= lastSent && key.isValid(); missed++) {
+            send(key, history[(int) (missed % HISTORY)].bytes);
+        }
+    }
+
+    // Sequence of an event id of this run, -1 if it is of another run or not valid
+    private long sequence(String eventId) {
+        String value = eventId.trim();
+        if (!value.startsWith(epoch + "-")) {
+            return -1;
+        }
+        try {
+            long id = Long.parseLong(value.substring(epoch.length() + 1));
+            return (id < 0) ? -1 : id;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Queues the bytes of an event for a subscriber and writes what its socket accepts
+    private void send(SelectionKey key, ByteBuffer bytes) {
+        Subscriber subscriber = (Subscriber) key.attachment();
+        ByteBuffer buffer = bytes.duplicate();
+        subscriber.queued += buffer.remaining();
+        subscriber.queue.add(buffer);
+        if (subscriber.queued > MAX_PENDING) {
+            logger.info("Subscriber too slow, disconnected");
+            cancel(key);
+            return;
+        }
+        flush(key);
+    }
+
+    private void ready(SelectionKey key) {
+        try {
+            if (key.isValid() && key.isReadable()) {  // Nothing expected but the end of the connection
+                scratch.clear();
+                if (((Subscriber) key.attachment()).channel.read(scratch) < 0) {
+                    cancel(key);
+                    return;
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(key);
+            }
+        } catch (IOException | CancelledKeyException e) {
+            logger.trace("Subscriber aborted: ", e);
+            cancel(key);
+        }
+    }
+
+    private void flush(SelectionKey key) {
+        Subscriber subscriber = (Subscriber) key.attachment();
+        try {
+            while (!subscriber.queue.isEmpty()) {
+                ByteBuffer buffer = subscriber.queue.peek();
+                subscriber.queued -= subscriber.channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                subscriber.queue.poll();
+            }
+            if (key.isValid()) {
+                key.interestOps(subscriber.queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException | CancelledKeyException e) {
+            logger.trace("Subscriber aborted: ", e);
+            cancel(key);
+        }
+    }
+
+    private void cancel(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        key.cancel();
+        ((Subscriber) key.attachment()).close();
+        subscribers.decrementAndGet();
+    }
+
+    // Event of the stream, its bytes shared by all the subscribers
+    private static final class Event {
+
+        private final long id;
+        private final ByteBuffer bytes;
+
+        Event(String epoch, long id, String type, String data) {
+            this.id = id;
+            String text = ((id > 0) ? "id: " + epoch + "-" + id + "\n" : "") + "event: " + type + "\ndata: " + data + "\n\n";
+            this.bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        }
+    }
+
+    // Connection of a subscriber and the bytes not written yet
+    private static final class Subscriber {
+
+        private final SocketChannel channel;
+        private final String lastEventId;
+        private final Deque<ByteBuffer> queue = new ArrayDeque<>();
+        private int queued = 0;
+
+        Subscriber(SocketChannel channel, String lastEventId) {
+            this.channel = channel;
+            this.lastEventId = lastEventId;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.trace("Subscriber close: ", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * ClusterCache: Cache of the files shared by the nodes of a cluster
+ */
+
+package webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Cache of the files shared by the nodes of a cluster, which serve the same
+ * document root (shared, or copied with its modification times). The nodes
+ * form a consistent-hash ring over the peers, with VIRTUAL_NODES points per
+ * peer, and every file (its host name and path) is owned by one of them: the
+ * owner keeps the file in memory, within the cache size of the cluster, and
+ * the other nodes fetch it from the owner on a cache miss, so the memory of
+ * the cluster holds each file once and a node added or removed moves only
+ * its share of the files. A file is taken from the owner only if its ETag
+ * matches the local one, else (or if the owner is down or all the
+ * connections to it are busy) it is read from disk. The connections to a
+ * peer are bounded: a pool of keep-alive connections and at most that many
+ * concurrent fetches
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ClusterCache {
+
+    /**
+     * Header of the requests of a peer, which are never sent to another peer
+     */
+    public static final String PEER_HEADER = "X-Cluster-Peer";
+
+    /**
+     * Points of a peer in the ring
+     */
+    public static final int VIRTUAL_NODES = 128;
+
+    /**
+     * Connect and read timeout of a peer (milliseconds)
+     */
+    public static final int PEER_TIMEOUT = 2000;
+
+    // Time a peer that failed is not asked again
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toNanos(5);
+    private static final Logger logger = LogManager.getLogger(ClusterCache.class.getName());
+    private final String self;
+    private final long cacheSize;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Map<String, Peer> peers = new HashMap<>();
+
+    /**
+     * Class constructor
+     * @param self          Host and port of this node
+     * @param peers         Host and port of the peers, this node included
+     * @param connections   Max concurrent connections to a peer
+     * @param cacheSize     Max bytes of the files owned by this node kept in memory
+     */
+    public ClusterCache(String self, List<String> peers, int connections, long cacheSize) {
+        this.self = self;
+        this.cacheSize = cacheSize;
+        for (String peer : peers) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(peer + "#" + i), peer);
+            }
+            if (!peer.equals(self)) {
+                int colon = peer.lastIndexOf(':');
+                if (colon <= 0) {
+                    throw new WebServerException("Invalid cluster peer: " + peer);
+                }
+                this.peers.put(peer, new Peer(new UpstreamConnectionPool(peer.substring(0, colon),
+                        Integer.parseInt(peer.substring(colon + 1)), connections, PEER_TIMEOUT), connections));
+            }
+        }
+    }
+
+    /**
+     * Get Host and port of this node
+     * @return String
+     */
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * Gets the peer that owns a file
+     * @param host      Site of the file
+     * @param path      Request path of the file
+     * @return String   Host and port of the owner
+     */
+    public String getOwner(VirtualHost host, String path) {
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(host.getName() + path));
+        return ((point != null) ? point : ring.firstEntry()).getValue();
+    }
+
+    /**
+     * Gets the content of a file in memory: preloaded if this node owns it,
+     * else fetched from its owner
+     * @param host          Site of the file
+     * @param requestUri    Request URI of the file
+     * @param entry         Entry of the file
+     * @param hostHeader    Host header of the request (null if none)
+     * @param fromPeer      Request of a peer
+     * @return byte[]       Content or null if it has to be read from disk
+     */
+    public byte[] getContent(VirtualHost host, String requestUri, FileEntry entry, String hostHeader, boolean fromPeer) {
+        byte[] content = entry.getContent();
+        if (content != null || entry.getLength() > Math.min(cacheSize, ProxyHandler.MAX_BODY_SIZE)) {
+            return content;
+        }
+        int query = requestUri.indexOf('?');
+        String path = (query < 0) ? requestUri : requestUri.substring(0, query);
+        String owner = getOwner(host, path);
+        if (owner.equals(self)) {
+            host.getFileCache().preload(entry, host.getPreloadSize() + cacheSize);
+            return entry.getContent();
+        }
+        if (fromPeer) {  // The peer has another ring: not sent further
+            return null;
+        }
+        return fetch(peers.get(owner), path, (hostHeader != null) ? hostHeader : owner, entry);
+    }
+
+    // Fetches a file from its owner, null if it is not available
+    private byte[] fetch(Peer peer, String path, String hostHeader, FileEntry entry) {
+        if (System.nanoTime() < peer.retryAt || !peer.permits.tryAcquire()) {  // Down or busy: from disk
+            return null;
+        }
+        UpstreamConnectionPool.Connection connection = null;
+        try {
+            connection = peer.pool.borrow();
+            OutputStream output = connection.getOutput();
+            output.write(("GET " + path + " HTTP/1.1\r\nHost: " + hostHeader + "\r\n" + PEER_HEADER + ": " + self
+                    + "\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            output.flush();
+            byte[] content = readResponse(peer, connection, entry);
+            connection = null;
+            logger.trace("Cluster " + ((content != null) ? "hit: " : "miss: ") + peer.pool.getAuthority() + path);
+            return content;
+        } catch (IOException e) {
+            if (connection == null || !connection.isReused()) {
+                peer.retryAt = System.nanoTime() + RETRY_DELAY;
+                logger.info("Cluster peer not available: " + peer.pool.getAuthority(), e);
+            }
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+            peer.permits.release();
+        }
+    }
+
+    // Reads the response of the owner: the content if it is the same version of the file
+    private static byte[] readResponse(Peer peer, UpstreamConnectionPool.Connection connection, FileEntry entry) throws IOException {
+        InputStream input = connection.getInput();
+        String statusLine;
+        Map<String, String> headers;
+        do {  // Interim responses (103 Early Hints) are skipped
+            statusLine = ProxyHandler.readLine(input);
+            if (statusLine == null || !statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+                throw new IOException("Invalid peer status line: " + statusLine);
+            }
+            headers = ProxyHandler.readHeaders(input);
+        } while (statusLine.charAt(9) == '1');
+
+        if (!statusLine.startsWith("200", 9) || !entry.getEtag().equals(headers.get("etag"))
+                || headers.containsKey("content-encoding")
+                || !Long.toString(entry.getLength()).equals(headers.get("content-length"))) {
+            connection.close();
+            return null;
+        }
+        byte[] content = ProxyHandler.readFully(input, entry.getLength());
+        if (statusLine.startsWith("HTTP/1.1") && !"close".equalsIgnoreCase(headers.get("connection"))) {
+            peer.pool.release(connection);
+        } else {
+            connection.close();
+        }
+        return content;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new WebServerException("MD5 not available", e);
+        }
+    }
+
+    /**
+     * Peer of the cluster, with its bounded connections
+     */
+    private static class Peer {
+
+        private final UpstreamConnectionPool pool;
+        private final Semaphore permits;
+        private volatile long retryAt = 0;
+
+        Peer(UpstreamConnectionPool pool, int connections) {
+            this.pool = pool;
+            this.permits = new Semaphore(Math.max(connections, 1));
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/**
+ * ContentPack: Document root packed in a single indexed file
+ */
+
+package webserver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Document root packed in a single indexed file, served memory-mapped with a
+ * hash index instead of the file system. Layout (big-endian):
+ * <pre>
+ * header: magic "WSPK", version, number of entries, length of the index
+ * index:  per entry path, flags, mime type, last modified, etag,
+ *         offset and length of the content and of the gzip variant
+ * data:   contents (offsets are relative to the start of the data)
+ * </pre>
+ * The content of a directory is the list of its children, one per line. A
+ * pack is checked on open: a truncated or corrupt pack (counts, lengths or
+ * offsets out of the file) is refused with an IOException
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ContentPack {
+
+    private static final int MAGIC = 0x5753504B;  // "WSPK"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final int FLAG_DIRECTORY = 0x1;
+    // Bytes of an index entry with empty strings: 3 lengths, flags, last modified, 2 offsets and 2 lengths
+    private static final int MIN_ENTRY_LENGTH = 3 * 4 + 1 + 8 + 4 * 8;
+    static final int GZIP_MIN_LENGTH = 256;
+    private static final Logger logger = LogManager.getLogger(ContentPack.class.getName());
+    private final Map<String, ContentPackEntry> entries;
+
+    private ContentPack(Map<String, ContentPackEntry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Opens a content pack, mapping it in memory
+     * @param packFile      Content pack file
+     * @throws IOException If an input or output
+     *                     exception occurred, or the pack is not valid
+     * @return ContentPack
+     */
+    public static ContentPack open(File packFile) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(packFile, "r");
+             FileChannel channel = file.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Content pack larger than 2 GB: " + packFile);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a content pack: " + packFile);
+        }
+        int count = buffer.getInt();
+        int indexLength = buffer.getInt();
+        if (indexLength < 0 || indexLength > buffer.capacity() - HEADER_LENGTH
+                || count < 0 || count > indexLength / MIN_ENTRY_LENGTH) {
+            throw new IOException("Content pack truncated or corrupt: " + packFile);
+        }
+        int dataStart = HEADER_LENGTH + indexLength;
+        buffer.limit(dataStart);  // The index entries are read within the index
+
+        Map<String, ContentPackEntry> entries = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String path = readString(buffer, packFile);
+            require(buffer, 1, packFile);
+            int flags = buffer.get();
+            String mimeType = readString(buffer, packFile);
+            require(buffer, 8, packFile);
+            long lastModified = buffer.getLong();
+            String etag = readString(buffer, packFile);
+            require(buffer, 4 * 8, packFile);
+            ByteBuffer content = slice(buffer, dataStart, buffer.getLong(), buffer.getLong(), packFile);
+            long gzipOffset = buffer.getLong();
+            long gzipLength = buffer.getLong();
+            ByteBuffer gzipContent = (gzipLength < 0) ? null : slice(buffer, dataStart, gzipOffset, gzipLength, packFile);
+            entries.put(path, new ContentPackEntry(path, (flags & FLAG_DIRECTORY) != 0, mimeType,
+                    lastModified, etag, content, gzipContent));
+        }
+        logger.info("Content pack " + packFile + ": " + count + " entries, " + buffer.capacity() + " bytes");
+        return new ContentPack(entries);
+    }
+
+    /**
+     * Looks up an entry by its key
+     * @param key               Path relative to the document root, see {@link #key(String)}
+     * @return ContentPackEntry Entry or null if not packed
+     */
+    public ContentPackEntry lookup(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Get Entries of the pack
+     * @return Collection<ContentPackEntry>
+     */
+    public Collection<ContentPackEntry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Get the key of a request URI, normalized as the document root
+     * path of the file system (no parent paths, no leading or trailing slashes)
+     * @param requestUri    Request URI
+     * @return String
+     */
+    public static String key(String requestUri) {
+        String path = requestUri.replace("..", "");
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end).replaceAll("/{2,}", "/");
+    }
+
+    /**
+     * Get the key of the parent directory of a key
+     * @param key       Key of an entry
+     * @return String
+     */
+    public static String parentKey(String key) {
+        int slash = key.lastIndexOf('/');
+        return (slash < 0) ? "" : key.substring(0, slash);
+    }
+
+    /**
+     * Packs a document root. The pack is written to a temporary file and then
+     * renamed, so a server reading the previous pack can swap it atomically
+     * @param documentRoot  Document root directory
+     * @param packFile      Content pack file
+     * @throws IOException If an input or output
+     *                     exception occurred
+     * @return int          Number of entries
+     */
+    public static int write(File documentRoot, File packFile) throws IOException {
+        File dir = packFile.getAbsoluteFile().getParentFile();
+        File dataFile = File.createTempFile("pack", ".data", dir);
+        File tmpFile = File.createTempFile("pack", ".tmp", dir);
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        int count;
+
+        try {
+            try (DataOutputStream index = new DataOutputStream(indexBytes);
+                 OutputStream data = new BufferedOutputStream(new FileOutputStream(dataFile))) {
+                count = writeTree(documentRoot, "", index, new long[] {0}, data);
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                out.writeInt(indexBytes.size());
+                indexBytes.writeTo(out);
+                Files.copy(dataFile.toPath(), out);
+            }
+            Files.move(tmpFile.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(dataFile.toPath());
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+        return count;
+    }
+
+    // Packs a directory and its tree, depth first; position[0] is the data offset
+    private static int writeTree(File dir, String path, DataOutputStream index, long[] position,
+            OutputStream data) throws IOException {
+        String[] names = dir.list();
+        names = (names == null) ? new String[0] : names;
+        Arrays.sort(names);
+        StringBuilder children = new StringBuilder();
+        int count = 1;
+
+        for (String name : names) {
+            File f = new File(dir, name);
+            if (f.isHidden()) {
+                continue;
+            }
+            children.append(name).append(f.isDirectory() ? "/" : "").append('\n');
+        }
+        byte[] listing = children.toString().getBytes(StandardCharsets.UTF_8);
+        writeEntry(index, path, FLAG_DIRECTORY, "", dir.lastModified(), "", position[0], listing.length, 0, -1);
+        data.write(listing);
+        position[0] += listing.length;
+
+        for (String name : names) {
+            File f = new File(dir, name);
+            String childPath = path.isEmpty() ? name : path + "/" + name;
+            if (f.isHidden()) {
+                continue;
+            }
+            if (f.isDirectory()) {
+                count += writeTree(f, childPath, index, position, data);
+            } else if (f.isFile()) {
+                writeFile(f, childPath, index, position, data);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void writeFile(File f, String path, DataOutputStream index, long[] position,
+            OutputStream data) throws IOException {
+        String mimeType = Response.getMimeTypeByExtension(f);
+        long lastModified = f.lastModified();
+        long offset = position[0];
+        long length = 0;
+        CRC32 crc = new CRC32();
+        boolean compressible = isCompressible(mimeType) && f.length() >= GZIP_MIN_LENGTH;
+        ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream();
+
+        try (InputStream is = new FileInputStream(f);
+             GZIPOutputStream gzip = new GZIPOutputStream(gzipBytes)) {
+            byte[] buffer = new byte[ServerSettings.FILE_BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                data.write(buffer, 0, read);
+                crc.update(buffer, 0, read);
+                if (compressible) {
+                    gzip.write(buffer, 0, read);
+                }
+                length += read;
+            }
+        }
+        position[0] += length;
+
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(length) + "\"";
+        long gzipOffset = 0;
+        long gzipLength = -1;
+        if (compressible && gzipBytes.size() < length) {  // Keep the variant only if it is smaller
+            gzipOffset = position[0];
+            gzipLength = gzipBytes.size();
+            gzipBytes.writeTo(data);
+            position[0] += gzipLength;
+        }
+        writeEntry(index, path, 0, mimeType, lastModified, etag, offset, length, gzipOffset, gzipLength);
+    }
+
+    private static void writeEntry(DataOutputStream index, String path, int flags, String mimeType,
+            long lastModified, String etag, long offset, long length, long gzipOffset, long gzipLength) throws IOException {
+        writeString(index, path);
+        index.writeByte(flags);
+        writeString(index, mimeType);
+        index.writeLong(lastModified);
+        writeString(index, etag);
+        index.writeLong(offset);
+        index.writeLong(length);
+        index.writeLong(gzipOffset);
+        index.writeLong(gzipLength);
+    }
+
+    static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.endsWith("/javascript") || mimeType.endsWith("/xml");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Throws if the index has not the bytes of the next field
+    private static void require(ByteBuffer buffer, int length, File packFile) throws IOException {
+        if (buffer.remaining() < length) {
+            throw new IOException("Content pack truncated or corrupt: " + packFile);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, File packFile) throws IOException {
+        require(buffer, 4, packFile);
+        int length = buffer.getInt();
+        if (length < 0) {
+            throw new IOException("Content pack truncated or corrupt: " + packFile);
+        }
+        require(buffer, length, packFile);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Content at an offset of the data, which has to be within the file
+    private static ByteBuffer slice(ByteBuffer buffer, int dataStart, long offset, long length, File packFile)
+            throws IOException {
+        if (offset < 0 || length < 0 || offset > buffer.capacity() - dataStart
+                || length > buffer.capacity() - dataStart - offset) {
+            throw new IOException("Content pack truncated or corrupt: " + packFile);
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(buffer.capacity());
+        slice.position((int) (dataStart + offset));
+        slice.limit((int) (dataStart + offset + length));
+        return slice.slice();
+    }
+}
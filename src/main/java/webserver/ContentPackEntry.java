@@ -0,0 +1,113 @@
+/**
+ * ContentPackEntry: Entry of a content pack
+ */
+
+package webserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Entry of a content pack: a file or a directory of the packed document
+ * root, with its content mapped in memory
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ContentPackEntry {
+
+    private final String path;
+    private final boolean directory;
+    private final String mimeType;
+    private final long lastModified;
+    private final String etag;
+    private final ByteBuffer content;
+    private final ByteBuffer gzipContent;
+
+    /**
+     * Class constructor
+     * @param path          Path relative to the document root, "/" separated
+     * @param directory     true = directory / false = file
+     * @param mimeType      Mime type ("" if unknown)
+     * @param lastModified  Last modification time of the packed file
+     * @param etag          Entity tag of the content
+     * @param content       Content (children names for a directory)
+     * @param gzipContent   Content compressed with gzip or null
+     */
+    public ContentPackEntry(String path, boolean directory, String mimeType, long lastModified,
+            String etag, ByteBuffer content, ByteBuffer gzipContent) {
+        this.path = path;
+        this.directory = directory;
+        this.mimeType = mimeType;
+        this.lastModified = lastModified;
+        this.etag = etag;
+        this.content = content;
+        this.gzipContent = gzipContent;
+    }
+
+    /**
+     * Get Path relative to the document root
+     * @return String
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Tests if the entry is a directory
+     * @return boolean
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get Mime type ("" if unknown)
+     * @return String
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Get Last modification time of the packed file
+     * @return long
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get Entity tag of the content
+     * @return String
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Get Content, as a new buffer that the caller can consume
+     * @return ByteBuffer
+     */
+    public ByteBuffer getContent() {
+        return content.duplicate();
+    }
+
+    /**
+     * Get Content compressed with gzip, as a new buffer that the caller can consume
+     * @return ByteBuffer   Content or null if there is no compressed variant
+     */
+    public ByteBuffer getGzipContent() {
+        return (gzipContent == null) ? null : gzipContent.duplicate();
+    }
+
+    /**
+     * Get Names of the children of a directory, "/" terminated for directories
+     * @return String[]
+     */
+    public String[] getChildren() {
+        ByteBuffer buffer = getContent();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        String names = new String(bytes, StandardCharsets.UTF_8);
+        return names.isEmpty() ? new String[0] : names.split("\n");
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * ContentPackHolder: Holds the current content pack of the Web Server
+ */
+
+package webserver;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Holds the current content pack of the Web Server. A new release is deployed
+ * by renaming a new pack over the pack file: the holder notices the new last
+ * modification time and swaps the pack, while requests in progress keep
+ * serving from the previous mapping. A new pack that cannot be opened
+ * (truncated or corrupt) is logged and the previous pack is still served,
+ * until the pack file changes again
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ContentPackHolder {
+
+    private static final long CHECK_INTERVAL = 1000;
+    private static final Logger logger = LogManager.getLogger(ContentPackHolder.class.getName());
+    private final File packFile;
+    private volatile ContentPack pack;
+    private volatile long lastModified;
+    private volatile long lastCheck;
+
+    /**
+     * Class constructor
+     * @param packFile      Content pack file
+     */
+    public ContentPackHolder(File packFile) {
+        this.packFile = packFile;
+    }
+
+    /**
+     * Get Content pack file
+     * @return File
+     */
+    public File getPackFile() {
+        return packFile;
+    }
+
+    /**
+     * Get Current content pack, reopened if the pack file has been replaced
+     * @throws IOException If the first pack cannot be opened
+     * @return ContentPack
+     */
+    public ContentPack get() throws IOException {
+        long now = System.currentTimeMillis();
+        if (pack == null || now - lastCheck >= CHECK_INTERVAL) {
+            reload(now);
+        }
+        return pack;
+    }
+
+    private synchronized void reload(long now) throws IOException {
+        if (pack != null && now - lastCheck < CHECK_INTERVAL) {  // Reloaded by another thread
+            return;
+        }
+        long modified = packFile.lastModified();
+        if (pack == null || modified != lastModified) {
+            ContentPack newPack;
+            try {
+                newPack = ContentPack.open(packFile);
+            } catch (IOException e) {
+                if (pack == null) {
+                    throw e;
+                }
+                logger.error("Content pack not reloaded, serving the previous one: " + packFile, e);
+                newPack = pack;
+            }
+            if (newPack != pack && pack != null) {
+                logger.info("Content pack reloaded: " + packFile);
+            }
+            pack = newPack;
+            lastModified = modified;
+        }
+        lastCheck = now;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * ContentPackTool: Main class packs a document root in a content pack
+ */
+
+package webserver;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Main class packs a document root in a content pack
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ContentPackTool {
+    private static final Logger logger = LogManager.getLogger(ContentPackTool.class.getName());
+
+    /**
+     * Runs Content Pack Tool Application
+     * @param args  Document root directory and content pack file
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            logger.error("Usage: ContentPackTool <document root> <content pack file>");
+            System.exit(-1);
+        }
+        File documentDir = new File(args[0]);
+        if (!documentDir.isDirectory()) {
+            logger.error("No exists Document Root [" + documentDir.getAbsolutePath() + "]");
+            System.exit(-1);
+        }
+        try {
+            int entries = ContentPack.write(documentDir, new File(args[1]));
+            logger.info("Content pack " + args[1] + ": " + entries + " entries");
+        } catch (IOException e) {
+            logger.error("Content pack not written", e);
+            System.exit(-1);
+        }
+    }
+
+    private ContentPackTool() {
+        throw new IllegalAccessError("Utility class");
+    }
+}
@@ -0,0 +1,297 @@
+/**
+ * FileCache: Caches the metadata and content of the files of the document root
+ */
+
+package webserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Caches the metadata (type, length, mime type) of the files of the document
+ * root and, for some of them, their content. An entry is valid while the last
+ * modification time and the length of its file do not change, so a lookup
+ * costs two file system calls instead of the several exists/isFile/isHidden
+ * calls. With a cache index, the entries of the files are restored from it
+ * and written to it, and the files have gzip variants. Every virtual host has
+ * its own cache, with its own max number of entries: when it is full, the
+ * least hit entries (a sixteenth of them) are evicted
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class FileCache {
+
+    /**
+     * Max number of entries of a cache by default
+     */
+    public static final int MAX_ENTRIES = 65536;
+
+    // Fraction of the entries evicted when the cache is full
+    private static final int EVICTION_DIVISOR = 16;
+    private static final Logger logger = LogManager.getLogger(FileCache.class.getName());
+    private final Map<String, FileEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong contentSize = new AtomicLong();
+    private final int maxEntries;
+    private volatile CacheIndex index = null;
+    private final Object evictionLock = new Object();
+
+    /**
+     * Class constructor, with MAX_ENTRIES entries
+     */
+    public FileCache() {
+        this(MAX_ENTRIES);
+    }
+
+    /**
+     * Class constructor
+     * @param maxEntries    Max number of entries of the cache
+     */
+    public FileCache(int maxEntries) {
+        this.maxEntries = Math.max(maxEntries, 0);
+    }
+
+    /**
+     * Sets the persistent index of the cache
+     * @param index     Cache index (opened)
+     */
+    public void setIndex(CacheIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Get Persistent index of the cache
+     * @return CacheIndex   Cache index or null if none
+     */
+    public CacheIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the gzip variant of a file, made the first time it is asked for
+     * @param entry         Entry of the file
+     * @return ByteBuffer   Variant or null if none (or no cache index)
+     */
+    public ByteBuffer getGzipContent(FileEntry entry) {
+        CacheIndex cacheIndex = index;
+        return (cacheIndex == null) ? null : cacheIndex.gzipContent(entry);
+    }
+
+    /**
+     * Looks up a file or directory, from the cache if its entry is still valid
+     * or else from the file system
+     * @param f             File or directory
+     * @return FileEntry    Entry or null if it does not exist or it is hidden
+     */
+    public FileEntry lookup(File f) {
+        String key = f.getPath();
+        long lastModified = f.lastModified();
+        FileEntry entry = entries.get(key);
+
+        if (entry != null) {
+            if (entry.getLastModified() == lastModified && (entry.isDirectory() || entry.getLength() == f.length())) {
+                return entry;
+            }
+            remove(key, entry);
+        }
+        if (lastModified == 0L && !f.exists()) {
+            return null;
+        }
+        entry = load(f, lastModified);
+        if (entry != null) {
+            add(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the entry of a file or directory
+     * @param f         File or directory
+     */
+    public void invalidate(File f) {
+        String key = f.getPath();
+        FileEntry entry = entries.get(key);
+        if (entry != null) {
+            remove(key, entry);
+        }
+    }
+
+    /**
+     * Get Number of entries
+     * @return int
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get Entries of the cache
+     * @return Collection<FileEntry>
+     */
+    public Collection<FileEntry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Get Bytes of content preloaded in memory
+     * @return long
+     */
+    public long getContentSize() {
+        return contentSize.get();
+    }
+
+    /**
+     * Indexes a directory tree in parallel (fork-join), one task per directory
+     * @param root      Root directory
+     * @return int      Number of entries in the cache
+     */
+    public int index(File root) {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new IndexTask(root));
+        } finally {
+            pool.shutdown();
+        }
+        return entries.size();
+    }
+
+    /**
+     * Preloads in memory the content of the cached files, most hit first
+     * (hits of previous runs, with a cache index) and then smallest first,
+     * while the total size fits in the budget
+     * @param budget    Max bytes of content in memory
+     * @return long     Bytes of content in memory
+     */
+    public long preload(long budget) {
+        List<FileEntry> files = new ArrayList<>();
+        for (FileEntry entry : entries.values()) {
+            if (!entry.isDirectory() && entry.getContent() == null) {
+                files.add(entry);
+            }
+        }
+        files.sort((a, b) -> (a.getHits() != b.getHits())
+                ? Long.compare(b.getHits(), a.getHits()) : Long.compare(a.getLength(), b.getLength()));
+
+        for (FileEntry entry : files) {
+            preload(entry, budget);  // A smaller file may fit if it does not
+        }
+        return contentSize.get();
+    }
+
+    /**
+     * Preloads in memory the content of a cached file, if the total size
+     * fits in the budget
+     * @param entry     Entry of the file
+     * @param budget    Max bytes of content in memory
+     * @return boolean  True if the content is in memory
+     */
+    public boolean preload(FileEntry entry, long budget) {
+        synchronized (entry) {  // Counted once if preloaded by several workers
+            if (entry.getContent() != null) {
+                return true;
+            }
+            if (entry.isDirectory() || contentSize.get() + entry.getLength() > budget) {
+                return false;
+            }
+            try {
+                byte[] content = Files.readAllBytes(entry.getFile().toPath());
+                if (content.length == entry.getLength()) {  // Not modified while reading
+                    entry.setContent(content);
+                    contentSize.addAndGet(content.length);
+                    return true;
+                }
+            } catch (IOException e) {
+                logger.info("Preload skipped: " + entry.getFile(), e);
+            }
+            return false;
+        }
+    }
+
+    private FileEntry load(File f, long lastModified) {
+        if (f.isDirectory()) {
+            return new FileEntry(f, true, 0, lastModified);
+        }
+        if (f.isFile() && !f.isHidden()) {
+            long length = f.length();
+            CacheIndex cacheIndex = index;
+            if (cacheIndex == null) {
+                return new FileEntry(f, false, length, lastModified);
+            }
+            FileEntry entry = cacheIndex.restore(f, length, lastModified);
+            if (entry == null) {  // New or changed file
+                entry = new FileEntry(f, false, length, lastModified);
+                cacheIndex.record(entry);
+            }
+            return entry;
+        }
+        return null;
+    }
+
+    private void add(String key, FileEntry entry) {
+        if (maxEntries == 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            evict();
+        }
+        entries.put(key, entry);
+    }
+
+    // Evicts the least hit entries, once for the workers that find the cache full
+    private void evict() {
+        synchronized (evictionLock) {
+            if (entries.size() < maxEntries) {
+                return;
+            }
+            List<Map.Entry<String, FileEntry>> coldest = new ArrayList<>(entries.entrySet());
+            coldest.sort((a, b) -> Long.compare(a.getValue().getHits(), b.getValue().getHits()));
+            int count = Math.min(coldest.size(), Math.max(maxEntries / EVICTION_DIVISOR, 1));
+            for (int i = 0; i < count; i++) {
+                remove(coldest.get(i).getKey(), coldest.get(i).getValue());
+            }
+            logger.info("File cache full (" + maxEntries + " entries), " + count + " least hit entries evicted");
+        }
+    }
+
+    private void remove(String key, FileEntry entry) {
+        if (entries.remove(key, entry) && entry.getContent() != null) {
+            contentSize.addAndGet(-entry.getLength());
+        }
+    }
+
+    // Indexes a directory and forks a task for every subdirectory
+    private class IndexTask extends RecursiveAction {
+
+        private final File dir;
+
+        IndexTask(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            lookup(dir);
+            File[] children = dir.listFiles();
+            List<IndexTask> subtasks = new ArrayList<>();
+            for (int i = 0; children != null && i < children.length; i++) {
+                if (children[i].isDirectory()) {
+                    subtasks.add(new IndexTask(children[i]));
+                } else {
+                    lookup(children[i]);
+                }
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * FileEntry: Metadata of a file or directory of the document root
+ */
+
+package webserver;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metadata of a file or directory of the document root, and its content
+ * when it has been preloaded in memory. With a cache index, it also has the
+ * gzip variant of the file and its hits, which are kept across restarts. An
+ * HTML file may have the preload links of its subresources, found once for
+ * this version of the file
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class FileEntry {
+
+    private final File file;
+    private final boolean directory;
+    private final long length;
+    private final long lastModified;
+    private final String mimeType;
+    private volatile byte[] content = null;
+    private volatile ByteBuffer gzipContent = null;
+    private volatile boolean gzipChecked = false;
+    private volatile String[] preloadLinks = null;
+    private final AtomicLong hits;
+    private volatile long persistedHits;
+
+    /**
+     * Class constructor
+     * @param file          File or directory
+     * @param directory     true = directory / false = file
+     * @param length        Length of the file
+     * @param lastModified  Last modification time of the file
+     */
+    public FileEntry(File file, boolean directory, long length, long lastModified) {
+        this(file, directory, length, lastModified, 0);
+    }
+
+    /**
+     * Class constructor, with the hits of a previous run
+     * @param file          File or directory
+     * @param directory     true = directory / false = file
+     * @param length        Length of the file
+     * @param lastModified  Last modification time of the file
+     * @param hits          Times the file was served
+     */
+    public FileEntry(File file, boolean directory, long length, long lastModified, long hits) {
+        this.file = file;
+        this.hits = new AtomicLong(hits);
+        this.persistedHits = hits;
+        this.directory = directory;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.mimeType = directory ? "" : Response.getMimeTypeByExtension(file);
+    }
+
+    /**
+     * Get File or directory
+     * @return File
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Tests if the entry is a directory
+     * @return boolean
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get Length of the file
+     * @return long
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Get Last modification time of the file
+     * @return long
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get Mime type of the file ("" if unknown)
+     * @return String
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Get Content of the file preloaded in memory
+     * @return byte[]   Content or null if not preloaded
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Sets the content of the file preloaded in memory
+     * @param content   Content of the file
+     */
+    public void setContent(byte[] content) {
+        this.content = content;
+    }
+
+    /**
+     * Get Entity tag of the file, from its modification time and length
+     * @return String
+     */
+    public String getEtag() {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+    }
+
+    /**
+     * Get Gzip variant of the file
+     * @return ByteBuffer   Variant or null if none
+     */
+    public ByteBuffer getGzipContent() {
+        ByteBuffer buffer = gzipContent;
+        return (buffer == null) ? null : buffer.duplicate();
+    }
+
+    /**
+     * Tests if the gzip variant has been made (or the file is not worth it)
+     * @return boolean
+     */
+    public boolean isGzipChecked() {
+        return gzipChecked;
+    }
+
+    /**
+     * Sets the gzip variant of the file
+     * @param gzipContent   Variant or null if the file is not worth it
+     */
+    public void setGzipContent(ByteBuffer gzipContent) {
+        this.gzipContent = gzipContent;
+        this.gzipChecked = true;
+    }
+
+    /**
+     * Get Link headers that preload the subresources of the file
+     * @return String[]     Link headers or null if the file has not been analyzed
+     */
+    public String[] getPreloadLinks() {
+        return preloadLinks;
+    }
+
+    /**
+     * Sets the Link headers that preload the subresources of the file
+     * @param preloadLinks  Link headers (empty if none)
+     */
+    public void setPreloadLinks(String[] preloadLinks) {
+        this.preloadLinks = preloadLinks;
+    }
+
+    /**
+     * Counts a hit of the file
+     */
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Get Times the file was served
+     * @return long
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get Hits written to the cache index
+     * @return long
+     */
+    public long getPersistedHits() {
+        return persistedHits;
+    }
+
+    /**
+     * Sets the hits written to the cache index
+     * @param persistedHits     Hits written
+     */
+    public void setPersistedHits(long persistedHits) {
+        this.persistedHits = persistedHits;
+    }
+}
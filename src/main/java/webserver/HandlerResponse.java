@@ -0,0 +1,76 @@
+/**
+ * HandlerResponse: Response of a request handler
+ */
+
+package webserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Response of a request handler, written by the Web Server over
+ * HTTP/1.x or HTTP/2
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class HandlerResponse {
+
+    private final String status;
+    private final String contentType;
+    private final byte[] body;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+
+    /**
+     * Class constructor
+     * @param status        Status code and reason phrase (e.g. ServerSettings.HTTP_STR_OK)
+     * @param contentType   Content type of the body
+     * @param body          Body of the response
+     */
+    public HandlerResponse(String status, String contentType, byte[] body) {
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    /**
+     * Adds a header to the response
+     * @param name              Header name
+     * @param value             Header value
+     * @return HandlerResponse
+     */
+    public HandlerResponse addHeader(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * Get Status code and reason phrase
+     * @return String
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Get Content type of the body
+     * @return String
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get Body of the response
+     * @return byte[]
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Get Additional headers of the response
+     * @return Map<String, String>
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+}
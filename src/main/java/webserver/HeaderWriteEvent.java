@@ -0,0 +1,35 @@
+/**
+ * HeaderWriteEvent: JFR event of the write of the headers of a response
+ */
+
+package webserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of the write of the headers of a response
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+@Name("webserver.HeaderWrite")
+@Label("Header Write")
+@Description("Write of the status line, headers and start of the body of a response")
+@Category({"Web Server", "Request Lifecycle"})
+@StackTrace(false)
+public class HeaderWriteEvent extends Event {
+
+    @Label("URI")
+    String uri;
+
+    @Label("Status")
+    String status;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
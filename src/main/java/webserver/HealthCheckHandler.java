@@ -0,0 +1,37 @@
+/**
+ * HealthCheckHandler: Answers the health checks of the Web Server
+ */
+
+package webserver;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Answers the health checks of the Web Server (load balancers, monitoring)
+ * with a small text body, without touching the file system
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class HealthCheckHandler implements RequestHandler {
+
+    private ServerSettings serverSettings;
+
+    /**
+     * Class constructor
+     * @param serverSettings    Settings of the Web Server
+     */
+    public HealthCheckHandler(ServerSettings serverSettings) {
+        this.serverSettings = serverSettings;
+    }
+
+    @Override
+    public HandlerResponse handle(String method, String requestUri, Map<String, String> headers) {
+        String body = "status: UP\n"
+                + "uptime: " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms\n"
+                + "threads: " + serverSettings.getNThreads() + "\n"
+                + "cached files: " + serverSettings.getFileCache().size() + "\n";
+        return new HandlerResponse(ServerSettings.HTTP_STR_OK, "text/plain", body.getBytes(StandardCharsets.ISO_8859_1))
+                .addHeader("Cache-Control", "no-store");
+    }
+}
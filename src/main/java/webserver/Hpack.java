@@ -0,0 +1,362 @@
+/**
+ * Hpack: Primitives of the HPACK header compression for HTTP/2 (RFC 7541)
+ */
+
+package webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Primitives of the HPACK header compression for HTTP/2 (RFC 7541):
+ * static table, integer and string representations and Huffman code
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public final class Hpack {
+
+    /**
+     * Additional size of every entry in the dynamic table
+     */
+    public static final int ENTRY_OVERHEAD = 32;
+
+    /**
+     * Default size of the dynamic table
+     */
+    public static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+        {":authority", ""},
+        {":method", "GET"},
+        {":method", "POST"},
+        {":path", "/"},
+        {":path", "/index.html"},
+        {":scheme", "http"},
+        {":scheme", "https"},
+        {":status", "200"},
+        {":status", "204"},
+        {":status", "206"},
+        {":status", "304"},
+        {":status", "400"},
+        {":status", "404"},
+        {":status", "500"},
+        {"accept-charset", ""},
+        {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""},
+        {"accept-ranges", ""},
+        {"accept", ""},
+        {"access-control-allow-origin", ""},
+        {"age", ""},
+        {"allow", ""},
+        {"authorization", ""},
+        {"cache-control", ""},
+        {"content-disposition", ""},
+        {"content-encoding", ""},
+        {"content-language", ""},
+        {"content-length", ""},
+        {"content-location", ""},
+        {"content-range", ""},
+        {"content-type", ""},
+        {"cookie", ""},
+        {"date", ""},
+        {"etag", ""},
+        {"expect", ""},
+        {"expires", ""},
+        {"from", ""},
+        {"host", ""},
+        {"if-match", ""},
+        {"if-modified-since", ""},
+        {"if-none-match", ""},
+        {"if-range", ""},
+        {"if-unmodified-since", ""},
+        {"last-modified", ""},
+        {"link", ""},
+        {"location", ""},
+        {"max-forwards", ""},
+        {"proxy-authenticate", ""},
+        {"proxy-authorization", ""},
+        {"range", ""},
+        {"referer", ""},
+        {"refresh", ""},
+        {"retry-after", ""},
+        {"server", ""},
+        {"set-cookie", ""},
+        {"strict-transport-security", ""},
+        {"transfer-encoding", ""},
+        {"user-agent", ""},
+        {"vary", ""},
+        {"via", ""},
+        {"www-authenticate", ""}
+    };
+
+    // Huffman code (RFC 7541 Appendix B) of every octet, right-aligned
+    private static final int[] HUFFMAN_CODES = {
+        0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+        0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+        0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+        0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+        0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+        0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+        0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+        0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+        0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+        0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+        0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+        0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+        0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+        0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+        0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+        0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+        0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+        0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+        0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+        0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+        0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+        0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+        0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+        0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+        0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+        0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+        0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+        0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+        0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+        0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+        0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+        0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
+    };
+
+    // Length in bits of the Huffman code of every octet
+    private static final byte[] HUFFMAN_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+    };
+
+    // Decoding tree: children of node n are at 2n (bit 0) and 2n+1 (bit 1),
+    // a negative value -(symbol + 1) is a leaf and 0 is a missing branch
+    private static final int[] HUFFMAN_TREE;
+
+    private static final Map<String, Integer> STATIC_INDEX = new HashMap<>();
+    private static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<>();
+
+    static {
+        int[] tree = new int[2 * 512];
+        int nodes = 1;
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int branch = 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+                if (bit == 0) {
+                    tree[branch] = -(symbol + 1);
+                } else {
+                    if (tree[branch] == 0) {
+                        tree[branch] = nodes++;
+                    }
+                    node = tree[branch];
+                }
+            }
+        }
+        HUFFMAN_TREE = tree;
+
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {  // Lowest index wins
+            STATIC_INDEX.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+            STATIC_NAME_INDEX.put(STATIC_TABLE[i][0], i + 1);
+        }
+    }
+
+    private Hpack() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Get the number of entries of the static table
+     * @return int
+     */
+    public static int getStaticTableLength() {
+        return STATIC_TABLE.length;
+    }
+
+    /**
+     * Get an entry of the static table
+     * @param index     Index of the entry (1 based)
+     * @return String[] Name and value
+     */
+    public static String[] getStaticEntry(int index) {
+        return STATIC_TABLE[index - 1];
+    }
+
+    /**
+     * Finds a header field (name and value) in the static table
+     * @param name      Header name
+     * @param value     Header value
+     * @return int      Index or 0 if not found
+     */
+    public static int findStatic(String name, String value) {
+        Integer index = STATIC_INDEX.get(name + '\0' + value);
+        return (index == null) ? 0 : index;
+    }
+
+    /**
+     * Finds a header name in the static table
+     * @param name      Header name
+     * @return int      Index or 0 if not found
+     */
+    public static int findStaticName(String name) {
+        Integer index = STATIC_NAME_INDEX.get(name);
+        return (index == null) ? 0 : index;
+    }
+
+    /**
+     * Decodes an integer with a N-bit prefix, starting at the current position
+     * @param buffer        Header block
+     * @param prefixBits    Number of bits of the prefix
+     * @return int
+     */
+    public static int decodeInteger(ByteBuffer buffer, int prefixBits) {
+        int mask = (1 << prefixBits) - 1;
+        int value = buffer.get() & mask;
+
+        if (value < mask) {
+            return value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            if (!buffer.hasRemaining() || shift > 28) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid integer representation");
+            }
+            b = buffer.get() & 0xff;
+            value += (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (value < 0) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Integer overflow");
+        }
+        return value;
+    }
+
+    /**
+     * Encodes an integer with a N-bit prefix
+     * @param out           Header block
+     * @param flags         Bits of the first octet not used by the prefix
+     * @param prefixBits    Number of bits of the prefix
+     * @param value         Value
+     */
+    public static void encodeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int mask = (1 << prefixBits) - 1;
+
+        if (value < mask) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | mask);
+        int rest = value - mask;
+        while (rest >= 0x80) {
+            out.write((rest & 0x7f) | 0x80);
+            rest >>>= 7;
+        }
+        out.write(rest);
+    }
+
+    /**
+     * Decodes a string literal, starting at the current position
+     * @param buffer        Header block
+     * @return String
+     */
+    public static String decodeString(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Missing string literal");
+        }
+        boolean huffman = (buffer.get(buffer.position()) & 0x80) != 0;
+        int length = decodeInteger(buffer, 7);
+        if (length > buffer.remaining()) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "String literal exceeds header block");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        if (huffman) {
+            return huffmanDecode(bytes);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Encodes a string literal, Huffman coded if it is shorter
+     * @param out           Header block
+     * @param value         String
+     */
+    public static void encodeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        long bits = 0;
+        for (byte b : bytes) {
+            bits += HUFFMAN_LENGTHS[b & 0xff];
+        }
+        int huffmanLength = (int) ((bits + 7) / 8);
+
+        if (huffmanLength >= bytes.length) {
+            encodeInteger(out, 0x00, 7, bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return;
+        }
+        encodeInteger(out, 0x80, 7, huffmanLength);
+        long current = 0;
+        int pending = 0;
+        for (byte b : bytes) {
+            int symbol = b & 0xff;
+            current = (current << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+            pending += HUFFMAN_LENGTHS[symbol];
+            while (pending >= 8) {
+                pending -= 8;
+                out.write((int) (current >>> pending));
+            }
+        }
+        if (pending > 0) {  // Pad with the most significant bits of EOS
+            out.write((int) ((current << (8 - pending)) | (0xff >>> pending)));
+        }
+    }
+
+    private static String huffmanDecode(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 8 / 5);
+        int node = 0;
+        int bitsSinceSymbol = 0;
+        boolean allOnes = true;
+
+        for (byte b : bytes) {
+            for (int bit = 7; bit >= 0; bit--) {
+                int value = (b >>> bit) & 1;
+                int next = HUFFMAN_TREE[2 * node + value];
+                bitsSinceSymbol++;
+                allOnes &= value == 1;
+                if (next < 0) {
+                    result.append((char) (-next - 1));
+                    node = 0;
+                    bitsSinceSymbol = 0;
+                    allOnes = true;
+                } else if (next == 0) {
+                    throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid Huffman code");
+                } else {
+                    node = next;
+                }
+            }
+        }
+        if (bitsSinceSymbol > 7 || !allOnes) {  // Padding must be a prefix of EOS
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid Huffman padding");
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * HpackDecoder: Decodes HTTP/2 header blocks
+ */
+
+package webserver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes HTTP/2 header blocks compressed with HPACK
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class HpackDecoder {
+
+    private final HpackDynamicTable table;
+    private final int maxTableSizeLimit;
+
+    /**
+     * Class constructor
+     * @param maxTableSizeLimit     Max size of the dynamic table announced to the peer
+     */
+    public HpackDecoder(int maxTableSizeLimit) {
+        this.maxTableSizeLimit = maxTableSizeLimit;
+        this.table = new HpackDynamicTable(maxTableSizeLimit);
+    }
+
+    /**
+     * Decodes a complete header block
+     * @param block             Header block
+     * @return List<String[]>   Header fields (name and value) in order
+     */
+    public List<String[]> decode(byte[] block) {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        List<String[]> headers = new ArrayList<>();
+
+        while (buffer.hasRemaining()) {
+            int b = buffer.get(buffer.position()) & 0xff;
+            if ((b & 0x80) != 0) {  // Indexed header field
+                headers.add(getEntry(Hpack.decodeInteger(buffer, 7)));
+            } else if ((b & 0x40) != 0) {  // Literal header field with incremental indexing
+                String[] header = readLiteral(buffer, 6);
+                table.add(header[0], header[1]);
+                headers.add(header);
+            } else if ((b & 0x20) != 0) {  // Dynamic table size update
+                if (!headers.isEmpty()) {
+                    throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Table size update after header field");
+                }
+                int maxSize = Hpack.decodeInteger(buffer, 5);
+                if (maxSize > maxTableSizeLimit) {
+                    throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Table size update exceeds limit");
+                }
+                table.setMaxSize(maxSize);
+            } else {  // Literal header field without indexing or never indexed
+                headers.add(readLiteral(buffer, 4));
+            }
+        }
+        return headers;
+    }
+
+    private String[] readLiteral(ByteBuffer buffer, int prefixBits) {
+        int index = Hpack.decodeInteger(buffer, prefixBits);
+        String name = (index == 0) ? Hpack.decodeString(buffer) : getEntry(index)[0];
+        String value = Hpack.decodeString(buffer);
+
+        return new String[] {name, value};
+    }
+
+    private String[] getEntry(int index) {
+        int staticLength = Hpack.getStaticTableLength();
+
+        if (index > 0 && index <= staticLength) {
+            return Hpack.getStaticEntry(index);
+        }
+        if (index > staticLength && index - staticLength <= table.length()) {
+            return table.get(index - staticLength - 1);
+        }
+        throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid table index " + index);
+    }
+}
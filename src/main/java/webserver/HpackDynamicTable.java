@@ -0,0 +1,126 @@
+/**
+ * HpackDynamicTable: Dynamic table of the HPACK header compression
+ */
+
+package webserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dynamic table of the HPACK header compression, newest entry first
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class HpackDynamicTable {
+
+    private final List<String[]> entries = new ArrayList<>();
+    private int size = 0;
+    private int maxSize;
+
+    /**
+     * Class constructor
+     * @param maxSize   Max size of the table in octets
+     */
+    public HpackDynamicTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the number of entries
+     * @return int
+     */
+    public int length() {
+        return entries.size();
+    }
+
+    /**
+     * Get the max size of the table in octets
+     * @return int
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get an entry
+     * @param index     Index of the entry (0 = newest)
+     * @return String[] Name and value
+     */
+    public String[] get(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Adds an entry, evicting the oldest entries to make room
+     * @param name      Header name
+     * @param value     Header value
+     */
+    public void add(String name, String value) {
+        int entrySize = entrySize(name, value);
+
+        if (entrySize > maxSize) {  // Not an error: the table is emptied
+            entries.clear();
+            size = 0;
+            return;
+        }
+        evict(maxSize - entrySize);
+        entries.add(0, new String[] {name, value});
+        size += entrySize;
+    }
+
+    /**
+     * Sets the max size of the table, evicting entries if needed
+     * @param maxSize   Max size of the table in octets
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    /**
+     * Finds a header field (name and value)
+     * @param name      Header name
+     * @param value     Header value
+     * @return int      Index or -1 if not found
+     */
+    public int find(String name, String value) {
+        for (int i = 0; i < entries.size(); i++) {
+            String[] entry = entries.get(i);
+            if (entry[0].equals(name) && entry[1].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a header name
+     * @param name      Header name
+     * @return int      Index or -1 if not found
+     */
+    public int findName(String name) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i)[0].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the size of an entry in octets
+     * @param name      Header name
+     * @param value     Header value
+     * @return int
+     */
+    public static int entrySize(String name, String value) {
+        return name.length() + value.length() + Hpack.ENTRY_OVERHEAD;
+    }
+
+    private void evict(int targetSize) {
+        while (size > targetSize && !entries.isEmpty()) {
+            String[] entry = entries.remove(entries.size() - 1);
+            size -= entrySize(entry[0], entry[1]);
+        }
+    }
+}
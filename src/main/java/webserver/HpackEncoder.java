@@ -0,0 +1,96 @@
+/**
+ * HpackEncoder: Encodes HTTP/2 header blocks
+ */
+
+package webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes HTTP/2 header blocks compressed with HPACK. Repeated fields
+ * (content type, server...) are kept in the dynamic table; fields that
+ * change on every response are sent as literals without indexing
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class HpackEncoder {
+
+    private static final Set<String> NOT_INDEXED = new HashSet<>(Arrays.asList(
+            "content-length", "content-range", "date", "etag", "expires", "last-modified", "age", "set-cookie"));
+    private final HpackDynamicTable table = new HpackDynamicTable(Hpack.DEFAULT_TABLE_SIZE);
+    private int minPendingSize = -1;
+    private int pendingSize = -1;
+
+    /**
+     * Sets the max size of the dynamic table, as announced by the peer
+     * in SETTINGS_HEADER_TABLE_SIZE. It is capped to the default size
+     * @param peerMaxSize   Max size of the peer decoder table
+     */
+    public void setMaxTableSize(int peerMaxSize) {
+        int maxSize = Math.min(peerMaxSize, Hpack.DEFAULT_TABLE_SIZE);
+
+        if (maxSize == table.getMaxSize() && pendingSize == -1) {
+            return;
+        }
+        minPendingSize = (minPendingSize == -1) ? maxSize : Math.min(minPendingSize, maxSize);
+        pendingSize = maxSize;
+        table.setMaxSize(maxSize);
+    }
+
+    /**
+     * Encodes a header block
+     * @param headers       Header fields (name and value), names in lower case
+     * @return byte[]
+     */
+    public byte[] encode(List<String[]> headers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+
+        if (pendingSize != -1) {  // Signal the smallest size and then the final size
+            if (minPendingSize < pendingSize) {
+                Hpack.encodeInteger(out, 0x20, 5, minPendingSize);
+            }
+            Hpack.encodeInteger(out, 0x20, 5, pendingSize);
+            minPendingSize = -1;
+            pendingSize = -1;
+        }
+        for (String[] header : headers) {
+            encodeHeader(out, header[0], header[1]);
+        }
+        return out.toByteArray();
+    }
+
+    private void encodeHeader(ByteArrayOutputStream out, String name, String value) {
+        int index = Hpack.findStatic(name, value);
+        if (index == 0) {
+            int dynamicIndex = table.find(name, value);
+            index = (dynamicIndex == -1) ? 0 : Hpack.getStaticTableLength() + dynamicIndex + 1;
+        }
+        if (index != 0) {  // Indexed header field
+            Hpack.encodeInteger(out, 0x80, 7, index);
+            return;
+        }
+
+        int nameIndex = Hpack.findStaticName(name);
+        if (nameIndex == 0) {
+            int dynamicIndex = table.findName(name);
+            nameIndex = (dynamicIndex == -1) ? 0 : Hpack.getStaticTableLength() + dynamicIndex + 1;
+        }
+        boolean indexing = !NOT_INDEXED.contains(name)
+                && HpackDynamicTable.entrySize(name, value) <= table.getMaxSize();
+        if (indexing) {  // Literal header field with incremental indexing
+            Hpack.encodeInteger(out, 0x40, 6, nameIndex);
+        } else {  // Literal header field without indexing
+            Hpack.encodeInteger(out, 0x00, 4, nameIndex);
+        }
+        if (nameIndex == 0) {
+            Hpack.encodeString(out, name);
+        }
+        Hpack.encodeString(out, value);
+        if (indexing) {
+            table.add(name, value);
+        }
+    }
+}
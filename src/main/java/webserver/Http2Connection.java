@@ -0,0 +1,830 @@
+/**
+ * Http2Connection: Manages a HTTP/2 over cleartext (h2c) connection
+ */
+
+package webserver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Manages a HTTP/2 over cleartext (h2c) connection (RFC 7540), started with
+ * prior knowledge or upgraded from HTTP/1.1. The streams are served from the
+ * same document root as HTTP/1.x; their bodies are multiplexed in round-robin,
+ * one DATA frame at a time, within the flow-control windows of the peer and
+ * the bandwidth limits (the connection is a single transfer of the shaper
+ * while it has bodies to send)
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class Http2Connection {
+
+    /**
+     * Request line sent by a client starting HTTP/2 with prior knowledge
+     */
+    public static final String PREFACE_REQUEST_LINE = "PRI * HTTP/2.0";
+
+    private static final byte[] CLIENT_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] PREFACE_AFTER_REQUEST_LINE = "\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 " + ServerSettings.HTTP_STR_SWITCHING_PROTOCOLS
+            + "\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_PRIORITY = 0x2;
+    private static final int TYPE_RST_STREAM = 0x3;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_PUSH_PROMISE = 0x5;
+    private static final int TYPE_PING = 0x6;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_WINDOW_UPDATE = 0x8;
+    private static final int TYPE_CONTINUATION = 0x9;
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    private static final int MAX_FRAME_SIZE_LIMIT = 16777215;
+    private static final int MAX_CONCURRENT_STREAMS = 100;
+    private static final int MAX_HEADER_BLOCK_SIZE = 65536;
+
+    private static final Logger logger = LogManager.getLogger(Http2Connection.class.getName());
+    private ServerSettings serverSettings;
+    private Socket clientSocket;
+    private InputStream input;
+    private OutputStream output;
+    private final HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final Map<Integer, Http2Stream> streams = new HashMap<>();
+    private final Deque<Http2Stream> sendQueue = new ArrayDeque<>();
+    private final byte[] frameBuffer = new byte[DEFAULT_MAX_FRAME_SIZE];
+    private final byte[] dataBuffer = new byte[DEFAULT_MAX_FRAME_SIZE];
+    private long connectionSendWindow = DEFAULT_WINDOW_SIZE;
+    private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private int lastStreamId = 0;
+    private int continuationStreamId = 0;
+    private ByteArrayOutputStream headerBlock = null;
+    private boolean goAwayReceived = false;
+    private BandwidthShaper.Transfer shapedTransfer = null;
+
+    /**
+     * Class constructor
+     * @param serverSettings    Settings of the Web Server
+     * @param clientSocket      Socket of a client
+     * @param input             Buffered input of the connection
+     * @param output            Output of the connection
+     */
+    public Http2Connection(ServerSettings serverSettings, Socket clientSocket, InputStream input, OutputStream output) {
+        this.serverSettings = serverSettings;
+        this.clientSocket = clientSocket;
+        this.input = input;
+        this.output = new BufferedOutputStream(output, FRAME_HEADER_LENGTH + DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Serves a connection started with prior knowledge, once the request
+     * line of the preface has been read
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void servePriorKnowledge() throws IOException {
+        if (!readPreface(PREFACE_AFTER_REQUEST_LINE)) {
+            logger.info(PREFACE_REQUEST_LINE + " -> invalid connection preface");
+            return;
+        }
+        writeSettings();
+        serve();
+    }
+
+    /**
+     * Serves a connection upgraded from a HTTP/1.1 request with "Upgrade: h2c".
+     * The request is answered on stream 1
+     * @param request       HTTP/1.1 request asking for the upgrade
+     * @throws IOException If an input or output
+     *                     exception occurred
+     * @return boolean      false if the upgrade is refused and the request must be served with HTTP/1.1
+     */
+    public boolean serveUpgrade(Request request) throws IOException {
+        byte[] settings;
+        try {
+            settings = Base64.getUrlDecoder().decode(request.getHeader("HTTP2-Settings").trim());
+        } catch (IllegalArgumentException e) {
+            logger.trace("serveUpgrade - invalid HTTP2-Settings: ", e);
+            return false;
+        }
+        if (settings.length % 6 != 0) {
+            return false;
+        }
+
+        output.write(SWITCHING_PROTOCOLS);
+        try {
+            applySettings(settings, settings.length);
+        } catch (Http2Exception e) {
+            writeSettings();
+            closeWithError(e);
+            return true;
+        }
+        writeSettings();
+        String[] requestLine = request.getRequestLine().split(" ");
+        Http2Stream stream = new Http2Stream(1, peerInitialWindowSize);
+        lastStreamId = 1;
+        streams.put(1, stream);
+        handleRequest(stream, requestLine[0], requestLine[1], request.getHeaders());
+        output.flush();
+        if (!readPreface(CLIENT_PREFACE)) {
+            logger.info(request.getRequestLine() + " -> invalid connection preface after upgrade");
+            closeStreams();
+            return true;
+        }
+        serve();
+        return true;
+    }
+
+    private void serve() throws IOException {
+        clientSocket.setSoTimeout(serverSettings.getRequestReadTimeout());
+        try {
+            while (true) {
+                writeData();
+                output.flush();
+                if (goAwayReceived && streams.isEmpty()) {
+                    break;
+                }
+                if (!readFrame()) {  // Connection closed by the client
+                    break;
+                }
+            }
+        } catch (Http2Exception e) {
+            closeWithError(e);
+        } catch (SocketTimeoutException e) {
+            logger.trace("serve - SocketTimeoutException: ", e);
+            writeGoAway(Http2Exception.NO_ERROR);
+            output.flush();
+        } catch (SocketException e) {
+            logger.trace("serve - SocketException: ", e);
+        } finally {
+            closeStreams();
+        }
+    }
+
+    // Sends DATA frames in round-robin while the client has nothing to say
+    private void writeData() throws IOException {
+        BandwidthShaper shaper = serverSettings.getBandwidthShaper();
+        if (shaper != null && shapedTransfer == null && !sendQueue.isEmpty()) {
+            shapedTransfer = shaper.begin();
+        }
+        while (!sendQueue.isEmpty() && connectionSendWindow > 0 && input.available() == 0) {
+            Http2Stream stream = sendQueue.poll();
+            int max = (int) Math.min(Math.min(stream.getSendWindow(), connectionSendWindow), dataBuffer.length);
+            if (max <= 0) {  // Parked until a WINDOW_UPDATE for the stream
+                stream.setQueued(false);
+                continue;
+            }
+            int count = stream.readBody(dataBuffer, max);
+            connectionSendWindow -= count;
+            if (shapedTransfer != null) {
+                shapedTransfer.acquire(count);
+            }
+            boolean last = stream.getRemaining() == 0;
+            writeFrame(TYPE_DATA, last ? FLAG_END_STREAM : 0, stream.getId(), dataBuffer, 0, count);
+            if (last) {
+                stream.setQueued(false);
+                stream.close();
+                streams.remove(stream.getId());
+            } else {
+                sendQueue.add(stream);
+            }
+        }
+        if (sendQueue.isEmpty()) {  // Nothing to send, its share goes to the other transfers
+            endShapedTransfer();
+        }
+    }
+
+    private boolean readFrame() throws IOException {
+        byte[] header = new byte[FRAME_HEADER_LENGTH];
+        if (!readFully(header, header.length, true)) {
+            return false;
+        }
+        int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+        int type = header[3] & 0xff;
+        int flags = header[4] & 0xff;
+        int streamId = readInt(header, 5) & 0x7fffffff;
+
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+        }
+        readFully(frameBuffer, length, false);
+        if (continuationStreamId != 0 && (type != TYPE_CONTINUATION || streamId != continuationStreamId)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "CONTINUATION expected");
+        }
+        logger.trace("Frame type: " + type + " flags: " + flags + " stream: " + streamId + " length: " + length);
+
+        switch (type) {
+            case TYPE_DATA:
+                handleData(flags, streamId, length);
+                break;
+            case TYPE_HEADERS:
+                handleHeaders(flags, streamId, length);
+                break;
+            case TYPE_PRIORITY:
+                checkLength(length == 5, streamId != 0);
+                break;
+            case TYPE_RST_STREAM:
+                checkLength(length == 4, streamId != 0);
+                handleReset(streamId);
+                break;
+            case TYPE_SETTINGS:
+                handleSettings(flags, streamId, length);
+                break;
+            case TYPE_PUSH_PROMISE:
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PUSH_PROMISE sent by client");
+            case TYPE_PING:
+                checkLength(length == 8, streamId == 0);
+                if ((flags & FLAG_ACK) == 0) {
+                    writeFrame(TYPE_PING, FLAG_ACK, 0, frameBuffer, 0, 8);
+                }
+                break;
+            case TYPE_GOAWAY:
+                goAwayReceived = true;
+                break;
+            case TYPE_WINDOW_UPDATE:
+                checkLength(length == 4, true);
+                handleWindowUpdate(streamId, readInt(frameBuffer, 0) & 0x7fffffff);
+                break;
+            case TYPE_CONTINUATION:
+                handleContinuation(flags, streamId, length);
+                break;
+            default:  // Unknown frame types are ignored
+                break;
+        }
+        return true;
+    }
+
+    private void handleData(int flags, int streamId, int length) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        // Request bodies are not used; give the credit back to the client
+        if (length > 0) {
+            writeWindowUpdate(0, length);
+            if (streams.containsKey(streamId) && (flags & FLAG_END_STREAM) == 0) {
+                writeWindowUpdate(streamId, length);
+            }
+        }
+    }
+
+    private void handleHeaders(int flags, int streamId, int length) throws IOException {
+        if (streamId == 0 || streamId % 2 == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS on stream " + streamId);
+        }
+        int offset = 0;
+        int end = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            checkLength(length >= 1, true);
+            end -= frameBuffer[0] & 0xff;
+            offset++;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+        }
+        if (end < offset) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padding exceeds HEADERS payload");
+        }
+        headerBlock = new ByteArrayOutputStream(end - offset);
+        headerBlock.write(frameBuffer, offset, end - offset);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaders(streamId);
+        } else {
+            continuationStreamId = streamId;
+        }
+    }
+
+    private void handleContinuation(int flags, int streamId, int length) throws IOException {
+        if (continuationStreamId == 0 || streamId != continuationStreamId) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        if (headerBlock.size() + length > MAX_HEADER_BLOCK_SIZE) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header block too large");
+        }
+        headerBlock.write(frameBuffer, 0, length);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            continuationStreamId = 0;
+            endHeaders(streamId);
+        }
+    }
+
+    private void endHeaders(int streamId) throws IOException {
+        List<String[]> headers = decoder.decode(headerBlock.toByteArray());  // Always, to keep HPACK state
+        headerBlock = null;
+
+        if (streams.containsKey(streamId)) {  // Trailers of an open stream are ignored
+            return;
+        }
+        if (streamId <= lastStreamId) {
+            throw new Http2Exception(Http2Exception.STREAM_CLOSED, "HEADERS on closed stream " + streamId);
+        }
+        lastStreamId = streamId;
+        if (goAwayReceived || streams.size() >= MAX_CONCURRENT_STREAMS) {
+            writeReset(streamId, Http2Exception.REFUSED_STREAM);
+            return;
+        }
+
+        String method = null;
+        String path = null;
+        Map<String, String> requestHeaders = new HashMap<>();
+        for (String[] header : headers) {
+            if (":method".equals(header[0])) {
+                method = header[1];
+            } else if (":path".equals(header[0])) {
+                path = header[1];
+            } else {
+                requestHeaders.merge(header[0], header[1], (a, b) -> a + ", " + b);
+            }
+        }
+        if (method == null || path == null) {
+            writeReset(streamId, Http2Exception.PROTOCOL_ERROR);
+            return;
+        }
+        Http2Stream stream = new Http2Stream(streamId, peerInitialWindowSize);
+        streams.put(streamId, stream);
+        handleRequest(stream, method, path, requestHeaders);
+    }
+
+    // Host of a request: ":authority", or Host after an upgrade from HTTP/1.1
+    static String authority(Map<String, String> requestHeaders) {
+        String authority = requestHeaders.get(":authority");
+        return (authority == null) ? requestHeaders.get("host") : authority;
+    }
+
+    // Same document root pipeline as Response, with the body left to writeData()
+    private void handleRequest(Http2Stream stream, String method, String path, Map<String, String> requestHeaders)
+            throws IOException {
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            writeErrorResponse(stream, method, path, ServerSettings.HTTP_STR_NOT_IMPLEMENTED);
+            return;
+        }
+        logger.trace("Request Uri: " + path);
+        RateLimiter rateLimiter = serverSettings.getRateLimiter();
+        long wait = (rateLimiter == null) ? 0 : rateLimiter.tryAcquire(clientSocket.getInetAddress());
+        if (wait > 0) {  // Rate limit of the client exceeded
+            writeErrorResponse(stream, method, path, ServerSettings.HTTP_STR_TOO_MANY_REQUESTS,
+                    new String[] {"retry-after", Long.toString(Response.retryAfterSeconds(wait))});
+            return;
+        }
+        RequestHandler handler = serverSettings.getRouter().route(path);
+        if (handler != null) {  // Serve from a request handler
+            handleHandlerRequest(stream, method, path, requestHeaders, handler);
+            return;
+        }
+        if (serverSettings.getContentPackHolder() != null) {  // Serve from the content pack
+            handlePackRequest(stream, method, path, requestHeaders);
+            return;
+        }
+
+        VirtualHost host = serverSettings.getHost(authority(requestHeaders));
+        ResolveEvent resolveEvent = new ResolveEvent();
+        resolveEvent.begin();
+        final File f = Response.fileAndPath(host, path);
+        final FileEntry entry = host.getFileCache().lookup(f);
+        final boolean exist = entry != null || Response.pathExist(f);
+        Response.commitResolveEvent(resolveEvent, path, "file", entry != null);
+        boolean head = "HEAD".equals(method);
+        List<String[]> headers = new ArrayList<>();
+
+        if (!exist) {  // Path not exist
+            writeErrorResponse(stream, method, path, ServerSettings.HTTP_STR_BAD_REQUEST);
+            return;
+        }
+        if (host.getDirectoryListing() && entry != null && entry.isDirectory()) {  // Serve directory listing
+            byte[] body = Response.buildDirectoryList(f).getBytes(StandardCharsets.UTF_8);
+            addStatus(headers, ServerSettings.HTTP_STR_OK);
+            headers.add(new String[] {"content-type", "text/html"});
+            headers.add(new String[] {"content-length", Integer.toString(body.length)});
+            stream.setBody(head ? new byte[0] : body);
+        } else if (entry != null && !entry.isDirectory()) {  // Serve file
+            if (!WarmUp.isWarmUp(clientSocket)) {
+                entry.hit();
+            }
+            if (Response.etagMatches(requestHeaders.get("if-none-match"), entry.getEtag())) {  // Not modified
+                addStatus(headers, ServerSettings.HTTP_STR_NOT_MODIFIED);
+                headers.add(new String[] {"etag", entry.getEtag()});
+                addCacheHeaders(headers, path, entry.getMimeType());
+                stream.setBody(new byte[0]);
+                writeResponseHeaders(stream, headers);
+                logger.info(method + " " + path + " HTTP/2.0 -> " + ServerSettings.HTTP_STR_NOT_MODIFIED);
+                return;
+            }
+            String mimeType = entry.getMimeType();
+            SubresourceAnalyzer analyzer = serverSettings.getSubresourceAnalyzer();
+            String[] links = (analyzer == null) ? new String[0] : analyzer.getLinks(host, path, entry);
+            if (links.length > 0 && !head) {
+                writeInterimHeaders(stream, ServerSettings.HTTP_STR_EARLY_HINTS, "link", links);
+            }
+            ByteBuffer gzip = Response.acceptsGzip(requestHeaders.get("accept-encoding"))
+                    ? host.getFileCache().getGzipContent(entry) : null;
+            addStatus(headers, ServerSettings.HTTP_STR_OK);
+            if (!"".equals(mimeType)) {
+                headers.add(new String[] {"content-type", mimeType});
+            }
+            if (gzip != null) {
+                headers.add(new String[] {"content-encoding", "gzip"});
+            }
+            if (entry.getGzipContent() != null) {
+                headers.add(new String[] {"vary", "accept-encoding"});
+            }
+            headers.add(new String[] {"content-length", Long.toString((gzip != null) ? gzip.remaining() : entry.getLength())});
+            headers.add(new String[] {"etag", entry.getEtag()});
+            addCacheHeaders(headers, path, entry.getMimeType());
+            headers.add(new String[] {"last-modified", Response.httpDate(entry.getLastModified())});
+            for (String link : links) {
+                headers.add(new String[] {"link", link});
+            }
+            if (head) {
+                stream.setBody(new byte[0]);
+            } else if (gzip != null) {  // Gzip variant
+                stream.setBody(gzip);
+            } else {
+                ClusterCache clusterCache = serverSettings.getClusterCache();
+                byte[] content = (clusterCache == null) ? entry.getContent() : clusterCache.getContent(host, path,
+                        entry, authority(requestHeaders), requestHeaders.containsKey("x-cluster-peer"));
+                if (content != null) {  // Preloaded in memory (or in the cluster)
+                    stream.setBody(content);
+                } else {
+                    stream.setBody(f);
+                }
+            }
+        } else {  // File not exist
+            writeErrorResponse(stream, method, path, ServerSettings.HTTP_STR_NOT_FOUND);
+            return;
+        }
+        writeResponseHeaders(stream, headers);
+        logger.info(method + " " + path + " HTTP/2.0 -> " + ServerSettings.HTTP_STR_OK);
+    }
+
+    private void handleHandlerRequest(Http2Stream stream, String method, String path, Map<String, String> requestHeaders,
+            RequestHandler handler) throws IOException {
+        HandlerResponse handlerResponse = Response.callHandler(handler, method, path, requestHeaders);
+        if (handlerResponse == null) {
+            writeErrorResponse(stream, method, path, ServerSettings.HTTP_STR_SERVER_ERROR);
+            return;
+        }
+        List<String[]> headers = new ArrayList<>();
+        addStatus(headers, handlerResponse.getStatus());
+        headers.add(new String[] {"content-type", handlerResponse.getContentType()});
+        headers.add(new String[] {"content-length", Integer.toString(handlerResponse.getBody().length)});
+        for (Map.Entry<String, String> header : handlerResponse.getHeaders().entrySet()) {
+            headers.add(new String[] {header.getKey().toLowerCase(), header.getValue()});
+        }
+        stream.setBody("HEAD".equals(method) ? new byte[0] : handlerResponse.getBody());
+        writeResponseHeaders(stream, headers);
+        logger.info(method + " " + path + " HTTP/2.0 -> " + handlerResponse.getStatus());
+    }
+
+    // Same pipeline as Response for the content pack
+    private void handlePackRequest(Http2Stream stream, String method, String path, Map<String, String> requestHeaders)
+            throws IOException {
+        ResolveEvent resolveEvent = new ResolveEvent();
+        resolveEvent.begin();
+        ContentPack pack = serverSettings.getContentPackHolder().get();
+        String key = ContentPack.key(path);
+        ContentPackEntry entry = pack.lookup(key);
+        Response.commitResolveEvent(resolveEvent, path, "pack", entry != null);
+        boolean head = "HEAD".equals(method);
+        List<String[]> headers = new ArrayList<>();
+        String status = ServerSettings.HTTP_STR_OK;
+
+        if (entry == null) {
+            boolean pathExist = pack.lookup(ContentPack.parentKey(key)) != null;
+            writeErrorResponse(stream, method, path,
+                    pathExist ? ServerSettings.HTTP_STR_NOT_FOUND : ServerSettings.HTTP_STR_BAD_REQUEST);
+            return;
+        }
+        if (entry.isDirectory()) {
+            if (!serverSettings.getDirectoryListing()) {
+                writeErrorResponse(stream, method, path, ServerSettings.HTTP_STR_NOT_FOUND);
+                return;
+            }
+            byte[] body = Response.buildDirectoryList(entry.getChildren()).getBytes(StandardCharsets.UTF_8);
+            addStatus(headers, status);
+            headers.add(new String[] {"content-type", "text/html"});
+            headers.add(new String[] {"content-length", Integer.toString(body.length)});
+            stream.setBody(head ? new byte[0] : body);
+        } else if (Response.etagMatches(requestHeaders.get("if-none-match"), entry.getEtag())) {
+            status = ServerSettings.HTTP_STR_NOT_MODIFIED;
+            addStatus(headers, status);
+            headers.add(new String[] {"etag", entry.getEtag()});
+            addCacheHeaders(headers, path, entry.getMimeType());
+            stream.setBody(new byte[0]);
+        } else {
+            ByteBuffer body = Response.acceptsGzip(requestHeaders.get("accept-encoding")) ? entry.getGzipContent() : null;
+            addStatus(headers, status);
+            if (!"".equals(entry.getMimeType())) {
+                headers.add(new String[] {"content-type", entry.getMimeType()});
+            }
+            if (body != null) {
+                headers.add(new String[] {"content-encoding", "gzip"});
+            } else {
+                body = entry.getContent();
+            }
+            if (entry.getGzipContent() != null) {
+                headers.add(new String[] {"vary", "accept-encoding"});
+            }
+            headers.add(new String[] {"content-length", Integer.toString(body.remaining())});
+            headers.add(new String[] {"etag", entry.getEtag()});
+            addCacheHeaders(headers, path, entry.getMimeType());
+            headers.add(new String[] {"last-modified", Response.httpDate(entry.getLastModified())});
+            stream.setBody(head ? ByteBuffer.allocate(0) : body);
+        }
+        writeResponseHeaders(stream, headers);
+        logger.info(method + " " + path + " HTTP/2.0 -> " + status);
+    }
+
+    // Cache-Control and Expires of a file, by the cache policy
+    private void addCacheHeaders(List<String[]> headers, String path, String mimeType) {
+        CachePolicy.Rule rule = serverSettings.getCachePolicy().lookup(path, mimeType);
+        if (rule != null) {
+            headers.add(new String[] {"cache-control", rule.getCacheControl()});
+            String expires = rule.getExpires(System.currentTimeMillis());
+            if (expires != null) {
+                headers.add(new String[] {"expires", expires});
+            }
+        }
+    }
+
+    private void writeErrorResponse(Http2Stream stream, String method, String path, String status,
+            String[]... extraHeaders) throws IOException {
+        byte[] body = Response.buildHttpErrorBody(status).getBytes(StandardCharsets.ISO_8859_1);
+        List<String[]> headers = new ArrayList<>();
+
+        addStatus(headers, status);
+        headers.add(new String[] {"content-type", "text/html"});
+        headers.add(new String[] {"content-length", Integer.toString(body.length)});
+        headers.addAll(Arrays.asList(extraHeaders));
+        stream.setBody("HEAD".equals(method) ? new byte[0] : body);
+        writeResponseHeaders(stream, headers);
+        logger.info(method + " " + path + " HTTP/2.0 -> " + status);
+    }
+
+    private void addStatus(List<String[]> headers, String status) {
+        headers.add(new String[] {":status", status.substring(0, 3)});
+    }
+
+    private void writeResponseHeaders(Http2Stream stream, List<String[]> headers) throws IOException {
+        boolean endStream = stream.getRemaining() == 0;
+        writeHeaderBlock(stream.getId(), headers, endStream);
+        if (endStream) {
+            stream.close();
+            streams.remove(stream.getId());
+        } else {
+            stream.setQueued(true);
+            sendQueue.add(stream);
+        }
+    }
+
+    // Header block of an interim response (e.g. 103 Early Hints), the stream goes on
+    private void writeInterimHeaders(Http2Stream stream, String status, String name, String[] values) throws IOException {
+        List<String[]> headers = new ArrayList<>();
+        addStatus(headers, status);
+        for (String value : values) {
+            headers.add(new String[] {name, value});
+        }
+        writeHeaderBlock(stream.getId(), headers, false);
+    }
+
+    private void writeHeaderBlock(int streamId, List<String[]> headers, boolean endStream) throws IOException {
+        byte[] block = encoder.encode(headers);
+        int offset = 0;
+        int type = TYPE_HEADERS;
+
+        do {  // Header blocks larger than a frame go on in CONTINUATION frames
+            int count = Math.min(block.length - offset, peerMaxFrameSize);
+            int flags = (offset + count == block.length) ? FLAG_END_HEADERS : 0;
+            if (type == TYPE_HEADERS && endStream) {
+                flags |= FLAG_END_STREAM;
+            }
+            writeFrame(type, flags, streamId, block, offset, count);
+            offset += count;
+            type = TYPE_CONTINUATION;
+        } while (offset < block.length);
+    }
+
+    private void handleReset(int streamId) {
+        Http2Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            sendQueue.remove(stream);
+            stream.close();
+        }
+    }
+
+    private void handleSettings(int flags, int streamId, int length) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            checkLength(length == 0, true);
+            return;
+        }
+        checkLength(length % 6 == 0, true);
+        applySettings(frameBuffer, length);
+        writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, frameBuffer, 0, 0);
+    }
+
+    private void applySettings(byte[] payload, int length) {
+        for (int i = 0; i < length; i += 6) {
+            int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+            int value = readInt(payload, i + 2);
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value != 0 && value != 1) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+                    }
+                    int delta = value - peerInitialWindowSize;
+                    peerInitialWindowSize = value;
+                    for (Http2Stream stream : streams.values()) {
+                        stream.updateSendWindow(delta);
+                        queueIfWritable(stream);
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+                    }
+                    peerMaxFrameSize = value;
+                    break;
+                default:  // Unknown or unused settings are ignored
+                    break;
+            }
+        }
+    }
+
+    private void handleWindowUpdate(int streamId, int increment) {
+        if (increment == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE with 0 increment");
+        }
+        if (streamId == 0) {
+            connectionSendWindow += increment;
+            if (connectionSendWindow > Integer.MAX_VALUE) {
+                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+            }
+            return;
+        }
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.updateSendWindow(increment);
+            queueIfWritable(stream);
+        }
+    }
+
+    private void queueIfWritable(Http2Stream stream) {
+        if (!stream.isQueued() && stream.getRemaining() > 0 && stream.getSendWindow() > 0) {
+            stream.setQueued(true);
+            sendQueue.add(stream);
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        byte[] payload = new byte[6];
+        payload[1] = SETTINGS_MAX_CONCURRENT_STREAMS;
+        writeInt(payload, 2, MAX_CONCURRENT_STREAMS);
+        writeFrame(TYPE_SETTINGS, 0, 0, payload, 0, payload.length);
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+        writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+    }
+
+    private void writeReset(int streamId, int errorCode) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, errorCode);
+        writeFrame(TYPE_RST_STREAM, 0, streamId, payload, 0, payload.length);
+    }
+
+    private void writeGoAway(int errorCode) throws IOException {
+        byte[] payload = new byte[8];
+        writeInt(payload, 0, lastStreamId);
+        writeInt(payload, 4, errorCode);
+        writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+    }
+
+    private void closeWithError(Http2Exception e) throws IOException {
+        logger.info("HTTP/2 connection error " + e.getErrorCode() + ": " + e.getMessage());
+        writeGoAway(e.getErrorCode());
+        output.flush();
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+        byte[] header = new byte[FRAME_HEADER_LENGTH];
+        header[0] = (byte) (length >>> 16);
+        header[1] = (byte) (length >>> 8);
+        header[2] = (byte) length;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        writeInt(header, 5, streamId);
+        output.write(header);
+        output.write(payload, offset, length);
+    }
+
+    private void closeStreams() {
+        for (Http2Stream stream : streams.values()) {
+            stream.close();
+        }
+        streams.clear();
+        sendQueue.clear();
+        endShapedTransfer();
+    }
+
+    private void endShapedTransfer() {
+        if (shapedTransfer != null) {
+            shapedTransfer.end();
+            shapedTransfer = null;
+        }
+    }
+
+    private boolean readPreface(byte[] expected) throws IOException {
+        byte[] preface = new byte[expected.length];
+        if (!readFully(preface, preface.length, true)) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (preface[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns false on end of stream before the first byte, if allowed
+    private boolean readFully(byte[] buffer, int length, boolean eofAllowed) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = input.read(buffer, offset, length - offset);
+            if (read < 0) {
+                if (offset == 0 && eofAllowed) {
+                    return false;
+                }
+                throw new EOFException("Connection closed inside a frame");
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    private static void checkLength(boolean valid, boolean validStream) {
+        if (!validStream) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid stream for frame");
+        }
+        if (!valid) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid frame length");
+        }
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Http2Exception: Manages the HTTP/2 connection errors
+ */
+
+package webserver;
+
+/**
+ * Manages the HTTP/2 connection errors
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class Http2Exception extends WebServerException {
+
+    /**
+     * Error Code 0x0: The condition is not a result of an error
+     */
+    public static final int NO_ERROR = 0x0;
+
+    /**
+     * Error Code 0x1: Unspecific protocol error detected
+     */
+    public static final int PROTOCOL_ERROR = 0x1;
+
+    /**
+     * Error Code 0x2: Unexpected internal error
+     */
+    public static final int INTERNAL_ERROR = 0x2;
+
+    /**
+     * Error Code 0x3: Flow-control protocol violated
+     */
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+
+    /**
+     * Error Code 0x5: Frame received for a closed stream
+     */
+    public static final int STREAM_CLOSED = 0x5;
+
+    /**
+     * Error Code 0x6: Frame with an invalid size
+     */
+    public static final int FRAME_SIZE_ERROR = 0x6;
+
+    /**
+     * Error Code 0x7: Stream refused before any processing
+     */
+    public static final int REFUSED_STREAM = 0x7;
+
+    /**
+     * Error Code 0x9: Header compression context can not be maintained
+     */
+    public static final int COMPRESSION_ERROR = 0x9;
+
+    private final int errorCode;
+
+    /**
+     * Class constructor
+     * @param errorCode     HTTP/2 error code
+     * @param s             Message
+     */
+    public Http2Exception(int errorCode, String s) {
+        super(s);
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * Get HTTP/2 error code
+     * @return int
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Http2Stream: Manages the state of a HTTP/2 stream
+ */
+
+package webserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Manages the state of a HTTP/2 stream: send flow-control window
+ * and the body of the response pending to be sent
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class Http2Stream {
+
+    private final int id;
+    private long sendWindow;
+    private byte[] body;
+    private ByteBuffer mappedBody;
+    private FileChannel channel;
+    private long position = 0;
+    private long length = 0;
+    private boolean queued = false;
+
+    /**
+     * Class constructor
+     * @param id            Stream identifier
+     * @param sendWindow    Initial send flow-control window
+     */
+    public Http2Stream(int id, int sendWindow) {
+        this.id = id;
+        this.sendWindow = sendWindow;
+    }
+
+    /**
+     * Get Stream identifier
+     * @return int
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get Send flow-control window
+     * @return long
+     */
+    public long getSendWindow() {
+        return sendWindow;
+    }
+
+    /**
+     * Updates the send flow-control window
+     * @param delta     Increment (negative after a SETTINGS_INITIAL_WINDOW_SIZE reduction)
+     */
+    public void updateSendWindow(long delta) {
+        sendWindow += delta;
+        if (sendWindow > Integer.MAX_VALUE) {
+            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Stream " + id + " window overflow");
+        }
+    }
+
+    /**
+     * Sets a body held in memory
+     * @param body      Body of the response
+     */
+    public void setBody(byte[] body) {
+        this.body = body;
+        this.length = body.length;
+    }
+
+    /**
+     * Sets a body held in a buffer (e.g. mapped from a content pack)
+     * @param body      Body of the response, from its position to its limit
+     */
+    public void setBody(ByteBuffer body) {
+        this.mappedBody = body;
+        this.length = body.remaining();
+    }
+
+    /**
+     * Sets a body read from a file
+     * @param file      File to serve
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void setBody(File file) throws IOException {
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        this.length = channel.size();
+    }
+
+    /**
+     * Get Bytes of the body pending to be sent
+     * @return long
+     */
+    public long getRemaining() {
+        return length - position;
+    }
+
+    /**
+     * Reads the next chunk of the body and consumes send window
+     * @param buffer    Destination
+     * @param max       Max bytes to read
+     * @return int      Bytes read
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public int readBody(byte[] buffer, int max) throws IOException {
+        int count = (int) Math.min(max, getRemaining());
+
+        if (body != null) {
+            System.arraycopy(body, (int) position, buffer, 0, count);
+        } else if (mappedBody != null) {
+            ByteBuffer src = mappedBody.duplicate();
+            src.position(src.position() + (int) position);
+            src.get(buffer, 0, count);
+        } else {
+            ByteBuffer dst = ByteBuffer.wrap(buffer, 0, count);
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, position + dst.position()) < 0) {
+                    throw new IOException("File truncated while serving stream " + id);
+                }
+            }
+        }
+        position += count;
+        sendWindow -= count;
+        return count;
+    }
+
+    /**
+     * Tests if the stream is waiting in the send queue
+     * @return boolean
+     */
+    public boolean isQueued() {
+        return queued;
+    }
+
+    /**
+     * Sets if the stream is waiting in the send queue
+     * @param queued    true = in send queue
+     */
+    public void setQueued(boolean queued) {
+        this.queued = queued;
+    }
+
+    /**
+     * Releases the resources of the stream
+     */
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing to do: the file was only read
+            }
+            channel = null;
+        }
+    }
+}
@@ -4,16 +4,15 @@
 
 package webserver;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import javax.net.ssl.SSLSocket;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -25,8 +24,10 @@ import org.apache.logging.log4j.Logger;
 public class HttpHandler {
     
     private static final Logger logger = LogManager.getLogger(HttpHandler.class.getName());
+    private static final Logger slowLogger = LogManager.getLogger("webserver.SlowRequests");
     private ServerSettings serverSettings;
     private Socket clientSocket = null;
+    private RequestTimings timings;
 
     /**
      * Class constructor
@@ -34,8 +35,19 @@ public class HttpHandler {
      * @param clientSocket      Socket of a client
      */
     public HttpHandler(ServerSettings serverSettings, Socket clientSocket) {
+        this(serverSettings, clientSocket, new RequestTimings(System.nanoTime()));
+    }
+
+    /**
+     * Class constructor
+     * @param serverSettings    Settings of the Web Server
+     * @param clientSocket      Socket of a client
+     * @param timings           Timestamps of the phases of the request
+     */
+    public HttpHandler(ServerSettings serverSettings, Socket clientSocket, RequestTimings timings) {
         this.serverSettings = serverSettings;
         this.clientSocket = clientSocket;
+        this.timings = timings;
     }
     
     /**
@@ -44,31 +56,91 @@ public class HttpHandler {
      *                     exception occurred
      */
     public void handleConnection() throws IOException {
-        InputStream input  = clientSocket.getInputStream();
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+        if (clientSocket instanceof SSLSocket && !handshake((SSLSocket) clientSocket)) {
+            clientSocket.close();
+            return;
+        }
+        InputStream input  = new BufferedInputStream(clientSocket.getInputStream());
         OutputStream output = clientSocket.getOutputStream();
-        final Writer writer = new OutputStreamWriter(output);
-        Request request = new Request(serverSettings, clientSocket, input, reader);
-        Response response = new Response(serverSettings, request, output, writer);
+        Request request = new Request(serverSettings, clientSocket, input, timings);
+        Response response = new Response(serverSettings, request, output, clientSocket.getChannel());
+        boolean http2 = false;  // Served by an HTTP/2 connection, not by this response
         
         try {
             logger.trace("read()");
             if (request.readRequest()) {
-                logger.trace("handleConnection - writeResponse");
-                response.writeResponse();
+                if (serverSettings.getHttp2() && request.isHttp2Preface()) {
+                    logger.trace("handleConnection - HTTP/2 prior knowledge");
+                    http2 = true;
+                    new Http2Connection(serverSettings, clientSocket, input, output).servePriorKnowledge();
+                } else if (serverSettings.getHttp2() && request.isHttp2Upgrade() && !(clientSocket instanceof SSLSocket)
+                        && new Http2Connection(serverSettings, clientSocket, input, output).serveUpgrade(request)) {
+                    logger.trace("handleConnection - HTTP/2 upgrade");
+                    http2 = true;
+                } else {
+                    long wait = acquire();
+                    if (wait > 0) {  // Rate limit of the client exceeded
+                        logger.trace("handleConnection - TooManyRequests");
+                        response.writeTooManyRequestsResponse(Response.retryAfterSeconds(wait));
+                    } else {
+                        logger.trace("handleConnection - writeResponse");
+                        response.writeResponse();
+                    }
+                }
             } else { // Wrong message in read()
                 logger.trace("handleConnection - BadRequest");
-                response.writeBadRequestResponse(writer);
+                response.writeBadRequestResponse();
             }
         } catch (SocketTimeoutException e) {
             logger.trace("handleConnection - SocketTimeoutException: ", e);
-            response.writeRequestTimeoutResponse(writer);
+            response.writeRequestTimeoutResponse();
         } catch (SocketException e) {
             logger.trace("handleConnection - SocketException: ", e);
-            response.writeServerErrortResponse(writer);
+            if (!clientSocket.isClosed() && !clientSocket.isOutputShutdown()) {  // TLS close_notify closes the connection
+                response.writeServerErrortResponse();
+            }
         }
 
-        writer.close();
+        logSlowRequest(request, response);
+        TrafficCapture trafficCapture = serverSettings.getTrafficCapture();
+        if (trafficCapture != null && !http2 && !request.isWarmUp()) {  // Only the HTTP/1.x responses of real traffic
+            trafficCapture.record(timings.getAcceptTime(), request.getRequestLine(), request.getHeaderView(), response.getStatus());
+        }
+        if (response.isHandedOff()) {  // Closed by the async writer
+            return;
+        }
+        output.close();
         input.close();
     }
+
+    // Writes the request to the slow request log with its phases if it took longer than the threshold
+    private void logSlowRequest(Request request, Response response) {
+        int threshold = serverSettings.getSlowRequestThreshold();
+        if (threshold > 0 && timings.getElapsedMillis() >= threshold) {
+            InetAddress client = clientSocket.getInetAddress();  // null if not connected (warm-up)
+            slowLogger.warn(((client == null) ? "-" : client.getHostAddress()) + " \"" + request.getRequestLine() + "\" "
+                    + response.getStatus() + " " + timings.getElapsedMillis() + " ms"
+                    + (response.isHandedOff() ? " (handed off)" : "") + ": " + timings);
+        }
+    }
+
+    // TLS handshake in the worker, a resumed session skips the key exchange (false = failed)
+    private boolean handshake(SSLSocket socket) {
+        try {
+            socket.setSoTimeout(serverSettings.getRequestReadTimeout());
+            socket.startHandshake();
+            logger.trace("TLS handshake: " + socket.getSession().getProtocol() + " "
+                    + socket.getSession().getCipherSuite() + " ALPN: " + socket.getApplicationProtocol());
+            return true;
+        } catch (IOException e) {
+            logger.trace("TLS handshake failed: ", e);
+            return false;
+        }
+    }
+
+    // Nanoseconds until the client can send a request (0 = allowed)
+    private long acquire() {
+        RateLimiter rateLimiter = serverSettings.getRateLimiter();
+        return (rateLimiter == null) ? 0 : rateLimiter.tryAcquire(clientSocket.getInetAddress());
+    }
 }
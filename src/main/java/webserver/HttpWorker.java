@@ -18,6 +18,8 @@ public class HttpWorker implements Runnable {
     private static final Logger logger = LogManager.getLogger(HttpWorker.class.getName());
     private ServerSettings serverSettings;
     private Socket clientSocket = null;
+    private final QueueWaitEvent queueWaitEvent = new QueueWaitEvent();
+    private final RequestTimings timings = new RequestTimings(System.nanoTime());
 
     /**
      * Class constructor
@@ -27,6 +29,7 @@ public class HttpWorker implements Runnable {
     public HttpWorker(ServerSettings serverSettings, Socket clientSocket) {
         this.serverSettings = serverSettings;
         this.clientSocket = clientSocket;
+        queueWaitEvent.begin();
     }
 
     /**
@@ -34,8 +37,14 @@ public class HttpWorker implements Runnable {
      */
     @Override
     public void run() {
+        timings.mark(RequestTimings.Phase.DEQUEUE);
+        queueWaitEvent.end();
+        if (queueWaitEvent.shouldCommit()) {
+            queueWaitEvent.remoteAddress = String.valueOf(clientSocket.getRemoteSocketAddress());
+            queueWaitEvent.commit();
+        }
         try {
-            HttpHandler httpHandler = new HttpHandler(serverSettings, clientSocket);
+            HttpHandler httpHandler = new HttpHandler(serverSettings, clientSocket, timings);
             httpHandler.handleConnection();
         } catch (IOException e) {
             logger.error("HttpWorker: ", e);
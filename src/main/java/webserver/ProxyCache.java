@@ -0,0 +1,136 @@
+/**
+ * ProxyCache: Cache of the responses of the upstream servers
+ */
+
+package webserver;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the responses of the upstream servers, shared by the reverse
+ * proxy routes. Only "200 OK" responses with a max-age (or s-maxage) and
+ * without no-store, no-cache, private, Vary or Set-Cookie are stored, for
+ * that time. The least recently used responses are evicted over maxSize
+ * bytes of body
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ProxyCache {
+
+    private final long maxSize;
+    private long size = 0;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Class constructor
+     * @param maxSize   Max bytes of body in the cache
+     */
+    public ProxyCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets a fresh response, with its Age header
+     * @param key               Upstream URL
+     * @return HandlerResponse  Response or null if not cached or expired
+     */
+    public synchronized HandlerResponse get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= entry.expires) {
+            remove(key);
+            return null;
+        }
+        HandlerResponse cached = entry.response;
+        HandlerResponse response = new HandlerResponse(cached.getStatus(), cached.getContentType(), cached.getBody());
+        for (Map.Entry<String, String> header : cached.getHeaders().entrySet()) {
+            response.addHeader(header.getKey(), header.getValue());
+        }
+        return response.addHeader("Age", Long.toString((now - entry.stored) / 1000));
+    }
+
+    /**
+     * Stores a response if it is cacheable
+     * @param key           Upstream URL
+     * @param response      Response
+     * @return boolean      true = stored
+     */
+    public synchronized boolean put(String key, HandlerResponse response) {
+        long maxAge = getMaxAge(response);
+        int length = response.getBody().length;
+        if (maxAge <= 0 || length > maxSize) {
+            return false;
+        }
+        remove(key);
+        long now = System.currentTimeMillis();
+        entries.put(key, new Entry(response, now, now + maxAge * 1000));
+        size += length;
+        for (Iterator<Entry> it = entries.values().iterator(); size > maxSize && it.hasNext();) {
+            size -= it.next().response.getBody().length;  // Least recently used first
+            it.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Get Number of cached responses
+     * @return int
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get Seconds a response can be cached
+     * @param response      Response of an upstream server
+     * @return long         Seconds (0 = not cacheable)
+     */
+    static long getMaxAge(HandlerResponse response) {
+        Map<String, String> headers = response.getHeaders();
+        String cacheControl = headers.get("Cache-Control");
+        if (!ServerSettings.HTTP_STR_OK.equals(response.getStatus()) || cacheControl == null
+                || headers.containsKey("Vary") || headers.containsKey("Set-Cookie")) {
+            return 0;
+        }
+        long maxAge = 0;
+        for (String directive : cacheControl.toLowerCase().split(",")) {
+            String[] parts = directive.trim().split("=", 2);
+            String name = parts[0].trim();
+            if ("no-store".equals(name) || "no-cache".equals(name) || "private".equals(name)) {
+                return 0;
+            }
+            if (parts.length == 2 && ("s-maxage".equals(name) || ("max-age".equals(name) && maxAge == 0))) {
+                try {
+                    maxAge = Long.parseLong(parts[1].trim().replace("\"", ""));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return maxAge;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.response.getBody().length;
+        }
+    }
+
+    // Cached response and its times
+    private static class Entry {
+        private final HandlerResponse response;
+        private final long stored;
+        private final long expires;
+
+        Entry(HandlerResponse response, long stored, long expires) {
+            this.response = response;
+            this.stored = stored;
+            this.expires = expires;
+        }
+    }
+}
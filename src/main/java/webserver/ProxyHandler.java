@@ -0,0 +1,431 @@
+/**
+ * ProxyHandler: Forwards requests to an upstream http server (reverse proxy)
+ */
+
+package webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Forwards the requests of a path prefix to an upstream http server (reverse
+ * proxy) over pooled keep-alive connections. With a cache, cacheable responses
+ * are served from it, and concurrent misses of the same URL are coalesced in a
+ * single upstream request whose response is shared. The path after the prefix
+ * is normalized ("." and ".." segments, also percent-encoded) and a path that
+ * leaves the base path of the upstream URL is refused. Like every request
+ * handler, only GET and HEAD requests are forwarded, without a body
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ProxyHandler implements RequestHandler {
+
+    /**
+     * Max bytes of the body of an upstream response
+     */
+    public static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+    private static final Set<String> HOP_BY_HOP_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "te", "trailer",
+            "transfer-encoding", "upgrade", "http2-settings", "host", "content-length", "content-type"));
+    private static final Logger logger = LogManager.getLogger(ProxyHandler.class.getName());
+    private final String prefix;
+    private final String basePath;
+    private final UpstreamConnectionPool pool;
+    private final ProxyCache cache;
+    private final int timeout;
+    private final Map<String, CompletableFuture<HandlerResponse>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Class constructor
+     * @param prefix        Path prefix of the route
+     * @param upstream      Upstream URL (http://host[:port][/base path])
+     * @param maxIdle       Max idle connections to the upstream server
+     * @param timeout       Connect and read timeout (milliseconds)
+     * @param cache         Cache of the responses or null
+     */
+    public ProxyHandler(String prefix, String upstream, int maxIdle, int timeout, ProxyCache cache) {
+        URI uri = URI.create(upstream);
+        if (!"http".equals(uri.getScheme()) || uri.getHost() == null) {
+            throw new WebServerException("Invalid upstream URL: " + upstream);
+        }
+        String path = (uri.getRawPath() == null) ? "" : uri.getRawPath();
+        this.prefix = prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        this.basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        this.pool = new UpstreamConnectionPool(uri.getHost(), (uri.getPort() < 0) ? 80 : uri.getPort(), maxIdle, timeout);
+        this.timeout = timeout;
+        this.cache = cache;
+    }
+
+    /**
+     * Registers the reverse proxy routes of the settings in the router
+     * ("prefix=url" pairs separated by commas)
+     * @param serverSettings    Settings of the Web Server
+     * @return int              Number of routes
+     */
+    public static int registerRoutes(ServerSettings serverSettings) {
+        ProxyCache cache = (serverSettings.getProxyCacheSize() > 0) ? new ProxyCache(serverSettings.getProxyCacheSize()) : null;
+        int routes = 0;
+        for (String route : serverSettings.getProxyRoutes().split(",")) {
+            if (route.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = route.trim().split("=", 2);
+            if (parts.length != 2 || !parts[0].startsWith("/")) {
+                throw new WebServerException("Invalid proxy route: " + route);
+            }
+            serverSettings.getRouter().register(parts[0].trim(), new ProxyHandler(parts[0].trim(), parts[1].trim(),
+                    serverSettings.getProxyPoolSize(), serverSettings.getProxyTimeout(), cache));
+            logger.info("Proxy route: " + parts[0].trim() + " -> " + parts[1].trim());
+            routes++;
+        }
+        return routes;
+    }
+
+    @Override
+    public HandlerResponse handle(String method, String requestUri, Map<String, String> headers) {
+        String remainder = normalize(requestUri.substring(Math.min(prefix.length(), requestUri.length())));
+        if (remainder == null) {  // Out of the base path
+            logger.info("Proxy path refused: " + requestUri);
+            return errorResponse(ServerSettings.HTTP_STR_BAD_REQUEST);
+        }
+        String target = basePath + remainder;
+        target = target.startsWith("/") ? target : "/" + target;
+        String key = pool.getAuthority() + target;
+        boolean shared = cache != null && !headers.containsKey("authorization") && !headers.containsKey("cookie");
+
+        try {
+            if (shared && !isNoCache(headers)) {
+                HandlerResponse cached = cache.get(key);
+                if (cached != null) {
+                    logger.trace("Proxy cache hit: " + key);
+                    return cached;
+                }
+            }
+            if (!shared || !"GET".equals(method)) {
+                return fetch(method, target, headers);
+            }
+            return fetchCoalesced(key, target, headers);
+        } catch (SocketTimeoutException e) {
+            logger.info("Upstream timeout: " + key, e);
+            return errorResponse(ServerSettings.HTTP_STR_GATEWAY_TIMEOUT);
+        } catch (IOException e) {
+            logger.info("Upstream error: " + key, e);
+            return errorResponse(ServerSettings.HTTP_STR_BAD_GATEWAY);
+        }
+    }
+
+    /**
+     * Get Pool of connections to the upstream server
+     * @return UpstreamConnectionPool
+     */
+    public UpstreamConnectionPool getPool() {
+        return pool;
+    }
+
+    // The first miss fetches, the concurrent ones wait for its response if it is
+    // cacheable (else they fetch their own)
+    private HandlerResponse fetchCoalesced(String key, String target, Map<String, String> headers) throws IOException {
+        CompletableFuture<HandlerResponse> own = new CompletableFuture<>();
+        CompletableFuture<HandlerResponse> leader = inFlight.putIfAbsent(key, own);
+
+        if (leader != null) {
+            HandlerResponse response = await(leader);
+            if (response != null) {
+                logger.trace("Proxy coalesced: " + key);
+                HandlerResponse cached = cache.get(key);  // With its Age
+                return (cached != null) ? cached : response;
+            }
+            return fetch("GET", target, headers);
+        }
+        try {
+            HandlerResponse response = fetch("GET", target, headers);
+            own.complete(cache.put(key, response) ? response : null);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            own.complete(null);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    private HandlerResponse await(CompletableFuture<HandlerResponse> leader) throws IOException {
+        try {
+            return leader.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new SocketTimeoutException("Coalesced request timed out");
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+    }
+
+    // A pooled connection may have been closed by the upstream server: retried on another one
+    private HandlerResponse fetch(String method, String target, Map<String, String> headers) throws IOException {
+        while (true) {
+            UpstreamConnectionPool.Connection connection = pool.borrow();
+            try {
+                writeRequest(connection.getOutput(), method, target, headers);
+                return readResponse(connection, method);
+            } catch (SocketTimeoutException e) {
+                connection.close();
+                throw e;
+            } catch (IOException e) {
+                connection.close();
+                if (!connection.isReused()) {
+                    throw e;
+                }
+                logger.trace("Stale upstream connection, retrying: ", e);
+            }
+        }
+    }
+
+    private void writeRequest(OutputStream output, String method, String target, Map<String, String> headers)
+            throws IOException {
+        StringBuilder request = new StringBuilder();
+        request.append(method).append(' ').append(target).append(" HTTP/1.1\r\n")
+               .append("Host: ").append(pool.getAuthority()).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!HOP_BY_HOP_HEADERS.contains(header.getKey()) && !header.getKey().startsWith(":")) {
+                request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+        request.append("Connection: keep-alive\r\n\r\n");
+        output.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        output.flush();
+    }
+
+    private HandlerResponse readResponse(UpstreamConnectionPool.Connection connection, String method) throws IOException {
+        InputStream input = connection.getInput();
+        String statusLine;
+        Map<String, String> headers;
+        do {  // Interim responses (100 Continue) are skipped
+            statusLine = readLine(input);
+            if (statusLine == null || !statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+                throw new IOException("Invalid upstream status line: " + statusLine);
+            }
+            headers = readHeaders(input);
+        } while (statusLine.charAt(9) == '1');
+
+        String status = statusLine.substring(9);
+        boolean keepAlive = statusLine.startsWith("HTTP/1.1") && !"close".equalsIgnoreCase(headers.get("connection"));
+        byte[] body;
+        if ("HEAD".equals(method) || status.startsWith("204") || status.startsWith("304")) {
+            body = new byte[0];
+        } else if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            body = readChunked(input);
+        } else if (headers.containsKey("content-length")) {
+            body = readFully(input, parseLength(headers.get("content-length"), 10));
+        } else {  // Delimited by the end of the connection
+            body = readToEnd(input);
+            keepAlive = false;
+        }
+        if (keepAlive) {
+            pool.release(connection);
+        } else {
+            connection.close();
+        }
+
+        String contentType = headers.containsKey("content-type") ? headers.get("content-type") : "";
+        HandlerResponse response = new HandlerResponse(status, contentType, body);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!HOP_BY_HOP_HEADERS.contains(header.getKey())) {
+                response.addHeader(canonicalName(header.getKey()), header.getValue());
+            }
+        }
+        return response;
+    }
+
+    static Map<String, String> readHeaders(InputStream input) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        String line;
+        while ((line = readLine(input)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.merge(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim(),
+                        (a, b) -> a + ", " + b);
+            }
+        }
+        if (line == null) {
+            throw new IOException("Upstream connection closed in the headers");
+        }
+        return headers;
+    }
+
+    private static byte[] readChunked(InputStream input) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String line = readLine(input);
+            if (line == null) {
+                throw new IOException("Upstream connection closed in a chunk");
+            }
+            int semicolon = line.indexOf(';');
+            long size = parseLength((semicolon < 0) ? line : line.substring(0, semicolon), 16);
+            if (size == 0) {
+                readHeaders(input);  // Trailers
+                return body.toByteArray();
+            }
+            if (body.size() + size > MAX_BODY_SIZE) {
+                throw new IOException("Upstream response too large");
+            }
+            body.write(readFully(input, size));
+            readLine(input);
+        }
+    }
+
+    // A malformed length of the upstream response is an upstream error (502)
+    private static long parseLength(String value, int radix) throws IOException {
+        try {
+            long length = Long.parseLong(value.trim(), radix);
+            if (length < 0) {
+                throw new IOException("Negative upstream length: " + value);
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid upstream length: " + value, e);
+        }
+    }
+
+    /**
+     * Normalizes the path after the prefix of a route: removes the "." and
+     * empty segments and resolves the ".." segments (also percent-encoded),
+     * keeping the query
+     * @param remainder     Path after the prefix, with its query
+     * @return String       Normalized path or null if it leaves the base path
+     *                      (or has an encoded separator or an invalid escape)
+     */
+    static String normalize(String remainder) {
+        int query = remainder.indexOf('?');
+        String path = (query < 0) ? remainder : remainder.substring(0, query);
+        Deque<String> segments = new ArrayDeque<>();
+        String decoded = "";
+        for (String part : path.split("/", -1)) {
+            decoded = decode(part);
+            if (decoded == null || decoded.indexOf('/') >= 0 || decoded.indexOf('\\') >= 0) {
+                return null;
+            }
+            if ("..".equals(decoded)) {
+                if (segments.isEmpty()) {
+                    return null;
+                }
+                segments.removeLast();
+            } else if (!decoded.isEmpty() && !".".equals(decoded)) {
+                segments.addLast(part);
+            }
+        }
+        StringBuilder normalized = new StringBuilder(remainder.length());
+        for (String segment : segments) {
+            normalized.append('/').append(segment);
+        }
+        if (!path.isEmpty() && (decoded.isEmpty() || ".".equals(decoded) || "..".equals(decoded))) {  // Directory
+            normalized.append('/');
+        }
+        return normalized.append((query < 0) ? "" : remainder.substring(query)).toString();
+    }
+
+    // Percent-decodes a path segment, null if an escape is invalid
+    private static String decode(String segment) {
+        if (segment.indexOf('%') < 0) {
+            return segment;
+        }
+        StringBuilder decoded = new StringBuilder(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= segment.length() || Character.digit(segment.charAt(i + 1), 16) < 0
+                        || Character.digit(segment.charAt(i + 2), 16) < 0) {
+                    return null;
+                }
+                c = (char) Integer.parseInt(segment.substring(i + 1, i + 3), 16);
+                i += 2;
+            }
+            decoded.append(c);
+        }
+        return decoded.toString();
+    }
+
+    static byte[] readFully(InputStream input, long length) throws IOException {
+        if (length > MAX_BODY_SIZE) {
+            throw new IOException("Upstream response too large: " + length);
+        }
+        byte[] body = new byte[(int) length];
+        int offset = 0;
+        while (offset < body.length) {
+            int read = input.read(body, offset, body.length - offset);
+            if (read < 0) {
+                throw new IOException("Upstream connection closed in the body");
+            }
+            offset += read;
+        }
+        return body;
+    }
+
+    private static byte[] readToEnd(InputStream input) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            if (body.size() + read > MAX_BODY_SIZE) {
+                throw new IOException("Upstream response too large");
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = input.read()) != '\n') {
+            if (c < 0) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static boolean isNoCache(Map<String, String> headers) {
+        String cacheControl = headers.get("cache-control");
+        return cacheControl != null && (cacheControl.contains("no-cache") || cacheControl.contains("no-store"));
+    }
+
+    // e.g. "cache-control" -> "Cache-Control"
+    private static String canonicalName(String name) {
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (i == 0 || chars[i - 1] == '-') {
+                chars[i] = Character.toUpperCase(chars[i]);
+            }
+        }
+        return new String(chars);
+    }
+
+    private static HandlerResponse errorResponse(String status) {
+        return new HandlerResponse(status, "text/html",
+                Response.buildHttpErrorBody(status).getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * QueueWaitEvent: JFR event of the wait of a connection in the queue of the thread pool
+ */
+
+package webserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of the wait of a connection in the queue of the thread pool
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+@Name("webserver.QueueWait")
+@Label("Queue Wait")
+@Description("Time from the accept of a connection until a worker takes it")
+@Category({"Web Server", "Request Lifecycle"})
+@StackTrace(false)
+public class QueueWaitEvent extends Event {
+
+    @Label("Remote Address")
+    String remoteAddress;
+}
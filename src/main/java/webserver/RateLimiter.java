@@ -0,0 +1,151 @@
+/**
+ * RateLimiter: Limits the request rate of every client address
+ */
+
+package webserver;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Limits the request rate of every client address with a token bucket
+ * (rate tokens per second, up to burst tokens). A bucket is a single
+ * "theoretical arrival time" updated with compare-and-set (GCRA), so the
+ * workers never lock; the buckets live in a concurrent map, striped by
+ * client address. An IPv6 client is limited by its /64 prefix, the usual
+ * allocation of a single host or site, so it cannot take new buckets by
+ * changing its source address. Memory is bounded: buckets that are full
+ * again (idle clients) are removed once per second and, over the max
+ * clients, the new clients share a single overflow bucket until the sweep
+ * frees room
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class RateLimiter {
+
+    /**
+     * Max number of client addresses tracked at the same time
+     */
+    public static final int MAX_CLIENTS = 65536;
+
+    /**
+     * Bytes of an IPv6 address that identify a client (its /64 prefix)
+     */
+    public static final int IPV6_PREFIX_BYTES = 8;
+
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final Logger logger = LogManager.getLogger(RateLimiter.class.getName());
+    private final long interval;
+    private final long tolerance;
+    private final int maxClients;
+    private final AtomicLong overflow = new AtomicLong(System.nanoTime());
+    private final Map<InetAddress, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL);
+
+    /**
+     * Class constructor
+     * @param rate      Requests per second of a client, sustained
+     * @param burst     Requests of a client at once
+     */
+    public RateLimiter(int rate, int burst) {
+        this(rate, burst, MAX_CLIENTS);
+    }
+
+    /**
+     * Class constructor
+     * @param rate          Requests per second of a client, sustained
+     * @param burst         Requests of a client at once
+     * @param maxClients    Max number of client addresses tracked at the same time
+     */
+    public RateLimiter(int rate, int burst, int maxClients) {
+        this.interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        this.tolerance = interval * Math.max(burst - 1, 0);
+        this.maxClients = Math.max(maxClients, 1);
+    }
+
+    /**
+     * Takes a token of the bucket of a client
+     * @param client    Client address (null = not limited)
+     * @return long     0 if the request is allowed, else nanoseconds until a token is available
+     */
+    public long tryAcquire(InetAddress client) {
+        if (client == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        sweep(now);
+        InetAddress key = clientKey(client);
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = (buckets.size() >= maxClients) ? overflow : buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        return take(bucket, now);
+    }
+
+    /**
+     * Gets the address that identifies a client: an IPv4 address, or the
+     * /64 prefix of an IPv6 address
+     * @param client        Client address
+     * @return InetAddress
+     */
+    public static InetAddress clientKey(InetAddress client) {
+        if (!(client instanceof Inet6Address)) {
+            return client;
+        }
+        byte[] prefix = Arrays.copyOf(client.getAddress(), 16);
+        Arrays.fill(prefix, IPV6_PREFIX_BYTES, prefix.length, (byte) 0);
+        try {
+            return InetAddress.getByAddress(prefix);
+        } catch (UnknownHostException e) {  // Not thrown for 16 bytes
+            return client;
+        }
+    }
+
+    // Takes a token of a bucket, returns 0 or the nanoseconds until a token is available
+    private long take(AtomicLong bucket, long now) {
+        while (true) {
+            long arrival = bucket.get();
+            long next = Math.max(arrival, now) + interval;
+            long wait = next - now - tolerance - interval;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Get Number of client addresses tracked
+     * @return int
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    // Removes the buckets that are full again, one thread per interval
+    private void sweep(long now) {
+        long sweepTime = nextSweep.get();
+        if (now - sweepTime < 0 || !nextSweep.compareAndSet(sweepTime, now + SWEEP_INTERVAL)) {
+            return;
+        }
+        int before = buckets.size();
+        for (Iterator<AtomicLong> it = buckets.values().iterator(); it.hasNext();) {
+            if (it.next().get() - now <= 0) {
+                it.remove();
+            }
+        }
+        if (before >= maxClients) {
+            logger.warn("Rate limiter full: " + before + " clients, " + buckets.size() + " after sweep");
+        }
+    }
+}
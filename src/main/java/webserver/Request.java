@@ -2,16 +2,15 @@
  * Request: Manages the http request
  */
 
-package webserver; 
+package webserver;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.ProtocolException;
 import java.net.Socket;
-import java.util.LinkedHashMap;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -21,43 +20,58 @@ import org.apache.logging.log4j.Logger;
  */
 public class Request {
 
-    private static final Pattern HEADER_LINE_ACCEPTED = Pattern.compile("([^:]*):\\s*(.*)");
     private static final Logger logger = LogManager.getLogger(Request.class.getName());
     private ServerSettings serverSettings;
     private Socket clientSocket;
     private InputStream input;
-    private BufferedReader reader;
     private String requestLine;
-    
+    private RequestHeaders requestHeaders = RequestHeaders.EMPTY;
+    private RequestTimings timings;
+
     /**
      * Class constructor
      * @param serverSettings    Settings of the Web Server
      * @param clientSocket      Socket of a client
-     * @param input             Input of the request
-     * @param reader            Buffer for the request
+     * @param input             Buffered input of the request
+     * @param timings           Timestamps of the phases of the request
      */
-    public Request(ServerSettings serverSettings, Socket clientSocket, InputStream input, BufferedReader reader) {
+    public Request(ServerSettings serverSettings, Socket clientSocket, InputStream input, RequestTimings timings) {
         this.serverSettings = serverSettings;
         this.clientSocket = clientSocket;
         this.input = input;
-        this.reader = reader;
+        this.timings = timings;
         logger.trace("Request->clientSocket: " + this.clientSocket);
         logger.trace("Request->input: " + this.input);
     }
 
     /**
      * Reads the http request
-     * @throws IOException If an input or output 
+     * @throws IOException If an input or output
      *                     exception occurred
      * @return boolean
      */
     public boolean readRequest() throws IOException {
-        Map<String, String> requestHeaders;
-        
+        RequestParseEvent parseEvent = new RequestParseEvent();
+        parseEvent.begin();
+        boolean valid = parseRequest();
+        parseEvent.end();
+        if (parseEvent.shouldCommit()) {
+            parseEvent.requestLine = requestLine;
+            parseEvent.valid = valid;
+            parseEvent.commit();
+        }
+        return valid;
+    }
+
+    private boolean parseRequest() throws IOException {
         requestLine = readRequestLine();
         if ((requestLine != null) && (!"".equals(this.requestLine))) {  // No empty requestLine
-            requestHeaders = readRequestHeaders(reader);
-            if (!requestHeaders.isEmpty()) {  // No empty requestHeaders
+            if (isHttp2Preface()) {  // The rest of the preface is binary, read by Http2Connection
+                return true;
+            }
+            requestHeaders = readRequestHeaders();
+            timings.mark(RequestTimings.Phase.HEADERS_PARSED);
+            if (requestHeaders.size() > 0) {  // No empty requestHeaders
                 return true;
             }
         }
@@ -65,6 +79,14 @@ public class Request {
         return false;
     }
 
+    /**
+     * Get Timestamps of the phases of the request
+     * @return RequestTimings
+     */
+    public RequestTimings getTimings() {
+        return timings;
+    }
+
     /**
      * Reads the line of the request
      * @return String
@@ -72,37 +94,131 @@ public class Request {
     public String getRequestLine() {
         return this.requestLine;
     }
-    
+
+    /**
+     * Gets the value of a request header
+     * @param name      Header name (case insensitive)
+     * @return String   Header value or null if the header was not sent
+     */
+    public String getHeader(String name) {
+        return requestHeaders.get(name);
+    }
+
+    /**
+     * Get Request headers over the raw request bytes
+     * @return RequestHeaders
+     */
+    public RequestHeaders getHeaderView() {
+        return requestHeaders;
+    }
+
+    /**
+     * Get Request headers as a map with lower case names, built on the first
+     * call (getHeader and getHeaderView do not build it)
+     * @return Map<String, String>
+     */
+    public Map<String, String> getHeaders() {
+        return requestHeaders.asMap();
+    }
+
+    /**
+     * Gets the body of the request, from its chunked transfer coding or its
+     * Content-Length, read with the request read timeout
+     * @throws ProtocolException If the Content-Length is invalid or the
+     *                           transfer coding is not chunked
+     * @throws IOException If an input or output
+     *                     exception occurred
+     * @return RequestBody   Body or null if the length of the body is not known
+     */
+    public RequestBody getBody() throws IOException {
+        String transferEncoding = requestHeaders.get("Transfer-Encoding");
+        String contentLength = requestHeaders.get("Content-Length");
+        clientSocket.setSoTimeout(serverSettings.getRequestReadTimeout());
+        if (transferEncoding != null) {
+            if (!"chunked".equalsIgnoreCase(transferEncoding.trim())) {
+                throw new ProtocolException("Transfer coding not supported: " + transferEncoding);
+            }
+            return new RequestBody(input);
+        }
+        if (contentLength == null) {
+            return null;
+        }
+        try {
+            long length = Long.parseLong(contentLength.trim());
+            if (length >= 0) {
+                return new RequestBody(input, length);
+            }
+        } catch (NumberFormatException e) {
+            logger.trace("Invalid Content-Length: ", e);
+        }
+        throw new ProtocolException("Invalid Content-Length: " + contentLength);
+    }
+
+    /**
+     * Tests if the request line is the start of the HTTP/2 connection preface
+     * (HTTP/2 with prior knowledge)
+     * @return boolean
+     */
+    public boolean isHttp2Preface() {
+        return Http2Connection.PREFACE_REQUEST_LINE.equals(requestLine);
+    }
+
+    /**
+     * Tests if the request asks to upgrade the connection to HTTP/2 over cleartext (h2c)
+     * @return boolean
+     */
+    public boolean isHttp2Upgrade() {
+        if (!requestHeaders.contains("HTTP2-Settings") || requestLine == null) {
+            return false;
+        }
+        if (!requestLine.endsWith(" HTTP/1.1") || !(requestLine.startsWith("GET ") || requestLine.startsWith("HEAD "))) {
+            return false;  // Only requests without body are upgraded
+        }
+        return requestHeaders.hasToken("Upgrade", "h2c");
+    }
+
+    /**
+     * Tests if the request is one of the warm-up, not real traffic
+     * @return boolean
+     */
+    public boolean isWarmUp() {
+        return WarmUp.isWarmUp(clientSocket);
+    }
+
     private String readRequestLine() throws IOException {
         String reqLine;
-        
+
         clientSocket.setSoTimeout(serverSettings.getRequestReadTimeout());
-        reqLine = reader.readLine();
+        reqLine = readLine();
         logger.trace("Request line: " + reqLine);
-    
+
         return reqLine;
     }
-    
-    private Map<String, String> readRequestHeaders(BufferedReader reader) throws IOException {
-        Map<String, String> headers = new LinkedHashMap<>();
-        int length;
-        
+
+    private RequestHeaders readRequestHeaders() throws IOException {
         clientSocket.setSoTimeout(serverSettings.getHeaderReadTimeout());
-        do {
-            String headerLine = reader.readLine();
-            logger.trace("Request Header line: " + headerLine);
-            length = headerLine.length();
-            logger.trace("Header line Lenght: " + length);
-            if (length > 0) {
-                Matcher matcher = HEADER_LINE_ACCEPTED.matcher(headerLine);
-                if (matcher.matches()) {
-                    headers.put(matcher.group(1), matcher.group(2).toLowerCase());
-                } else {
-                    logger.info("Skipping invalid header: " + headerLine);
-                }
-            }
-        } while (length > 0);
+        return RequestHeaders.read(input);
+    }
+
+    // Reads a line terminated by LF or CRLF, byte by byte, so that no data
+    // beyond the line is consumed from the input
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b = input.read();
 
-        return headers;
+        if (b == -1) {
+            return null;
+        }
+        timings.mark(RequestTimings.Phase.FIRST_BYTE);
+        while (b != -1 && b != '\n') {
+            line.write(b);
+            b = input.read();
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
     }
 }
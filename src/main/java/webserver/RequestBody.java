@@ -0,0 +1,148 @@
+/**
+ * RequestBody: Body of a http request
+ */
+
+package webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+
+/**
+ * Body of a http request, read from the input of the connection as it is
+ * consumed: the number of bytes of the Content-Length header or, with the
+ * chunked transfer coding, the data of the chunks up to the last chunk (the
+ * chunk extensions and the trailers are skipped). Nothing is buffered by the
+ * body itself, so a body of any size is streamed with the memory of the
+ * caller's buffer. A malformed or truncated body throws a ProtocolException
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class RequestBody extends InputStream {
+
+    // Max length of a chunk size line or of a trailer line
+    private static final int MAX_LINE_LENGTH = 4096;
+    private final InputStream input;
+    private final boolean chunked;
+    private final long length;
+    private long remaining;
+    private boolean firstChunk = true;
+    private boolean finished = false;
+
+    /**
+     * Class constructor, for a body with a Content-Length
+     * @param input     Input of the request, after the headers
+     * @param length    Bytes of the body
+     */
+    public RequestBody(InputStream input, long length) {
+        this.input = input;
+        this.chunked = false;
+        this.length = length;
+        this.remaining = length;
+    }
+
+    /**
+     * Class constructor, for a body with the chunked transfer coding
+     * @param input     Input of the request, after the headers
+     */
+    public RequestBody(InputStream input) {
+        this.input = input;
+        this.chunked = true;
+        this.length = -1;
+        this.remaining = 0;
+    }
+
+    /**
+     * Get Bytes of the body (-1 = chunked, not known until it is read)
+     * @return long
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Tests if the whole body has been read
+     * @return boolean
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            if (!chunked || !nextChunk()) {
+                finished = true;
+                return -1;
+            }
+        }
+        int read = input.read(b, off, (int) Math.min(len, remaining));
+        if (read < 0) {
+            throw new ProtocolException("Request body truncated");
+        }
+        remaining -= read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(input.available(), remaining);
+    }
+
+    // Reads the size line of the next chunk, false = last chunk (trailers skipped)
+    private boolean nextChunk() throws IOException {
+        if (!firstChunk && !"".equals(readLine())) {  // CRLF after the data of a chunk
+            throw new ProtocolException("Chunk not terminated by CRLF");
+        }
+        firstChunk = false;
+        String line = readLine();
+        int semicolon = line.indexOf(';');
+        String size = ((semicolon < 0) ? line : line.substring(0, semicolon)).trim();
+        try {
+            remaining = Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid chunk size: " + line);
+        }
+        if (remaining < 0) {
+            throw new ProtocolException("Invalid chunk size: " + line);
+        }
+        if (remaining == 0) {
+            while (!"".equals(readLine())) {
+                // Skip the trailers
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // Reads a line terminated by LF or CRLF, byte by byte
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b == -1) {
+                throw new ProtocolException("Request body truncated");
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new ProtocolException("Chunk line too long");
+            }
+            line.append((char) b);
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * RequestHandler: Handles requests in process, instead of the document root
+ */
+
+package webserver;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Handles requests in process, instead of the document root (health checks,
+ * metrics, computed responses). Handlers are registered in the {@link Router}
+ * by path prefix and are called by several threads at the same time, over
+ * HTTP/1.x and HTTP/2
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public interface RequestHandler {
+
+    /**
+     * Handles a request
+     * @param method            Method (GET or HEAD)
+     * @param requestUri        Request URI, including the query
+     * @param headers           Request headers, with lower case names
+     * @return HandlerResponse  Response (the body of a HEAD request is discarded)
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    HandlerResponse handle(String method, String requestUri, Map<String, String> headers) throws IOException;
+}
@@ -0,0 +1,248 @@
+/**
+ * RequestHeaders: Headers of a http request over the raw request bytes
+ */
+
+package webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Headers of a http request over the raw request bytes. The header lines are
+ * kept as read, with the offsets of the name and value of every header, so
+ * the names are looked up case insensitive without building a map of Strings
+ * and only the values asked for are decoded (ISO-8859-1), with their case.
+ * If a header is sent more than once, the last one is found
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class RequestHeaders {
+
+    /**
+     * Headers of a request without headers
+     */
+    public static final RequestHeaders EMPTY = new RequestHeaders(new byte[0], new int[0], 0);
+
+    // Offsets per header in fields: name start, name end, value start, value end
+    private static final int FIELDS = 4;
+    private static final Logger logger = LogManager.getLogger(RequestHeaders.class.getName());
+    private final byte[] bytes;
+    private final int[] fields;
+    private final int count;
+    private Map<String, String> map = null;
+
+    private RequestHeaders(byte[] bytes, int[] fields, int count) {
+        this.bytes = bytes;
+        this.fields = fields;
+        this.count = count;
+    }
+
+    /**
+     * Reads the header lines up to the empty line (or the end of the input),
+     * byte by byte, so that no data beyond the headers is consumed. Lines
+     * without a colon are skipped
+     * @param input     Input of the request, after the request line
+     * @throws IOException If an input or output
+     *                     exception occurred
+     * @return RequestHeaders
+     */
+    public static RequestHeaders read(InputStream input) throws IOException {
+        byte[] buf = new byte[512];
+        int length = 0;
+        int[] offsets = new int[16 * FIELDS];
+        int n = 0;
+        int lineStart = 0;
+        int b;
+
+        while ((b = input.read()) != -1) {
+            if (b != '\n') {
+                if (length == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                buf[length++] = (byte) b;
+                continue;
+            }
+            int lineEnd = (length > lineStart && buf[length - 1] == '\r') ? length - 1 : length;
+            if (lineEnd == lineStart) {  // Empty line, end of the headers
+                break;
+            }
+            int colon = indexOf(buf, lineStart, lineEnd, (byte) ':');
+            if (colon < 0) {
+                logger.info("Skipping invalid header: " + new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1));
+            } else {
+                if ((n + 1) * FIELDS > offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                int valueStart = colon + 1;
+                int valueEnd = lineEnd;
+                while (valueStart < valueEnd && isWhitespace(buf[valueStart])) {
+                    valueStart++;
+                }
+                while (valueEnd > valueStart && isWhitespace(buf[valueEnd - 1])) {
+                    valueEnd--;
+                }
+                int i = n * FIELDS;
+                offsets[i] = lineStart;
+                offsets[i + 1] = colon;
+                offsets[i + 2] = valueStart;
+                offsets[i + 3] = valueEnd;
+                n++;
+            }
+            lineStart = length;
+        }
+        RequestHeaders headers = (n == 0) ? EMPTY : new RequestHeaders(buf, offsets, n);
+        if (logger.isTraceEnabled()) {
+            logger.trace("Request Headers: " + headers.asMap());
+        }
+        return headers;
+    }
+
+    /**
+     * Get Number of headers
+     * @return int
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the name of a header, as sent
+     * @param index     Index of the header (0 to size() - 1)
+     * @return String
+     */
+    public String getName(int index) {
+        int i = index * FIELDS;
+        return new String(bytes, fields[i], fields[i + 1] - fields[i], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the value of a header, as sent
+     * @param index     Index of the header (0 to size() - 1)
+     * @return String
+     */
+    public String getValue(int index) {
+        int i = index * FIELDS;
+        return new String(bytes, fields[i + 2], fields[i + 3] - fields[i + 2], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Finds a header
+     * @param name      Header name (case insensitive)
+     * @return int      Index of the last header with the name or -1 if it was not sent
+     */
+    public int indexOf(String name) {
+        for (int index = count - 1; index >= 0; index--) {
+            int i = index * FIELDS;
+            if (equalsIgnoreCase(fields[i], fields[i + 1], name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tests if a header was sent
+     * @param name      Header name (case insensitive)
+     * @return boolean
+     */
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Gets the value of a header
+     * @param name      Header name (case insensitive)
+     * @return String   Header value or null if the header was not sent
+     */
+    public String get(String name) {
+        int index = indexOf(name);
+        return (index < 0) ? null : getValue(index);
+    }
+
+    /**
+     * Tests if the comma separated list of a header has a token, without
+     * decoding the value (e.g. "Connection: keep-alive", "Accept-Encoding: gzip").
+     * The parameters of an element (";q=0.5") are ignored
+     * @param name      Header name (case insensitive)
+     * @param token     Token (case insensitive)
+     * @return boolean
+     */
+    public boolean hasToken(String name, String token) {
+        int index = indexOf(name);
+        if (index < 0) {
+            return false;
+        }
+        int end = fields[index * FIELDS + 3];
+        int start = fields[index * FIELDS + 2];
+        while (start < end) {
+            int comma = indexOf(bytes, start, end, (byte) ',');
+            int elementEnd = (comma < 0) ? end : comma;
+            int semicolon = indexOf(bytes, start, elementEnd, (byte) ';');
+            int tokenEnd = (semicolon < 0) ? elementEnd : semicolon;
+            int tokenStart = start;
+            while (tokenStart < tokenEnd && isWhitespace(bytes[tokenStart])) {
+                tokenStart++;
+            }
+            while (tokenEnd > tokenStart && isWhitespace(bytes[tokenEnd - 1])) {
+                tokenEnd--;
+            }
+            if (equalsIgnoreCase(tokenStart, tokenEnd, token)) {
+                return true;
+            }
+            start = elementEnd + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the headers as a map with lower case names, built on the first call
+     * (e.g. for the request handlers)
+     * @return Map<String, String>
+     */
+    public Map<String, String> asMap() {
+        if (map == null) {
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (int index = 0; index < count; index++) {
+                headers.put(getName(index).toLowerCase(), getValue(index));
+            }
+            map = Collections.unmodifiableMap(headers);
+        }
+        return map;
+    }
+
+    private boolean equalsIgnoreCase(int start, int end, String str) {
+        int length = str.length();
+        if (end - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLowerCase(bytes[start + i] & 0xff) != toLowerCase(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLowerCase(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int indexOf(byte[] buf, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * RequestParseEvent: JFR event of the read and parse of a request
+ */
+
+package webserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of the read and parse of a request
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+@Name("webserver.RequestParse")
+@Label("Request Parse")
+@Description("Read of the request line and headers")
+@Category({"Web Server", "Request Lifecycle"})
+@StackTrace(false)
+public class RequestParseEvent extends Event {
+
+    @Label("Request Line")
+    String requestLine;
+
+    @Label("Valid")
+    boolean valid;
+}
@@ -0,0 +1,114 @@
+/**
+ * RequestTimings: Timestamps of the phases of a request
+ */
+
+package webserver;
+
+import java.util.Locale;
+
+/**
+ * Timestamps of the phases of a request, from the accept of the connection
+ * to the end of the body of the response, for the slow request log. Every
+ * phase keeps the time of its first mark
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class RequestTimings {
+
+    /**
+     * Phases of a request, in order
+     */
+    public enum Phase {
+        /** Connection accepted */
+        ACCEPT("accept"),
+        /** Connection taken by a worker of the pool */
+        DEQUEUE("dequeue"),
+        /** First byte of the request read */
+        FIRST_BYTE("firstByte"),
+        /** Request line and headers parsed */
+        HEADERS_PARSED("headersParsed"),
+        /** Request URI resolved (file, content pack or request handler) */
+        RESOLVED("resolved"),
+        /** Status line and headers written */
+        HEADERS_SENT("headersSent"),
+        /** Body of the response written */
+        BODY_COMPLETE("bodyComplete");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private final long[] marks = new long[PHASES.length];
+    private final boolean[] marked = new boolean[PHASES.length];
+
+    /**
+     * Class constructor
+     * @param acceptTime    Time of the accept of the connection (System.nanoTime())
+     */
+    public RequestTimings(long acceptTime) {
+        marks[Phase.ACCEPT.ordinal()] = acceptTime;
+        marked[Phase.ACCEPT.ordinal()] = true;
+    }
+
+    /**
+     * Marks the current time as the time of a phase, if it is not marked yet
+     * @param phase     Phase of the request
+     */
+    public void mark(Phase phase) {
+        int i = phase.ordinal();
+        if (!marked[i]) {
+            marks[i] = System.nanoTime();
+            marked[i] = true;
+        }
+    }
+
+    /**
+     * Get Time of the accept of the connection (System.nanoTime())
+     * @return long
+     */
+    public long getAcceptTime() {
+        return marks[Phase.ACCEPT.ordinal()];
+    }
+
+    /**
+     * Get Milliseconds from the accept of the connection to the last phase marked
+     * @return long
+     */
+    public long getElapsedMillis() {
+        return (last() - marks[0]) / 1000000;
+    }
+
+    /**
+     * Gets the milliseconds from the accept of the connection to every phase
+     * marked, e.g. "accept=0.000 dequeue=0.052 firstByte=0.310 ..."
+     * @return String
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(160);
+        for (int i = 0; i < PHASES.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(PHASES[i].label).append('=');
+            if (marked[i]) {
+                sb.append(String.format(Locale.ROOT, "%.3f", (marks[i] - marks[0]) / 1e6));
+            } else {
+                sb.append('-');
+            }
+        }
+        return sb.toString();
+    }
+
+    private long last() {
+        for (int i = PHASES.length - 1; i > 0; i--) {
+            if (marked[i]) {
+                return marks[i];
+            }
+        }
+        return marks[0];
+    }
+}
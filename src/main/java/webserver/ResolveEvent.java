@@ -0,0 +1,34 @@
+/**
+ * ResolveEvent: JFR event of the resolution of a request URI
+ */
+
+package webserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of the resolution of a request URI
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+@Name("webserver.Resolve")
+@Label("Resolve")
+@Description("Resolution of a request URI in the document root or the content pack")
+@Category({"Web Server", "Request Lifecycle"})
+@StackTrace(false)
+public class ResolveEvent extends Event {
+
+    @Label("URI")
+    String uri;
+
+    @Label("Source")
+    @Description("file or pack")
+    String source;
+
+    @Label("Found")
+    boolean found;
+}
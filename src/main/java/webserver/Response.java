@@ -5,12 +5,17 @@
 package webserver;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Writer;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
@@ -24,22 +29,24 @@ import org.apache.logging.log4j.Logger;
  */
 public class Response {
     
-    private static final Pattern REQUEST_LINE_ACCEPTED = Pattern.compile("(GET|HEAD) ([^ ]+) HTTP/(\\d\\.\\d)");
+    private static final Pattern REQUEST_LINE_ACCEPTED = Pattern.compile("(GET|HEAD|PUT|DELETE) ([^ ]+) HTTP/(\\d\\.\\d)");
     private static final int REQUEST_LINE_ACCEPTED_MATCH_GROUP_METHOD = 1;
     private static final int REQUEST_LINE_ACCEPTED_MATCH_GROUP_REQUEST_URI = 2;
     private static final int REQUEST_LINE_ACCEPTED_MATCH_GROUP_HTTP_VERSION = 3;
-    private static final String CRLF = "\r\n";
     private static final String CONTENT_TYPE_TEXT = "Content-Type";
     private static final String CONNECTION_TEXT = "Connection";
     private static final String CONTENT_LENGTH_TEXT = "Content-Length";
     private static final String TEXT_HTML_TYPE_TEXT = "text/html";
+    private static final String ETAG_TEXT = "ETag";
+    private static final DateTimeFormatter HTTP_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH).withZone(ZoneOffset.UTC);
     private static final Logger logger = LogManager.getLogger(Response.class.getName());
     private static Map<String,String> mapMime;
     private ServerSettings serverSettings;
     private Request request;
-    private OutputStream output;
-    private final Writer writer;
-    private final StringBuilder headersResponse = new StringBuilder();
+    private final ResponseWriter writer;
+    private final SocketChannel channel;
+    private VirtualHost host;
     
     static {
         mapMime = new ConcurrentHashMap<>();
@@ -60,13 +67,37 @@ public class Response {
      * @param serverSettings    Settings of the Web Server
      * @param request           Request
      * @param output            Output of the response
-     * @param writer            Buffer for the response
+     * @param channel           Connection of the client (null = no async write)
      */
-    public Response(ServerSettings serverSettings, Request request, OutputStream output, Writer writer) {
+    public Response(ServerSettings serverSettings, Request request, OutputStream output, SocketChannel channel) {
         this.serverSettings = serverSettings;
         this.request = request; 
-        this.output = output;
-        this.writer = writer;
+        this.writer = new ResponseWriter(output, serverSettings.getFileBufferSize());
+        this.channel = channel;
+        this.host = serverSettings.getDefaultHost();
+        writer.setTimings(request.getTimings());
+        if (serverSettings.getAsyncWriter() != null) {
+            writer.setAsyncWriter(serverSettings.getAsyncWriter(), channel);
+        }
+        writer.setTransferLane(serverSettings.getTransferLane());
+        writer.setBandwidthShaper(serverSettings.getBandwidthShaper());
+    }
+
+    /**
+     * Get Status code and reason phrase of the response (null if not written)
+     * @return String
+     */
+    public String getStatus() {
+        return writer.getStatus();
+    }
+
+    /**
+     * Tests if the response has been handed off to the async writer,
+     * which closes the connection when it is written
+     * @return boolean
+     */
+    public boolean isHandedOff() {
+        return writer.isHandedOff();
     }
 
     /**
@@ -83,41 +114,123 @@ public class Response {
             String httpVersion = requestLineMatcher.group(REQUEST_LINE_ACCEPTED_MATCH_GROUP_HTTP_VERSION);
 
             if (!isHttpVersionImplemented(httpVersion)) {  // http version not implemented
-                writeHttpVersionNotImplementedResponse(writer, httpVersion, request);
+                writeHttpVersionNotImplementedResponse(httpVersion);
                 return;
             }
             
             logger.trace("Request Uri: " + requestUri);
+            writer.setUri(requestUri);
+            host = serverSettings.getHost(request.getHeader("Host"));
                 
-            final File f = fileAndPath(requestUri);
+            boolean upload = "PUT".equals(method) || "DELETE".equals(method);
+            if (serverSettings.getChangeNotifier() != null && isChangeEventsPath(requestUri)) {  // Stream of changes
+                if (upload) {
+                    writeNotImplementedResponse();
+                } else {
+                    writeChangeEventsResponse(httpVersion, method);
+                }
+                return;
+            }
+
+            RequestHandler handler = serverSettings.getRouter().route(requestUri);
+            if (handler != null) {  // Handlers serve GET and HEAD only
+                request.getTimings().mark(RequestTimings.Phase.RESOLVED);  // Serve from a request handler
+                if (upload) {
+                    writeNotImplementedResponse();
+                } else {
+                    writeHandlerResponse(httpVersion, method, requestUri, handler);
+                }
+                return;
+            }
+
+            if (upload) {
+                if (serverSettings.getUpload()) {  // Store or delete a file of the document root
+                    writeUploadResponse(httpVersion, method, requestUri);
+                } else {
+                    writeNotImplementedResponse();
+                }
+                return;
+            }
 
-            if (!pathExist(f)) {  // Path not exist
-                writePathNotExistResponse(writer, httpVersion, request);
+            if (serverSettings.getContentPackHolder() != null) {  // Serve from the content pack
+                writePackResponse(httpVersion, method, requestUri);
+                return;
+            }
+
+            ResolveEvent resolveEvent = new ResolveEvent();
+            resolveEvent.begin();
+            final File f = fileAndPath(host, requestUri);
+            final FileEntry entry = host.getFileCache().lookup(f);
+            final boolean exist = entry != null || pathExist(f);
+            commitResolveEvent(resolveEvent, requestUri, "file", entry != null);
+            request.getTimings().mark(RequestTimings.Phase.RESOLVED);
+
+            if (!exist) {  // Path not exist
+                writePathNotExistResponse(httpVersion);
                 return;
             }
                     
-            if (serverSettings.getDirectoryListing() && f.isDirectory()) {  // Serve directory listing
-                writeDirectoryListingResponse(writer, httpVersion, f);
-            } else if (fileExists(f)) {  // Serve file
-                writeFileOKReponse(writer, httpVersion, method, output, f);
+            if (host.getDirectoryListing() && entry != null && entry.isDirectory()) {  // Serve directory listing
+                writeDirectoryListingResponse(httpVersion, method, f);
+            } else if (entry != null && !entry.isDirectory()) {  // Serve file
+                writeFileOKReponse(httpVersion, method, requestUri, entry);
             } else {  // File not exist
-                writeFileKOReponse(writer, httpVersion, request);
+                writeFileKOReponse(httpVersion);
             }
 
         } else {     // Request Line not accepted
-            writeNotImplementedResponse(writer, request);
+            writeNotImplementedResponse();
+        }
+    }
+
+    private boolean isChangeEventsPath(String requestUri) {
+        int query = requestUri.indexOf('?');
+        return serverSettings.getChangeEventsPath().equals((query < 0) ? requestUri : requestUri.substring(0, query));
+    }
+
+    // Sends the headers of the event stream and hands off the connection to the change notifier
+    private void writeChangeEventsResponse(String httpVersion, String method) throws IOException {
+        request.getTimings().mark(RequestTimings.Phase.RESOLVED);
+        if (channel == null) {  // No channel to hand off
+            writeHttpError(httpVersion, ServerSettings.HTTP_STR_SERVICE_UNAVAILABLE, ServerSettings.HTTP_STR_SERVICE_UNAVAILABLE);
+            logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_SERVICE_UNAVAILABLE);
+            return;
+        }
+        ChangeNotifier notifier = serverSettings.getChangeNotifier();
+        if (!"HEAD".equals(method) && !notifier.reserve()) {  // Before any header, so the client waits to reconnect
+            byte[] body = buildHttpErrorBody(ServerSettings.HTTP_STR_SERVICE_UNAVAILABLE).getBytes(StandardCharsets.ISO_8859_1);
+            writer.statusLine(httpVersion, ServerSettings.HTTP_STR_SERVICE_UNAVAILABLE)
+                  .header(CONTENT_TYPE_TEXT, TEXT_HTML_TYPE_TEXT)
+                  .header(CONNECTION_TEXT, "close")
+                  .header("Retry-After", Integer.toString(ChangeNotifier.FULL_RETRY_AFTER))
+                  .header(CONTENT_LENGTH_TEXT, Integer.toString(body.length))
+                  .endHeaders()
+                  .body(body)
+                  .send();
+            logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_SERVICE_UNAVAILABLE + " (too many subscribers)");
+            return;
+        }
+        writer.statusLine(httpVersion, ServerSettings.HTTP_STR_OK)
+              .header(CONTENT_TYPE_TEXT, "text/event-stream; charset=utf-8")
+              .header("Cache-Control", "no-store")
+              .header("X-Accel-Buffering", "no")
+              .endHeaders();
+        logger.trace("Response Headers: " + writer.getHeaders());
+        if ("HEAD".equals(method)) {
+            writer.send();
+        } else {
+            writer.sendEventStream(notifier, channel, request.getHeader("Last-Event-ID"));
         }
+        logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_OK);
     }
 
     /**
      * Manages the http Bad Request error response
      * @throws IOException If an input or output 
      *                     exception occurred
-     * @param writer            Buffer for the response
      */ 
-    public void writeBadRequestResponse(Writer writer) throws IOException {
-        writeHttpError(writer, "", ServerSettings.HTTP_STR_BAD_REQUEST, ServerSettings.HTTP_STR_BAD_REQUEST);
-        writer.flush();
+    public void writeBadRequestResponse() throws IOException {
+        writeHttpError("", ServerSettings.HTTP_STR_BAD_REQUEST, ServerSettings.HTTP_STR_BAD_REQUEST);
         logger.info(ServerSettings.HTTP_STR_BAD_REQUEST);
     }
 
@@ -125,11 +238,9 @@ public class Response {
      * Manages the http Request Timeout error response
      * @throws IOException If an input or output 
      *                     exception occurred
-     * @param writer            Buffer for the response
      */ 
-    public void writeRequestTimeoutResponse(Writer writer) throws IOException {
-        writeHttpError(writer, "", ServerSettings.HTTP_STR_REQUEST_TIMEOUT, ServerSettings.HTTP_STR_REQUEST_TIMEOUT);
-        writer.flush();
+    public void writeRequestTimeoutResponse() throws IOException {
+        writeHttpError("", ServerSettings.HTTP_STR_REQUEST_TIMEOUT, ServerSettings.HTTP_STR_REQUEST_TIMEOUT);
         logger.info(ServerSettings.HTTP_STR_REQUEST_TIMEOUT);
     }
 
@@ -137,145 +248,369 @@ public class Response {
      * Manages the http Server error response
      * @throws IOException If an input or output 
      *                     exception occurred
-     * @param writer            Buffer for the response
      */ 
-    public void writeServerErrortResponse(Writer writer) throws IOException {
-        writeHttpError(writer, "", ServerSettings.HTTP_STR_SERVER_ERROR, ServerSettings.HTTP_STR_SERVER_ERROR);
-        writer.flush();
+    public void writeServerErrortResponse() throws IOException {
+        writeHttpError("", ServerSettings.HTTP_STR_SERVER_ERROR, ServerSettings.HTTP_STR_SERVER_ERROR);
         logger.info(ServerSettings.HTTP_STR_SERVER_ERROR);
     }
     
-    private void writeHttpVersionNotImplementedResponse(Writer writer, String httpVersion, Request request)  throws IOException { 
-        writeHttpError(writer, httpVersion, ServerSettings.HTTP_STR_NOT_IMPLEMENTED, ServerSettings.HTTP_STR_NOT_IMPLEMENTED + "  (http version " + httpVersion + ")" );
-        writer.flush();
+    /**
+     * Manages the http Too Many Requests error response
+     * @throws IOException If an input or output 
+     *                     exception occurred
+     * @param retryAfter        Seconds until the client can send a request
+     */ 
+    public void writeTooManyRequestsResponse(long retryAfter) throws IOException {
+        byte[] body = buildHttpErrorBody(ServerSettings.HTTP_STR_TOO_MANY_REQUESTS).getBytes(StandardCharsets.ISO_8859_1);
+        writer.statusLine("", ServerSettings.HTTP_STR_TOO_MANY_REQUESTS)
+              .header(CONTENT_TYPE_TEXT, TEXT_HTML_TYPE_TEXT)
+              .header(CONNECTION_TEXT, "close")
+              .header("Retry-After", Long.toString(retryAfter))
+              .header(CONTENT_LENGTH_TEXT, Integer.toString(body.length))
+              .endHeaders()
+              .body(body)
+              .send();
+        logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_TOO_MANY_REQUESTS);
+    }
+    
+    private void writeHttpVersionNotImplementedResponse(String httpVersion)  throws IOException { 
+        writeHttpError(httpVersion, ServerSettings.HTTP_STR_NOT_IMPLEMENTED, ServerSettings.HTTP_STR_NOT_IMPLEMENTED + "  (http version " + httpVersion + ")" );
         logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_NOT_IMPLEMENTED + " (http version " + httpVersion + ")");
     }
 
-    private void writePathNotExistResponse(Writer writer, String httpVersion, Request request)  throws IOException {
-        writeHttpError(writer, httpVersion, ServerSettings.HTTP_STR_BAD_REQUEST, ServerSettings.HTTP_STR_BAD_REQUEST);
-        addResponseHeader(CONTENT_LENGTH_TEXT, "0");
-        writer.flush();
+    private void writePathNotExistResponse(String httpVersion)  throws IOException {
+        writeHttpError(httpVersion, ServerSettings.HTTP_STR_BAD_REQUEST, ServerSettings.HTTP_STR_BAD_REQUEST);
         logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_BAD_REQUEST);
     }
     
-    private void writeDirectoryListingResponse(Writer writer, String httpVersion, File f)  throws IOException {
-        String buffer = buildDirectoryList(f);
-        int lenBuffer = buffer.length();
+    private void writeDirectoryListingResponse(String httpVersion, String method, File f)  throws IOException {
         logger.trace("Directory to listing: " + f.getName());
-        logger.trace("Directory Listing buffer: " + buffer);
-        logger.trace("Directory Listing length: " + lenBuffer);
-        writeStatusLineOK(writer, httpVersion);
-        addResponseHeader(CONTENT_TYPE_TEXT, TEXT_HTML_TYPE_TEXT);
-        addResponseHeader(CONNECTION_TEXT, "close");
-        addResponseHeader(CONTENT_LENGTH_TEXT, Integer.toString(lenBuffer));
-        writer.append(getResponseHeaders());
-        logger.trace("Response Headers: " + getResponseHeaders());
-        writer.append(CRLF);
-        logger.trace("Response: CRLF");
-        writer.append(buffer);
-        logger.trace("Response Buffer: " + buffer);
-        writer.flush();
+        writeDirectoryListingResponse(httpVersion, method, buildDirectoryList(f));
+    }
+
+    private void writeDirectoryListingResponse(String httpVersion, String method, String listing)  throws IOException {
+        byte[] buffer = listing.getBytes(StandardCharsets.UTF_8);
+        logger.trace("Directory Listing buffer: " + listing);
+        logger.trace("Directory Listing length: " + buffer.length);
+        writer.statusLine(httpVersion, ServerSettings.HTTP_STR_OK)
+              .header(CONTENT_TYPE_TEXT, TEXT_HTML_TYPE_TEXT)
+              .header(CONNECTION_TEXT, "close")
+              .header(CONTENT_LENGTH_TEXT, Integer.toString(buffer.length))
+              .endHeaders();
+        logger.trace("Response Headers: " + writer.getHeaders());
+        if (!"HEAD".equals(method)) {
+            writer.body(buffer);
+        }
+        writer.send();
         logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_OK);
     }
 
-    private void writeFileOKReponse(Writer writer, String httpVersion, String method, OutputStream output, File f) throws IOException {
-        logger.trace("Serving: " + f.getName());
-        writeStatusLineOK(writer, httpVersion);
-        addResponseHeader(CONTENT_TYPE_TEXT, getMimeTypeByExtension(f));
-        addResponseHeader(CONNECTION_TEXT, "close");
-        addResponseHeader(CONTENT_LENGTH_TEXT, Long.toString(f.length()));
-        writer.append(getResponseHeaders());
-        logger.trace("Response Headers: " + getResponseHeaders());
-        writer.append(CRLF);
-        logger.trace("Response: CRLF");
-        writer.flush();
-        if (method != null && !"HEAD".equals(method)) {
-            writeBody(output, f);
-        }
-        writer.flush();
+    private void writeFileOKReponse(String httpVersion, String method, String requestUri, FileEntry entry) throws IOException {
+        if (!request.isWarmUp()) {
+            entry.hit();
+        }
+        if (etagMatches(request.getHeader("If-None-Match"), entry.getEtag())) {  // Not modified
+            writer.statusLine(httpVersion, ServerSettings.HTTP_STR_NOT_MODIFIED)
+                  .header(ETAG_TEXT, entry.getEtag());
+            writeCacheHeaders(requestUri, entry.getMimeType());
+            writer.endHeaders()
+                  .send();
+            logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_NOT_MODIFIED);
+            return;
+        }
+        logger.trace("Serving: " + entry.getFile().getName());
+        String[] links = preloadLinks(requestUri, entry);
+        if (links.length > 0 && "GET".equals(method) && "1.1".equals(httpVersion)) {  // Before the body is read or sent
+            writer.sendInterim(httpVersion, ServerSettings.HTTP_STR_EARLY_HINTS, "Link", links);
+        }
+        FileCache fileCache = host.getFileCache();
+        ByteBuffer gzip = acceptsGzip(request.getHeader("Accept-Encoding")) ? fileCache.getGzipContent(entry) : null;
+        writer.statusLine(httpVersion, ServerSettings.HTTP_STR_OK)
+              .header(CONTENT_TYPE_TEXT, entry.getMimeType())
+              .header(CONNECTION_TEXT, "close");
+        if (gzip != null) {
+            writer.header("Content-Encoding", "gzip");
+        }
+        if (entry.getGzipContent() != null) {
+            writer.header("Vary", "Accept-Encoding");
+        }
+        writer.header(CONTENT_LENGTH_TEXT, Long.toString((gzip != null) ? gzip.remaining() : entry.getLength()))
+              .header(ETAG_TEXT, entry.getEtag())
+              .header("Last-Modified", httpDate(entry.getLastModified()));
+        for (String link : links) {  // Also for the clients and proxies that ignore 103
+            writer.header("Link", link);
+        }
+        writeCacheHeaders(requestUri, entry.getMimeType());
+        writer.endHeaders();
+        logger.trace("Response Headers: " + writer.getHeaders());
+        byte[] content = ("GET".equals(method) && gzip == null) ? clusterContent(requestUri, entry) : null;
+        if ("HEAD".equals(method)) {
+            writer.send();
+        } else if (gzip != null) {  // Gzip variant
+            writer.send(gzip);
+        } else if (content != null) {  // Preloaded in memory
+            writer.send(ByteBuffer.wrap(content));
+        } else {
+            writer.send(entry.getFile(), entry.getLength());
+        }
         logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_OK);
     }
 
-    private void writeFileKOReponse(Writer writer, String httpVersion, Request request) throws IOException {
-        writeHttpError(writer, httpVersion, ServerSettings.HTTP_STR_NOT_FOUND, ServerSettings.HTTP_STR_NOT_FOUND);
-        addResponseHeader(CONTENT_LENGTH_TEXT, "0");
-        writer.flush();
-        logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_NOT_FOUND);
+    // Content of a file in memory, owned by this node or fetched from its owner in the cluster
+    private byte[] clusterContent(String requestUri, FileEntry entry) {
+        ClusterCache clusterCache = serverSettings.getClusterCache();
+        return (clusterCache == null) ? entry.getContent() : clusterCache.getContent(host, requestUri, entry,
+                request.getHeader("Host"), request.getHeader(ClusterCache.PEER_HEADER) != null);
     }
-    
-    private void writeNotImplementedResponse(Writer writer, Request request) throws IOException {
-        writeHttpError(writer, "", ServerSettings.HTTP_STR_NOT_IMPLEMENTED, ServerSettings.HTTP_STR_NOT_IMPLEMENTED);
-        writer.flush();
-        logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_NOT_IMPLEMENTED);
+
+    // Link headers of the subresources of an HTML file, with early hints
+    private String[] preloadLinks(String requestUri, FileEntry entry) {
+        SubresourceAnalyzer analyzer = serverSettings.getSubresourceAnalyzer();
+        return (analyzer == null) ? new String[0] : analyzer.getLinks(host, requestUri, entry);
     }
 
-    private void addResponseHeader(String header, String value) {
-        headersResponse.append(header).append(": ").append(value).append(CRLF);
+    // Cache-Control and Expires of a file, by the cache policy
+    private void writeCacheHeaders(String requestUri, String mimeType) {
+        CachePolicy.Rule rule = serverSettings.getCachePolicy().lookup(requestUri, mimeType);
+        if (rule != null) {
+            writer.header("Cache-Control", rule.getCacheControl());
+            String expires = rule.getExpires(System.currentTimeMillis());
+            if (expires != null) {
+                writer.header("Expires", expires);
+            }
+        }
     }
-    
-    private void writeBody(OutputStream os, File f) throws IOException {
-        try (InputStream is = new FileInputStream(f);
-        ) {
-            byte[] buffer = new byte[serverSettings.getFileBufferSize()];
-            while (is.available() > 0) {
-                int read = is.read(buffer);
-                os.write(buffer, 0, read);
+
+    /**
+     * Ends and commits a JFR event of the resolution of a request URI
+     * @param event         Event begun before the resolution
+     * @param requestUri    Request URI
+     * @param source        "file" or "pack"
+     * @param found         true = resolved to a file or directory
+     */
+    static void commitResolveEvent(ResolveEvent event, String requestUri, String source, boolean found) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.uri = requestUri;
+            event.source = source;
+            event.found = found;
+            event.commit();
+        }
+    }
+
+    // Same pipeline as the document root, resolved with the index of the content pack
+    private void writePackResponse(String httpVersion, String method, String requestUri) throws IOException {
+        ResolveEvent resolveEvent = new ResolveEvent();
+        resolveEvent.begin();
+        ContentPack pack = serverSettings.getContentPackHolder().get();
+        String key = ContentPack.key(requestUri);
+        ContentPackEntry entry = pack.lookup(key);
+        commitResolveEvent(resolveEvent, requestUri, "pack", entry != null);
+        request.getTimings().mark(RequestTimings.Phase.RESOLVED);
+
+        if (entry == null) {
+            if (pack.lookup(ContentPack.parentKey(key)) == null) {  // Path not exist
+                writePathNotExistResponse(httpVersion);
+            } else {  // File not exist
+                writeFileKOReponse(httpVersion);
+            }
+        } else if (entry.isDirectory()) {
+            if (serverSettings.getDirectoryListing()) {  // Serve directory listing
+                logger.trace("Directory to listing: " + key);
+                writeDirectoryListingResponse(httpVersion, method, buildDirectoryList(entry.getChildren()));
+            } else {
+                writeFileKOReponse(httpVersion);
+            }
+        } else if (etagMatches(request.getHeader("If-None-Match"), entry.getEtag())) {  // Not modified
+            writer.statusLine(httpVersion, ServerSettings.HTTP_STR_NOT_MODIFIED)
+                  .header(ETAG_TEXT, entry.getEtag());
+            writeCacheHeaders(requestUri, entry.getMimeType());
+            writer.endHeaders()
+                  .send();
+            logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_NOT_MODIFIED);
+        } else {  // Serve file
+            ByteBuffer body = acceptsGzip(request.getHeader("Accept-Encoding")) ? entry.getGzipContent() : null;
+            logger.trace("Serving: " + key);
+            writer.statusLine(httpVersion, ServerSettings.HTTP_STR_OK)
+                  .header(CONTENT_TYPE_TEXT, entry.getMimeType())
+                  .header(CONNECTION_TEXT, "close");
+            if (body != null) {
+                writer.header("Content-Encoding", "gzip");
+            } else {
+                body = entry.getContent();
+            }
+            if (entry.getGzipContent() != null) {
+                writer.header("Vary", "Accept-Encoding");
             }
+            writer.header(CONTENT_LENGTH_TEXT, Integer.toString(body.remaining()))
+                  .header(ETAG_TEXT, entry.getEtag())
+                  .header("Last-Modified", httpDate(entry.getLastModified()));
+            writeCacheHeaders(requestUri, entry.getMimeType());
+            writer.endHeaders();
+            logger.trace("Response Headers: " + writer.getHeaders());
+            if ("HEAD".equals(method)) {
+                writer.send();
+            } else {
+                writer.send(body);
+            }
+            logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_OK);
         }
     }
-    
-    private void writeStatusLineOK(Writer writer, String httpVersion) throws IOException {
-        String str = "HTTP/" + httpVersion + ' ' + ServerSettings.HTTP_STR_OK + CRLF;
-        writer.append(str);
-        logger.trace("Response: " + str);
+
+    private void writeHandlerResponse(String httpVersion, String method, String requestUri, RequestHandler handler) throws IOException {
+        HandlerResponse handlerResponse = callHandler(handler, method, requestUri, request.getHeaders());
+        if (handlerResponse == null) {
+            writeHttpError(httpVersion, ServerSettings.HTTP_STR_SERVER_ERROR, ServerSettings.HTTP_STR_SERVER_ERROR);
+            logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_SERVER_ERROR);
+            return;
+        }
+        byte[] body = handlerResponse.getBody();
+        writer.statusLine(httpVersion, handlerResponse.getStatus())
+              .header(CONTENT_TYPE_TEXT, handlerResponse.getContentType())
+              .header(CONNECTION_TEXT, "close")
+              .header(CONTENT_LENGTH_TEXT, Integer.toString(body.length));
+        for (Map.Entry<String, String> header : handlerResponse.getHeaders().entrySet()) {
+            writer.header(header.getKey(), header.getValue());
+        }
+        writer.endHeaders();
+        if ("HEAD".equals(method)) {
+            writer.send();
+        } else {  // Body written like a file body (shaped, large ones handed off)
+            writer.send(ByteBuffer.wrap(body));
+        }
+        logger.info(request.getRequestLine() + " -> " + handlerResponse.getStatus());
     }
 
-    private void writeHttpError(Writer writer, String httpVersion, String statusCode, String bodyText) throws IOException {
-        String httpVersionFilled;
-        
-        if  (httpVersion == null || "".equals(httpVersion)) {
-            httpVersionFilled = "1.1";
-        } else {
-            httpVersionFilled = httpVersion;
+    private void writeUploadResponse(String httpVersion, String method, String requestUri) throws IOException {
+        request.getTimings().mark(RequestTimings.Phase.RESOLVED);
+        if (!Upload.isAuthorized(request.getHeader("Authorization"), serverSettings.getUploadToken())) {
+            writer.statusLine(httpVersion, ServerSettings.HTTP_STR_UNAUTHORIZED)
+                  .header("WWW-Authenticate", "Bearer realm=\"webserver\"")
+                  .header(CONNECTION_TEXT, "close")
+                  .header(CONTENT_LENGTH_TEXT, "0")
+                  .endHeaders()
+                  .send();
+            logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_UNAUTHORIZED);
+            return;
         }
-        writer.append("HTTP/").append(httpVersionFilled).append(" ").append(statusCode).append(CRLF+CRLF);
-        
-        if  (bodyText != null && !"".equals(bodyText)) {
-            writer.append("<html><title></title><body>");
-            writer.append("<h1>").append(bodyText).append("</h1>");
-            writer.append("</body></html>");
+        final File f = fileAndPath(host, requestUri);
+        if (requestUri.endsWith("/") || f.isDirectory() || !f.getParentFile().isDirectory()  // Not a file of an existing directory
+                || !isInDocumentRoot(host, f)) {
+            writeUploadStatus(httpVersion, ServerSettings.HTTP_STR_CONFLICT);
+            return;
+        }
+        Upload upload = new Upload(serverSettings, host.getFileCache());
+        if ("DELETE".equals(method)) {
+            writeUploadStatus(httpVersion, upload.delete(f));
+            return;
+        }
+
+        RequestBody body;
+        try {
+            body = request.getBody();
+        } catch (ProtocolException e) {
+            logger.trace("Upload body: ", e);
+            writeUploadStatus(httpVersion, ServerSettings.HTTP_STR_BAD_REQUEST);
+            return;
+        }
+        if (body == null) {
+            writeUploadStatus(httpVersion, ServerSettings.HTTP_STR_LENGTH_REQUIRED);
+            return;
+        }
+        if (body.getLength() > serverSettings.getUploadMaxSize()) {  // Refused before the body is sent
+            writeUploadStatus(httpVersion, ServerSettings.HTTP_STR_PAYLOAD_TOO_LARGE);
+            return;
         }
+        if ("1.1".equals(httpVersion) && request.getHeaderView().hasToken("Expect", "100-continue")) {
+            writer.sendInterim(httpVersion, ServerSettings.HTTP_STR_CONTINUE);
+        }
+        String status;
+        try {
+            status = upload.put(f, body);
+        } catch (ProtocolException e) {
+            logger.trace("Upload body: ", e);
+            writeUploadStatus(httpVersion, ServerSettings.HTTP_STR_BAD_REQUEST);
+            return;
+        }
+        boolean stored = ServerSettings.HTTP_STR_CREATED.equals(status) || ServerSettings.HTTP_STR_NO_CONTENT.equals(status);
+        writeUploadStatus(httpVersion, status, stored ? host.getFileCache().lookup(f) : null);
+    }
+
+    // Response of an upload without body, with the ETag of the file stored (entry not null)
+    private void writeUploadStatus(String httpVersion, String status, FileEntry entry) throws IOException {
+        writer.statusLine(httpVersion, status);
+        if (entry != null && !entry.isDirectory()) {
+            writer.header(ETAG_TEXT, entry.getEtag());
+        }
+        writer.header(CONNECTION_TEXT, "close");
+        if (!ServerSettings.HTTP_STR_NO_CONTENT.equals(status)) {  // A 204 has no Content-Length
+            writer.header(CONTENT_LENGTH_TEXT, "0");
+        }
+        writer.endHeaders()
+              .send();
+        logger.info(request.getRequestLine() + " -> " + status);
+    }
+
+    private void writeUploadStatus(String httpVersion, String status) throws IOException {
+        writeUploadStatus(httpVersion, status, null);
+    }
+
+    private void writeFileKOReponse(String httpVersion) throws IOException {
+        writeHttpError(httpVersion, ServerSettings.HTTP_STR_NOT_FOUND, ServerSettings.HTTP_STR_NOT_FOUND);
+        logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_NOT_FOUND);
+    }
+    
+    private void writeNotImplementedResponse() throws IOException {
+        writeHttpError("", ServerSettings.HTTP_STR_NOT_IMPLEMENTED, ServerSettings.HTTP_STR_NOT_IMPLEMENTED);
+        logger.info(request.getRequestLine() + " -> " + ServerSettings.HTTP_STR_NOT_IMPLEMENTED);
+    }
+
+    // Status line, headers and error page in a single write
+    private void writeHttpError(String httpVersion, String statusCode, String bodyText) throws IOException {
+        byte[] body = (bodyText == null || "".equals(bodyText))
+                ? new byte[0] : buildHttpErrorBody(bodyText).getBytes(StandardCharsets.ISO_8859_1);
+
+        writer.statusLine(httpVersion, statusCode)
+              .header(CONTENT_TYPE_TEXT, TEXT_HTML_TYPE_TEXT)
+              .header(CONNECTION_TEXT, "close")
+              .header(CONTENT_LENGTH_TEXT, Integer.toString(body.length))
+              .endHeaders()
+              .body(body)
+              .send();
     }
     
     private boolean isHttpVersionImplemented(String httpVersion) {
         return (httpVersion != null) && ("1.0".equals(httpVersion) || "1.1".equals(httpVersion));
     }
 
-    private File fileAndPath(String path) {
+    // Document root resolution and listing, shared with Http2Connection
+    static File fileAndPath(VirtualHost host, String path) {
         String modifiedPath = path.replace("..", "");  // Remove possible parent path ".."
         while (modifiedPath.startsWith("/")) {  // Strip off leading slashes
             modifiedPath = modifiedPath.substring(1);
         }
-        return new File(serverSettings.getDocumentRoot(), modifiedPath);
+        return new File(host.getDocumentRoot(), modifiedPath);
     }
     
-    private String getStrPath(File file) {
+    // The real path of a file (after links) is in the document root
+    private static boolean isInDocumentRoot(VirtualHost host, File f) throws IOException {
+        String root = new File(host.getDocumentRoot()).getCanonicalPath();
+        return f.getCanonicalPath().startsWith(root.endsWith(File.separator) ? root : root + File.separator);
+    }
+
+    private static String getStrPath(File file) {
         String absolutePath = file.getAbsolutePath();
         
         return absolutePath.substring(0,absolutePath.lastIndexOf(File.separator));
     }
     
-    private boolean pathExist(File file) {
+    static boolean pathExist(File file) {
         String strPath = getStrPath(file);
         File filePath = new File(strPath);
         return !(!filePath.exists() && !filePath.isDirectory());
     }
 
-    private boolean fileExists(File f) {
-        return f.exists() && f.isFile() && !f.isHidden();
-    }
-    
-    private String getMimeTypeByExtension(File f) {
+    static String getMimeTypeByExtension(File f) {
         String fileName = f.getName();
         String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
         
@@ -290,26 +625,77 @@ public class Response {
         }
     }
 
-    private String getResponseHeaders() {
-        return headersResponse.toString();
+    static String buildDirectoryList(File dir) {
+        String[] list = dir.list();
+        for (int i = 0; list != null && i < list.length; i++) {
+            if (new File(dir, list[i]).isDirectory()) {
+                list[i] += "/";
+            }
+        }
+        return buildDirectoryList(list == null ? new String[0] : list);
     }
 
-    private String buildDirectoryList(File dir) {
+    // Names of the children, "/" terminated for directories
+    static String buildDirectoryList(String[] names) {
         StringBuilder buffer = new StringBuilder();
         buffer.append("<html>\n<title>Directory listing</title>\n<body>\n"). 
                append("<a href=\"..\">Parent Directory</a><br>\n");
-        String[] list = dir.list();
-        for (int i = 0; list != null && i < list.length; i++) {
-            File f = new File(dir, list[i]);
-            if (f.isDirectory()) {
-                buffer.append("<a href=\""+list[i]+"/\">"+list[i]+"/</a><br>");
-            } else {
-                buffer.append("<a href=\""+list[i]+"\">"+list[i]+"</a><br>");
-            }
+        for (String name : names) {
+            buffer.append("<a href=\""+name+"\">"+name+"</a><br>");
         }
         buffer.append("<p><hr><br><i>" + (new Date()) + "</i>\n");
         buffer.append("</body>\n</html>\n");
         
         return buffer.toString();
     }
+
+    // Date in the format of the http headers (RFC 7231 IMF-fixdate)
+    static String httpDate(long time) {
+        return HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(time));
+    }
+
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmed = tag.trim();
+            if ("*".equals(trimmed) || etag.equals(trimmed) || ("W/" + etag).equals(trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    // Seconds of the Retry-After header, rounded up
+    static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+    }
+
+    // Calls a request handler, null if it failed
+    static HandlerResponse callHandler(RequestHandler handler, String method, String requestUri, Map<String, String> headers) {
+        try {
+            return handler.handle(method, requestUri, headers);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Request handler failed: " + requestUri, e);
+            return null;
+        }
+    }
+
+    static String buildHttpErrorBody(String bodyText) {
+        return "<html><title></title><body>" + "<h1>" + bodyText + "</h1>" + "</body></html>";
+    }
 }
@@ -0,0 +1,475 @@
+/**
+ * ResponseWriter: Writes the bytes of a http response
+ */
+
+package webserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes the bytes of a http response. Status line, headers and the start of
+ * the body are assembled in a single buffer, so a small response goes out in
+ * one write and a large one in writes of the size of the buffer, with a single
+ * flush. The status line and headers are assembled in a small buffer, and a
+ * body copied from a file or from memory moves to the body buffer of the
+ * thread that writes it, reused by its responses, so a response without body
+ * (HEAD, 304, errors) does not allocate a body buffer and one with a body
+ * allocates none after the first. Headers are written as ISO-8859-1 without a charset encoder. The
+ * first write is recorded as a JFR header write event and the rest as a body
+ * write event. A large body can be handed off, with the connection, to the
+ * async writer or to the large transfer lane. With a bandwidth shaper, every
+ * write of a body waits for its bytes, and the bodies are not handed off to
+ * the async writer, which writes as fast as each client reads
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ResponseWriter {
+
+    /**
+     * Size of the buffer of the status line and headers (grown if needed)
+     */
+    public static final int HEADER_BUFFER_SIZE = 1024;
+
+    private static final String CRLF = "\r\n";
+    // Body buffer of every thread that writes bodies (workers and threads of the large transfer lane)
+    private static final ThreadLocal<byte[]> BODY_BUFFERS = new ThreadLocal<>();
+    private static final Logger logger = LogManager.getLogger(ResponseWriter.class.getName());
+    private final OutputStream output;
+    private final int bodyBufferSize;
+    private byte[] buffer;
+    private byte[] headerBuffer = null;
+    private int count = 0;
+    private int headersLength = 0;
+    private AsyncWriter asyncWriter = null;
+    private SocketChannel channel = null;
+    private TransferLane transferLane = null;
+    private BandwidthShaper shaper = null;
+    private BandwidthShaper.Transfer shapedTransfer = null;
+    private boolean handedOff = false;
+    private String uri = null;
+    private String status = null;
+    private HeaderWriteEvent headerEvent = null;
+    private BodyWriteEvent bodyEvent = null;
+    private long written = 0;
+    private long headerWritten = 0;
+    private RequestTimings timings = null;
+
+    /**
+     * Class constructor
+     * @param output        Output of the response
+     * @param bufferSize    Size of the body buffer (bytes per write)
+     */
+    public ResponseWriter(OutputStream output, int bufferSize) {
+        this.output = output;
+        this.bodyBufferSize = bufferSize;
+        this.buffer = new byte[Math.min(HEADER_BUFFER_SIZE, bufferSize)];
+    }
+
+    /**
+     * Sets the async writer to hand off the large bodies to, so the worker
+     * does not wait for slow clients
+     * @param asyncWriter   Async writer
+     * @param channel       Connection of the client
+     */
+    public void setAsyncWriter(AsyncWriter asyncWriter, SocketChannel channel) {
+        this.asyncWriter = asyncWriter;
+        this.channel = channel;
+    }
+
+    /**
+     * Sets the lane to hand off the large bodies to, so the workers of the
+     * pool are free for the small responses
+     * @param transferLane  Large transfer lane
+     */
+    public void setTransferLane(TransferLane transferLane) {
+        this.transferLane = transferLane;
+    }
+
+    /**
+     * Sets the shaper of the bandwidth of the bodies
+     * @param shaper    Bandwidth shaper (null = no limit)
+     */
+    public void setBandwidthShaper(BandwidthShaper shaper) {
+        this.shaper = shaper;
+    }
+
+    /**
+     * Sets the request URI, for the write events
+     * @param uri       Request URI
+     */
+    public void setUri(String uri) {
+        this.uri = uri;
+    }
+
+    /**
+     * Sets the timestamps of the phases of the request, to mark the headers
+     * sent and the body complete
+     * @param timings   Timestamps of the phases of the request
+     */
+    public void setTimings(RequestTimings timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * Get Status code and reason phrase of the response (null if not written)
+     * @return String
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Tests if the response has been handed off to the async writer or to
+     * the large transfer lane, which close the connection when it is written
+     * @return boolean
+     */
+    public boolean isHandedOff() {
+        return handedOff;
+    }
+
+    /**
+     * Appends the status line
+     * @param httpVersion   Http version ("" = 1.1)
+     * @param status        Status code and reason phrase
+     * @return ResponseWriter
+     */
+    public ResponseWriter statusLine(String httpVersion, String status) {
+        String version = (httpVersion == null || "".equals(httpVersion)) ? "1.1" : httpVersion;
+        this.status = status;
+        return append("HTTP/").append(version).append(" ").append(status).append(CRLF);
+    }
+
+    /**
+     * Appends a header
+     * @param name      Header name
+     * @param value     Header value
+     * @return ResponseWriter
+     */
+    public ResponseWriter header(String name, String value) {
+        return append(name).append(": ").append(value).append(CRLF);
+    }
+
+    /**
+     * Appends the empty line that ends the headers
+     * @return ResponseWriter
+     */
+    public ResponseWriter endHeaders() {
+        append(CRLF);
+        headersLength = count;
+        return this;
+    }
+
+    /**
+     * Appends a body held in memory
+     * @param body      Body of the response
+     * @return ResponseWriter
+     */
+    public ResponseWriter body(byte[] body) {
+        ensureCapacity(body.length);
+        System.arraycopy(body, 0, buffer, count, body.length);
+        count += body.length;
+        return this;
+    }
+
+    /**
+     * Get Status line and headers, for logging
+     * @return String
+     */
+    public String getHeaders() {
+        return new String(buffer, 0, headersLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Sends an interim response (e.g. "100 Continue") before the response,
+     * without headers
+     * @param httpVersion   Http version ("" = 1.1)
+     * @param status        Status code and reason phrase (1xx)
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void sendInterim(String httpVersion, String status) throws IOException {
+        sendInterim(httpVersion, status, null, new String[0]);
+    }
+
+    /**
+     * Sends an interim response (e.g. "103 Early Hints") before the
+     * response, with the values of a header
+     * @param httpVersion   Http version ("" = 1.1)
+     * @param status        Status code and reason phrase (1xx)
+     * @param name          Header name (null = no headers)
+     * @param values        Header values, a header line each
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void sendInterim(String httpVersion, String status, String name, String[] values) throws IOException {
+        String version = (httpVersion == null || "".equals(httpVersion)) ? "1.1" : httpVersion;
+        StringBuilder interim = new StringBuilder(64).append("HTTP/").append(version).append(" ").append(status).append(CRLF);
+        for (String value : values) {
+            interim.append(name).append(": ").append(value).append(CRLF);
+        }
+        output.write(interim.append(CRLF).toString().getBytes(StandardCharsets.ISO_8859_1));
+        output.flush();
+    }
+
+    /**
+     * Sends the response assembled in the buffer
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void send() throws IOException {
+        writeBuffer();
+        flush();
+    }
+
+    /**
+     * Sends the headers of an event stream and hands off the connection to
+     * the change notifier, which keeps it open while the client is connected.
+     * The slot of the subscriber has to be reserved, it is released if the
+     * headers cannot be sent
+     * @param notifier      Change notifier
+     * @param channel       Connection of the client
+     * @param lastEventId   Id of the last event received by the client (null = new subscriber)
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void sendEventStream(ChangeNotifier notifier, SocketChannel channel, String lastEventId) throws IOException {
+        try {
+            send();
+        } catch (IOException e) {
+            notifier.release();
+            throw e;
+        }
+        notifier.subscribe(channel, lastEventId);
+        handedOff = true;
+    }
+
+    /**
+     * Sends the response assembled in the buffer followed by a body held in
+     * a buffer (preloaded or mapped), the start of the body in the same write
+     * @param body      Body of the response, from its position to its limit
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void send(ByteBuffer body) throws IOException {
+        if (canHandOff(body.remaining())) {
+            asyncWriter.submit(channel, ByteBuffer.wrap(buffer, 0, count), body);
+            handedOff = true;
+            return;
+        }
+        if (canTransfer(body.remaining())) {
+            final ByteBuffer content = body;
+            transferLane.submit(body.remaining(), () -> transfer(() -> writeBody(content)));
+            handedOff = true;
+            return;
+        }
+        writeBody(body);
+    }
+
+    private void writeBody(ByteBuffer body) throws IOException {
+        beginShaping();
+        useBodyBuffer();
+        try {
+            do {
+                int chunk = Math.min(buffer.length - count, body.remaining());
+                body.get(buffer, count, chunk);
+                count += chunk;
+                writeBuffer();
+            } while (body.hasRemaining());
+            flush();
+        } finally {
+            releaseBodyBuffer();
+            endShaping();
+        }
+    }
+
+    /**
+     * Sends the response assembled in the buffer followed by the content of
+     * a file, the start of the file in the same write
+     * @param file      File to serve
+     * @param length    Length of the file
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public void send(File file, long length) throws IOException {
+        if (canHandOff(length)) {
+            asyncWriter.submit(channel, ByteBuffer.wrap(buffer, 0, count), file, 0, length);
+            handedOff = true;
+            return;
+        }
+        if (canTransfer(length)) {
+            transferLane.submit(length, () -> transfer(() -> writeFile(file, length)));
+            handedOff = true;
+            return;
+        }
+        writeFile(file, length);
+    }
+
+    private void writeFile(File file, long length) throws IOException {
+        long remaining = length;
+
+        beginShaping();
+        useBodyBuffer();
+        try (InputStream is = new FileInputStream(file)) {
+            while (remaining > 0) {
+                if (count == buffer.length) {
+                    writeBuffer();
+                }
+                int read = is.read(buffer, count, (int) Math.min(buffer.length - count, remaining));
+                if (read < 0) {  // Truncated while serving
+                    break;
+                }
+                count += read;
+                remaining -= read;
+            }
+            send();
+        } finally {
+            releaseBodyBuffer();
+            endShaping();
+        }
+    }
+
+    // Moves the bytes assembled to the body buffer of the thread
+    private void useBodyBuffer() throws IOException {
+        byte[] bodyBuffer = BODY_BUFFERS.get();
+        if (bodyBuffer == null || bodyBuffer.length != bodyBufferSize) {
+            bodyBuffer = new byte[bodyBufferSize];
+            BODY_BUFFERS.set(bodyBuffer);
+        }
+        if (count > bodyBuffer.length) {  // Large headers: written on their own
+            writeBuffer();
+        }
+        System.arraycopy(buffer, 0, bodyBuffer, 0, count);
+        headerBuffer = buffer;
+        buffer = bodyBuffer;
+    }
+
+    // The body buffer is not referenced once the body is written
+    private void releaseBodyBuffer() {
+        if (headerBuffer != null) {
+            buffer = headerBuffer;
+            headerBuffer = null;
+            count = 0;
+        }
+    }
+
+    // The writes of the body wait for the bandwidth shaper until it is sent
+    private void beginShaping() {
+        if (shaper != null) {
+            shapedTransfer = shaper.begin();
+        }
+    }
+
+    private void endShaping() {
+        if (shapedTransfer != null) {
+            shapedTransfer.end();
+            shapedTransfer = null;
+        }
+    }
+
+    // Writes the buffer, the first write of a response is its header write
+    private void writeBuffer() throws IOException {
+        if (headerEvent == null) {
+            headerEvent = new HeaderWriteEvent();
+            headerEvent.begin();
+        } else if (bodyEvent == null) {
+            commitHeaderEvent();
+            bodyEvent = new BodyWriteEvent();
+            bodyEvent.begin();
+        }
+        if (shapedTransfer != null) {
+            shapedTransfer.acquire(count);
+        }
+        output.write(buffer, 0, count);
+        written += count;
+        count = 0;
+        if (timings != null) {
+            timings.mark(RequestTimings.Phase.HEADERS_SENT);
+        }
+    }
+
+    // Flushes the output and ends the write events of the response
+    private void flush() throws IOException {
+        output.flush();
+        if (timings != null) {
+            timings.mark(RequestTimings.Phase.HEADERS_SENT);
+            timings.mark(RequestTimings.Phase.BODY_COMPLETE);
+        }
+        if (bodyEvent == null) {
+            commitHeaderEvent();
+        } else {
+            bodyEvent.end();
+            if (bodyEvent.shouldCommit()) {
+                bodyEvent.uri = uri;
+                bodyEvent.status = status;
+                bodyEvent.bytes = written - headerWritten;
+                bodyEvent.commit();
+            }
+        }
+        headerEvent = null;
+        bodyEvent = null;
+        written = 0;
+    }
+
+    private void commitHeaderEvent() {
+        headerWritten = written;
+        headerEvent.end();
+        if (headerEvent.shouldCommit()) {
+            headerEvent.uri = uri;
+            headerEvent.status = status;
+            headerEvent.bytes = headerWritten;
+            headerEvent.commit();
+        }
+    }
+
+    // Writes a response handed off to the large transfer lane and closes the connection
+    private void transfer(BodyWrite write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            logger.trace("Transfer failed: ", e);
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                logger.trace("Close failed: ", e);
+            }
+        }
+    }
+
+    private boolean canTransfer(long length) {
+        return transferLane != null && transferLane.accepts(length);
+    }
+
+    private boolean canHandOff(long length) {
+        return asyncWriter != null && channel != null && shaper == null && length >= asyncWriter.getThreshold();
+    }
+
+    private ResponseWriter append(String str) {
+        int length = str.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) str.charAt(i);
+        }
+        return this;
+    }
+
+    private void ensureCapacity(int length) {
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+        }
+    }
+
+    // Write of the body of a response
+    private interface BodyWrite {
+        void run() throws IOException;
+    }
+}
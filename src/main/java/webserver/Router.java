@@ -0,0 +1,73 @@
+/**
+ * Router: Routes requests to the request handlers
+ */
+
+package webserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes requests to the request handlers registered by path prefix, with a
+ * trie of path segments: a lookup walks the path once, whatever the number of
+ * handlers, and returns the handler of the longest registered prefix. The
+ * document root serves the requests without handler
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class Router {
+
+    private final Node root = new Node();
+    private volatile boolean empty = true;
+
+    /**
+     * Registers a handler for a path prefix. The prefix matches whole
+     * segments: "/status" matches "/status" and "/status/x", not "/statusx"
+     * @param prefix    Path prefix ("/" = every request)
+     * @param handler   Request handler
+     */
+    public synchronized void register(String prefix, RequestHandler handler) {
+        Node node = root;
+        for (String segment : prefix.split("/")) {
+            if (!segment.isEmpty()) {
+                node = node.children.computeIfAbsent(segment, k -> new Node());
+            }
+        }
+        node.handler = handler;
+        empty = false;
+    }
+
+    /**
+     * Routes a request URI
+     * @param requestUri        Request URI (the query is ignored)
+     * @return RequestHandler   Handler of the longest prefix or null if none
+     */
+    public RequestHandler route(String requestUri) {
+        if (empty) {
+            return null;
+        }
+        Node node = root;
+        RequestHandler handler = root.handler;
+        int end = requestUri.indexOf('?');
+        end = (end < 0) ? requestUri.length() : end;
+        int start = 0;
+
+        while (start < end && node != null) {
+            int slash = requestUri.indexOf('/', start);
+            int segmentEnd = (slash < 0 || slash > end) ? end : slash;
+            if (segmentEnd > start) {
+                node = node.children.get(requestUri.substring(start, segmentEnd));
+                if (node != null && node.handler != null) {
+                    handler = node.handler;
+                }
+            }
+            start = segmentEnd + 1;
+        }
+        return handler;
+    }
+
+    // Node of the trie, one per path segment
+    private static class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private volatile RequestHandler handler;
+    }
+}
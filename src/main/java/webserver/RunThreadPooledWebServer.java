@@ -5,6 +5,7 @@
 package webserver;
 
 import java.io.File;
+import java.io.IOException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -22,17 +23,77 @@ public class RunThreadPooledWebServer {
     public static void main(String[] args) {
         // Load configuration
         ServerSettings serverSettings = new ServerSettings(true);
+        // Test if the Content Pack can be opened
+        if (serverSettings.getContentPackHolder() != null) {
+            try {
+                serverSettings.getContentPackHolder().get();
+            } catch (IOException | WebServerException e) {
+                logger.error("Cannot open Content Pack [" + serverSettings.getContentPack() + "]", e);
+                logger.error("Web Server Stopped");
+                System.exit(-1);
+            }
+        }
         // Test if exist Document Root
         File documentDir = new File(serverSettings.getDocumentRoot());
-        if (!documentDir.exists() && !documentDir.isDirectory()) {
+        if (serverSettings.getContentPackHolder() == null && !documentDir.exists() && !documentDir.isDirectory()) {
            logger.error("No exists Document Root [" + documentDir.getAbsolutePath()+ "]");
            logger.error("Web Server Stopped");
            System.exit(-1);
         }
+        // Load the cache index of the document root
+        if (serverSettings.getContentPackHolder() == null && !"".equals(serverSettings.getCacheIndex())) {
+            CacheIndex cacheIndex = new CacheIndex(new File(serverSettings.getCacheIndex()));
+            try {
+                cacheIndex.open();
+            } catch (IOException e) {
+                logger.error("Cannot open Cache Index [" + serverSettings.getCacheIndex() + "]", e);
+                logger.error("Web Server Stopped");
+                System.exit(-1);
+            }
+            serverSettings.getFileCache().setIndex(cacheIndex);
+            cacheIndex.startCheckpoints(serverSettings.getFileCache());
+        }
+        // Register the request handlers
+        try {
+            registerHandlers(serverSettings);
+        } catch (WebServerException | IllegalArgumentException e) {
+            logger.error("Invalid Proxy Routes [" + serverSettings.getProxyRoutes() + "]", e);
+            logger.error("Web Server Stopped");
+            System.exit(-1);
+        }
+        // Warm up before opening the server socket
+        if (serverSettings.getWarmUp()) {
+            new WarmUp(serverSettings).run();
+        }
+        // Open the traffic capture after the warm-up, so it records only real traffic
+        if (serverSettings.getTrafficCapture() != null) {
+            try {
+                serverSettings.getTrafficCapture().open();
+            } catch (IOException e) {
+                logger.error("Cannot open Traffic Capture [" + serverSettings.getTrafficCaptureFile() + "]", e);
+                logger.error("Web Server Stopped");
+                System.exit(-1);
+            }
+        }
         // Run Web Server
         new ThreadPooledWebServer(serverSettings).run();
     }
     
+    /**
+     * Registers the request handlers of the settings in the router: health
+     * check, batch fetch and reverse proxy routes
+     * @param serverSettings    Settings of the Web Server
+     */
+    static void registerHandlers(ServerSettings serverSettings) {
+        if (!"".equals(serverSettings.getHealthCheckPath())) {
+            serverSettings.getRouter().register(serverSettings.getHealthCheckPath(), new HealthCheckHandler(serverSettings));
+        }
+        if (!"".equals(serverSettings.getBatchPath())) {
+            serverSettings.getRouter().register(serverSettings.getBatchPath(), new BatchHandler(serverSettings));
+        }
+        ProxyHandler.registerRoutes(serverSettings);
+    }
+
     private RunThreadPooledWebServer() {
         throw new IllegalAccessError("Utility class");
     }
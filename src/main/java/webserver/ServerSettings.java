@@ -4,8 +4,15 @@
 
 package webserver;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -36,138 +43,1254 @@ public class ServerSettings {
      */
     public static final int N_THREADS_DEFAULT = 10;
     
+    /**
+     * HTTP/2 over cleartext (h2c) allowed by default
+     */
+    public static final boolean HTTP2 = true;
+    
+    /**
+     * Warm-up before opening the server socket by default
+     */
+    public static final boolean WARM_UP = false;
+    
+    /**
+     * Max bytes of file content preloaded in memory by the warm-up by default
+     */
+    public static final long WARM_UP_PRELOAD_SIZE = 0;
+    
+    /**
+     * Requests served internally by the warm-up by default
+     */
+    public static final int WARM_UP_REQUESTS = 2000;
+    
+    /**
+     * Content pack served instead of the document root by default ("" = document root)
+     */
+    public static final String CONTENT_PACK_DEFAULT = "";
+    
+    /**
+     * Path of the health check handler by default ("" = no health check)
+     */
+    public static final String HEALTH_CHECK_PATH_DEFAULT = "";
+    
+    /**
+     * Requests per second of a client by default (0 = no rate limit)
+     */
+    public static final int RATE_LIMIT = 0;
+    
+    /**
+     * Requests of a client at once by default
+     */
+    public static final int RATE_LIMIT_BURST = 20;
+    
+    /**
+     * Reverse proxy routes by default ("" = no routes)
+     */
+    public static final String PROXY_ROUTES_DEFAULT = "";
+    
+    /**
+     * Max bytes of the reverse proxy cache by default (0 = no cache)
+     */
+    public static final long PROXY_CACHE_SIZE = 0;
+    
+    /**
+     * Max idle connections to every upstream server by default
+     */
+    public static final int PROXY_POOL_SIZE = 8;
+    
+    /**
+     * Connect and read timeout of the upstream servers by default (milliseconds)
+     */
+    public static final int PROXY_TIMEOUT = 10000;
+    
+    /**
+     * Async write of large responses by default
+     */
+    public static final boolean ASYNC_WRITE = false;
+    
+    /**
+     * Min bytes of body of the responses written asynchronously by default
+     */
+    public static final int ASYNC_WRITE_THRESHOLD = 65536;
+    
+    /**
+     * Threads of the async writer by default
+     */
+    public static final int ASYNC_WRITE_THREADS = 1;
+    
+    /**
+     * Min milliseconds of the requests written to the slow request log by default (0 = deactivated)
+     */
+    public static final int SLOW_REQUEST_THRESHOLD = 0;
+    
+    /**
+     * HTTPS (TLS) instead of plain http by default
+     */
+    public static final boolean TLS = false;
+    
+    /**
+     * Key store with the certificate and private key of the server by default (PKCS12 or JKS)
+     */
+    public static final String TLS_KEY_STORE = "";
+    
+    /**
+     * Password of the key store and of its private key by default
+     */
+    public static final String TLS_KEY_STORE_PASSWORD = "";
+    
+    /**
+     * Max TLS sessions cached for resumption by default (0 = no limit)
+     */
+    public static final int TLS_SESSION_CACHE_SIZE = 20480;
+    
+    /**
+     * Seconds a TLS session can be resumed by default
+     */
+    public static final int TLS_SESSION_TIMEOUT = 3600;
+    
+    /**
+     * TLS session tickets (stateless resumption) allowed by default
+     */
+    public static final boolean TLS_SESSION_TICKETS = true;
+    
+    /**
+     * Directory of the persistent cache index by default ("" = no index)
+     */
+    public static final String CACHE_INDEX = "";
+    
+    /**
+     * Uploads (PUT and DELETE) to the document root allowed by default
+     */
+    public static final boolean UPLOAD = false;
+    
+    /**
+     * Bearer token of the uploads by default
+     */
+    public static final String UPLOAD_TOKEN = "";
+    
+    /**
+     * Max bytes of the body of an upload by default
+     */
+    public static final long UPLOAD_MAX_SIZE = 104857600L;
+    
+    /**
+     * Min bytes of body of the responses written in the large transfer lane by default (0 = single lane)
+     */
+    public static final long LARGE_TRANSFER_THRESHOLD = 0L;
+    
+    /**
+     * Number of threads of the large transfer lane by default
+     */
+    public static final int LARGE_TRANSFER_THREADS = 2;
+    
+    /**
+     * Caching rules of the files served by default ("" = no rules)
+     */
+    public static final String CACHE_POLICIES = "";
+    
+    /**
+     * Seconds of max-age of the files with a content hash in the name by default (0 = not detected)
+     */
+    public static final int CACHE_FINGERPRINTED = 31536000;
+    
+    /**
+     * Path of the batch fetch handler by default ("" = no batch fetch)
+     */
+    public static final String BATCH_PATH = "";
+    
+    /**
+     * Max bytes of the files of a batch fetch response by default
+     */
+    public static final long BATCH_MAX_SIZE = 1048576L;
+    
+    /**
+     * Capture file of the requests served by default ("" = no capture)
+     */
+    public static final String TRAFFIC_CAPTURE = "";
+    
+    /**
+     * Max bytes per second of the bodies sent by the Web Server by default (0 = no limit)
+     */
+    public static final long BANDWIDTH_LIMIT = 0;
+    
+    /**
+     * Max bytes per second of the body sent to a connection by default (0 = no limit)
+     */
+    public static final long BANDWIDTH_PER_CONNECTION = 0;
+    
+    /**
+     * Fair share of the bandwidth limit among the active transfers by default
+     */
+    public static final boolean BANDWIDTH_FAIR_SHARE = false;
+    
+    /**
+     * Path of the stream of changes of the document root by default ("" = no stream)
+     */
+    public static final String CHANGE_EVENTS_PATH = "";
+    
+    /**
+     * Host names of the virtual hosts, separated by commas by default ("" = a single site)
+     */
+    public static final String VIRTUAL_HOSTS = "";
+    
+    /**
+     * 103 Early Hints and preload links of the subresources of the HTML files by default
+     */
+    public static final boolean EARLY_HINTS = false;
+    
+    /**
+     * Peers of the cluster by default (comma separated host:port, this node included)
+     */
+    public static final String CLUSTER_PEERS = "";
+    
+    /**
+     * Host and port of this node in the peers of the cluster by default
+     */
+    public static final String CLUSTER_SELF = "";
+    
+    /**
+     * Max concurrent connections to a peer of the cluster by default
+     */
+    public static final int CLUSTER_PEER_CONNECTIONS = 4;
+    
+    /**
+     * Max bytes of the files owned by this node kept in memory by default (besides the preloaded ones)
+     */
+    public static final long CLUSTER_CACHE_SIZE = 67108864L;
+    
     /**
      * Max buffer size for a file by default
      */
-    public static final int FILE_BUFFER_SIZE = 65536;
-
+    public static final int FILE_BUFFER_SIZE = 65536;
+
+    /**
+     * The socket timeout when waiting for line request by default
+     */
+    public static final int REQUEST_READ_TIMEOUT = 5000;
+
+    /**
+     * The socket timeout when waiting for headers by default
+     */
+    public static final int HEADER_READ_TIMEOUT = 2000;
+
+    /**
+     * Config file properties names for Server port number
+     */
+    public static final String SERVER_PORT_PROP_NAME = "ServerPort";
+
+    /**
+     * Config file properties names for document root directory
+     */
+    public static final String DOCUMENT_ROOT_PROP_NAME = "DocumentRoot";
+
+    /**
+     * Config file properties names for directory listing allowed
+     */
+    public static final String DIRECTORY_LISTING_PROP_NAME = "DirectoryListing";
+    
+    /**
+     * Config file properties names for threads number in Web Server
+     */
+    public static final String N_THREADS_PROP_NAME = "ThreadsNumber";
+    
+    /**
+     * Config file properties names for HTTP/2 over cleartext (h2c) allowed
+     */
+    public static final String HTTP2_PROP_NAME = "Http2";
+    
+    /**
+     * Config file properties names for warm-up before opening the server socket
+     */
+    public static final String WARM_UP_PROP_NAME = "WarmUp";
+    
+    /**
+     * Config file properties names for max bytes of file content preloaded by the warm-up
+     */
+    public static final String WARM_UP_PRELOAD_SIZE_PROP_NAME = "WarmUpPreloadSize";
+    
+    /**
+     * Config file properties names for requests served internally by the warm-up
+     */
+    public static final String WARM_UP_REQUESTS_PROP_NAME = "WarmUpRequests";
+    
+    /**
+     * Config file properties names for content pack served instead of the document root
+     */
+    public static final String CONTENT_PACK_PROP_NAME = "ContentPack";
+    
+    /**
+     * Config file properties names for path of the health check handler
+     */
+    public static final String HEALTH_CHECK_PATH_PROP_NAME = "HealthCheckPath";
+    
+    /**
+     * Config file properties names for requests per second of a client
+     */
+    public static final String RATE_LIMIT_PROP_NAME = "RateLimit";
+    
+    /**
+     * Config file properties names for requests of a client at once
+     */
+    public static final String RATE_LIMIT_BURST_PROP_NAME = "RateLimitBurst";
+    
+    /**
+     * Config file properties names for reverse proxy routes
+     */
+    public static final String PROXY_ROUTES_PROP_NAME = "ProxyRoutes";
+    
+    /**
+     * Config file properties names for max bytes of the reverse proxy cache
+     */
+    public static final String PROXY_CACHE_SIZE_PROP_NAME = "ProxyCacheSize";
+    
+    /**
+     * Config file properties names for max idle connections to every upstream server
+     */
+    public static final String PROXY_POOL_SIZE_PROP_NAME = "ProxyPoolSize";
+    
+    /**
+     * Config file properties names for connect and read timeout of the upstream servers
+     */
+    public static final String PROXY_TIMEOUT_PROP_NAME = "ProxyTimeout";
+    
+    /**
+     * Config file properties names for async write of large responses
+     */
+    public static final String ASYNC_WRITE_PROP_NAME = "AsyncWrite";
+    
+    /**
+     * Config file properties names for min bytes of body of the responses written asynchronously
+     */
+    public static final String ASYNC_WRITE_THRESHOLD_PROP_NAME = "AsyncWriteThreshold";
+    
+    /**
+     * Config file properties names for threads of the async writer
+     */
+    public static final String ASYNC_WRITE_THREADS_PROP_NAME = "AsyncWriteThreads";
+    
+    /**
+     * Config file properties names for min milliseconds of the requests written to the slow request log (0 = deactivated)
+     */
+    public static final String SLOW_REQUEST_THRESHOLD_PROP_NAME = "SlowRequestThreshold";
+    
+    /**
+     * Config file properties names for HTTPS (TLS) instead of plain http
+     */
+    public static final String TLS_PROP_NAME = "Tls";
+    
+    /**
+     * Config file properties names for key store with the certificate and private key of the server (PKCS12 or JKS)
+     */
+    public static final String TLS_KEY_STORE_PROP_NAME = "TlsKeyStore";
+    
+    /**
+     * Config file properties names for password of the key store and of its private key
+     */
+    public static final String TLS_KEY_STORE_PASSWORD_PROP_NAME = "TlsKeyStorePassword";
+    
+    /**
+     * Config file properties names for max TLS sessions cached for resumption (0 = no limit)
+     */
+    public static final String TLS_SESSION_CACHE_SIZE_PROP_NAME = "TlsSessionCacheSize";
+    
+    /**
+     * Config file properties names for seconds a TLS session can be resumed
+     */
+    public static final String TLS_SESSION_TIMEOUT_PROP_NAME = "TlsSessionTimeout";
+    
+    /**
+     * Config file properties names for TLS session tickets (stateless resumption) allowed
+     */
+    public static final String TLS_SESSION_TICKETS_PROP_NAME = "TlsSessionTickets";
+    
+    /**
+     * Config file properties names for directory of the persistent cache index ("" = no index)
+     */
+    public static final String CACHE_INDEX_PROP_NAME = "CacheIndex";
+    
+    /**
+     * Config file properties names for uploads (PUT and DELETE) to the document root allowed
+     */
+    public static final String UPLOAD_PROP_NAME = "Upload";
+    
+    /**
+     * Config file properties names for bearer token of the uploads
+     */
+    public static final String UPLOAD_TOKEN_PROP_NAME = "UploadToken";
+    
+    /**
+     * Config file properties names for max bytes of the body of an upload
+     */
+    public static final String UPLOAD_MAX_SIZE_PROP_NAME = "UploadMaxSize";
+    
+    /**
+     * Config file properties names for min bytes of body of the responses written in the large transfer lane (0 = single lane)
+     */
+    public static final String LARGE_TRANSFER_THRESHOLD_PROP_NAME = "LargeTransferThreshold";
+    
+    /**
+     * Config file properties names for number of threads of the large transfer lane
+     */
+    public static final String LARGE_TRANSFER_THREADS_PROP_NAME = "LargeTransferThreads";
+    
+    /**
+     * Config file properties names for caching rules of the files served ("" = no rules)
+     */
+    public static final String CACHE_POLICIES_PROP_NAME = "CachePolicies";
+    
+    /**
+     * Config file properties names for seconds of max-age of the files with a content hash in the name (0 = not detected)
+     */
+    public static final String CACHE_FINGERPRINTED_PROP_NAME = "CacheFingerprinted";
+    
+    /**
+     * Config file properties names for path of the batch fetch handler ("" = no batch fetch)
+     */
+    public static final String BATCH_PATH_PROP_NAME = "BatchPath";
+    
+    /**
+     * Config file properties names for max bytes of the files of a batch fetch response
+     */
+    public static final String BATCH_MAX_SIZE_PROP_NAME = "BatchMaxSize";
+    
+    /**
+     * Config file properties names for capture file of the requests served ("" = no capture)
+     */
+    public static final String TRAFFIC_CAPTURE_PROP_NAME = "TrafficCapture";
+    
+    /**
+     * Config file properties names for max bytes per second of the bodies sent by the Web Server (0 = no limit)
+     */
+    public static final String BANDWIDTH_LIMIT_PROP_NAME = "BandwidthLimit";
+    
+    /**
+     * Config file properties names for max bytes per second of the body sent to a connection (0 = no limit)
+     */
+    public static final String BANDWIDTH_PER_CONNECTION_PROP_NAME = "BandwidthPerConnection";
+    
+    /**
+     * Config file properties names for fair share of the bandwidth limit among the active transfers
+     */
+    public static final String BANDWIDTH_FAIR_SHARE_PROP_NAME = "BandwidthFairShare";
+    
+    /**
+     * Config file properties names for path of the stream of changes of the document root ("" = no stream)
+     */
+    public static final String CHANGE_EVENTS_PATH_PROP_NAME = "ChangeEventsPath";
+    
+    /**
+     * Config file properties names for host names of the virtual hosts, separated by commas ("" = a single site)
+     */
+    public static final String VIRTUAL_HOSTS_PROP_NAME = "VirtualHosts";
+    
+    /**
+     * Config file properties names for 103 Early Hints and preload links of the subresources of the HTML files
+     */
+    public static final String EARLY_HINTS_PROP_NAME = "EarlyHints";
+    
+    /**
+     * Config file properties names for peers of the cluster (comma separated host:port, this node included)
+     */
+    public static final String CLUSTER_PEERS_PROP_NAME = "ClusterPeers";
+    
+    /**
+     * Config file properties names for host and port of this node in the peers of the cluster
+     */
+    public static final String CLUSTER_SELF_PROP_NAME = "ClusterSelf";
+    
+    /**
+     * Config file properties names for max concurrent connections to a peer of the cluster
+     */
+    public static final String CLUSTER_PEER_CONNECTIONS_PROP_NAME = "ClusterPeerConnections";
+    
+    /**
+     * Config file properties names for max bytes of the files owned by this node kept in memory (besides the preloaded ones)
+     */
+    public static final String CLUSTER_CACHE_SIZE_PROP_NAME = "ClusterCacheSize";
+    
+    /**
+     * Prefix of the config file properties of a virtual host, followed by
+     * its host name and the property (e.g. "VirtualHost.www.example.com.DocumentRoot")
+     */
+    public static final String VIRTUAL_HOST_PROP_PREFIX = "VirtualHost.";
+    
+    /**
+     * Config file properties names for other host names of a virtual host, separated by commas
+     */
+    public static final String VIRTUAL_HOST_ALIASES_PROP_NAME = "Aliases";
+    
+    /**
+     * Config file properties names for max entries of the file cache of a virtual host
+     */
+    public static final String VIRTUAL_HOST_CACHE_ENTRIES_PROP_NAME = "CacheEntries";
+    
+    /**
+     * Config file properties names for max bytes of file content of a virtual host preloaded by the warm-up
+     */
+    public static final String VIRTUAL_HOST_PRELOAD_SIZE_PROP_NAME = "PreloadSize";
+    
+    /**
+     * Status Code 100: Continue
+     */
+    public static final String HTTP_STR_CONTINUE = "100 Continue";
+    
+    /**
+     * Status Code 101: Switching Protocols
+     */
+    public static final String HTTP_STR_SWITCHING_PROTOCOLS = "101 Switching Protocols";
+    
+    /**
+     * Status Code 103: Early Hints
+     */
+    public static final String HTTP_STR_EARLY_HINTS = "103 Early Hints";
+    
+    /**
+     * Status Code 200: OK
+     */
+    public static final String HTTP_STR_OK = "200 OK";
+    
+    /**
+     * Status Code 201: Created
+     */
+    public static final String HTTP_STR_CREATED = "201 Created";
+    
+    /**
+     * Status Code 204: No Content
+     */
+    public static final String HTTP_STR_NO_CONTENT = "204 No Content";
+    
+    /**
+     * Status Code 304: Not Modified
+     */
+    public static final String HTTP_STR_NOT_MODIFIED = "304 Not Modified";
+    
+    /**
+     * Status Code 400: Client error - Bad Request
+     */
+    public static final String HTTP_STR_BAD_REQUEST = "400 Bad Request";
+    
+    /**
+     * Status Code 401: Client error - Unauthorized
+     */
+    public static final String HTTP_STR_UNAUTHORIZED = "401 Unauthorized";
+    
+    /**
+     * Status Code 404: Client error - Not Found
+     */
+    public static final String HTTP_STR_NOT_FOUND = "404 Not Found";
+    
+    /**
+     * Status Code 408: Client error - Request Time-out
+     */
+    public static final String HTTP_STR_REQUEST_TIMEOUT = "408 Request Time-out";
+    
+    /**
+     * Status Code 409: Client error - Conflict
+     */
+    public static final String HTTP_STR_CONFLICT = "409 Conflict";
+    
+    /**
+     * Status Code 411: Client error - Length Required
+     */
+    public static final String HTTP_STR_LENGTH_REQUIRED = "411 Length Required";
+    
+    /**
+     * Status Code 413: Client error - Payload Too Large
+     */
+    public static final String HTTP_STR_PAYLOAD_TOO_LARGE = "413 Payload Too Large";
+    
+    /**
+     * Status Code 429: Client error - Too Many Requests
+     */
+    public static final String HTTP_STR_TOO_MANY_REQUESTS = "429 Too Many Requests";
+    
+    /**
+     * Status Code 500: Server error - Internal Server Error
+     */
+    public static final String HTTP_STR_SERVER_ERROR = "500 Internal Server Error";
+
+    /**
+     * Status Code 501: Server error - Not Implemented
+     */
+    public static final String HTTP_STR_NOT_IMPLEMENTED = "501 Not Implemented";
+    
+    /**
+     * Status Code 502: Server error - Bad Gateway
+     */
+    public static final String HTTP_STR_BAD_GATEWAY = "502 Bad Gateway";
+    
+    /**
+     * Status Code 503: Server error - Service Unavailable
+     */
+    public static final String HTTP_STR_SERVICE_UNAVAILABLE = "503 Service Unavailable";
+    
+    /**
+     * Status Code 504: Server error - Gateway Time-out
+     */
+    public static final String HTTP_STR_GATEWAY_TIMEOUT = "504 Gateway Time-out";
+    
+    // Message for GetProperty
+    private static final String GETPROPERTY_MESSAGE = "getProperty: ";
+    
+    // Logger
+    private static final Logger logger = LogManager.getLogger(ServerSettings.class.getName());
+
+    // Port number for web server
+    private int serverPort = SERVER_PORT_DEFAULT;
+    
+    // Document root directory
+    private String documentRoot = DOCUMENT_ROOT_DEFAULT;
+    
+    // Directory listing allowed
+    private boolean directoryListing = DIRECTORY_LISTING;
+
+    // Number of threads in web server
+    private int nThreads = N_THREADS_DEFAULT;
+    
+    // HTTP/2 over cleartext (h2c) allowed
+    private boolean http2 = HTTP2;
+    
+    // Warm-up before opening the server socket
+    private boolean warmUp = WARM_UP;
+    
+    // Max bytes of file content preloaded in memory by the warm-up
+    private long warmUpPreloadSize = WARM_UP_PRELOAD_SIZE;
+    
+    // Requests served internally by the warm-up
+    private int warmUpRequests = WARM_UP_REQUESTS;
+    
+    // Content pack served instead of the document root
+    private String contentPack = CONTENT_PACK_DEFAULT;
+    
+    // Path of the health check handler
+    private String healthCheckPath = HEALTH_CHECK_PATH_DEFAULT;
+    
+    // Requests per second of a client
+    private int rateLimit = RATE_LIMIT;
+    
+    // Requests of a client at once
+    private int rateLimitBurst = RATE_LIMIT_BURST;
+    
+    // Reverse proxy routes ("prefix=url" pairs separated by commas)
+    private String proxyRoutes = PROXY_ROUTES_DEFAULT;
+    
+    // Max bytes of the reverse proxy cache
+    private long proxyCacheSize = PROXY_CACHE_SIZE;
+    
+    // Max idle connections to every upstream server
+    private int proxyPoolSize = PROXY_POOL_SIZE;
+    
+    // Connect and read timeout of the upstream servers
+    private int proxyTimeout = PROXY_TIMEOUT;
+    
+    // Async write of large responses
+    private boolean asyncWrite = ASYNC_WRITE;
+    
+    // Min bytes of body of the responses written asynchronously
+    private int asyncWriteThreshold = ASYNC_WRITE_THRESHOLD;
+    
+    // Threads of the async writer
+    private int asyncWriteThreads = ASYNC_WRITE_THREADS;
+    
+    // Min milliseconds of the requests written to the slow request log (0 = deactivated)
+    private int slowRequestThreshold = SLOW_REQUEST_THRESHOLD;
+    
+    // HTTPS (TLS) instead of plain http
+    private boolean tls = TLS;
+    
+    // Key store with the certificate and private key of the server (PKCS12 or JKS)
+    private String tlsKeyStore = TLS_KEY_STORE;
+    
+    // Password of the key store and of its private key
+    private String tlsKeyStorePassword = TLS_KEY_STORE_PASSWORD;
+    
+    // Max TLS sessions cached for resumption (0 = no limit)
+    private int tlsSessionCacheSize = TLS_SESSION_CACHE_SIZE;
+    
+    // Seconds a TLS session can be resumed
+    private int tlsSessionTimeout = TLS_SESSION_TIMEOUT;
+    
+    // TLS session tickets (stateless resumption) allowed
+    private boolean tlsSessionTickets = TLS_SESSION_TICKETS;
+    
+    // Directory of the persistent cache index ("" = no index)
+    private String cacheIndex = CACHE_INDEX;
+    
+    // Uploads (PUT and DELETE) to the document root allowed
+    private boolean upload = UPLOAD;
+    
+    // Bearer token of the uploads
+    private String uploadToken = UPLOAD_TOKEN;
+    
+    // Max bytes of the body of an upload
+    private long uploadMaxSize = UPLOAD_MAX_SIZE;
+    
+    // Min bytes of body of the responses written in the large transfer lane (0 = single lane)
+    private long largeTransferThreshold = LARGE_TRANSFER_THRESHOLD;
+    
+    // Number of threads of the large transfer lane
+    private int largeTransferThreads = LARGE_TRANSFER_THREADS;
+    
+    // Caching rules of the files served ("" = no rules)
+    private String cachePolicies = CACHE_POLICIES;
+    
+    // Seconds of max-age of the files with a content hash in the name (0 = not detected)
+    private int cacheFingerprinted = CACHE_FINGERPRINTED;
+    
+    // Path of the batch fetch handler ("" = no batch fetch)
+    private String batchPath = BATCH_PATH;
+    
+    // Max bytes of the files of a batch fetch response
+    private long batchMaxSize = BATCH_MAX_SIZE;
+    
+    // Capture file of the requests served ("" = no capture)
+    private String trafficCaptureFile = TRAFFIC_CAPTURE;
+    
+    // Max bytes per second of the bodies sent by the Web Server (0 = no limit)
+    private long bandwidthLimit = BANDWIDTH_LIMIT;
+    
+    // Max bytes per second of the body sent to a connection (0 = no limit)
+    private long bandwidthPerConnection = BANDWIDTH_PER_CONNECTION;
+    
+    // Fair share of the bandwidth limit among the active transfers
+    private boolean bandwidthFairShare = BANDWIDTH_FAIR_SHARE;
+    
+    // Path of the stream of changes of the document root ("" = no stream)
+    private String changeEventsPath = CHANGE_EVENTS_PATH;
+    
+    // Host names of the virtual hosts, separated by commas ("" = a single site)
+    private String virtualHostNames = VIRTUAL_HOSTS;
+    
+    // 103 Early Hints and preload links of the subresources of the HTML files
+    private boolean earlyHints = EARLY_HINTS;
+    
+    // Peers of the cluster (comma separated host:port, this node included)
+    private String clusterPeers = CLUSTER_PEERS;
+    
+    // Host and port of this node in the peers of the cluster
+    private String clusterSelf = CLUSTER_SELF;
+    
+    // Max concurrent connections to a peer of the cluster
+    private int clusterPeerConnections = CLUSTER_PEER_CONNECTIONS;
+    
+    // Max bytes of the files owned by this node kept in memory (besides the preloaded ones)
+    private long clusterCacheSize = CLUSTER_CACHE_SIZE;
+    
+    // Max buffer size for a file
+    private int fileBufferSize = FILE_BUFFER_SIZE;
+
+    // The socket timeout when waiting for line request
+    private int requestReadTimeout = REQUEST_READ_TIMEOUT;
+
+    // The socket timeout when waiting for headers
+    private int headerReadTimeout = HEADER_READ_TIMEOUT;
+
+    // Cache of the files of the document root
+    private final FileCache fileCache = new FileCache();
+    
+    // Site of the DocumentRoot, for the unknown hosts
+    private VirtualHost defaultHost = null;
+    
+    // Virtual hosts by host name (aliases included)
+    private final Map<String, VirtualHost> virtualHosts = new LinkedHashMap<>();
+
+    // Holder of the content pack (null = document root)
+    private ContentPackHolder contentPackHolder = null;
+
+    // Router of the request handlers
+    private final Router router = new Router();
+
+    // Rate limiter of the clients (null = no rate limit)
+    private RateLimiter rateLimiter = null;
+
+    // Async writer of large responses (null = no async write)
+    private AsyncWriter asyncWriter = null;
+
+    // Lane of the large transfers (null = single lane)
+    private TransferLane transferLane = null;
+    
+    // Shaper of the bandwidth of the bodies sent
+    private BandwidthShaper bandwidthShaper = null;
+    
+    // Notifier of the changes of the document root
+    private ChangeNotifier changeNotifier = null;
+    
+    // Finder of the subresources of the HTML files, for the early hints
+    private SubresourceAnalyzer subresourceAnalyzer = null;
+    
+    // Cache of the files shared by the nodes of the cluster
+    private ClusterCache clusterCache = null;
+
+    // Caching headers of the files served
+    private CachePolicy cachePolicy = null;
+
+    // Capture of the requests served (null = no capture)
+    private TrafficCapture trafficCapture = null;
+
+    /**
+     * Class constructor
+     * @param readConfigFile    true = read config file / false = not read config file  
+     */
+    public ServerSettings(boolean readConfigFile) {
+        if (readConfigFile) {
+            readConfig();
+        }
+        init();
+    }
+
+    /**
+     * Class constructor, with the properties of the config file given
+     * (e.g. to run the Web Server embedded)
+     * @param props     Properties with the names of the config file
+     */
+    public ServerSettings(Properties props) {
+        readProperties(props);
+        init();
+    }
+
+    private void init() {
+        defaultHost = new VirtualHost("", documentRoot, directoryListing, fileCache, warmUpPreloadSize);
+        if (!"".equals(contentPack)) {
+            contentPackHolder = new ContentPackHolder(new File(contentPack));
+            if (!virtualHosts.isEmpty()) {
+                logger.warn("Virtual hosts not available with a content pack");
+                virtualHosts.clear();
+            }
+        }
+        if (rateLimit > 0) {
+            rateLimiter = new RateLimiter(rateLimit, rateLimitBurst);
+        }
+        cachePolicy = new CachePolicy(cachePolicies, cacheFingerprinted);
+        if (!"".equals(trafficCaptureFile)) {
+            trafficCapture = new TrafficCapture(new File(trafficCaptureFile));
+        }
+        if (largeTransferThreshold > 0) {
+            transferLane = new TransferLane(largeTransferThreshold, largeTransferThreads);
+        }
+        if (bandwidthLimit > 0 || bandwidthPerConnection > 0) {
+            bandwidthShaper = new BandwidthShaper(bandwidthLimit, bandwidthPerConnection, bandwidthFairShare);
+        }
+        if (!"".equals(changeEventsPath)) {
+            initChangeNotifier();
+        }
+        if (earlyHints) {
+            subresourceAnalyzer = new SubresourceAnalyzer();
+        }
+        if (!"".equals(clusterPeers)) {
+            initClusterCache();
+        }
+        if (upload && ("".equals(uploadToken) || contentPackHolder != null)) {
+            logger.warn("Uploads not allowed without an upload token or with a content pack");
+            upload = false;
+        }
+    }
+
+    private void initClusterCache() {
+        if (tls || contentPackHolder != null) {
+            logger.warn("Cluster not available with TLS or with a content pack");
+            return;
+        }
+        String self = "".equals(clusterSelf) ? "localhost:" + serverPort : clusterSelf.trim();
+        List<String> peers = new ArrayList<>();
+        for (String peer : clusterPeers.split(",")) {
+            if (!peer.trim().isEmpty()) {
+                peers.add(peer.trim());
+            }
+        }
+        if (!peers.contains(self)) {
+            logger.warn("Cluster not available, this node is not one of its peers: " + self);
+            return;
+        }
+        clusterCache = new ClusterCache(self, peers, clusterPeerConnections, clusterCacheSize);
+    }
+
+    private void initChangeNotifier() {
+        if (tls || contentPackHolder != null) {
+            logger.warn("Change events not available with TLS or with a content pack");
+            changeEventsPath = "";
+            return;
+        }
+        try {
+            changeNotifier = new ChangeNotifier(new File(documentRoot));
+        } catch (IOException e) {
+            throw new WebServerException("Cannot watch the document root: " + documentRoot, e);
+        }
+    }
+    
+    /**
+     * Get Port number for web server
+     * @return int
+     */
+    public int getServerPort() {
+        return serverPort;
+    }
+    
+    /**
+     * Get Document root directory
+     * @return String
+     */
+    public String getDocumentRoot() {
+        return documentRoot;
+    }
+    
+    /**
+     * Get Directory listing allowed
+     * @return boolean
+     */
+    public boolean getDirectoryListing() {
+        return directoryListing;
+    }
+
+    /**
+     * Get Number of threads in web server
+     * @return int
+     */
+    public int getNThreads() {
+        return nThreads;
+    }
+    
+    /**
+     * Get HTTP/2 over cleartext (h2c) allowed
+     * @return boolean
+     */
+    public boolean getHttp2() {
+        return http2;
+    }
+    
+    /**
+     * Get Warm-up before opening the server socket
+     * @return boolean
+     */
+    public boolean getWarmUp() {
+        return warmUp;
+    }
+    
+    /**
+     * Get Max bytes of file content preloaded in memory by the warm-up
+     * @return long
+     */
+    public long getWarmUpPreloadSize() {
+        return warmUpPreloadSize;
+    }
+    
+    /**
+     * Get Requests served internally by the warm-up
+     * @return int
+     */
+    public int getWarmUpRequests() {
+        return warmUpRequests;
+    }
+    
+    /**
+     * Get Content pack served instead of the document root ("" = document root)
+     * @return String
+     */
+    public String getContentPack() {
+        return contentPack;
+    }
+    
+    /**
+     * Get Path of the health check handler ("" = no health check)
+     * @return String
+     */
+    public String getHealthCheckPath() {
+        return healthCheckPath;
+    }
+    
+    /**
+     * Get Requests per second of a client (0 = no rate limit)
+     * @return int
+     */
+    public int getRateLimit() {
+        return rateLimit;
+    }
+    
+    /**
+     * Get Requests of a client at once
+     * @return int
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+    
+    /**
+     * Get Reverse proxy routes ("prefix=url" pairs separated by commas)
+     * @return String
+     */
+    public String getProxyRoutes() {
+        return proxyRoutes;
+    }
+    
+    /**
+     * Get Max bytes of the reverse proxy cache (0 = no cache)
+     * @return long
+     */
+    public long getProxyCacheSize() {
+        return proxyCacheSize;
+    }
+    
+    /**
+     * Get Max idle connections to every upstream server
+     * @return int
+     */
+    public int getProxyPoolSize() {
+        return proxyPoolSize;
+    }
+    
+    /**
+     * Get Connect and read timeout of the upstream servers (milliseconds)
+     * @return int
+     */
+    public int getProxyTimeout() {
+        return proxyTimeout;
+    }
+    
+    /**
+     * Get Async write of large responses
+     * @return boolean
+     */
+    public boolean getAsyncWrite() {
+        return asyncWrite;
+    }
+    
+    /**
+     * Get Min bytes of body of the responses written asynchronously
+     * @return int
+     */
+    public int getAsyncWriteThreshold() {
+        return asyncWriteThreshold;
+    }
+    
+    /**
+     * Get Threads of the async writer
+     * @return int
+     */
+    public int getAsyncWriteThreads() {
+        return asyncWriteThreads;
+    }
+    
+    /**
+     * Get Min milliseconds of the requests written to the slow request log (0 = deactivated)
+     * @return int
+     */
+    public int getSlowRequestThreshold() {
+        return slowRequestThreshold;
+    }
+    
+    /**
+     * Get HTTPS (TLS) instead of plain http
+     * @return boolean
+     */
+    public boolean getTls() {
+        return tls;
+    }
+    
+    /**
+     * Get Key store with the certificate and private key of the server (PKCS12 or JKS)
+     * @return String
+     */
+    public String getTlsKeyStore() {
+        return tlsKeyStore;
+    }
+    
+    /**
+     * Get Password of the key store and of its private key
+     * @return String
+     */
+    public String getTlsKeyStorePassword() {
+        return tlsKeyStorePassword;
+    }
+    
     /**
-     * The socket timeout when waiting for line request by default
+     * Get Max TLS sessions cached for resumption (0 = no limit)
+     * @return int
      */
-    public static final int REQUEST_READ_TIMEOUT = 5000;
-
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+    
     /**
-     * The socket timeout when waiting for headers by default
+     * Get Seconds a TLS session can be resumed
+     * @return int
      */
-    public static final int HEADER_READ_TIMEOUT = 2000;
-
+    public int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+    
     /**
-     * Config file properties names for Server port number
+     * Get TLS session tickets (stateless resumption) allowed
+     * @return boolean
      */
-    public static final String SERVER_PORT_PROP_NAME = "ServerPort";
-
+    public boolean getTlsSessionTickets() {
+        return tlsSessionTickets;
+    }
+    
     /**
-     * Config file properties names for document root directory
+     * Get Directory of the persistent cache index ("" = no index)
+     * @return String
      */
-    public static final String DOCUMENT_ROOT_PROP_NAME = "DocumentRoot";
-
+    public String getCacheIndex() {
+        return cacheIndex;
+    }
+    
     /**
-     * Config file properties names for directory listing allowed
+     * Get Uploads (PUT and DELETE) to the document root allowed
+     * @return boolean
      */
-    public static final String DIRECTORY_LISTING_PROP_NAME = "DirectoryListing";
+    public boolean getUpload() {
+        return upload;
+    }
     
     /**
-     * Config file properties names for threads number in Web Server
+     * Get Bearer token of the uploads
+     * @return String
      */
-    public static final String N_THREADS_PROP_NAME = "ThreadsNumber";
+    public String getUploadToken() {
+        return uploadToken;
+    }
     
     /**
-     * Status Code 200: OK
+     * Get Max bytes of the body of an upload
+     * @return long
      */
-    public static final String HTTP_STR_OK = "200 OK";
+    public long getUploadMaxSize() {
+        return uploadMaxSize;
+    }
     
     /**
-     * Status Code 400: Client error - Bad Request
+     * Get Min bytes of body of the responses written in the large transfer lane (0 = single lane)
+     * @return long
      */
-    public static final String HTTP_STR_BAD_REQUEST = "400 Bad Request";
+    public long getLargeTransferThreshold() {
+        return largeTransferThreshold;
+    }
     
     /**
-     * Status Code 404: Client error - Not Found
+     * Get Number of threads of the large transfer lane
+     * @return int
      */
-    public static final String HTTP_STR_NOT_FOUND = "404 Not Found";
+    public int getLargeTransferThreads() {
+        return largeTransferThreads;
+    }
     
     /**
-     * Status Code 408: Client error - Request Time-out
+     * Get Caching rules of the files served ("" = no rules)
+     * @return String
      */
-    public static final String HTTP_STR_REQUEST_TIMEOUT = "408 Request Time-out";
+    public String getCachePolicies() {
+        return cachePolicies;
+    }
     
     /**
-     * Status Code 500: Server error - Internal Server Error
+     * Get Seconds of max-age of the files with a content hash in the name (0 = not detected)
+     * @return int
      */
-    public static final String HTTP_STR_SERVER_ERROR = "500 Internal Server Error";
-
+    public int getCacheFingerprinted() {
+        return cacheFingerprinted;
+    }
+    
     /**
-     * Status Code 501: Server error - Not Implemented
+     * Get Path of the batch fetch handler ("" = no batch fetch)
+     * @return String
      */
-    public static final String HTTP_STR_NOT_IMPLEMENTED = "501 Not Implemented";
+    public String getBatchPath() {
+        return batchPath;
+    }
     
-    // Message for GetProperty
-    private static final String GETPROPERTY_MESSAGE = "getProperty: ";
+    /**
+     * Get Max bytes of the files of a batch fetch response
+     * @return long
+     */
+    public long getBatchMaxSize() {
+        return batchMaxSize;
+    }
     
-    // Logger
-    private static final Logger logger = LogManager.getLogger(ServerSettings.class.getName());
-
-    // Port number for web server
-    private int serverPort = SERVER_PORT_DEFAULT;
+    /**
+     * Get Capture file of the requests served ("" = no capture)
+     * @return String
+     */
+    public String getTrafficCaptureFile() {
+        return trafficCaptureFile;
+    }
     
-    // Document root directory
-    private String documentRoot = DOCUMENT_ROOT_DEFAULT;
+    /**
+     * Get Max bytes per second of the bodies sent by the Web Server (0 = no limit)
+     * @return long
+     */
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
     
-    // Directory listing allowed
-    private boolean directoryListing = DIRECTORY_LISTING;
-
-    // Number of threads in web server
-    private int nThreads = N_THREADS_DEFAULT;
+    /**
+     * Get Max bytes per second of the body sent to a connection (0 = no limit)
+     * @return long
+     */
+    public long getBandwidthPerConnection() {
+        return bandwidthPerConnection;
+    }
     
-    // Max buffer size for a file
-    private int fileBufferSize = FILE_BUFFER_SIZE;
-
-    // The socket timeout when waiting for line request
-    private int requestReadTimeout = REQUEST_READ_TIMEOUT;
-
-    // The socket timeout when waiting for headers
-    private int headerReadTimeout = HEADER_READ_TIMEOUT;
-
     /**
-     * Class constructor
-     * @param readConfigFile    true = read config file / false = not read config file  
+     * Get Fair share of the bandwidth limit among the active transfers
+     * @return boolean
      */
-    public ServerSettings(boolean readConfigFile) {
-        if (readConfigFile) {
-            readConfig();
-        }
+    public boolean getBandwidthFairShare() {
+        return bandwidthFairShare;
     }
     
     /**
-     * Get Port number for web server
-     * @return int
+     * Get Path of the stream of changes of the document root ("" = no stream)
+     * @return String
      */
-    public int getServerPort() {
-        return serverPort;
+    public String getChangeEventsPath() {
+        return changeEventsPath;
     }
     
     /**
-     * Get Document root directory
+     * Get Host names of the virtual hosts, separated by commas ("" = a single site)
      * @return String
      */
-    public String getDocumentRoot() {
-        return documentRoot;
+    public String getVirtualHostNames() {
+        return virtualHostNames;
     }
     
     /**
-     * Get Directory listing allowed
+     * Get 103 Early Hints and preload links of the subresources of the HTML files
      * @return boolean
      */
-    public boolean getDirectoryListing() {
-        return directoryListing;
+    public boolean getEarlyHints() {
+        return earlyHints;
     }
-
+    
     /**
-     * Get Number of threads in web server
+     * Get Peers of the cluster (comma separated host:port, this node included)
+     * @return String
+     */
+    public String getClusterPeers() {
+        return clusterPeers;
+    }
+    
+    /**
+     * Get Host and port of this node in the peers of the cluster
+     * @return String
+     */
+    public String getClusterSelf() {
+        return clusterSelf;
+    }
+    
+    /**
+     * Get Max concurrent connections to a peer of the cluster
      * @return int
      */
-    public int getNThreads() {
-        return nThreads;
+    public int getClusterPeerConnections() {
+        return clusterPeerConnections;
+    }
+    
+    /**
+     * Get Max bytes of the files owned by this node kept in memory (besides the preloaded ones)
+     * @return long
+     */
+    public long getClusterCacheSize() {
+        return clusterCacheSize;
     }
     
     /**
@@ -194,6 +1317,138 @@ public class ServerSettings {
         return headerReadTimeout;
     }
 
+    /**
+     * Gets the site of a request
+     * @param host          Host header (or ":authority"), null if not sent
+     * @return VirtualHost  Virtual host of the host name or the default site
+     */
+    public VirtualHost getHost(String host) {
+        if (virtualHosts.isEmpty()) {
+            return defaultHost;
+        }
+        VirtualHost virtualHost = virtualHosts.get(VirtualHost.hostName(host));
+        return (virtualHost == null) ? defaultHost : virtualHost;
+    }
+
+    /**
+     * Get Site of the DocumentRoot, for the requests of an unknown host
+     * @return VirtualHost
+     */
+    public VirtualHost getDefaultHost() {
+        return defaultHost;
+    }
+
+    /**
+     * Get Virtual hosts, without the default site
+     * @return Collection<VirtualHost>
+     */
+    public Collection<VirtualHost> getVirtualHosts() {
+        return new LinkedHashSet<>(virtualHosts.values());
+    }
+
+    /**
+     * Get Cache of the files of the document root
+     * @return FileCache
+     */
+    public FileCache getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * Get Holder of the content pack
+     * @return ContentPackHolder    Holder or null if the document root is served
+     */
+    public ContentPackHolder getContentPackHolder() {
+        return contentPackHolder;
+    }
+
+    /**
+     * Get Router of the request handlers
+     * @return Router
+     */
+    public Router getRouter() {
+        return router;
+    }
+
+    /**
+     * Get Rate limiter of the clients
+     * @return RateLimiter     Rate limiter or null if there is no rate limit
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Get Async writer of large responses, started on first use
+     * @return AsyncWriter     Async writer or null if there is no async write
+     */
+    public synchronized AsyncWriter getAsyncWriter() {
+        if (asyncWrite && asyncWriter == null) {
+            try {
+                asyncWriter = new AsyncWriter(asyncWriteThreshold, asyncWriteThreads);
+            } catch (IOException e) {
+                throw new WebServerException("Cannot start the async writer", e);
+            }
+        }
+        return asyncWriter;
+    }
+
+    /**
+     * Get Lane of the large transfers
+     * @return TransferLane     Transfer lane or null if there is a single lane
+     */
+    public TransferLane getTransferLane() {
+        return transferLane;
+    }
+
+    /**
+     * Get Shaper of the bandwidth of the bodies sent
+     * @return BandwidthShaper  Bandwidth shaper or null if there is no bandwidth limit
+     */
+    public BandwidthShaper getBandwidthShaper() {
+        return bandwidthShaper;
+    }
+
+    /**
+     * Get Notifier of the changes of the document root
+     * @return ChangeNotifier   Change notifier or null if there is no stream of changes
+     */
+    public ChangeNotifier getChangeNotifier() {
+        return changeNotifier;
+    }
+
+    /**
+     * Get Finder of the subresources of the HTML files
+     * @return SubresourceAnalyzer  Subresource analyzer or null if there are no early hints
+     */
+    public SubresourceAnalyzer getSubresourceAnalyzer() {
+        return subresourceAnalyzer;
+    }
+
+    /**
+     * Get Cache of the files shared by the nodes of the cluster
+     * @return ClusterCache     Cluster cache or null if there is no cluster
+     */
+    public ClusterCache getClusterCache() {
+        return clusterCache;
+    }
+
+    /**
+     * Get Caching headers of the files served
+     * @return CachePolicy
+     */
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * Get Capture of the requests served, recording once it is opened
+     * @return TrafficCapture   Traffic capture or null if there is no capture
+     */
+    public TrafficCapture getTrafficCapture() {
+        return trafficCapture;
+    }
+
     // Read properties file for configuring the Web Server
     private void readConfig() {
         Properties props = new Properties();
@@ -209,23 +1464,7 @@ public class ServerSettings {
 
                 props.load(is);
             
-                // read properties
-                if (props.containsKey(SERVER_PORT_PROP_NAME)) {
-                    serverPort = Integer.parseInt(props.getProperty(SERVER_PORT_PROP_NAME));
-                    logger.trace(GETPROPERTY_MESSAGE + SERVER_PORT_PROP_NAME);
-                }
-                if (props.containsKey(DOCUMENT_ROOT_PROP_NAME)) {
-                    documentRoot = props.getProperty(DOCUMENT_ROOT_PROP_NAME);
-                    logger.trace(GETPROPERTY_MESSAGE + DOCUMENT_ROOT_PROP_NAME);
-                }
-                if (props.containsKey(DIRECTORY_LISTING_PROP_NAME)) {
-                    directoryListing = getDirectoryListing(props.getProperty(DIRECTORY_LISTING_PROP_NAME));
-                    logger.trace(GETPROPERTY_MESSAGE + DIRECTORY_LISTING_PROP_NAME);
-                }
-                if (props.containsKey(N_THREADS_PROP_NAME)) {
-                    nThreads = Integer.parseInt(props.getProperty(N_THREADS_PROP_NAME));
-                    logger.trace(GETPROPERTY_MESSAGE + N_THREADS_PROP_NAME);
-                }
+                readProperties(props);
             } else {
                 logger.info("Config file not found");
             }
@@ -244,19 +1483,285 @@ public class ServerSettings {
         logger.trace("Document Root: " + documentRoot);
         logger.trace("Directory Listing: " + directoryListing);
         logger.trace("Threads number: " + nThreads);
+        logger.trace("Http2: " + http2);
+        logger.trace("Warm Up: " + warmUp);
+        logger.trace("Warm Up Preload Size: " + warmUpPreloadSize);
+        logger.trace("Warm Up Requests: " + warmUpRequests);
+        logger.trace("Content Pack: " + contentPack);
+        logger.trace("Health Check Path: " + healthCheckPath);
+        logger.trace("Rate Limit: " + rateLimit);
+        logger.trace("Rate Limit Burst: " + rateLimitBurst);
+        logger.trace("Proxy Routes: " + proxyRoutes);
+        logger.trace("Proxy Cache Size: " + proxyCacheSize);
+        logger.trace("Proxy Pool Size: " + proxyPoolSize);
+        logger.trace("Proxy Timeout: " + proxyTimeout);
+        logger.trace("Async Write: " + asyncWrite);
+        logger.trace("Async Write Threshold: " + asyncWriteThreshold);
+        logger.trace("Async Write Threads: " + asyncWriteThreads);
+        logger.trace("Slow Request Threshold: " + slowRequestThreshold);
+        logger.trace("Tls: " + tls);
+        logger.trace("Tls Key Store: " + tlsKeyStore);
+        logger.trace("Tls Session Cache Size: " + tlsSessionCacheSize);
+        logger.trace("Tls Session Timeout: " + tlsSessionTimeout);
+        logger.trace("Tls Session Tickets: " + tlsSessionTickets);
+        logger.trace("Cache Index: " + cacheIndex);
+        logger.trace("Upload: " + upload);
+        logger.trace("Upload Max Size: " + uploadMaxSize);
+        logger.trace("Large Transfer Threshold: " + largeTransferThreshold);
+        logger.trace("Large Transfer Threads: " + largeTransferThreads);
+        logger.trace("Cache Policies: " + cachePolicies);
+        logger.trace("Cache Fingerprinted: " + cacheFingerprinted);
+        logger.trace("Batch Path: " + batchPath);
+        logger.trace("Batch Max Size: " + batchMaxSize);
+        logger.trace("Traffic Capture: " + trafficCaptureFile);
+        logger.trace("Bandwidth Limit: " + bandwidthLimit);
+        logger.trace("Bandwidth Per Connection: " + bandwidthPerConnection);
+        logger.trace("Bandwidth Fair Share: " + bandwidthFairShare);
+        logger.trace("Change Events Path: " + changeEventsPath);
+        logger.trace("Virtual Hosts: " + virtualHostNames);
+        logger.trace("Early Hints: " + earlyHints);
+        logger.trace("Cluster Peers: " + clusterPeers);
+        logger.trace("Cluster Self: " + clusterSelf);
+        logger.trace("Cluster Peer Connections: " + clusterPeerConnections);
+        logger.trace("Cluster Cache Size: " + clusterCacheSize);
         logger.trace("File Buffer Size: " + fileBufferSize);
         logger.trace("Request Read Timeout: " + requestReadTimeout);
         logger.trace("Header Read Timeout: " + headerReadTimeout);
     }
 
-    // Put Directory Listing value
-    private boolean getDirectoryListing(String value) {
-        boolean dirListing = false;
+    // Read the properties for configuring the Web Server
+    private void readProperties(Properties props) {
+        if (props.containsKey(SERVER_PORT_PROP_NAME)) {
+            serverPort = Integer.parseInt(props.getProperty(SERVER_PORT_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + SERVER_PORT_PROP_NAME);
+        }
+        if (props.containsKey(DOCUMENT_ROOT_PROP_NAME)) {
+            documentRoot = props.getProperty(DOCUMENT_ROOT_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + DOCUMENT_ROOT_PROP_NAME);
+        }
+        if (props.containsKey(DIRECTORY_LISTING_PROP_NAME)) {
+            directoryListing = getFlag(props.getProperty(DIRECTORY_LISTING_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + DIRECTORY_LISTING_PROP_NAME);
+        }
+        if (props.containsKey(N_THREADS_PROP_NAME)) {
+            nThreads = Integer.parseInt(props.getProperty(N_THREADS_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + N_THREADS_PROP_NAME);
+        }
+        if (props.containsKey(HTTP2_PROP_NAME)) {
+            http2 = getFlag(props.getProperty(HTTP2_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + HTTP2_PROP_NAME);
+        }
+        if (props.containsKey(WARM_UP_PROP_NAME)) {
+            warmUp = getFlag(props.getProperty(WARM_UP_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + WARM_UP_PROP_NAME);
+        }
+        if (props.containsKey(WARM_UP_PRELOAD_SIZE_PROP_NAME)) {
+            warmUpPreloadSize = Long.parseLong(props.getProperty(WARM_UP_PRELOAD_SIZE_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + WARM_UP_PRELOAD_SIZE_PROP_NAME);
+        }
+        if (props.containsKey(WARM_UP_REQUESTS_PROP_NAME)) {
+            warmUpRequests = Integer.parseInt(props.getProperty(WARM_UP_REQUESTS_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + WARM_UP_REQUESTS_PROP_NAME);
+        }
+        if (props.containsKey(CONTENT_PACK_PROP_NAME)) {
+            contentPack = props.getProperty(CONTENT_PACK_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + CONTENT_PACK_PROP_NAME);
+        }
+        if (props.containsKey(HEALTH_CHECK_PATH_PROP_NAME)) {
+            healthCheckPath = props.getProperty(HEALTH_CHECK_PATH_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + HEALTH_CHECK_PATH_PROP_NAME);
+        }
+        if (props.containsKey(RATE_LIMIT_PROP_NAME)) {
+            rateLimit = Integer.parseInt(props.getProperty(RATE_LIMIT_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + RATE_LIMIT_PROP_NAME);
+        }
+        if (props.containsKey(RATE_LIMIT_BURST_PROP_NAME)) {
+            rateLimitBurst = Integer.parseInt(props.getProperty(RATE_LIMIT_BURST_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + RATE_LIMIT_BURST_PROP_NAME);
+        }
+        if (props.containsKey(PROXY_ROUTES_PROP_NAME)) {
+            proxyRoutes = props.getProperty(PROXY_ROUTES_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + PROXY_ROUTES_PROP_NAME);
+        }
+        if (props.containsKey(PROXY_CACHE_SIZE_PROP_NAME)) {
+            proxyCacheSize = Long.parseLong(props.getProperty(PROXY_CACHE_SIZE_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + PROXY_CACHE_SIZE_PROP_NAME);
+        }
+        if (props.containsKey(PROXY_POOL_SIZE_PROP_NAME)) {
+            proxyPoolSize = Integer.parseInt(props.getProperty(PROXY_POOL_SIZE_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + PROXY_POOL_SIZE_PROP_NAME);
+        }
+        if (props.containsKey(PROXY_TIMEOUT_PROP_NAME)) {
+            proxyTimeout = Integer.parseInt(props.getProperty(PROXY_TIMEOUT_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + PROXY_TIMEOUT_PROP_NAME);
+        }
+        if (props.containsKey(ASYNC_WRITE_PROP_NAME)) {
+            asyncWrite = getFlag(props.getProperty(ASYNC_WRITE_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + ASYNC_WRITE_PROP_NAME);
+        }
+        if (props.containsKey(ASYNC_WRITE_THRESHOLD_PROP_NAME)) {
+            asyncWriteThreshold = Integer.parseInt(props.getProperty(ASYNC_WRITE_THRESHOLD_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + ASYNC_WRITE_THRESHOLD_PROP_NAME);
+        }
+        if (props.containsKey(ASYNC_WRITE_THREADS_PROP_NAME)) {
+            asyncWriteThreads = Integer.parseInt(props.getProperty(ASYNC_WRITE_THREADS_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + ASYNC_WRITE_THREADS_PROP_NAME);
+        }
+        if (props.containsKey(SLOW_REQUEST_THRESHOLD_PROP_NAME)) {
+            slowRequestThreshold = Integer.parseInt(props.getProperty(SLOW_REQUEST_THRESHOLD_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + SLOW_REQUEST_THRESHOLD_PROP_NAME);
+        }
+        if (props.containsKey(TLS_PROP_NAME)) {
+            tls = getFlag(props.getProperty(TLS_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + TLS_PROP_NAME);
+        }
+        if (props.containsKey(TLS_KEY_STORE_PROP_NAME)) {
+            tlsKeyStore = props.getProperty(TLS_KEY_STORE_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + TLS_KEY_STORE_PROP_NAME);
+        }
+        if (props.containsKey(TLS_KEY_STORE_PASSWORD_PROP_NAME)) {
+            tlsKeyStorePassword = props.getProperty(TLS_KEY_STORE_PASSWORD_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + TLS_KEY_STORE_PASSWORD_PROP_NAME);
+        }
+        if (props.containsKey(TLS_SESSION_CACHE_SIZE_PROP_NAME)) {
+            tlsSessionCacheSize = Integer.parseInt(props.getProperty(TLS_SESSION_CACHE_SIZE_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + TLS_SESSION_CACHE_SIZE_PROP_NAME);
+        }
+        if (props.containsKey(TLS_SESSION_TIMEOUT_PROP_NAME)) {
+            tlsSessionTimeout = Integer.parseInt(props.getProperty(TLS_SESSION_TIMEOUT_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + TLS_SESSION_TIMEOUT_PROP_NAME);
+        }
+        if (props.containsKey(TLS_SESSION_TICKETS_PROP_NAME)) {
+            tlsSessionTickets = getFlag(props.getProperty(TLS_SESSION_TICKETS_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + TLS_SESSION_TICKETS_PROP_NAME);
+        }
+        if (props.containsKey(CACHE_INDEX_PROP_NAME)) {
+            cacheIndex = props.getProperty(CACHE_INDEX_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + CACHE_INDEX_PROP_NAME);
+        }
+        if (props.containsKey(UPLOAD_PROP_NAME)) {
+            upload = getFlag(props.getProperty(UPLOAD_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + UPLOAD_PROP_NAME);
+        }
+        if (props.containsKey(UPLOAD_TOKEN_PROP_NAME)) {
+            uploadToken = props.getProperty(UPLOAD_TOKEN_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + UPLOAD_TOKEN_PROP_NAME);
+        }
+        if (props.containsKey(UPLOAD_MAX_SIZE_PROP_NAME)) {
+            uploadMaxSize = Long.parseLong(props.getProperty(UPLOAD_MAX_SIZE_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + UPLOAD_MAX_SIZE_PROP_NAME);
+        }
+        if (props.containsKey(LARGE_TRANSFER_THRESHOLD_PROP_NAME)) {
+            largeTransferThreshold = Long.parseLong(props.getProperty(LARGE_TRANSFER_THRESHOLD_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + LARGE_TRANSFER_THRESHOLD_PROP_NAME);
+        }
+        if (props.containsKey(LARGE_TRANSFER_THREADS_PROP_NAME)) {
+            largeTransferThreads = Integer.parseInt(props.getProperty(LARGE_TRANSFER_THREADS_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + LARGE_TRANSFER_THREADS_PROP_NAME);
+        }
+        if (props.containsKey(CACHE_POLICIES_PROP_NAME)) {
+            cachePolicies = props.getProperty(CACHE_POLICIES_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + CACHE_POLICIES_PROP_NAME);
+        }
+        if (props.containsKey(CACHE_FINGERPRINTED_PROP_NAME)) {
+            cacheFingerprinted = Integer.parseInt(props.getProperty(CACHE_FINGERPRINTED_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + CACHE_FINGERPRINTED_PROP_NAME);
+        }
+        if (props.containsKey(BATCH_PATH_PROP_NAME)) {
+            batchPath = props.getProperty(BATCH_PATH_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + BATCH_PATH_PROP_NAME);
+        }
+        if (props.containsKey(BATCH_MAX_SIZE_PROP_NAME)) {
+            batchMaxSize = Long.parseLong(props.getProperty(BATCH_MAX_SIZE_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + BATCH_MAX_SIZE_PROP_NAME);
+        }
+        if (props.containsKey(TRAFFIC_CAPTURE_PROP_NAME)) {
+            trafficCaptureFile = props.getProperty(TRAFFIC_CAPTURE_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + TRAFFIC_CAPTURE_PROP_NAME);
+        }
+        if (props.containsKey(BANDWIDTH_LIMIT_PROP_NAME)) {
+            bandwidthLimit = Long.parseLong(props.getProperty(BANDWIDTH_LIMIT_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + BANDWIDTH_LIMIT_PROP_NAME);
+        }
+        if (props.containsKey(BANDWIDTH_PER_CONNECTION_PROP_NAME)) {
+            bandwidthPerConnection = Long.parseLong(props.getProperty(BANDWIDTH_PER_CONNECTION_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + BANDWIDTH_PER_CONNECTION_PROP_NAME);
+        }
+        if (props.containsKey(BANDWIDTH_FAIR_SHARE_PROP_NAME)) {
+            bandwidthFairShare = getFlag(props.getProperty(BANDWIDTH_FAIR_SHARE_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + BANDWIDTH_FAIR_SHARE_PROP_NAME);
+        }
+        if (props.containsKey(CHANGE_EVENTS_PATH_PROP_NAME)) {
+            changeEventsPath = props.getProperty(CHANGE_EVENTS_PATH_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + CHANGE_EVENTS_PATH_PROP_NAME);
+        }
+        if (props.containsKey(VIRTUAL_HOSTS_PROP_NAME)) {
+            virtualHostNames = props.getProperty(VIRTUAL_HOSTS_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + VIRTUAL_HOSTS_PROP_NAME);
+        }
+        if (props.containsKey(EARLY_HINTS_PROP_NAME)) {
+            earlyHints = getFlag(props.getProperty(EARLY_HINTS_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + EARLY_HINTS_PROP_NAME);
+        }
+        if (props.containsKey(CLUSTER_PEERS_PROP_NAME)) {
+            clusterPeers = props.getProperty(CLUSTER_PEERS_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + CLUSTER_PEERS_PROP_NAME);
+        }
+        if (props.containsKey(CLUSTER_SELF_PROP_NAME)) {
+            clusterSelf = props.getProperty(CLUSTER_SELF_PROP_NAME);
+            logger.trace(GETPROPERTY_MESSAGE + CLUSTER_SELF_PROP_NAME);
+        }
+        if (props.containsKey(CLUSTER_PEER_CONNECTIONS_PROP_NAME)) {
+            clusterPeerConnections = Integer.parseInt(props.getProperty(CLUSTER_PEER_CONNECTIONS_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + CLUSTER_PEER_CONNECTIONS_PROP_NAME);
+        }
+        if (props.containsKey(CLUSTER_CACHE_SIZE_PROP_NAME)) {
+            clusterCacheSize = Long.parseLong(props.getProperty(CLUSTER_CACHE_SIZE_PROP_NAME));
+            logger.trace(GETPROPERTY_MESSAGE + CLUSTER_CACHE_SIZE_PROP_NAME);
+        }
+        readVirtualHosts(props);
+    }
+
+    // Virtual hosts of the VirtualHosts list, with the DirectoryListing and
+    // WarmUpPreloadSize of the config file unless they have their own
+    private void readVirtualHosts(Properties props) {
+        virtualHosts.clear();
+        for (String item : virtualHostNames.split(",")) {
+            String name = VirtualHost.hostName(item);
+            if ("".equals(name)) {
+                continue;
+            }
+            String prefix = VIRTUAL_HOST_PROP_PREFIX + item.trim() + ".";
+            String root = props.getProperty(prefix + DOCUMENT_ROOT_PROP_NAME);
+            if (root == null || !new File(root).isDirectory()) {
+                logger.warn("Virtual host skipped, no document root: " + name);
+                continue;
+            }
+            String listing = props.getProperty(prefix + DIRECTORY_LISTING_PROP_NAME);
+            String entries = props.getProperty(prefix + VIRTUAL_HOST_CACHE_ENTRIES_PROP_NAME);
+            String preload = props.getProperty(prefix + VIRTUAL_HOST_PRELOAD_SIZE_PROP_NAME);
+            VirtualHost virtualHost = new VirtualHost(name, root,
+                    (listing == null) ? directoryListing : getFlag(listing),
+                    new FileCache((entries == null) ? FileCache.MAX_ENTRIES : Integer.parseInt(entries.trim())),
+                    (preload == null) ? warmUpPreloadSize : Long.parseLong(preload.trim()));
+            virtualHosts.put(name, virtualHost);
+            for (String alias : props.getProperty(prefix + VIRTUAL_HOST_ALIASES_PROP_NAME, "").split(",")) {
+                if (!"".equals(VirtualHost.hostName(alias))) {
+                    virtualHosts.put(VirtualHost.hostName(alias), virtualHost);
+                }
+            }
+            logger.info("Virtual host: " + name + " -> " + root);
+        }
+    }
+
+    // Put y/n flag value (Directory Listing, Http2)
+    private boolean getFlag(String value) {
+        boolean flag = false;
         
         if ("y".equalsIgnoreCase(value)) {
-            dirListing = true;
+            flag = true;
         }
         
-        return dirListing;
+        return flag;
     }
 }
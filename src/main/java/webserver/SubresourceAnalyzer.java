@@ -0,0 +1,177 @@
+/**
+ * SubresourceAnalyzer: Finds the subresources of the HTML files served
+ */
+
+package webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Finds the subresources of the HTML files served (style sheets, scripts,
+ * images and preload links of the same site), so they are announced in a
+ * "103 Early Hints" response and in "Link: rel=preload" headers before the
+ * client parses the body. An HTML file is parsed once, the first time it is
+ * served, and its links are kept in its entry of the file cache until the
+ * file changes. Only the subresources found in the document root are
+ * announced, style sheets and scripts first, and they are preloaded in the
+ * file cache (within the preload size of the site) when they are found
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class SubresourceAnalyzer {
+
+    /**
+     * Max subresources announced for an HTML file
+     */
+    public static final int MAX_LINKS = 16;
+
+    /**
+     * Bytes of the start of an HTML file parsed
+     */
+    public static final int MAX_SCAN = 262144;
+
+    private static final String[] NO_LINKS = new String[0];
+    private static final List<String> PRIORITY = Arrays.asList("style", "script", "font", "image");
+    private static final Pattern TAG = Pattern.compile("<(link|script|img)\\s([^>]*)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile("([a-zA-Z-]+)\\s*=\\s*(\"[^\"]*\"|'[^']*'|[^\\s\"'>]+)");
+    private static final Logger logger = LogManager.getLogger(SubresourceAnalyzer.class.getName());
+
+    /**
+     * Gets the Link headers of the subresources of a file, parsed the first
+     * time for this version of the file
+     * @param host          Site of the request
+     * @param requestUri    Request URI of the file
+     * @param entry         Entry of the file
+     * @return String[]     Link headers (empty if the file is not HTML or has none)
+     */
+    public String[] getLinks(VirtualHost host, String requestUri, FileEntry entry) {
+        if (!entry.getMimeType().startsWith("text/html")) {
+            return NO_LINKS;
+        }
+        String[] links = entry.getPreloadLinks();
+        if (links == null) {
+            links = analyze(host, requestUri, entry);
+            entry.setPreloadLinks(links);
+        }
+        return links;
+    }
+
+    private String[] analyze(VirtualHost host, String requestUri, FileEntry entry) {
+        String html;
+        URI base;
+        try {
+            html = read(entry);
+            int query = requestUri.indexOf('?');
+            base = new URI(encodeSpaces((query < 0) ? requestUri : requestUri.substring(0, query)));
+        } catch (IOException | URISyntaxException e) {
+            logger.trace("Not analyzed: " + entry.getFile(), e);
+            return NO_LINKS;
+        }
+        Map<String, String> found = new LinkedHashMap<>();  // Path and destination ("as"), in document order
+        Matcher tag = TAG.matcher(html);
+        while (tag.find()) {
+            Map<String, String> attributes = attributes(tag.group(2));
+            String name = tag.group(1).toLowerCase(Locale.ROOT);
+            String rel = attributes.getOrDefault("rel", "").toLowerCase(Locale.ROOT);
+            if ("img".equals(name)) {
+                add(found, base, attributes.get("src"), "image");
+            } else if ("script".equals(name)) {
+                add(found, base, attributes.get("src"), "script");
+            } else if ("stylesheet".equals(rel)) {
+                add(found, base, attributes.get("href"), "style");
+            } else if ("preload".equals(rel) && attributes.containsKey("as")) {
+                add(found, base, attributes.get("href"), attributes.get("as").toLowerCase(Locale.ROOT));
+            }
+        }
+
+        List<Map.Entry<String, String>> resources = new ArrayList<>(found.entrySet());
+        resources.sort((a, b) -> Integer.compare(priority(a.getValue()), priority(b.getValue())));
+        List<String> links = new ArrayList<>();
+        for (Map.Entry<String, String> resource : resources) {
+            if (links.size() >= MAX_LINKS) {
+                break;
+            }
+            String path = resource.getKey();
+            int pathQuery = path.indexOf('?');
+            FileEntry subresource = host.getFileCache().lookup(
+                    Response.fileAndPath(host, (pathQuery < 0) ? path : path.substring(0, pathQuery)));
+            if (subresource == null || subresource.isDirectory()) {  // Not worth a hint
+                continue;
+            }
+            host.getFileCache().preload(subresource, host.getPreloadSize());
+            links.add("<" + path + ">; rel=preload; as=" + resource.getValue()
+                    + ("font".equals(resource.getValue()) ? "; crossorigin" : ""));
+        }
+        logger.trace("Subresources of " + requestUri + ": " + links);
+        return links.toArray(NO_LINKS);
+    }
+
+    private static String read(FileEntry entry) throws IOException {
+        byte[] content = entry.getContent();
+        if (content != null) {
+            return new String(content, 0, Math.min(content.length, MAX_SCAN), StandardCharsets.ISO_8859_1);
+        }
+        byte[] buffer = new byte[(int) Math.min(entry.getLength(), MAX_SCAN)];
+        int count = 0;
+        try (InputStream is = Files.newInputStream(entry.getFile().toPath())) {
+            int read;
+            while (count < buffer.length && (read = is.read(buffer, count, buffer.length - count)) > 0) {
+                count += read;
+            }
+        }
+        return new String(buffer, 0, count, StandardCharsets.ISO_8859_1);
+    }
+
+    private static Map<String, String> attributes(String text) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        Matcher attribute = ATTRIBUTE.matcher(text);
+        while (attribute.find()) {
+            String value = attribute.group(2);
+            if (value.startsWith("\"") || value.startsWith("'")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            attributes.putIfAbsent(attribute.group(1).toLowerCase(Locale.ROOT), value.trim());
+        }
+        return attributes;
+    }
+
+    // Adds the path of a reference of the same site, resolved against the HTML file
+    private static void add(Map<String, String> found, URI base, String reference, String as) {
+        if (reference == null || reference.isEmpty() || reference.startsWith("#") || reference.startsWith("data:")) {
+            return;
+        }
+        try {
+            URI resolved = base.resolve(new URI(encodeSpaces(reference)));
+            if (resolved.getScheme() != null || resolved.getRawAuthority() != null || resolved.getRawPath() == null) {
+                return;  // Another site
+            }
+            String path = resolved.getRawPath() + ((resolved.getRawQuery() != null) ? "?" + resolved.getRawQuery() : "");
+            found.putIfAbsent(path, as);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            logger.trace("Invalid reference: " + reference, e);
+        }
+    }
+
+    private static String encodeSpaces(String reference) {
+        return reference.replace(" ", "%20");
+    }
+
+    private static int priority(String as) {
+        int priority = PRIORITY.indexOf(as);
+        return (priority < 0) ? PRIORITY.size() - 1 : priority;
+    }
+}
@@ -5,8 +5,10 @@
 package webserver;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import org.apache.logging.log4j.Logger;
@@ -18,6 +20,7 @@ import org.apache.logging.log4j.LogManager;
  */
 public class ThreadPooledWebServer implements Runnable {
     private static final Logger logger = LogManager.getLogger(ThreadPooledWebServer.class.getName());
+    private static final int BACKLOG = 50;
     private ServerSettings  serverSettings;
     private int             serverPort    = 9090;
     private ServerSocket    serverSocket  = null;
@@ -53,16 +56,23 @@ public class ThreadPooledWebServer implements Runnable {
             try {
                 clientSocket = serverSocket.accept();
             } catch (IOException e) {
-                if (isStopped()) {
-                    logger.error("Web Server Stopped");
-                    return;
+                if (isStopped()) {  // Closed by stop(), the pool ends after its workers
+                    break;
                 }
                 logger.error("Error accepting client connection", e);
                 throw new WebServerException("Error accepting client connection", e);
             }
+            AcceptEvent acceptEvent = new AcceptEvent();
+            if (acceptEvent.shouldCommit()) {
+                acceptEvent.remoteAddress = String.valueOf(clientSocket.getRemoteSocketAddress());
+                acceptEvent.commit();
+            }
             threadPool.execute(new HttpWorker(serverSettings, clientSocket));
         }
         threadPool.shutdown();
+        if (serverSettings.getTransferLane() != null) {
+            serverSettings.getTransferLane().shutdown();
+        }
         logger.info("Web Server Stopped");
     }
 
@@ -79,9 +89,28 @@ public class ThreadPooledWebServer implements Runnable {
         }
     }
 
-    private void openServerSocket() {
+    /**
+     * Get Port the server socket is bound to (e.g. when ServerPort is 0),
+     * -1 if it is not open yet
+     * @return int
+     */
+    public synchronized int getLocalPort() {
+        return (serverSocket == null) ? -1 : serverSocket.getLocalPort();
+    }
+
+    private synchronized void openServerSocket() {
         try {
-            serverSocket = new ServerSocket(serverPort);
+            if (serverSettings.getTls()) {  // HTTPS
+                if (serverSettings.getAsyncWrite()) {
+                    logger.warn("Async write not available with TLS");
+                }
+                serverSocket = new TlsContext(serverSettings).createServerSocket(serverPort, BACKLOG);
+            } else if (serverSettings.getAsyncWrite() || serverSettings.getChangeNotifier() != null) {  // Sockets with channels, for the async writer and the change notifier
+                serverSocket = ServerSocketChannel.open().socket();
+                serverSocket.bind(new InetSocketAddress(serverPort), BACKLOG);
+            } else {
+                serverSocket = new ServerSocket(serverPort);
+            }
         } catch (IOException e) {
             logger.error("Cannot open port: " + serverPort, e);
             throw new WebServerException("Cannot open port: " + serverPort, e);
@@ -0,0 +1,124 @@
+/**
+ * TlsContext: TLS context of the HTTPS server socket
+ */
+
+package webserver;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSessionContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * TLS context of the HTTPS server socket. The key store holds the certificate
+ * and private key of the server. Full handshakes are the dominant cost of
+ * TLS, so the sessions are kept in a server-side cache (TlsSessionCacheSize,
+ * TlsSessionTimeout) and can also be resumed with session tickets, which hold
+ * the session on the client. The application protocols are negotiated with
+ * ALPN: "h2" (when Http2 is allowed) and "http/1.1", in order of preference.
+ * The handshake is done by the worker of the connection, not by the thread
+ * that accepts it
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class TlsContext {
+
+    /**
+     * ALPN protocol id of HTTP/2 over TLS
+     */
+    public static final String ALPN_H2 = "h2";
+
+    /**
+     * ALPN protocol id of HTTP/1.1
+     */
+    public static final String ALPN_HTTP_1_1 = "http/1.1";
+
+    // Read by the JDK when the first SSLContext is created (JDK 13 or later)
+    private static final String SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+    private static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    private static final Logger logger = LogManager.getLogger(TlsContext.class.getName());
+    private final SSLContext sslContext;
+    private final String[] applicationProtocols;
+
+    /**
+     * Class constructor, loads the key store
+     * @param serverSettings    Settings of the Web Server
+     */
+    public TlsContext(ServerSettings serverSettings) {
+        System.setProperty(SESSION_TICKETS_PROPERTY, Boolean.toString(serverSettings.getTlsSessionTickets()));
+        char[] password = serverSettings.getTlsKeyStorePassword().toCharArray();
+        String keyStoreFile = serverSettings.getTlsKeyStore();
+        try (InputStream is = new FileInputStream(keyStoreFile)) {
+            KeyStore keyStore = KeyStore.getInstance(keyStoreFile.toLowerCase().endsWith(".jks") ? "JKS" : "PKCS12");
+            keyStore.load(is, password);
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, password);
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new WebServerException("Cannot load TLS Key Store: " + keyStoreFile, e);
+        }
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        sessionContext.setSessionCacheSize(serverSettings.getTlsSessionCacheSize());
+        sessionContext.setSessionTimeout(serverSettings.getTlsSessionTimeout());
+        List<String> protocols = new ArrayList<>();
+        if (serverSettings.getHttp2()) {
+            protocols.add(ALPN_H2);
+        }
+        protocols.add(ALPN_HTTP_1_1);
+        applicationProtocols = protocols.toArray(new String[0]);
+    }
+
+    /**
+     * Get Application protocols negotiated with ALPN, in order of preference
+     * @return String[]
+     */
+    public String[] getApplicationProtocols() {
+        return applicationProtocols.clone();
+    }
+
+    /**
+     * Get Server-side cache of the TLS sessions
+     * @return SSLSessionContext
+     */
+    public SSLSessionContext getSessionContext() {
+        return sslContext.getServerSessionContext();
+    }
+
+    /**
+     * Opens the HTTPS server socket
+     * @param port      Server port
+     * @param backlog   Max pending connections
+     * @throws IOException If an input or output
+     *                     exception occurred
+     * @return ServerSocket
+     */
+    public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+        SSLServerSocket serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(port, backlog);
+        SSLParameters parameters = serverSocket.getSSLParameters();
+        List<String> supported = Arrays.asList(serverSocket.getSupportedProtocols());
+        List<String> protocols = new ArrayList<>();
+        for (String protocol : PROTOCOLS) {
+            if (supported.contains(protocol)) {
+                protocols.add(protocol);
+            }
+        }
+        parameters.setProtocols(protocols.toArray(new String[0]));
+        parameters.setUseCipherSuitesOrder(true);
+        parameters.setApplicationProtocols(applicationProtocols);
+        serverSocket.setSSLParameters(parameters);
+        logger.info("TLS protocols: " + protocols + ", ALPN: " + Arrays.toString(applicationProtocols));
+        return serverSocket;
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * TrafficCapture: Records the requests served in a capture file
+ */
+
+package webserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Records the requests served (request line, a few headers, status and time
+ * of arrival) in a compact binary file, to replay the real workload offline
+ * with TrafficReplayTool. A worker only queues the record, next to its access
+ * log line, and a daemon thread writes the queue to the file; when the queue
+ * is full the record is dropped instead of blocking the worker. The file is:
+ * - header: magic "WSTC", version (short), start time (long, epoch milliseconds)
+ * - records: microseconds since the start (var long), request line (UTF),
+ *   number of headers (byte), name and value of every header (UTF), status
+ *   code (short, 0 = no response)
+ * The request line and the header values are truncated to MAX_REQUEST_LINE
+ * and MAX_HEADER_VALUE characters. A record that cannot be encoded is skipped
+ * (and counted as dropped), and a record cut by a crash is ignored on read
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class TrafficCapture {
+
+    /**
+     * Headers recorded, the ones that change the response of a file
+     */
+    public static final String[] CAPTURED_HEADERS = {"Host", "Accept-Encoding", "If-None-Match", "If-Modified-Since", "Range"};
+
+    private static final int MAGIC = 0x57535443;  // "WSTC"
+    private static final short VERSION = 1;
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int MAX_REQUEST_LINE = 8192;
+    private static final int MAX_HEADER_VALUE = 8192;
+    private static final Logger logger = LogManager.getLogger(TrafficCapture.class.getName());
+    private final File file;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Record end = new Record(-1, "", new String[0], 0);
+    private long startNanos;
+    private DataOutputStream output;
+    // Record being encoded, written to the file only when it is complete
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOutput = new DataOutputStream(recordBytes);
+    private Thread writer;
+    private volatile boolean opened = false;
+    private long written = 0;
+
+    /**
+     * Class constructor
+     * @param file      Capture file (written again if it exists)
+     */
+    public TrafficCapture(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the capture file and starts the writer thread, which writes the
+     * rest of the queue and closes the file at shutdown
+     * @throws IOException If an input or output
+     *                     exception occurred
+     */
+    public synchronized void open() throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        output.writeInt(MAGIC);
+        output.writeShort(VERSION);
+        output.writeLong(System.currentTimeMillis());
+        startNanos = System.nanoTime();
+        writer = new Thread(this::writeQueue, "traffic-capture");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "traffic-capture-close"));
+        opened = true;
+        logger.info("Traffic capture: " + file);
+    }
+
+    /**
+     * Queues a request served, if the capture file is open
+     * @param acceptNanos   Time of the accept of the connection (System.nanoTime())
+     * @param requestLine   Request line
+     * @param headers       Headers of the request
+     * @param status        Status code and reason phrase (null = no response)
+     */
+    public void record(long acceptNanos, String requestLine, RequestHeaders headers, String status) {
+        if (!opened || requestLine == null || "".equals(requestLine)) {
+            return;
+        }
+        List<String> captured = new ArrayList<>(CAPTURED_HEADERS.length * 2);
+        for (String name : CAPTURED_HEADERS) {
+            String value = headers.get(name);
+            if (value != null) {
+                captured.add(name);
+                captured.add(truncate(value, MAX_HEADER_VALUE));
+            }
+        }
+        String line = truncate(requestLine, MAX_REQUEST_LINE);
+        long offset = Math.max(0, TimeUnit.NANOSECONDS.toMicros(acceptNanos - startNanos));
+        if (!queue.offer(new Record(offset, line, captured.toArray(new String[0]), statusCode(status)))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get Records dropped because the queue was full
+     * @return long
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the rest of the queue and closes the capture file
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            thread = writer;
+            writer = null;
+            opened = false;
+        }
+        if (thread == null) {
+            return;
+        }
+        try {
+            queue.put(end);
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Traffic capture closed: " + written + " requests, " + dropped.get() + " dropped");
+    }
+
+    /**
+     * Reads a capture file, sorted by time of arrival
+     * @param file          Capture file
+     * @throws IOException If an input or output
+     *                     exception occurred
+     * @return List<Record> Requests recorded
+     */
+    public static List<Record> read(File file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            if (input.readInt() != MAGIC || input.readShort() != VERSION) {
+                throw new IOException("Not a traffic capture file: " + file);
+            }
+            input.readLong();
+            while (true) {
+                long offset;
+                try {
+                    offset = readVarLong(input);
+                } catch (EOFException e) {  // End of the file
+                    break;
+                }
+                try {
+                    String requestLine = input.readUTF();
+                    String[] headers = new String[(input.readByte() & 0xff) * 2];
+                    for (int i = 0; i < headers.length; i++) {
+                        headers[i] = input.readUTF();
+                    }
+                    records.add(new Record(offset, requestLine, headers, input.readShort()));
+                } catch (EOFException e) {  // Record cut by a crash
+                    logger.info("Traffic capture truncated: " + file);
+                    break;
+                }
+            }
+        }
+        records.sort((a, b) -> Long.compare(a.offset, b.offset));
+        return records;
+    }
+
+    // Writer thread: writes the records as they are queued, flushes when the queue is empty
+    private void writeQueue() {
+        try {
+            Record record = queue.take();
+            while (record != end) {
+                if (encode(record)) {
+                    recordBytes.writeTo(output);
+                    written++;
+                }
+                record = queue.poll();
+                if (record == null) {
+                    output.flush();
+                    record = queue.take();
+                }
+            }
+        } catch (IOException e) {
+            opened = false;  // The records are no longer queued
+            logger.error("Traffic capture stopped: " + file, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                logger.error("Cannot close traffic capture: " + file, e);
+            }
+        }
+    }
+
+    // Encodes a record in recordBytes, false if it cannot be encoded and is skipped
+    private boolean encode(Record record) {
+        recordBytes.reset();
+        try {
+            writeVarLong(recordOutput, record.offset);
+            recordOutput.writeUTF(record.requestLine);
+            recordOutput.writeByte(record.headers.length / 2);
+            for (String header : record.headers) {
+                recordOutput.writeUTF(header);
+            }
+            recordOutput.writeShort(record.status);
+            return true;
+        } catch (IOException e) {  // A string over the 65535 bytes of writeUTF
+            dropped.incrementAndGet();
+            logger.warn("Traffic capture record skipped: " + truncate(record.requestLine, 200), e);
+            return false;
+        }
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return (value.length() > maxLength) ? value.substring(0, maxLength) : value;
+    }
+
+    private static int statusCode(String status) {
+        if (status == null || status.length() < 3) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(status.substring(0, 3));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // 7 bits per byte, the high bit set if more bytes follow
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid var long");
+    }
+
+    /**
+     * Request recorded
+     */
+    public static class Record {
+
+        private final long offset;
+        private final String requestLine;
+        private final String[] headers;
+        private final int status;
+
+        Record(long offset, String requestLine, String[] headers, int status) {
+            this.offset = offset;
+            this.requestLine = requestLine;
+            this.headers = headers;
+            this.status = status;
+        }
+
+        /**
+         * Get Microseconds from the start of the capture to the arrival of the request
+         * @return long
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Get Request line
+         * @return String
+         */
+        public String getRequestLine() {
+            return requestLine;
+        }
+
+        /**
+         * Get Names and values of the headers recorded, in pairs
+         * @return String[]
+         */
+        public String[] getHeaders() {
+            return headers.clone();
+        }
+
+        /**
+         * Get Status code of the response (0 = no response)
+         * @return int
+         */
+        public int getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * TrafficReplayTool: Main class replays a traffic capture against the Web Server
+ */
+
+package webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Main class replays a traffic capture (see TrafficCapture) against the Web
+ * Server, at the speed of the capture or faster, and reports the throughput,
+ * the latency distribution and the status codes. Without a target, a
+ * ThreadPooledWebServer is started in process, on an ephemeral port, with the
+ * "webserver.properties" of the classpath. A request is sent at its time of
+ * arrival divided by the speed (speed 0 = as fast as the clients can), and
+ * its latency is measured from that time, so the requests delayed behind a
+ * slow one count their wait. Only the GET and HEAD requests are replayed
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class TrafficReplayTool {
+
+    private static final int CLIENTS = 64;
+    private static final Logger logger = LogManager.getLogger(TrafficReplayTool.class.getName());
+
+    /**
+     * Runs Traffic Replay Tool Application
+     * @param args  Capture file, speed (e.g. 1 = as captured, 10 = ten times
+     *              faster, 0 = as fast as possible) and target (host:port)
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            logger.error("Usage: TrafficReplayTool <capture file> [<speed> [<host:port>]]");
+            System.exit(-1);
+        }
+        try {
+            List<TrafficCapture.Record> records = TrafficCapture.read(new File(args[0]));
+            double speed = (args.length > 1) ? Double.parseDouble(args[1]) : 1;
+            ThreadPooledWebServer server = null;
+            String host = "localhost";
+            int port;
+            if (args.length > 2) {
+                int colon = args[2].lastIndexOf(':');
+                host = args[2].substring(0, colon);
+                port = Integer.parseInt(args[2].substring(colon + 1));
+            } else {
+                server = startServer();
+                port = server.getLocalPort();
+            }
+            logger.info("Replaying " + records.size() + " requests to " + host + ":" + port + " at speed " + speed);
+            replay(records, speed, host, port);
+            if (server != null) {
+                server.stop();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Traffic not replayed", e);
+            System.exit(-1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Sends the requests at their times and reports the results
+    private static void replay(List<TrafficCapture.Record> records, double speed, final String host, final int port)
+            throws InterruptedException {
+        final long[] latencies = new long[records.size()];
+        final int[] statuses = new int[records.size()];
+        final AtomicLong skipped = new AtomicLong();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        long start = System.nanoTime();
+        long first = records.isEmpty() ? 0 : records.get(0).getOffset();
+
+        for (int i = 0; i < records.size(); i++) {
+            final TrafficCapture.Record record = records.get(i);
+            final int index = i;
+            if (!record.getRequestLine().startsWith("GET ") && !record.getRequestLine().startsWith("HEAD ")) {
+                skipped.incrementAndGet();
+                statuses[i] = -1;
+                continue;
+            }
+            long due = start;
+            if (speed > 0) {
+                due += (long) (TimeUnit.MICROSECONDS.toNanos(record.getOffset() - first) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            final long scheduled = due;
+            clients.execute(() -> {
+                long sent = (speed > 0) ? scheduled : System.nanoTime();
+                statuses[index] = send(host, port, record);
+                latencies[index] = System.nanoTime() - sent;
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.HOURS);
+        report(latencies, statuses, skipped.get(), System.nanoTime() - start);
+    }
+
+    // Sends a request and reads the whole response, returns the status code (0 = failed)
+    private static int send(String host, int port, TrafficCapture.Record record) {
+        StringBuilder request = new StringBuilder(256).append(record.getRequestLine()).append("\r\n");
+        String[] headers = record.getHeaders();
+        boolean hasHost = false;
+        for (int i = 0; i < headers.length; i += 2) {
+            request.append(headers[i]).append(": ").append(headers[i + 1]).append("\r\n");
+            hasHost |= "Host".equalsIgnoreCase(headers[i]);
+        }
+        if (!hasHost) {
+            request.append("Host: ").append(host).append("\r\n");
+        }
+        request.append("Connection: close\r\n\r\n");
+        try (Socket socket = new Socket(host, port)) {
+            OutputStream output = socket.getOutputStream();
+            output.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+            output.flush();
+            InputStream input = socket.getInputStream();
+            ByteArrayOutputStream statusLine = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) != -1 && b != '\n') {
+                statusLine.write(b);
+            }
+            byte[] buffer = new byte[65536];
+            while (input.read(buffer) != -1) {
+                // Read the rest of the response
+            }
+            String[] parts = statusLine.toString("ISO-8859-1").split(" ");
+            return (parts.length > 1) ? Integer.parseInt(parts[1]) : 0;
+        } catch (IOException | NumberFormatException e) {
+            logger.trace("Request failed: " + record.getRequestLine(), e);
+            return 0;
+        }
+    }
+
+    private static void report(long[] latencies, int[] statuses, long skipped, long elapsed) {
+        Map<Integer, Integer> statusCounts = new TreeMap<>();
+        long[] sent = new long[latencies.length];
+        int count = 0;
+        for (int i = 0; i < statuses.length; i++) {
+            if (statuses[i] >= 0) {
+                statusCounts.merge(statuses[i], 1, Integer::sum);
+                sent[count++] = latencies[i];
+            }
+        }
+        long[] sorted = Arrays.copyOf(sent, count);
+        Arrays.sort(sorted);
+        double seconds = elapsed / 1e9;
+        logger.info("Requests: " + count + " (" + skipped + " skipped) in " + format(seconds) + " s, "
+                + format(count / seconds) + " req/s");
+        if (count > 0) {
+            logger.info("Latency (ms): p50 " + percentile(sorted, 0.50) + ", p90 " + percentile(sorted, 0.90)
+                    + ", p99 " + percentile(sorted, 0.99) + ", p99.9 " + percentile(sorted, 0.999)
+                    + ", max " + format(sorted[count - 1] / 1e6));
+        }
+        logger.info("Status codes (0 = failed): " + statusCounts);
+    }
+
+    private static String percentile(long[] sorted, double fraction) {
+        return format(sorted[Math.max(0, (int) Math.ceil(sorted.length * fraction) - 1)] / 1e6);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    // Web Server in process on an ephemeral port, with the config file of the classpath
+    private static ThreadPooledWebServer startServer() throws IOException, InterruptedException {
+        Properties props = new Properties();
+        try (InputStream is = TrafficReplayTool.class.getClassLoader().getResourceAsStream("webserver.properties")) {
+            if (is != null) {
+                props.load(is);
+            }
+        }
+        props.setProperty(ServerSettings.SERVER_PORT_PROP_NAME, "0");
+        props.setProperty(ServerSettings.TRAFFIC_CAPTURE_PROP_NAME, "");
+        ServerSettings serverSettings = new ServerSettings(props);
+        RunThreadPooledWebServer.registerHandlers(serverSettings);
+        ThreadPooledWebServer server = new ThreadPooledWebServer(serverSettings);
+        Thread thread = new Thread(server, "replay-server");
+        thread.setDaemon(true);
+        thread.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getLocalPort() <= 0) {
+            if (System.nanoTime() > deadline) {
+                throw new WebServerException("Web Server not started");
+            }
+            Thread.sleep(10);
+        }
+        return server;
+    }
+
+    private TrafficReplayTool() {
+        throw new IllegalAccessError("Utility class");
+    }
+}
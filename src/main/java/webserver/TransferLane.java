@@ -0,0 +1,117 @@
+/**
+ * TransferLane: Writes the bodies of the large responses apart from the small ones
+ */
+
+package webserver;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Lane of the large transfers. A request is classified once it is resolved,
+ * by the length of the body of its response (from the file metadata): the
+ * workers of the pool parse every request and write the small responses (HEAD,
+ * errors, small files), and hand off the responses with a body over the
+ * threshold to the few threads of this lane, so a burst of large downloads
+ * holds at most those threads and the small requests never wait behind them.
+ * The waiting transfers are taken shortest first, in order of arrival for
+ * the same length
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class TransferLane {
+
+    private static final Logger logger = LogManager.getLogger(TransferLane.class.getName());
+    private final long threshold;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Class constructor, starts the threads of the lane
+     * @param threshold     Min bytes of body of the responses of the lane
+     * @param nThreads      Number of threads of the lane
+     */
+    public TransferLane(long threshold, int nThreads) {
+        this.threshold = threshold;
+        int threads = Math.max(nThreads, 1);
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "transfer-lane-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), threadFactory);
+    }
+
+    /**
+     * Get Min bytes of body of the responses of the lane
+     * @return long
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Get Number of transfers waiting for a thread of the lane
+     * @return int
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Tests if a response belongs to the lane
+     * @param length    Bytes of body of the response
+     * @return boolean
+     */
+    public boolean accepts(long length) {
+        return length >= threshold;
+    }
+
+    /**
+     * Hands off a transfer, run when a thread of the lane is free
+     * @param length    Bytes of body of the response (shortest first)
+     * @param transfer  Write of the response and close of the connection
+     */
+    public void submit(long length, Runnable transfer) {
+        executor.execute(new Transfer(length, sequence.getAndIncrement(), transfer));
+        logger.trace("Transfer queued: " + length + " bytes");
+    }
+
+    /**
+     * Stops the threads of the lane once the transfers queued are written
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // Transfer ordered by length and then by arrival
+    private static final class Transfer implements Runnable, Comparable<Transfer> {
+
+        private final long length;
+        private final long sequence;
+        private final Runnable transfer;
+
+        Transfer(long length, long sequence, Runnable transfer) {
+            this.length = length;
+            this.sequence = sequence;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void run() {
+            transfer.run();
+        }
+
+        @Override
+        public int compareTo(Transfer other) {
+            return (length != other.length) ? Long.compare(length, other.length) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
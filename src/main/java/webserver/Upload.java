@@ -0,0 +1,143 @@
+/**
+ * Upload: Stores and deletes the files of the document root
+ */
+
+package webserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stores and deletes the files of the document root (PUT and DELETE). The
+ * body of a PUT is streamed into a hidden temporary file of the directory of
+ * the target with FileChannel.transferFrom, never held in memory, and then
+ * renamed over the target atomically, so a reader gets the old file or the
+ * new one but never a partial one. The entry of the file is removed from the
+ * file cache (and its preloaded content with it), and the cache index records
+ * the new length and modification time on the next lookup
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class Upload {
+
+    /**
+     * Prefix of the name of the temporary files (hidden, so never served)
+     */
+    public static final String TEMP_PREFIX = ".upload-";
+
+    // Max bytes moved from the body to the file per transferFrom call
+    private static final long TRANSFER_SIZE = 1024L * 1024L;
+    private static final Logger logger = LogManager.getLogger(Upload.class.getName());
+    private final FileCache fileCache;
+    private final long maxSize;
+
+    /**
+     * Class constructor
+     * @param serverSettings    Settings of the Web Server
+     * @param fileCache         Cache of the files of the document root (of the virtual host)
+     */
+    public Upload(ServerSettings serverSettings, FileCache fileCache) {
+        this.fileCache = fileCache;
+        this.maxSize = serverSettings.getUploadMaxSize();
+    }
+
+    /**
+     * Tests if the Authorization header of a request has the bearer token of
+     * the uploads, in constant time
+     * @param authorization     Authorization header (null if not sent)
+     * @param token             Bearer token of the uploads
+     * @return boolean
+     */
+    public static boolean isAuthorized(String authorization, String token) {
+        if (authorization == null || !authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return false;
+        }
+        byte[] sent = authorization.substring(7).trim().getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(sent, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stores the body of a request as a file. A body longer than the max size
+     * is read no further and the file is left as it was
+     * @param f         File of the document root
+     * @param body      Body of the request
+     * @throws IOException If an input or output
+     *                     exception occurred
+     * @return String   Status: 201 created, 204 replaced or 413 too large
+     */
+    public String put(File f, RequestBody body) throws IOException {
+        Path target = f.toPath();
+        boolean exists = f.exists();
+        Path temp = Files.createTempFile(target.getParent(), TEMP_PREFIX, ".tmp");
+        try {
+            long length = transfer(body, temp);
+            if (length > maxSize) {
+                logger.info("Upload too large: " + f);
+                return ServerSettings.HTTP_STR_PAYLOAD_TOO_LARGE;
+            }
+            move(temp, target);
+            logger.trace("Uploaded: " + f + " (" + length + " bytes)");
+        } finally {
+            Files.deleteIfExists(temp);
+            fileCache.invalidate(f);
+        }
+        return exists ? ServerSettings.HTTP_STR_NO_CONTENT : ServerSettings.HTTP_STR_CREATED;
+    }
+
+    /**
+     * Deletes a file
+     * @param f         File of the document root
+     * @throws IOException If an input or output
+     *                     exception occurred
+     * @return String   Status: 204 deleted or 404 not found
+     */
+    public String delete(File f) throws IOException {
+        try {
+            return Files.deleteIfExists(f.toPath())
+                    ? ServerSettings.HTTP_STR_NO_CONTENT : ServerSettings.HTTP_STR_NOT_FOUND;
+        } finally {
+            fileCache.invalidate(f);
+        }
+    }
+
+    // Streams the body into the file, up to one byte over the max size (bytes transferred)
+    private long transfer(RequestBody body, Path temp) throws IOException {
+        long limit = maxSize + 1;
+        long position = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(body);
+            while (position < limit) {
+                long transferred = channel.transferFrom(source, position, Math.min(TRANSFER_SIZE, limit - position));
+                if (transferred == 0) {  // End of the body
+                    break;
+                }
+                position += transferred;
+            }
+            if (position <= maxSize) {
+                channel.force(false);
+            }
+        }
+        return position;
+    }
+
+    // Renames the temporary file over the target, atomically if the file system allows it
+    private static void move(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.trace("Atomic move not supported: ", e);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * UpstreamConnectionPool: Pool of keep-alive connections to an upstream server
+ */
+
+package webserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pool of keep-alive connections to an upstream http server. Connections are
+ * reused last-in first-out, so the idle ones age out, and up to maxIdle of
+ * them are kept open
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class UpstreamConnectionPool {
+
+    // Idle time after which a pooled connection is not reused (upstream servers close them)
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(15);
+    private static final Logger logger = LogManager.getLogger(UpstreamConnectionPool.class.getName());
+    private final String host;
+    private final int port;
+    private final int maxIdle;
+    private final int timeout;
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Class constructor
+     * @param host      Upstream host
+     * @param port      Upstream port
+     * @param maxIdle   Max idle connections kept open
+     * @param timeout   Connect and read timeout (milliseconds)
+     */
+    public UpstreamConnectionPool(String host, int port, int maxIdle, int timeout) {
+        this.host = host;
+        this.port = port;
+        this.maxIdle = maxIdle;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get Upstream host and port, as in the Host header
+     * @return String
+     */
+    public String getAuthority() {
+        return (port == 80) ? host : host + ":" + port;
+    }
+
+    /**
+     * Takes an idle connection or opens a new one
+     * @throws IOException If an input or output
+     *                     exception occurred
+     * @return Connection
+     */
+    public Connection borrow() throws IOException {
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            if (System.nanoTime() - connection.lastUsed < IDLE_TIMEOUT && !connection.socket.isClosed()) {
+                connection.reused = true;
+                return connection;
+            }
+            connection.close();
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.setSoTimeout(timeout);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        logger.trace("New upstream connection: " + getAuthority());
+        return new Connection(socket);
+    }
+
+    /**
+     * Returns a connection to the pool, after a complete response
+     * @param connection    Connection
+     */
+    public void release(Connection connection) {
+        connection.lastUsed = System.nanoTime();
+        if (idle.size() < maxIdle) {
+            idle.offerFirst(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    /**
+     * Get Number of idle connections
+     * @return int
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Connection to the upstream server with its buffered streams
+     */
+    public static class Connection {
+
+        private final Socket socket;
+        private final InputStream input;
+        private final OutputStream output;
+        private long lastUsed = System.nanoTime();
+        private boolean reused = false;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.input = new BufferedInputStream(socket.getInputStream());
+            this.output = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * Get Input of the connection
+         * @return InputStream
+         */
+        public InputStream getInput() {
+            return input;
+        }
+
+        /**
+         * Get Output of the connection
+         * @return OutputStream
+         */
+        public OutputStream getOutput() {
+            return output;
+        }
+
+        /**
+         * Tests if the connection was taken from the pool (it may have been
+         * closed by the upstream server meanwhile)
+         * @return boolean
+         */
+        public boolean isReused() {
+            return reused;
+        }
+
+        /**
+         * Closes the connection
+         */
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.trace("Upstream connection close: ", e);
+            }
+        }
+    }
+}
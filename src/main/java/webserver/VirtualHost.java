@@ -0,0 +1,103 @@
+/**
+ * VirtualHost: Site served for the host names of the Host header
+ */
+
+package webserver;
+
+import java.util.Locale;
+
+/**
+ * Site served for some host names, selected by the Host header (or the
+ * ":authority" of HTTP/2) of every request: its document root, its directory
+ * listing policy and its own file cache, with a quota of entries and of
+ * content preloaded by the warm-up. All the sites share the listener, the
+ * pool of workers and the rest of the settings; the requests of an unknown
+ * host (or without Host) are served by the default site, the DocumentRoot
+ * of the config file
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class VirtualHost {
+
+    private final String name;
+    private final String documentRoot;
+    private final boolean directoryListing;
+    private final FileCache fileCache;
+    private final long preloadSize;
+
+    /**
+     * Class constructor
+     * @param name              Host name ("" = default site)
+     * @param documentRoot      Document root directory
+     * @param directoryListing  Listing of the directories allowed
+     * @param fileCache         Cache of the files of the document root
+     * @param preloadSize       Max bytes of file content preloaded in memory by the warm-up
+     */
+    public VirtualHost(String name, String documentRoot, boolean directoryListing, FileCache fileCache, long preloadSize) {
+        this.name = name;
+        this.documentRoot = documentRoot;
+        this.directoryListing = directoryListing;
+        this.fileCache = fileCache;
+        this.preloadSize = preloadSize;
+    }
+
+    /**
+     * Get Host name ("" = default site)
+     * @return String
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get Document root directory
+     * @return String
+     */
+    public String getDocumentRoot() {
+        return documentRoot;
+    }
+
+    /**
+     * Get Listing of the directories allowed
+     * @return boolean
+     */
+    public boolean getDirectoryListing() {
+        return directoryListing;
+    }
+
+    /**
+     * Get Cache of the files of the document root
+     * @return FileCache
+     */
+    public FileCache getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * Get Max bytes of file content preloaded in memory by the warm-up
+     * @return long
+     */
+    public long getPreloadSize() {
+        return preloadSize;
+    }
+
+    /**
+     * Gets the host name of a Host header: lower case, without the port and
+     * the trailing dot
+     * @param host      Host header (or ":authority")
+     * @return String   Host name or "" if there is none
+     */
+    public static String hostName(String host) {
+        if (host == null) {
+            return "";
+        }
+        String name = host.trim().toLowerCase(Locale.ROOT);
+        if (name.startsWith("[")) {  // IPv6 literal
+            int end = name.indexOf(']');
+            name = (end < 0) ? name : name.substring(0, end + 1);
+        } else {
+            int colon = name.indexOf(':');
+            name = (colon < 0) ? name : name.substring(0, colon);
+        }
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * WarmUp: Warms up the Web Server before opening the server socket
+ */
+
+package webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+
+/**
+ * Warms up the Web Server before opening the server socket: indexes the
+ * document root in parallel, optionally preloads the smallest files in memory
+ * (the same for the document root of every virtual host, within its own
+ * preload size) and serves requests internally so that the request/response path is loaded
+ * and compiled before the first client arrives. The warm-up requests are not
+ * counted as hits of the files, so they do not change the preload order
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class WarmUp {
+
+    private static final int MAX_PRIMED_FILES = 8;
+    private static final String NOT_FOUND_URI = "/warm-up-not-found.html";
+    private static final List<String> QUIET_LOGGERS = Arrays.asList(
+            Response.class.getName(), Http2Connection.class.getName(), HttpHandler.class.getName());
+    private static final Logger logger = LogManager.getLogger(WarmUp.class.getName());
+    private ServerSettings serverSettings;
+
+    /**
+     * Class constructor
+     * @param serverSettings    Settings of the Web Server
+     */
+    public WarmUp(ServerSettings serverSettings) {
+        this.serverSettings = serverSettings;
+    }
+
+    /**
+     * Runs the warm-up
+     */
+    public void run() {
+        long start = System.currentTimeMillis();
+        FileCache fileCache = serverSettings.getFileCache();
+        File documentDir = new File(serverSettings.getDocumentRoot());
+        List<String> uris = new ArrayList<>();
+        uris.add("/");
+        uris.add(NOT_FOUND_URI);
+
+        int entries;
+        long preloaded = 0;
+        if (serverSettings.getContentPackHolder() != null) {  // Already indexed and mapped
+            Collection<ContentPackEntry> packEntries = getPackEntries();
+            entries = packEntries.size();
+            for (ContentPackEntry entry : packEntries) {
+                if (uris.size() < MAX_PRIMED_FILES + 2 && !entry.isDirectory()
+                        && entry.getContent().remaining() <= serverSettings.getFileBufferSize()) {
+                    uris.add("/" + entry.getPath());
+                }
+            }
+        } else {
+            entries = fileCache.index(documentDir);
+            if (serverSettings.getWarmUpPreloadSize() > 0) {
+                preloaded = fileCache.preload(serverSettings.getWarmUpPreloadSize());
+            }
+            addFileUris(uris, documentDir, fileCache);
+            for (VirtualHost host : serverSettings.getVirtualHosts()) {
+                entries += host.getFileCache().index(new File(host.getDocumentRoot()));
+                if (host.getPreloadSize() > 0) {
+                    preloaded += host.getFileCache().preload(host.getPreloadSize());
+                }
+            }
+        }
+        int requests = primeRequests(uris);
+        logger.info("Warm-up: " + entries + " entries indexed, " + preloaded + " bytes preloaded, "
+                + requests + " requests served in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Tests if a socket is one of the warm-up, whose requests are not real traffic
+     * @param socket    Socket of a connection
+     * @return boolean
+     */
+    public static boolean isWarmUp(Socket socket) {
+        return socket instanceof WarmUpSocket;
+    }
+
+    private Collection<ContentPackEntry> getPackEntries() {
+        try {
+            return serverSettings.getContentPackHolder().get().entries();
+        } catch (IOException e) {
+            throw new WebServerException("Content pack not opened", e);
+        }
+    }
+
+    private void addFileUris(List<String> uris, File documentDir, FileCache fileCache) {
+        for (FileEntry entry : fileCache.entries()) {
+            if (uris.size() >= MAX_PRIMED_FILES + 2) {
+                break;
+            }
+            if (!entry.isDirectory() && entry.getLength() <= serverSettings.getFileBufferSize()) {
+                String path = documentDir.toPath().relativize(entry.getFile().toPath()).toString();
+                uris.add("/" + path.replace(File.separatorChar, '/'));
+            }
+        }
+    }
+
+    // Serves GET and HEAD requests of small files, a directory listing and
+    // a not found file, over HTTP/1.1 and HTTP/2, with the access log muted
+    private int primeRequests(List<String> uris) {
+        List<Level> levels = new ArrayList<>();
+        for (String name : QUIET_LOGGERS) {
+            levels.add(LogManager.getLogger(name).getLevel());
+            Configurator.setLevel(name, Level.WARN);
+        }
+        int requests = 0;
+        try {
+            for (int i = 0; i < serverSettings.getWarmUpRequests(); i++) {
+                String uri = uris.get(i % uris.size());
+                String method = (i / uris.size()) % 2 == 0 ? "GET" : "HEAD";
+                String request = method + " " + uri + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+                serve(request.getBytes(StandardCharsets.ISO_8859_1));
+                requests++;
+                if (serverSettings.getHttp2() && i % uris.size() == 0) {
+                    serve(buildHttp2Connection(uris));
+                    requests += uris.size();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.info("Warm-up stopped", e);
+        } finally {
+            for (int i = 0; i < QUIET_LOGGERS.size(); i++) {
+                Configurator.setLevel(QUIET_LOGGERS.get(i), levels.get(i));
+            }
+        }
+        return requests;
+    }
+
+    private void serve(byte[] input) throws IOException {
+        new HttpHandler(serverSettings, new WarmUpSocket(input)).handleConnection();
+    }
+
+    // Connection preface, SETTINGS and one HEADERS frame per URI
+    private byte[] buildHttp2Connection(List<String> uris) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HpackEncoder encoder = new HpackEncoder();
+
+        byte[] preface = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        out.write(preface, 0, preface.length);
+        writeFrame(out, 0x4, 0x0, 0, new byte[0]);
+        for (int i = 0; i < uris.size(); i++) {
+            List<String[]> headers = new ArrayList<>();
+            headers.add(new String[] {":method", "GET"});
+            headers.add(new String[] {":path", uris.get(i)});
+            headers.add(new String[] {":scheme", "http"});
+            writeFrame(out, 0x1, 0x5, 2 * i + 1, encoder.encode(headers));
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, int type, int flags, int streamId, byte[] payload) {
+        out.write(payload.length >>> 16);
+        out.write(payload.length >>> 8);
+        out.write(payload.length);
+        out.write(type);
+        out.write(flags);
+        out.write(streamId >>> 24);
+        out.write(streamId >>> 16);
+        out.write(streamId >>> 8);
+        out.write(streamId);
+        out.write(payload, 0, payload.length);
+    }
+
+    // Unconnected socket reading the request from memory and discarding the response
+    private static class WarmUpSocket extends Socket {
+
+        private final InputStream input;
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) {
+                // Discarded
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                // Discarded
+            }
+        };
+
+        WarmUpSocket(byte[] request) {
+            this.input = new ByteArrayInputStream(request);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public synchronized void setSoTimeout(int timeout) {
+            // No timeout reading from memory
+        }
+
+        @Override
+        public synchronized void close() {
+            // Nothing to close
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Test the writes of large responses completed by the async writer
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the AsyncWriter: the responses handed off are written to the end,
+ * and a response of a truncated file is aborted instead of spinning
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class AsyncWriterTest {
+
+    /**
+     * Folder of the files served
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final byte[] HEAD = "HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private AsyncWriter asyncWriter;
+    private ServerSocketChannel server;
+    private Socket client;
+    private File file;
+    private byte[] content;
+
+    /**
+     * Async writer, a connection over loopback and a file of 1 MB
+     * @throws IOException If the connection or the file cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        asyncWriter = new AsyncWriter(0, 1);
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+        client.setSoTimeout(10000);
+        content = new byte[1024 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        file = folder.newFile("large.bin");
+        Files.write(file.toPath(), content);
+    }
+
+    /**
+     * Closes the connection and the listener
+     * @throws IOException If a connection cannot be closed
+     */
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    /**
+     * Test the headers and the whole file are written, and the connection is closed
+     * @throws Exception If the response cannot be read
+     */
+    @Test
+    public void testFile() throws Exception {
+        asyncWriter.submit(server.accept(), ByteBuffer.wrap(HEAD), file, 0, content.length);
+        byte[] response = readAll(client.getInputStream());
+        assertArrayEquals(HEAD, Arrays.copyOf(response, HEAD.length));
+        assertArrayEquals(content, Arrays.copyOfRange(response, HEAD.length, response.length));
+        waitIdle();
+    }
+
+    /**
+     * Test a file truncated after the handoff ends the response, instead of
+     * retrying a transfer of 0 bytes forever
+     * @throws Exception If the response cannot be read
+     */
+    @Test
+    public void testTruncatedFile() throws Exception {
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(1000);
+        }
+        asyncWriter.submit(server.accept(), ByteBuffer.wrap(HEAD), file, 0, content.length);
+        byte[] response = readAll(client.getInputStream());
+        assertEquals(HEAD.length + 1000, response.length);
+        waitIdle();
+    }
+
+    // Reads up to the end of the stream
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        int n;
+        while ((n = input.read(buffer)) != -1) {
+            output.write(buffer, 0, n);
+        }
+        return output.toByteArray();
+    }
+
+    // Waits for the async writer to finish its tasks
+    private void waitIdle() throws InterruptedException {
+        for (int i = 0; i < 100 && asyncWriter.getActiveCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, asyncWriter.getActiveCount());
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Test the batch fetch handler
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the batch fetch handler: the parts of its multipart response and the
+ * paths it refuses
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class BatchHandlerTest {
+
+    /**
+     * Document root of the tests
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BatchHandler handler;
+    private final Map<String, String> headers = new HashMap<>();
+
+    /**
+     * Document root with two files and a directory
+     * @throws IOException If the files are not created
+     */
+    @Before
+    public void setUp() throws IOException {
+        Files.write(folder.newFile("a.css").toPath(), "body{}".getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.newFile("big.txt").toPath(), new byte[100]);
+        folder.newFolder("dir");
+        Properties props = new Properties();
+        props.setProperty(ServerSettings.DOCUMENT_ROOT_PROP_NAME, folder.getRoot().getPath() + File.separator);
+        props.setProperty(ServerSettings.BATCH_MAX_SIZE_PROP_NAME, "50");
+        handler = new BatchHandler(new ServerSettings(props));
+        headers.put("host", "localhost");
+    }
+
+    /**
+     * Test the parts of a batch, with their status, headers and content
+     * @throws IOException If the batch fails
+     */
+    @Test
+    public void testParts() throws IOException {
+        HandlerResponse response = handler.handle("GET", "/batch?path=/a.css&path=/missing&path=/dir&path=/big.txt", headers);
+        assertEquals(ServerSettings.HTTP_STR_OK, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/mixed; boundary="));
+        String boundary = response.getContentType().substring("multipart/mixed; boundary=".length());
+        String body = new String(response.getBody(), StandardCharsets.ISO_8859_1);
+        String[] parts = body.split("--" + boundary, -1);
+        assertEquals(6, parts.length);
+        assertEquals("", parts[0]);
+        assertTrue(parts[1].startsWith("\r\nContent-Location: /a.css\r\nStatus: " + ServerSettings.HTTP_STR_OK + "\r\n"));
+        assertTrue(parts[1].contains("Content-Type: text/css\r\n"));
+        assertTrue(parts[1].contains("ETag: "));
+        assertTrue(parts[1].endsWith("Content-Length: 6\r\n\r\nbody{}\r\n"));
+        assertEquals("\r\nContent-Location: /missing\r\nStatus: " + ServerSettings.HTTP_STR_NOT_FOUND
+                + "\r\nContent-Length: 0\r\n\r\n\r\n", parts[2]);
+        assertTrue(parts[3].startsWith("\r\nContent-Location: /dir\r\nStatus: " + ServerSettings.HTTP_STR_NOT_FOUND + "\r\n"));
+        assertTrue(parts[4].startsWith("\r\nContent-Location: /big.txt\r\nStatus: " + ServerSettings.HTTP_STR_PAYLOAD_TOO_LARGE + "\r\n"));
+        assertTrue(parts[4].endsWith("Content-Length: 0\r\n\r\n\r\n"));
+        assertEquals("--\r\n", parts[5]);
+        assertEquals("no-store", response.getHeaders().get("Cache-Control"));
+    }
+
+    /**
+     * Test a batch without paths is a bad request
+     * @throws IOException If the batch fails
+     */
+    @Test
+    public void testNoPaths() throws IOException {
+        assertEquals(ServerSettings.HTTP_STR_BAD_REQUEST, handler.handle("GET", "/batch", headers).getStatus());
+        assertEquals(ServerSettings.HTTP_STR_BAD_REQUEST, handler.handle("GET", "/batch?other=1", headers).getStatus());
+    }
+
+    /**
+     * Test a path with a control character or an invalid escape is a bad request
+     * @throws IOException If the batch fails
+     */
+    @Test
+    public void testInvalidPaths() throws IOException {
+        for (String query : new String[] {"path=/a.css%0d%0aSet-Cookie:%20x=1", "path=/a%0a", "path=/a%00",
+                "path=/a%7f", "path=/a.css&path=/a%zz"}) {
+            HandlerResponse response = handler.handle("GET", "/batch?" + query, headers);
+            assertEquals(query, ServerSettings.HTTP_STR_BAD_REQUEST, response.getStatus());
+            assertFalse(new String(response.getBody(), StandardCharsets.ISO_8859_1).contains("Set-Cookie"));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Test the persistent index of the file cache
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the persistent index of the file cache: the records and gzip variants
+ * restored by a new run, and the corrupt indexes started again
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class CacheIndexTest {
+
+    /**
+     * Document root and index directory of the tests
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private File file;
+
+    /**
+     * Creates a compressible file
+     * @throws IOException If the file is not created
+     */
+    @Before
+    public void setUp() throws IOException {
+        dir = new File(folder.getRoot(), "index");
+        file = folder.newFile("index.html");
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            html.append("<p>cache index</p>\n");
+        }
+        Files.write(file.toPath(), html.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test the hits and the gzip variant of a file are restored by a new run,
+     * the variant mapped instead of on the heap
+     * @throws IOException If the index fails
+     */
+    @Test
+    public void testRestore() throws IOException {
+        CacheIndex index = new CacheIndex(dir);
+        index.open();
+        FileEntry entry = new FileEntry(file, false, file.length(), file.lastModified(), 7);
+        index.record(entry);
+        ByteBuffer gzip = index.gzipContent(entry);
+        assertNotNull(gzip);
+        assertTrue(gzip.isDirect());
+        assertTrue(gzip.remaining() < file.length());
+
+        CacheIndex restarted = new CacheIndex(dir);
+        restarted.open();
+        assertEquals(1, restarted.size());
+        FileEntry restored = restarted.restore(file, file.length(), file.lastModified());
+        assertEquals(7, restored.getHits());
+        assertTrue(restored.isGzipChecked());
+        assertEquals(gzip, restored.getGzipContent());
+        assertNull(restarted.restore(file, file.length() + 1, file.lastModified()));
+    }
+
+    /**
+     * Test an index that is not a cache index is replaced by a new one
+     * @throws IOException If the index fails
+     */
+    @Test
+    public void testNotAnIndex() throws IOException {
+        assertTrue(dir.mkdir());
+        Files.write(new File(dir, "index.dat").toPath(), "this is not a cache index".getBytes(StandardCharsets.UTF_8));
+        assertNewIndex();
+    }
+
+    /**
+     * Test an index with a corrupt path length in a whole record is replaced by a new one
+     * @throws IOException If the index fails
+     */
+    @Test
+    public void testCorruptRecord() throws IOException {
+        for (int pathLength : new int[] {-1, 1 << 30, 3}) {
+            CacheIndex index = new CacheIndex(dir);
+            index.open();
+            index.record(new FileEntry(file, false, file.length(), file.lastModified(), 1));
+            try (RandomAccessFile indexFile = new RandomAccessFile(new File(dir, "index.dat"), "rw")) {
+                indexFile.seek(12 + 4);  // Path length of the first record
+                indexFile.writeInt(pathLength);
+            }
+            assertNewIndex();
+        }
+    }
+
+    private void assertNewIndex() throws IOException {
+        CacheIndex index = new CacheIndex(dir);
+        index.open();
+        assertEquals(0, index.size());
+        index.record(new FileEntry(file, false, file.length(), file.lastModified(), 3));
+        CacheIndex restarted = new CacheIndex(dir);
+        restarted.open();
+        assertEquals(3, restarted.restore(file, file.length(), file.lastModified()).getHits());
+    }
+}
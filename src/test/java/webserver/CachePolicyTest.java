@@ -0,0 +1,83 @@
+/**
+ * Test the caching headers of the files served
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Test the caching headers of the files served: the parsing of the rules,
+ * the order of the rules and the fingerprinted files
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class CachePolicyTest {
+
+    /**
+     * Test the rules by path glob, mime type and extension, the first one that matches
+     */
+    @Test
+    public void testRules() {
+        CachePolicy policy = new CachePolicy("/static/**=86400 immutable, /*.html=no-cache, image/*=3600,"
+                + " text/css=600, .JS=300, json=no-store", 31536000);
+        assertEquals(6, policy.size());
+        assertEquals("public, max-age=86400, immutable", policy.lookup("/static/img/a.png", "image/png").getCacheControl());
+        assertEquals("no-cache", policy.lookup("/index.html?x=1", "text/html").getCacheControl());
+        assertNull(policy.lookup("/docs/index.html", "text/html"));
+        assertEquals("public, max-age=3600", policy.lookup("/docs/logo.PNG", "IMAGE/PNG").getCacheControl());
+        assertEquals("public, max-age=600", policy.lookup("/site.css", "text/css").getCacheControl());
+        assertEquals("public, max-age=300", policy.lookup("/app.js", "application/javascript").getCacheControl());
+        assertEquals("no-store", policy.lookup("/data.json", "").getCacheControl());
+        assertNull(policy.lookup("/readme", ""));
+    }
+
+    /**
+     * Test the single character and single segment globs
+     */
+    @Test
+    public void testGlobs() {
+        CachePolicy policy = new CachePolicy("/v?/*.js=60", 0);
+        assertEquals(60, policy.lookup("/v1/app.js", "").getMaxAge());
+        assertNull(policy.lookup("/v10/app.js", ""));
+        assertNull(policy.lookup("/v1/lib/app.js", ""));
+    }
+
+    /**
+     * Test the files with a content hash are immutable before any rule
+     */
+    @Test
+    public void testFingerprinted() {
+        CachePolicy policy = new CachePolicy("js=no-store", 31536000);
+        CachePolicy.Rule rule = policy.lookup("/app.3f2a9c1b.js", "application/javascript");
+        assertEquals("public, max-age=31536000, immutable", rule.getCacheControl());
+        assertSame(rule, policy.lookup("/css/site-0123456789abcdef.css", "text/css"));
+        assertEquals("no-store", policy.lookup("/app.deadbeef.js", "").getCacheControl());
+        assertEquals("no-store", policy.lookup("/app.3f2a9c1.js", "").getCacheControl());
+        assertNull(new CachePolicy("", 0).lookup("/app.3f2a9c1b.js", ""));
+    }
+
+    /**
+     * Test the invalid rules are skipped
+     */
+    @Test
+    public void testInvalidRules() {
+        CachePolicy policy = new CachePolicy("css, =60, js=-1, png=abc, gif=60 forever, html=no-cache immutable,"
+                + " jpg=60 60 immutable, txt=120", 0);
+        assertEquals(1, policy.size());
+        assertEquals(120, policy.lookup("/a.txt", "text/plain").getMaxAge());
+    }
+
+    /**
+     * Test the Expires header follows the max-age
+     */
+    @Test
+    public void testExpires() {
+        CachePolicy policy = new CachePolicy("txt=60, html=no-cache", 0);
+        assertEquals("Thu, 01 Jan 1970 00:01:00 GMT", policy.lookup("/a.txt", "").getExpires(0));
+        assertEquals(-1, policy.lookup("/a.html", "").getMaxAge());
+        assertNull(policy.lookup("/a.html", "").getExpires(0));
+    }
+}
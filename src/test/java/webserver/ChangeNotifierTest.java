@@ -0,0 +1,151 @@
+/**
+ * Test the stream of the changes of the document root
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the ChangeNotifier: the ids of the events, the events replayed to the
+ * subscribers that reconnect and the reset of the ids it does not know
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ChangeNotifierTest {
+
+    /**
+     * Document root of the tests
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ChangeNotifier notifier;
+    private ServerSocketChannel server;
+    private final List<Socket> clients = new ArrayList<>();
+
+    /**
+     * Change notifier of the document root and a listener for its subscribers
+     * @throws IOException If the notifier or the listener cannot be started
+     */
+    @Before
+    public void setUp() throws IOException {
+        notifier = new ChangeNotifier(folder.getRoot());
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     * Closes the subscribers and the listener
+     * @throws IOException If a connection cannot be closed
+     */
+    @After
+    public void tearDown() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    /**
+     * Test the ids of the events have the epoch of the run and a sequence,
+     * and a subscriber that reconnects gets the events it missed
+     * @throws IOException If the events cannot be read
+     */
+    @Test
+    public void testReplay() throws IOException {
+        BufferedReader first = subscribe(null);
+        folder.newFile("a.txt");
+        String[] created = readEvent(first, "/a.txt");
+        assertEquals("create", created[1]);
+        String epoch = created[0].substring(0, created[0].lastIndexOf('-'));
+        assertEquals(epoch + "-1", created[0]);
+        folder.newFile("b.txt");
+        String[] next = readEvent(first, "/b.txt");
+        assertTrue(next[0].startsWith(epoch + "-"));
+        String[] replayed = readEvent(subscribe(created[0]), "/b.txt");
+        assertEquals(next[0], replayed[0]);
+        assertEquals(next[1], replayed[1]);
+    }
+
+    /**
+     * Test a subscriber that reconnects with an id of a previous run, newer
+     * than the last event or not valid gets a reset
+     * @throws IOException If the events cannot be read
+     */
+    @Test
+    public void testReset() throws IOException {
+        BufferedReader first = subscribe(null);
+        folder.newFile("a.txt");
+        String id = readEvent(first, "/a.txt")[0];
+        String epoch = id.substring(0, id.lastIndexOf('-'));
+        String[] unknown = {"0-1", epoch + "-99", epoch + "-x", "1"};
+        for (String lastEventId : unknown) {
+            String[] reset = readEvent(subscribe(lastEventId), "/");
+            assertEquals(lastEventId, "reset", reset[1]);
+            assertEquals(lastEventId, null, reset[0]);
+        }
+    }
+
+    /**
+     * Test no slot is reserved beyond MAX_SUBSCRIBERS, and a released slot
+     * can be reserved again
+     */
+    @Test
+    public void testReserve() {
+        for (int i = 0; i < ChangeNotifier.MAX_SUBSCRIBERS; i++) {
+            assertTrue(notifier.reserve());
+        }
+        assertFalse(notifier.reserve());
+        assertEquals(ChangeNotifier.MAX_SUBSCRIBERS, notifier.getSubscribers());
+        notifier.release();
+        assertTrue(notifier.reserve());
+        assertFalse(notifier.reserve());
+    }
+
+    // Connects a subscriber and hands off its connection to the notifier
+    private BufferedReader subscribe(String lastEventId) throws IOException {
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+        clients.add(client);
+        client.setSoTimeout(10000);
+        assertTrue(notifier.reserve());
+        notifier.subscribe(server.accept(), lastEventId);
+        return new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    // Reads the events up to the one with the data given, returns its id (null if none) and type
+    private static String[] readEvent(BufferedReader reader, String data) throws IOException {
+        String id = null;
+        String type = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("id: ")) {
+                id = line.substring(4);
+            } else if (line.startsWith("event: ")) {
+                type = line.substring(7);
+            } else if (line.equals("data: " + data)) {
+                return new String[] {id, type};
+            } else if (line.isEmpty()) {
+                id = null;
+                type = null;
+            }
+        }
+        throw new IOException("End of the stream before the event of " + data);
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Test the cache of the files shared by the nodes of a cluster
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the cache of the files shared by the nodes of a cluster: the owners
+ * of the ring, the ETag check of the files fetched from a peer (a fake peer
+ * that answers every connection with a fixed response), and a cluster of
+ * web servers on localhost ports
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ClusterCacheTest {
+
+    private static final List<String> PEERS = Arrays.asList("node-a:9091", "node-b:9092", "node-c:9093");
+    private static final String CONTENT = "hello cluster";
+
+    /**
+     * Document root of the tests
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerSocket peer;
+    private ExecutorService executor;
+    private volatile String peerResponse;
+    private final List<String> peerRequests = new ArrayList<>();
+
+    /**
+     * Opens the fake peer
+     * @throws IOException If the port is not opened
+     */
+    @Before
+    public void setUp() throws IOException {
+        peer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newSingleThreadExecutor();
+        executor.execute(this::servePeer);
+    }
+
+    /**
+     * Closes the fake peer
+     * @throws IOException If the port is not closed
+     */
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        peer.close();
+    }
+
+    /**
+     * Test every node finds the same owner, the files are spread over the
+     * peers, and a peer removed moves only its own files
+     */
+    @Test
+    public void testOwner() {
+        VirtualHost host = new VirtualHost("", folder.getRoot().getPath(), false, new FileCache(), 0);
+        List<ClusterCache> nodes = new ArrayList<>();
+        for (String self : PEERS) {
+            nodes.add(new ClusterCache(self, PEERS, 1, 1024));
+        }
+        ClusterCache smaller = new ClusterCache("node-a:9091", PEERS.subList(0, 2), 1, 1024);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String path = "/dir" + (i % 10) + "/file" + i + ".html";
+            String owner = nodes.get(0).getOwner(host, path);
+            for (ClusterCache node : nodes) {
+                assertEquals(owner, node.getOwner(host, path));
+            }
+            if (!"node-c:9093".equals(owner)) {
+                assertEquals(owner, smaller.getOwner(host, path));
+            }
+            owned.merge(owner, 1, Integer::sum);
+        }
+        for (String self : PEERS) {
+            assertTrue(self + ": " + owned.get(self), owned.get(self) > 600);
+        }
+    }
+
+    /**
+     * Test a file is taken from its owner only if its ETag and length match
+     * @throws IOException If the file is not created
+     */
+    @Test
+    public void testFetch() throws IOException {
+        FileEntry entry = entry("a.txt");
+        VirtualHost host = new VirtualHost("", folder.getRoot().getPath(), false, new FileCache(), 0);
+        String owner = "127.0.0.1:" + peer.getLocalPort();
+        ClusterCache cache = new ClusterCache("localhost:1", Arrays.asList("localhost:1", owner), 2, 1024);
+        String path = pathOwnedBy(cache, host, owner);
+
+        peerResponse = response(entry.getEtag(), CONTENT.length());
+        assertArrayEquals(CONTENT.getBytes(StandardCharsets.UTF_8), cache.getContent(host, path + "?q=1", entry, "example.com", false));
+        synchronized (peerRequests) {
+            assertEquals(1, peerRequests.size());
+            assertTrue(peerRequests.get(0).startsWith("GET " + path + " HTTP/1.1\r\nHost: example.com\r\n"
+                    + ClusterCache.PEER_HEADER + ": localhost:1\r\n"));
+        }
+        peerResponse = response("\"other\"", CONTENT.length());
+        assertNull(cache.getContent(host, path, entry, null, false));
+        peerResponse = response(entry.getEtag(), CONTENT.length() + 1);
+        assertNull(cache.getContent(host, path, entry, null, false));
+        peerResponse = "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        assertNull(cache.getContent(host, path, entry, null, false));
+        assertNull(entry.getContent());
+    }
+
+    /**
+     * Test the request of a peer is never sent further and the files owned are preloaded
+     * @throws IOException If the file is not created
+     */
+    @Test
+    public void testOwnedAndFromPeer() throws IOException {
+        FileEntry entry = entry("a.txt");
+        FileCache fileCache = new FileCache();
+        VirtualHost host = new VirtualHost("", folder.getRoot().getPath(), false, fileCache, 0);
+        String other = "127.0.0.1:" + peer.getLocalPort();
+        ClusterCache cache = new ClusterCache("localhost:1", Arrays.asList("localhost:1", other), 2, 1024);
+
+        assertNull(cache.getContent(host, pathOwnedBy(cache, host, other), entry, null, true));
+        synchronized (peerRequests) {
+            assertEquals(0, peerRequests.size());
+        }
+        assertArrayEquals(CONTENT.getBytes(StandardCharsets.UTF_8),
+                cache.getContent(host, pathOwnedBy(cache, host, "localhost:1"), entry, null, false));
+    }
+
+    /**
+     * Test a cluster of web servers on localhost ports: a file requested
+     * from a node that does not own it is fetched from (and kept in memory
+     * by) its owner, and it is read from disk when its owner is down
+     * @throws Exception If the cluster fails
+     */
+    @Test
+    public void testCluster() throws Exception {
+        Files.write(new File(folder.getRoot(), "index.html").toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+        int[] ports = new int[3];
+        StringBuilder peers = new StringBuilder();
+        for (int i = 0; i < ports.length; i++) {
+            try (ServerSocket free = new ServerSocket(0)) {
+                ports[i] = free.getLocalPort();
+            }
+            peers.append((i == 0) ? "" : ",").append("localhost:").append(ports[i]);
+        }
+        List<ServerSettings> settings = new ArrayList<>();
+        List<ThreadPooledWebServer> servers = new ArrayList<>();
+        try {
+            for (int port : ports) {
+                Properties props = new Properties();
+                props.setProperty(ServerSettings.SERVER_PORT_PROP_NAME, Integer.toString(port));
+                props.setProperty(ServerSettings.DOCUMENT_ROOT_PROP_NAME, folder.getRoot().getPath() + File.separator);
+                props.setProperty(ServerSettings.CLUSTER_PEERS_PROP_NAME, peers.toString());
+                props.setProperty(ServerSettings.CLUSTER_SELF_PROP_NAME, "localhost:" + port);
+                ServerSettings serverSettings = new ServerSettings(props);
+                assertNotNull(serverSettings.getClusterCache());
+                ThreadPooledWebServer server = new ThreadPooledWebServer(serverSettings);
+                new Thread(server, "cluster-" + port).start();
+                settings.add(serverSettings);
+                servers.add(server);
+            }
+            for (ThreadPooledWebServer server : servers) {
+                while (server.getLocalPort() == -1) {
+                    Thread.sleep(10);
+                }
+            }
+            ClusterCache cluster = settings.get(0).getClusterCache();
+            String owner = cluster.getOwner(settings.get(0).getDefaultHost(), "/index.html");
+            int ownerIndex = Arrays.asList(peers.toString().split(",")).indexOf(owner);
+            int other = (ownerIndex + 1) % ports.length;
+
+            assertTrue(get(ports[other], "/index.html").endsWith("\r\n\r\n" + CONTENT));
+            File file = new File(folder.getRoot(), "index.html");
+            assertNotNull(settings.get(ownerIndex).getFileCache().lookup(file).getContent());
+            assertNull(settings.get(other).getFileCache().lookup(file).getContent());
+
+            servers.get(ownerIndex).stop();
+            String response = get(ports[other], "/index.html");
+            assertTrue(response, response.startsWith("HTTP/1.1 " + ServerSettings.HTTP_STR_OK));
+            assertTrue(response.endsWith("\r\n\r\n" + CONTENT));
+        } finally {
+            for (ThreadPooledWebServer server : servers) {
+                if (server.getLocalPort() != -1) {
+                    server.stop();
+                }
+            }
+        }
+    }
+
+    private FileEntry entry(String name) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+        return new FileEntry(file, false, file.length(), file.lastModified());
+    }
+
+    private static String pathOwnedBy(ClusterCache cache, VirtualHost host, String owner) {
+        for (int i = 0; ; i++) {
+            String path = "/file" + i + ".txt";
+            if (owner.equals(cache.getOwner(host, path))) {
+                return path;
+            }
+        }
+    }
+
+    private static String response(String etag, int length) {
+        return "HTTP/1.1 200 OK\r\nETag: " + etag + "\r\nContent-Length: " + length + "\r\nConnection: close\r\n\r\n" + CONTENT;
+    }
+
+    // Fake peer: reads the request headers and answers peerResponse, one request per connection
+    private void servePeer() {
+        while (!peer.isClosed()) {
+            try (Socket socket = peer.accept()) {
+                InputStream input = socket.getInputStream();
+                StringBuilder request = new StringBuilder();
+                int b;
+                while (request.indexOf("\r\n\r\n") < 0 && (b = input.read()) != -1) {
+                    request.append((char) b);
+                }
+                synchronized (peerRequests) {
+                    peerRequests.add(request.toString());
+                }
+                OutputStream output = socket.getOutputStream();
+                output.write(peerResponse.getBytes(StandardCharsets.ISO_8859_1));
+                output.flush();
+            } catch (IOException e) {
+                // Closed by tearDown()
+            }
+        }
+    }
+
+    private static String get(int port, String path) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost:" + port
+                    + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream input = socket.getInputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            return response.toString("ISO-8859-1");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Test the content pack of a document root
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the content pack of a document root: written by ContentPackTool, read
+ * back, and the truncated or corrupt packs refused
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ContentPackTest {
+
+    /**
+     * Document root and pack files of the tests
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File packFile;
+
+    /**
+     * Packs a document root with a text file, a binary file and a directory
+     * @throws IOException If the pack is not written
+     */
+    @Before
+    public void setUp() throws IOException {
+        File root = folder.newFolder("root");
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            html.append("<p>content pack</p>\n");
+        }
+        Files.write(new File(root, "index.html").toPath(), html.toString().getBytes(StandardCharsets.UTF_8));
+        File dir = new File(root, "img");
+        assertTrue(dir.mkdir());
+        Files.write(new File(dir, "a.png").toPath(), new byte[] {1, 2, 3});
+        packFile = new File(folder.getRoot(), "root.pack");
+        ContentPackTool.main(new String[] {root.getPath(), packFile.getPath()});
+    }
+
+    /**
+     * Test the entries of the pack are read as they were packed
+     * @throws IOException If the pack is not opened
+     */
+    @Test
+    public void testWriteOpen() throws IOException {
+        ContentPack pack = ContentPack.open(packFile);
+        assertEquals(4, pack.entries().size());
+        assertEquals("img/\nindex.html\n", text(pack.lookup("").getContent()));
+        assertTrue(pack.lookup("img").isDirectory());
+        ContentPackEntry index = pack.lookup(ContentPack.key("/index.html"));
+        assertEquals("text/html", index.getMimeType());
+        assertEquals(2000, index.getContent().remaining());
+        assertTrue(text(index.getContent()).startsWith("<p>content pack</p>"));
+        assertNotNull(index.getGzipContent());
+        ContentPackEntry png = pack.lookup("img/a.png");
+        assertEquals(3, png.getContent().remaining());
+        assertEquals(3, png.getContent().get(2));
+        assertNull(png.getGzipContent());
+        assertNull(pack.lookup("missing.html"));
+    }
+
+    /**
+     * Test a pack cut at any length is refused with an IOException
+     * @throws IOException If the pack is not read
+     */
+    @Test
+    public void testTruncated() throws IOException {
+        byte[] bytes = Files.readAllBytes(packFile.toPath());
+        File truncated = new File(folder.getRoot(), "truncated.pack");
+        for (int length = 0; length < bytes.length; length += 7) {
+            Files.write(truncated.toPath(), Arrays.copyOf(bytes, length));
+            assertRefused(truncated);
+        }
+    }
+
+    /**
+     * Test a pack with a corrupt count, string length or offset is refused
+     * @throws IOException If the pack is not read
+     */
+    @Test
+    public void testCorrupt() throws IOException {
+        corrupt(8, Integer.MAX_VALUE);   // Number of entries
+        corrupt(12, -5);                 // Length of the index
+        corrupt(16, -1);                 // Length of the path of the first entry
+        corrupt(16, 1 << 30);
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(packFile.toPath()));
+        int contentOffset = 16 + 4 + 1 + 4 + 8 + 4;  // Offset of the content of the root directory
+        index.putLong(contentOffset, Long.MAX_VALUE - 4);
+        File corrupt = new File(folder.getRoot(), "corrupt.pack");
+        Files.write(corrupt.toPath(), index.array());
+        assertRefused(corrupt);
+    }
+
+    /**
+     * Test a corrupt pack renamed over the pack file keeps the previous pack
+     * served until the file changes again
+     * @throws Exception If the pack is not read
+     */
+    @Test
+    public void testHolderKeepsPack() throws Exception {
+        ContentPackHolder holder = new ContentPackHolder(packFile);
+        ContentPack pack = holder.get();
+        byte[] bytes = Files.readAllBytes(packFile.toPath());
+        Files.write(packFile.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        assertTrue(packFile.setLastModified(packFile.lastModified() + 10000));
+        Thread.sleep(1100);
+        assertSame(pack, holder.get());
+        assertSame(pack, holder.get());
+        Files.write(packFile.toPath(), bytes);
+        assertTrue(packFile.setLastModified(packFile.lastModified() + 20000));
+        Thread.sleep(1100);
+        ContentPack reloaded = holder.get();
+        assertTrue(reloaded != pack);
+        assertEquals(4, reloaded.entries().size());
+    }
+
+    private void corrupt(int position, int value) throws IOException {
+        File corrupt = new File(folder.getRoot(), "corrupt.pack");
+        Files.copy(packFile.toPath(), corrupt.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (RandomAccessFile file = new RandomAccessFile(corrupt, "rw")) {
+            file.seek(position);
+            file.writeInt(value);
+        }
+        assertRefused(corrupt);
+    }
+
+    private static void assertRefused(File pack) {
+        try {
+            ContentPack.open(pack);
+            fail("Invalid pack opened: " + pack.length() + " bytes");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static String text(ByteBuffer content) {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
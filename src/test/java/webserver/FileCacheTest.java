@@ -0,0 +1,92 @@
+/**
+ * Test the cache of the files of the document root
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the cache of the files of the document root
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class FileCacheTest {
+
+    /**
+     * Document root of the tests
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test an entry is reused while its file does not change
+     * @throws IOException If the file is not written
+     */
+    @Test
+    public void testLookupCached() throws IOException {
+        File file = write("a.html", "<html></html>", 1000000L);
+        FileCache fileCache = new FileCache();
+        FileEntry entry = fileCache.lookup(file);
+        assertNotNull(entry);
+        assertEquals(13, entry.getLength());
+        assertSame(entry, fileCache.lookup(file));
+    }
+
+    /**
+     * Test a file replaced with the same modification time and another
+     * length is not served from its old entry
+     * @throws IOException If the file is not written
+     */
+    @Test
+    public void testLookupReplacedSameModificationTime() throws IOException {
+        File file = write("a.html", "<html></html>", 1000000L);
+        FileCache fileCache = new FileCache();
+        FileEntry entry = fileCache.lookup(file);
+        assertTrue(fileCache.preload(entry, Long.MAX_VALUE));
+
+        write("a.html", "<html><body></body></html>", 1000000L);
+        FileEntry replaced = fileCache.lookup(file);
+        assertNotSame(entry, replaced);
+        assertEquals(26, replaced.getLength());
+        assertEquals(null, replaced.getContent());
+        assertEquals(0, fileCache.getContentSize());
+    }
+
+    /**
+     * Test a full cache evicts its least hit entries and keeps caching
+     * @throws IOException If the files are not written
+     */
+    @Test
+    public void testEviction() throws IOException {
+        FileCache fileCache = new FileCache(16);
+        File hot = write("hot.html", "hot", 1000000L);
+        FileEntry hotEntry = fileCache.lookup(hot);
+        hotEntry.hit();
+        for (int i = 0; i < 40; i++) {
+            fileCache.lookup(write("cold" + i + ".html", "cold", 1000000L));
+        }
+        assertTrue(fileCache.size() <= 16);
+        assertSame(hotEntry, fileCache.lookup(hot));
+        File last = write("last.html", "last", 1000000L);
+        FileEntry lastEntry = fileCache.lookup(last);
+        assertSame(lastEntry, fileCache.lookup(last));
+    }
+
+    private File write(String name, String content, long lastModified) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+}
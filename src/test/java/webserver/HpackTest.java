@@ -0,0 +1,133 @@
+/**
+ * Test the HPACK encoder and decoder
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test the HPACK encoder and decoder, with the examples of RFC 7541
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class HpackTest {
+
+    /**
+     * Test the integer examples of RFC 7541 C.1
+     */
+    @Test
+    public void testInteger() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hpack.encodeInteger(out, 0x00, 5, 10);
+        Hpack.encodeInteger(out, 0x00, 5, 1337);
+        Hpack.encodeInteger(out, 0x00, 8, 42);
+        assertArrayEquals(bytes("0a1f9a0a2a"), out.toByteArray());
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        assertEquals(10, Hpack.decodeInteger(buffer, 5));
+        assertEquals(1337, Hpack.decodeInteger(buffer, 5));
+        assertEquals(42, Hpack.decodeInteger(buffer, 8));
+    }
+
+    /**
+     * Test the requests with Huffman coding of RFC 7541 C.4, which use the dynamic table
+     */
+    @Test
+    public void testRequestExamples() {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        List<String[]> first = headers(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        List<String[]> second = new ArrayList<>(first);
+        second.add(new String[] {"cache-control", "no-cache"});
+
+        byte[] block = encoder.encode(first);
+        assertArrayEquals(bytes("828684418cf1e3c2e5f23a6ba0ab90f4ff"), block);
+        assertHeaders(first, decoder.decode(block));
+        block = encoder.encode(second);
+        assertArrayEquals(bytes("828684be5886a8eb10649cbf"), block);
+        assertHeaders(second, decoder.decode(block));
+    }
+
+    /**
+     * Test response headers round trip, indexed or not, over several blocks
+     */
+    @Test
+    public void testRoundTrip() {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        for (int i = 0; i < 3; i++) {
+            List<String[]> headers = headers(":status", "200", "content-type", "text/html", "content-length", Integer.toString(100 + i),
+                    "etag", "\"abc" + i + "\"", "x-custom", "value \u00e9\u00ff", "server", "WebServer");
+            assertHeaders(headers, decoder.decode(encoder.encode(headers)));
+        }
+    }
+
+    /**
+     * Test a smaller table announced by the peer is signalled and evicts the entries
+     */
+    @Test
+    public void testTableSizeUpdate() {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        List<String[]> headers = headers("x-first", "1", "x-second", "2");
+        assertHeaders(headers, decoder.decode(encoder.encode(headers)));
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(50);
+        byte[] block = encoder.encode(headers);
+        assertEquals(0x20, block[0] & 0xff);
+        assertHeaders(headers, decoder.decode(block));
+        assertHeaders(headers, decoder.decode(encoder.encode(headers)));
+    }
+
+    /**
+     * Test the invalid blocks are compression errors
+     */
+    @Test
+    public void testInvalidBlocks() {
+        assertCompressionError(bytes("80"));
+        assertCompressionError(bytes("be"));
+        assertCompressionError(bytes("4003616263"));
+        assertCompressionError(bytes("ff"));
+        assertCompressionError(bytes("3fe21f"));
+        assertCompressionError(bytes("823fe11f"));
+    }
+
+    private static void assertCompressionError(byte[] block) {
+        try {
+            new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE).decode(block);
+            fail("Invalid block decoded");
+        } catch (Http2Exception e) {
+            // Expected
+        }
+    }
+
+    private static void assertHeaders(List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(Arrays.asList(expected.get(i)), Arrays.asList(actual.get(i)));
+        }
+    }
+
+    private static List<String[]> headers(String... namesAndValues) {
+        List<String[]> headers = new ArrayList<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.add(new String[] {namesAndValues[i], namesAndValues[i + 1]});
+        }
+        return headers;
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Performance regression test of the Web Server
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Performance regression test of the Web Server, run in the integration-test
+ * phase of the "perf" profile (mvn verify -Pperf). The Web Server is started
+ * in process on an ephemeral port over a generated document root, and a fixed
+ * workload of small files, large files, not found files and directory
+ * listings is sent by concurrent clients. The best throughput and p99 latency
+ * of a few rounds of every workload are compared with a stored baseline,
+ * within budgets:
+ * - perf.baseline: Baseline file (written if perf.updateBaseline=true, the test fails if it does not exist)
+ * - perf.throughputBudget: Max fraction of throughput lost (e.g. 0.5)
+ * - perf.latencyBudget: Max fraction of p99 latency gained (e.g. 0.5)
+ * - perf.latencySlackMillis: Milliseconds of p99 latency always allowed (timer and scheduling noise)
+ * The bytes allocated per request by the thread that handles it are measured
+ * too: the requests of every scenario are handled in process by
+ * HttpHandler.handleConnection() over loopback sockets, and the median of
+ * the thread allocation counter is compared with the budget of the scenario:
+ * - perf.allocationBudgets: Budgets file (max bytes allocated per request of every scenario)
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class PerformanceIT {
+
+    private static final int CLIENTS = 8;
+    private static final int WARM_UP_REQUESTS = 200;
+    private static final int REQUESTS = 2000;
+    private static final int ROUNDS = 3;
+    private static final int SMALL_FILES = 50;
+    private static final int SMALL_FILE_SIZE = 1024;
+    private static final int LARGE_FILES = 4;
+    private static final int LARGE_FILE_SIZE = 1024 * 1024;
+    private static final int LISTED_FILES = 100;
+    private static final int ALLOCATION_WARM_UP_REQUESTS = 500;
+    private static final int ALLOCATION_REQUESTS = 200;
+    private static final Logger logger = LogManager.getLogger(PerformanceIT.class.getName());
+    private static File documentRoot;
+    private static ServerSettings serverSettings;
+    private static ThreadPooledWebServer server;
+    private static int serverPort;
+
+    /**
+     * Generates the document root and starts the Web Server
+     * @throws Exception If the Web Server does not start
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        documentRoot = Files.createTempDirectory("webserver-perf").toFile();
+        Random random = new Random(0);
+        writeFiles(new File(documentRoot, "small"), SMALL_FILES, SMALL_FILE_SIZE, random);
+        writeFiles(new File(documentRoot, "large"), LARGE_FILES, LARGE_FILE_SIZE, random);
+        writeFiles(new File(documentRoot, "listing"), LISTED_FILES, 16, random);
+
+        Properties props = new Properties();
+        props.setProperty(ServerSettings.SERVER_PORT_PROP_NAME, "0");
+        props.setProperty(ServerSettings.DOCUMENT_ROOT_PROP_NAME, documentRoot.getPath() + File.separator);
+        props.setProperty(ServerSettings.DIRECTORY_LISTING_PROP_NAME, "y");
+        props.setProperty(ServerSettings.N_THREADS_PROP_NAME, Integer.toString(CLIENTS * 2));
+        serverSettings = new ServerSettings(props);
+        server = new ThreadPooledWebServer(serverSettings);
+        Thread thread = new Thread(server, "perf-server");
+        thread.setDaemon(true);
+        thread.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((serverPort = server.getLocalPort()) <= 0) {
+            assertTrue("Web Server not started", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        logger.info("\nServerPort : " + serverPort);
+    }
+
+    /**
+     * Stops the Web Server and deletes the document root
+     */
+    @AfterClass
+    public static void tearDownAfterClass() {
+        if (server != null) {
+            server.stop();
+        }
+        deleteTree(documentRoot);
+    }
+
+    /**
+     * Test the throughput and the p99 latency of every workload against the baseline
+     * @throws Exception If a request fails
+     */
+    @Test
+    public void testPerformanceBudgets() throws Exception {
+        Properties results = new Properties();
+        run(results, "small", uris("/small/file", SMALL_FILES), 200);
+        run(results, "large", uris("/large/file", LARGE_FILES), 200);
+        run(results, "notFound", uris("/small/missing", SMALL_FILES), 404);
+        run(results, "listing", Arrays.asList("/listing/"), 200);
+
+        File resultsFile = new File(System.getProperty("perf.results", "target/perf-results.properties"));
+        store(results, resultsFile);
+        File baselineFile = new File(System.getProperty("perf.baseline", "src/test/resources/perf-baseline.properties"));
+        if (Boolean.getBoolean("perf.updateBaseline")) {
+            store(results, baselineFile);
+            logger.info("Baseline written: " + baselineFile.getAbsolutePath());
+            return;
+        }
+        assertTrue("Baseline not found (write it with -Dperf.updateBaseline=true): " + baselineFile.getAbsolutePath(),
+                baselineFile.exists());
+        Properties baseline = new Properties();
+        try (InputStream is = new FileInputStream(baselineFile)) {
+            baseline.load(is);
+        }
+        double throughputBudget = Double.parseDouble(System.getProperty("perf.throughputBudget", "0.5"));
+        double latencyBudget = Double.parseDouble(System.getProperty("perf.latencyBudget", "0.5"));
+        double latencySlack = Double.parseDouble(System.getProperty("perf.latencySlackMillis", "2"));
+        List<String> regressions = new ArrayList<>();
+        for (String workload : new String[] {"small", "large", "notFound", "listing"}) {
+            double throughput = Double.parseDouble(results.getProperty(workload + ".throughput"));
+            double p99 = Double.parseDouble(results.getProperty(workload + ".p99"));
+            String baseThroughput = baseline.getProperty(workload + ".throughput");
+            String baseP99 = baseline.getProperty(workload + ".p99");
+            if (baseThroughput != null && throughput < Double.parseDouble(baseThroughput) * (1 - throughputBudget)) {
+                regressions.add(workload + " throughput " + format(throughput) + " req/s, baseline " + baseThroughput);
+            }
+            if (baseP99 != null && p99 > Double.parseDouble(baseP99) * (1 + latencyBudget) + latencySlack) {
+                regressions.add(workload + " p99 " + format(p99) + " ms, baseline " + baseP99);
+            }
+        }
+        assertTrue("Performance regression: " + regressions, regressions.isEmpty());
+    }
+
+    /**
+     * Test the bytes allocated per request of every scenario against its budget
+     * @throws Exception If a request fails
+     */
+    @Test
+    public void testAllocationBudgets() throws Exception {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Thread allocation counters not supported", threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled());
+        Properties results = new Properties();
+        allocate(results, "small", "GET", uris("/small/file", SMALL_FILES), 200);
+        allocate(results, "large", "GET", uris("/large/file", LARGE_FILES), 200);
+        allocate(results, "head", "HEAD", uris("/small/file", SMALL_FILES), 200);
+        allocate(results, "notFound", "GET", uris("/small/missing", SMALL_FILES), 404);
+        allocate(results, "listing", "GET", Arrays.asList("/listing/"), 200);
+
+        Properties budgets = new Properties();
+        File budgetsFile = new File(System.getProperty("perf.allocationBudgets",
+                "src/test/resources/allocation-budgets.properties"));
+        try (InputStream is = new FileInputStream(budgetsFile)) {
+            budgets.load(is);
+        }
+        List<String> regressions = new ArrayList<>();
+        for (String scenario : results.stringPropertyNames()) {
+            long allocated = Long.parseLong(results.getProperty(scenario));
+            String budget = budgets.getProperty(scenario);
+            if (budget != null && allocated > Long.parseLong(budget.trim())) {
+                regressions.add(scenario + " " + allocated + " bytes/request, budget " + budget.trim());
+            }
+        }
+        assertTrue("Allocation budget exceeded: " + regressions, regressions.isEmpty());
+    }
+
+    // Handles the requests of a scenario in this thread, after a warm-up, and keeps the median of the bytes allocated
+    private static void allocate(Properties results, String scenario, String method, List<String> uris,
+            int expectedStatus) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long[] allocated = new long[ALLOCATION_REQUESTS];
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            for (int i = 0; i < ALLOCATION_WARM_UP_REQUESTS + ALLOCATION_REQUESTS; i++) {
+                final String uri = uris.get(i % uris.size());
+                final int port = serverSocket.getLocalPort();
+                Future<Integer> status = client.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        return request(port, method, uri);
+                    }
+                });
+                Socket socket = serverSocket.accept();
+                long before = threads.getThreadAllocatedBytes(threadId);
+                new HttpHandler(serverSettings, socket).handleConnection();
+                long after = threads.getThreadAllocatedBytes(threadId);
+                socket.close();
+                assertEquals(expectedStatus, (int) status.get());
+                if (i >= ALLOCATION_WARM_UP_REQUESTS) {
+                    allocated[i - ALLOCATION_WARM_UP_REQUESTS] = after - before;
+                }
+            }
+        } finally {
+            client.shutdown();
+        }
+        Arrays.sort(allocated);
+        long median = allocated[allocated.length / 2];
+        results.setProperty(scenario, Long.toString(median));
+        logger.info(scenario + ": " + median + " bytes/request allocated (min " + allocated[0] + ", max "
+                + allocated[allocated.length - 1] + ")");
+    }
+
+    // Sends the requests of a workload from the clients, after a warm-up, and keeps the best round
+    private static void run(Properties results, String workload, List<String> uris, int expectedStatus) throws Exception {
+        send(uris, WARM_UP_REQUESTS, expectedStatus);
+        double throughput = 0;
+        double p99 = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            long[] latencies = send(uris, REQUESTS, expectedStatus);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+            throughput = Math.max(throughput, REQUESTS / seconds);
+            p99 = Math.min(p99, latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / 1e6);
+        }
+        results.setProperty(workload + ".throughput", format(throughput));
+        results.setProperty(workload + ".p99", format(p99));
+        logger.info(workload + ": " + format(throughput) + " req/s, p99 " + format(p99) + " ms");
+    }
+
+    private static long[] send(final List<String> uris, int requests, final int expectedStatus) throws Exception {
+        final long[] latencies = new long[requests];
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                final int client = c;
+                futures.add(clients.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int i = client; i < latencies.length; i += CLIENTS) {
+                            long start = System.nanoTime();
+                            int status = request(serverPort, "GET", uris.get(i % uris.size()));
+                            latencies[i] = System.nanoTime() - start;
+                            assertEquals(expectedStatus, status);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            clients.shutdown();
+        }
+        return latencies;
+    }
+
+    // Sends a request and reads the whole response, returns the status code
+    private static int request(int port, String method, String uri) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream output = socket.getOutputStream();
+            output.write((method + " " + uri + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            output.flush();
+            InputStream input = socket.getInputStream();
+            ByteArrayOutputStream statusLine = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) != -1 && b != '\n') {
+                statusLine.write(b);
+            }
+            byte[] buffer = new byte[65536];
+            while (input.read(buffer) != -1) {
+                // Read the rest of the response
+            }
+            String[] parts = statusLine.toString("ISO-8859-1").split(" ");
+            return (parts.length > 1) ? Integer.parseInt(parts[1]) : -1;
+        }
+    }
+
+    private static List<String> uris(String prefix, int count) {
+        List<String> uris = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            uris.add(prefix + i + ".bin");
+        }
+        return uris;
+    }
+
+    private static void writeFiles(File dir, int count, int size, Random random) throws IOException {
+        assertTrue(dir.mkdirs());
+        byte[] content = new byte[size];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(content);
+            try (OutputStream os = new FileOutputStream(new File(dir, "file" + i + ".bin"))) {
+                os.write(content);
+            }
+        }
+    }
+
+    private static void store(Properties props, File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory: " + parent);
+        }
+        try (OutputStream os = new FileOutputStream(file)) {
+            props.store(os, "Throughput (requests/second) and p99 latency (milliseconds) of the workloads");
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private static void deleteTree(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
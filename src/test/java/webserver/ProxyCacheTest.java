@@ -0,0 +1,79 @@
+/**
+ * Test the cache of the responses of the upstream servers
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Test the freshness rules of the cache of the responses of the upstream servers
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ProxyCacheTest {
+
+    /**
+     * Test the max age of the responses
+     */
+    @Test
+    public void testMaxAge() {
+        assertEquals(60, ProxyCache.getMaxAge(ok("public, max-age=60")));
+        assertEquals(120, ProxyCache.getMaxAge(ok("max-age=60, s-maxage=120")));
+        assertEquals(120, ProxyCache.getMaxAge(ok("s-maxage=120, max-age=60")));
+        assertEquals(30, ProxyCache.getMaxAge(ok("max-age=\"30\"")));
+        assertEquals(0, ProxyCache.getMaxAge(ok("public")));
+        assertEquals(0, ProxyCache.getMaxAge(ok("max-age=abc")));
+        assertEquals(0, ProxyCache.getMaxAge(ok("max-age=60, no-store")));
+        assertEquals(0, ProxyCache.getMaxAge(ok("max-age=60, No-Cache")));
+        assertEquals(0, ProxyCache.getMaxAge(ok("private, max-age=60")));
+        assertEquals(0, ProxyCache.getMaxAge(ok("max-age=60").addHeader("Vary", "Accept-Encoding")));
+        assertEquals(0, ProxyCache.getMaxAge(ok("max-age=60").addHeader("Set-Cookie", "a=b")));
+        assertEquals(0, ProxyCache.getMaxAge(new HandlerResponse(ServerSettings.HTTP_STR_NOT_FOUND, "text/html",
+                new byte[0]).addHeader("Cache-Control", "max-age=60")));
+        assertEquals(0, ProxyCache.getMaxAge(new HandlerResponse(ServerSettings.HTTP_STR_OK, "text/html", new byte[0])));
+    }
+
+    /**
+     * Test a fresh response is served with its Age header, and a response
+     * that is not cacheable is not stored
+     */
+    @Test
+    public void testGet() {
+        ProxyCache cache = new ProxyCache(1024);
+        assertTrue(cache.put("a", ok("max-age=60")));
+        assertFalse(cache.put("b", ok("no-store")));
+        HandlerResponse cached = cache.get("a");
+        assertNotNull(cached);
+        assertEquals("0", cached.getHeaders().get("Age"));
+        assertEquals("max-age=60", cached.getHeaders().get("Cache-Control"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Test the least recently used responses are evicted over the max size
+     */
+    @Test
+    public void testEviction() {
+        ProxyCache cache = new ProxyCache(25);
+        assertTrue(cache.put("a", ok("max-age=60")));
+        assertTrue(cache.put("b", ok("max-age=60")));
+        assertNotNull(cache.get("a"));
+        assertTrue(cache.put("c", ok("max-age=60")));
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertFalse(cache.put("d", new HandlerResponse(ServerSettings.HTTP_STR_OK, "text/plain", new byte[26])
+                .addHeader("Cache-Control", "max-age=60")));
+    }
+
+    private static HandlerResponse ok(String cacheControl) {
+        return new HandlerResponse(ServerSettings.HTTP_STR_OK, "text/plain", new byte[10])
+                .addHeader("Cache-Control", cacheControl);
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Test the reverse proxy handler
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the reverse proxy handler against an upstream server that answers
+ * every connection with a fixed response
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ProxyHandlerTest {
+
+    private ServerSocket upstream;
+    private ExecutorService executor;
+
+    /**
+     * Opens the upstream server
+     * @throws IOException If the port is not opened
+     */
+    @Before
+    public void setUp() throws IOException {
+        upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Closes the upstream server
+     * @throws IOException If the port is not closed
+     */
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        upstream.close();
+    }
+
+    /**
+     * Test the normalization of the path after the prefix
+     */
+    @Test
+    public void testNormalize() {
+        assertEquals("", ProxyHandler.normalize(""));
+        assertEquals("/a/b", ProxyHandler.normalize("/a/./b"));
+        assertEquals("/b?x=/../y", ProxyHandler.normalize("/a/../b?x=/../y"));
+        assertEquals("/a/", ProxyHandler.normalize("/a//b/.."));
+        assertEquals("/a%20b/c", ProxyHandler.normalize("/a%20b/c"));
+        assertNull(ProxyHandler.normalize("/../admin"));
+        assertNull(ProxyHandler.normalize("/a/../../admin"));
+        assertNull(ProxyHandler.normalize("/%2e%2e/admin"));
+        assertNull(ProxyHandler.normalize("/%2E./admin"));
+        assertNull(ProxyHandler.normalize("/a%2f..%2f..%2fadmin"));
+        assertNull(ProxyHandler.normalize("/a/%zz"));
+    }
+
+    /**
+     * Test a path that leaves the base path is refused without an upstream request
+     */
+    @Test
+    public void testPathOutOfBasePath() {
+        ProxyHandler handler = handler();
+        assertEquals(ServerSettings.HTTP_STR_BAD_REQUEST,
+                handler.handle("GET", "/api/../admin", new HashMap<>()).getStatus());
+        assertEquals(ServerSettings.HTTP_STR_BAD_REQUEST,
+                handler.handle("GET", "/api/%2e%2e/admin", new HashMap<>()).getStatus());
+    }
+
+    /**
+     * Test a request is forwarded with the normalized path under the base path
+     * @throws Exception If the upstream server fails
+     */
+    @Test
+    public void testForward() throws Exception {
+        Future<String> requestLine = answer("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n"
+                + "Connection: close\r\n\r\nok");
+        HandlerResponse response = handler().handle("GET", "/api/a/./b/../c?q=1", new HashMap<>());
+        assertEquals(ServerSettings.HTTP_STR_OK, response.getStatus());
+        assertEquals("ok", new String(response.getBody(), StandardCharsets.ISO_8859_1));
+        assertEquals("GET /v1/a/c?q=1 HTTP/1.1", requestLine.get());
+    }
+
+    /**
+     * Test a malformed Content-Length of the upstream response is a 502
+     */
+    @Test
+    public void testInvalidContentLength() {
+        answer("HTTP/1.1 200 OK\r\nContent-Length: 12x\r\nConnection: close\r\n\r\nok");
+        assertEquals(ServerSettings.HTTP_STR_BAD_GATEWAY,
+                handler().handle("GET", "/api/a", new HashMap<>()).getStatus());
+    }
+
+    /**
+     * Test a malformed chunk size of the upstream response is a 502
+     */
+    @Test
+    public void testInvalidChunkSize() {
+        answer("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\nzz\r\nok\r\n0\r\n\r\n");
+        assertEquals(ServerSettings.HTTP_STR_BAD_GATEWAY,
+                handler().handle("GET", "/api/a", new HashMap<>()).getStatus());
+    }
+
+    /**
+     * Test a chunked upstream response is decoded
+     */
+    @Test
+    public void testChunked() {
+        answer("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n"
+                + "3;ext=1\r\nabc\r\n2\r\nde\r\n0\r\nTrailer: x\r\n\r\n");
+        HandlerResponse response = handler().handle("GET", "/api/a", new HashMap<>());
+        assertEquals(ServerSettings.HTTP_STR_OK, response.getStatus());
+        assertEquals("abcde", new String(response.getBody(), StandardCharsets.ISO_8859_1));
+    }
+
+    private ProxyHandler handler() {
+        return new ProxyHandler("/api", "http://127.0.0.1:" + upstream.getLocalPort() + "/v1", 2, 5000, null);
+    }
+
+    // Answers a connection with a response, returns the request line received
+    private Future<String> answer(final String response) {
+        return executor.submit(() -> {
+            try (Socket socket = upstream.accept()) {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                String requestLine = reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    // Skip the headers
+                }
+                OutputStream output = socket.getOutputStream();
+                output.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                output.flush();
+                return requestLine;
+            }
+        });
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Test the rate limit of the client addresses
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import org.junit.Test;
+
+/**
+ * Test the rate limit of the client addresses
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class RateLimiterTest {
+
+    /**
+     * Test a client gets its burst at once and then waits for the rate
+     * @throws UnknownHostException If an address is not valid
+     */
+    @Test
+    public void testBurst() throws UnknownHostException {
+        RateLimiter rateLimiter = new RateLimiter(1, 3);
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, rateLimiter.tryAcquire(client));
+        }
+        long wait = rateLimiter.tryAcquire(client);
+        assertTrue("Wait: " + wait, wait > 0 && wait <= 1000000000L);
+        assertEquals(0, rateLimiter.tryAcquire(InetAddress.getByName("192.0.2.2")));
+        assertEquals(0, rateLimiter.tryAcquire(null));
+    }
+
+    /**
+     * Test the IPv6 addresses of a /64 prefix share a bucket
+     * @throws UnknownHostException If an address is not valid
+     */
+    @Test
+    public void testIpv6Prefix() throws UnknownHostException {
+        RateLimiter rateLimiter = new RateLimiter(1, 2);
+        assertEquals(0, rateLimiter.tryAcquire(InetAddress.getByName("2001:db8:1:2::1")));
+        assertEquals(0, rateLimiter.tryAcquire(InetAddress.getByName("2001:db8:1:2:ffff::7")));
+        assertTrue(rateLimiter.tryAcquire(InetAddress.getByName("2001:db8:1:2:1234:5678:9abc:def0")) > 0);
+        assertEquals(0, rateLimiter.tryAcquire(InetAddress.getByName("2001:db8:1:3::1")));
+        assertEquals(2, rateLimiter.size());
+        assertEquals(InetAddress.getByName("2001:db8:1:2::"),
+                RateLimiter.clientKey(InetAddress.getByName("2001:db8:1:2:aaaa:bbbb:cccc:dddd")));
+    }
+
+    /**
+     * Test the new clients share the overflow bucket when the limiter is full
+     * @throws UnknownHostException If an address is not valid
+     */
+    @Test
+    public void testOverflow() throws UnknownHostException {
+        RateLimiter rateLimiter = new RateLimiter(1, 2, 4);
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(0, rateLimiter.tryAcquire(InetAddress.getByName("192.0.2." + i)));
+        }
+        assertEquals(4, rateLimiter.size());
+        assertEquals(0, rateLimiter.tryAcquire(InetAddress.getByName("198.51.100.1")));
+        assertEquals(0, rateLimiter.tryAcquire(InetAddress.getByName("198.51.100.2")));
+        assertTrue(rateLimiter.tryAcquire(InetAddress.getByName("198.51.100.3")) > 0);
+        assertEquals(4, rateLimiter.size());
+    }
+}
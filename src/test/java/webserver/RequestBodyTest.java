@@ -0,0 +1,101 @@
+/**
+ * Test the body of a http request
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Test the body of a http request, with a Content-Length and chunked
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class RequestBodyTest {
+
+    /**
+     * Test a body with a Content-Length stops at its length
+     * @throws IOException If the body is not read
+     */
+    @Test
+    public void testContentLength() throws IOException {
+        InputStream input = input("hello world");
+        RequestBody body = new RequestBody(input, 5);
+        assertEquals(5, body.getLength());
+        assertEquals("hello", read(body));
+        assertTrue(body.isFinished());
+        assertEquals(' ', input.read());
+    }
+
+    /**
+     * Test the chunks are decoded, with extensions and trailers skipped
+     * @throws IOException If the body is not read
+     */
+    @Test
+    public void testChunked() throws IOException {
+        InputStream input = input("5;name=value\r\nhello\r\n6\r\n world\r\nA\nabcdefghij\n0\r\nTrailer: x\r\n\r\nNEXT");
+        RequestBody body = new RequestBody(input);
+        assertEquals(-1, body.getLength());
+        assertEquals("hello worldabcdefghij", read(body));
+        assertTrue(body.isFinished());
+        assertEquals('N', input.read());
+    }
+
+    /**
+     * Test the malformed chunked bodies throw a ProtocolException
+     * @throws IOException If the body is not read
+     */
+    @Test
+    public void testMalformedChunked() throws IOException {
+        assertMalformed("zz\r\nhello\r\n0\r\n\r\n");
+        assertMalformed("-5\r\nhello\r\n0\r\n\r\n");
+        assertMalformed("5\r\nhelloXX\r\n0\r\n\r\n");
+        assertMalformed("5\r\nhel");
+        assertMalformed("5\r\nhello\r\n");
+    }
+
+    /**
+     * Test a truncated body with a Content-Length throws a ProtocolException
+     * @throws IOException If the body is not read
+     */
+    @Test
+    public void testTruncated() throws IOException {
+        try {
+            read(new RequestBody(input("abc"), 10));
+            fail("Truncated body read");
+        } catch (ProtocolException e) {
+            assertEquals("Request body truncated", e.getMessage());
+        }
+    }
+
+    private static void assertMalformed(String chunked) throws IOException {
+        try {
+            read(new RequestBody(input(chunked)));
+            fail("Malformed body read: " + chunked);
+        } catch (ProtocolException e) {
+            // Expected
+        }
+    }
+
+    private static InputStream input(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String read(RequestBody body) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int read;
+        while ((read = body.read(buffer, 0, buffer.length)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toString("ISO-8859-1");
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Test the headers of a http request
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Test the headers of a http request, read over the raw request bytes
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class RequestHeadersTest {
+
+    /**
+     * Test the names and values, trimmed and looked up case insensitive
+     * @throws IOException If the headers are not read
+     */
+    @Test
+    public void testRead() throws IOException {
+        RequestHeaders headers = read("Host: example.com\r\nX-Empty:\r\nAccept:  \ttext/html \r\nno colon\r\nhost: other\n\r\n");
+        assertEquals(4, headers.size());
+        assertEquals("Host", headers.getName(0));
+        assertEquals("example.com", headers.getValue(0));
+        assertEquals("", headers.get("x-empty"));
+        assertEquals("text/html", headers.get("ACCEPT"));
+        assertEquals("other", headers.get("Host"));
+        assertTrue(headers.contains("x-EMPTY"));
+        assertFalse(headers.contains("X-Missing"));
+        assertNull(headers.get("X-Missing"));
+        assertEquals(-1, headers.indexOf("Hos"));
+    }
+
+    /**
+     * Test the bytes after the empty line are not consumed
+     * @throws IOException If the headers are not read
+     */
+    @Test
+    public void testBodyNotConsumed() throws IOException {
+        InputStream input = new ByteArrayInputStream("A: 1\r\n\r\nBODY".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals("1", RequestHeaders.read(input).get("a"));
+        assertEquals('B', input.read());
+    }
+
+    /**
+     * Test the requests without headers, and a header line cut by the end of the input
+     * @throws IOException If the headers are not read
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        assertSame(RequestHeaders.EMPTY, read("\r\n"));
+        assertSame(RequestHeaders.EMPTY, read(""));
+        assertNull(read("A: 1").get("A"));
+    }
+
+    /**
+     * Test the tokens of comma separated lists, with their parameters ignored
+     * @throws IOException If the headers are not read
+     */
+    @Test
+    public void testHasToken() throws IOException {
+        RequestHeaders headers = read("Connection: Upgrade, keep-alive\r\nAccept-Encoding: br;q=0.5 , GZIP;q=1\r\n\r\n");
+        assertTrue(headers.hasToken("connection", "keep-alive"));
+        assertTrue(headers.hasToken("Connection", "upgrade"));
+        assertFalse(headers.hasToken("Connection", "close"));
+        assertTrue(headers.hasToken("Accept-Encoding", "gzip"));
+        assertTrue(headers.hasToken("Accept-Encoding", "br"));
+        assertFalse(headers.hasToken("Accept-Encoding", "deflate"));
+        assertFalse(headers.hasToken("Accept-Encoding", "gzip;q=1"));
+        assertFalse(headers.hasToken("TE", "trailers"));
+    }
+
+    /**
+     * Test the map with lower case names, the last value of a repeated header
+     * @throws IOException If the headers are not read
+     */
+    @Test
+    public void testAsMap() throws IOException {
+        RequestHeaders headers = read("Host: a\r\nContent-Type: text/plain\r\nHOST: b\r\n\r\n");
+        Map<String, String> map = headers.asMap();
+        assertEquals(Arrays.asList("host", "content-type"), Arrays.asList(map.keySet().toArray()));
+        assertEquals("b", map.get("host"));
+        assertEquals("text/plain", map.get("content-type"));
+        assertSame(map, headers.asMap());
+    }
+
+    private static RequestHeaders read(String text) throws IOException {
+        return RequestHeaders.read(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Test the writer of the bytes of a http response
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the writer of the bytes of a http response
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class ResponseWriterTest {
+
+    /**
+     * Directory of the files served
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test a response without body
+     * @throws IOException If the response is not written
+     */
+    @Test
+    public void testHeadersOnly() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new ResponseWriter(output, 65536).statusLine("1.1", "404 Not Found")
+                .header("Content-Length", "0").endHeaders().send();
+        assertEquals("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n", output.toString("ISO-8859-1"));
+    }
+
+    /**
+     * Test a body in memory larger than the body buffer, after headers
+     * larger than the header buffer
+     * @throws IOException If the response is not written
+     */
+    @Test
+    public void testBodyInMemory() throws IOException {
+        char[] value = new char[ResponseWriter.HEADER_BUFFER_SIZE * 2];
+        Arrays.fill(value, 'v');
+        byte[] body = new byte[10000];
+        Arrays.fill(body, (byte) 'b');
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new ResponseWriter(output, 1500).statusLine("1.1", "200 OK").header("X-Large", new String(value))
+                .endHeaders().send(ByteBuffer.wrap(body));
+        String expected = "HTTP/1.1 200 OK\r\nX-Large: " + new String(value) + "\r\n\r\n"
+                + new String(body, StandardCharsets.ISO_8859_1);
+        assertEquals(expected, output.toString("ISO-8859-1"));
+    }
+
+    /**
+     * Test a file body, twice on the same thread (reused body buffer)
+     * @throws IOException If the response is not written
+     */
+    @Test
+    public void testFileBody() throws IOException {
+        byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        File file = folder.newFile("file.txt");
+        Files.write(file.toPath(), content);
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            new ResponseWriter(output, 4096).statusLine("1.1", "200 OK").endHeaders().send(file, content.length);
+            assertEquals("HTTP/1.1 200 OK\r\n\r\n" + new String(content, StandardCharsets.ISO_8859_1),
+                    output.toString("ISO-8859-1"));
+        }
+    }
+}
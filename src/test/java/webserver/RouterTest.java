@@ -0,0 +1,97 @@
+/**
+ * Test the routing of the requests to the request handlers
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Test the routing of the requests to the request handlers, by the longest
+ * registered prefix of whole path segments
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class RouterTest {
+
+    private final RequestHandler api = handler();
+    private final RequestHandler apiV2 = handler();
+    private final RequestHandler status = handler();
+
+    /**
+     * Test a router without handlers routes nothing
+     */
+    @Test
+    public void testEmpty() {
+        assertNull(new Router().route("/api"));
+    }
+
+    /**
+     * Test the handler of the longest prefix is found
+     */
+    @Test
+    public void testLongestPrefix() {
+        Router router = router();
+        assertSame(api, router.route("/api"));
+        assertSame(api, router.route("/api/"));
+        assertSame(api, router.route("/api/v1/users"));
+        assertSame(apiV2, router.route("/api/v2"));
+        assertSame(apiV2, router.route("/api/v2/users/1"));
+        assertSame(api, router.route("/api/v3"));
+        assertSame(status, router.route("/status"));
+    }
+
+    /**
+     * Test the prefixes match whole segments and the query is ignored
+     */
+    @Test
+    public void testSegments() {
+        Router router = router();
+        assertNull(router.route("/"));
+        assertNull(router.route("/apix"));
+        assertNull(router.route("/ap"));
+        assertNull(router.route("/index.html"));
+        assertNull(router.route("/statusx/api"));
+        assertSame(apiV2, router.route("/api//v2"));
+        assertSame(status, router.route("/status?x=/api/v2"));
+        assertNull(router.route("/other?path=/status"));
+    }
+
+    /**
+     * Test the root prefix routes every request not routed to a longer prefix
+     */
+    @Test
+    public void testRoot() {
+        RequestHandler all = handler();
+        Router router = router();
+        router.register("/", all);
+        assertSame(all, router.route("/"));
+        assertSame(all, router.route("/index.html"));
+        assertSame(api, router.route("/api/x"));
+    }
+
+    /**
+     * Test a prefix registered again replaces its handler
+     */
+    @Test
+    public void testReplace() {
+        RequestHandler other = handler();
+        Router router = router();
+        router.register("/api/", other);
+        assertSame(other, router.route("/api/v1"));
+        assertSame(apiV2, router.route("/api/v2"));
+    }
+
+    private Router router() {
+        Router router = new Router();
+        router.register("/api", api);
+        router.register("/api/v2", apiV2);
+        router.register("/status", status);
+        return router;
+    }
+
+    private static RequestHandler handler() {
+        return (method, requestUri, headers) -> new HandlerResponse(ServerSettings.HTTP_STR_OK, "text/plain", new byte[0]);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Test the capture of the requests served
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the capture of the requests served: the records written are read
+ * back, with the long values truncated
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class TrafficCaptureTest {
+
+    /**
+     * Folder of the capture files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test the records are read as they were recorded, sorted by time of arrival
+     * @throws IOException If the capture fails
+     */
+    @Test
+    public void testWriteRead() throws IOException {
+        File file = folder.newFile("capture.wstc");
+        TrafficCapture capture = new TrafficCapture(file);
+        capture.open();
+        long now = System.nanoTime();
+        capture.record(now + 2000000, "GET /b.html HTTP/1.1", headers("Host: example.com\r\nRange: bytes=0-9\r\nX-Other: 1\r\n"),
+                "206 Partial Content");
+        capture.record(now + 1000000, "GET /a.html HTTP/1.1", headers(""), null);
+        capture.record(now, "", headers(""), ServerSettings.HTTP_STR_OK);
+        capture.close();
+
+        List<TrafficCapture.Record> records = TrafficCapture.read(file);
+        assertEquals(2, records.size());
+        assertEquals("GET /a.html HTTP/1.1", records.get(0).getRequestLine());
+        assertEquals(0, records.get(0).getHeaders().length);
+        assertEquals(0, records.get(0).getStatus());
+        assertEquals("GET /b.html HTTP/1.1", records.get(1).getRequestLine());
+        assertArrayEquals(new String[] {"Host", "example.com", "Range", "bytes=0-9"}, records.get(1).getHeaders());
+        assertEquals(206, records.get(1).getStatus());
+        assertEquals(1000, records.get(1).getOffset() - records.get(0).getOffset());
+        assertEquals(0, capture.getDropped());
+    }
+
+    /**
+     * Test a header value over the 64 KB of a UTF string is truncated and the
+     * records after it are written
+     * @throws IOException If the capture fails
+     */
+    @Test
+    public void testLongValues() throws IOException {
+        File file = folder.newFile("capture.wstc");
+        TrafficCapture capture = new TrafficCapture(file);
+        capture.open();
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 70000) {
+            value.append("0123456789");
+        }
+        long now = System.nanoTime();
+        capture.record(now, "GET /" + value + " HTTP/1.1", headers("If-None-Match: " + value + "\r\n"), ServerSettings.HTTP_STR_OK);
+        capture.record(now + 1000, "GET /next HTTP/1.1", headers(""), ServerSettings.HTTP_STR_OK);
+        capture.close();
+
+        List<TrafficCapture.Record> records = TrafficCapture.read(file);
+        assertEquals(2, records.size());
+        assertEquals(8192, records.get(0).getRequestLine().length());
+        assertEquals(8192, records.get(0).getHeaders()[1].length());
+        assertEquals("GET /next HTTP/1.1", records.get(1).getRequestLine());
+        assertEquals(0, capture.getDropped());
+    }
+
+    private static RequestHeaders headers(String lines) throws IOException {
+        return RequestHeaders.read(new ByteArrayInputStream((lines + "\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+    }
+}
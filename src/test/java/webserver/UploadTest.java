@@ -0,0 +1,119 @@
+/**
+ * Test the uploads to the document root
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the uploads to the document root, handled in process over loopback
+ * sockets: only the paths of the file tree are uploaded
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class UploadTest {
+
+    private static final String TOKEN = "secret";
+
+    /**
+     * Document root of the tests
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerSettings serverSettings;
+
+    /**
+     * Settings with uploads, a health check and a batch path
+     */
+    @Before
+    public void setUp() {
+        Properties props = new Properties();
+        props.setProperty(ServerSettings.DOCUMENT_ROOT_PROP_NAME, folder.getRoot().getPath() + File.separator);
+        props.setProperty(ServerSettings.UPLOAD_PROP_NAME, "y");
+        props.setProperty(ServerSettings.UPLOAD_TOKEN_PROP_NAME, TOKEN);
+        props.setProperty(ServerSettings.HEALTH_CHECK_PATH_PROP_NAME, "/health");
+        props.setProperty(ServerSettings.BATCH_PATH_PROP_NAME, "/batch");
+        serverSettings = new ServerSettings(props);
+        RunThreadPooledWebServer.registerHandlers(serverSettings);
+    }
+
+    /**
+     * Test a file is stored, replaced and deleted
+     * @throws IOException If the request fails
+     */
+    @Test
+    public void testPutAndDelete() throws IOException {
+        File file = new File(folder.getRoot(), "file.txt");
+        assertTrue(exchange(put("/file.txt", TOKEN, "hello")).startsWith("HTTP/1.1 " + ServerSettings.HTTP_STR_CREATED));
+        assertEquals("hello", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertTrue(exchange(put("/file.txt", TOKEN, "bye")).startsWith("HTTP/1.1 " + ServerSettings.HTTP_STR_NO_CONTENT));
+        assertEquals("bye", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertTrue(exchange("DELETE /file.txt HTTP/1.1\r\nHost: localhost\r\nAuthorization: Bearer " + TOKEN + "\r\n\r\n")
+                .startsWith("HTTP/1.1 " + ServerSettings.HTTP_STR_NO_CONTENT));
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Test an upload without the token is refused
+     * @throws IOException If the request fails
+     */
+    @Test
+    public void testUnauthorized() throws IOException {
+        assertTrue(exchange(put("/file.txt", "wrong", "hello")).startsWith("HTTP/1.1 " + ServerSettings.HTTP_STR_UNAUTHORIZED));
+        assertFalse(new File(folder.getRoot(), "file.txt").exists());
+    }
+
+    /**
+     * Test the paths of the request handlers are not uploaded
+     * @throws IOException If the request fails
+     */
+    @Test
+    public void testHandlerPaths() throws IOException {
+        for (String path : new String[] {"/health", "/batch", "/batch/file.txt"}) {
+            String response = exchange(put(path, TOKEN, "hello"));
+            assertTrue(path + ": " + response, response.startsWith("HTTP/1.1 " + ServerSettings.HTTP_STR_NOT_IMPLEMENTED));
+        }
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    private static String put(String path, String token, String body) {
+        return "PUT " + path + " HTTP/1.1\r\nHost: localhost\r\nAuthorization: Bearer " + token
+                + "\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+
+    // Handles a request in this thread, returns the response
+    private String exchange(String request) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket client = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+                Socket socket = serverSocket.accept()) {
+            client.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            client.getOutputStream().flush();
+            new HttpHandler(serverSettings, socket).handleConnection();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream input = client.getInputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            return response.toString("ISO-8859-1");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Test the warm-up of the Web Server
+*/
+
+package webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the warm-up of the Web Server: its requests are served but they are
+ * not real traffic
+ * @author      Alfonso Fernandez-Barandiaran
+ */
+public class WarmUpTest {
+
+    /**
+     * Document root of the tests
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Properties props;
+
+    /**
+     * Document root with a few small files
+     * @throws IOException If the files are not created
+     */
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            Files.write(folder.newFile("file" + i + ".html").toPath(), ("<p>" + i + "</p>").getBytes(StandardCharsets.UTF_8));
+        }
+        props = new Properties();
+        props.setProperty(ServerSettings.DOCUMENT_ROOT_PROP_NAME, folder.getRoot().getPath() + File.separator);
+        props.setProperty(ServerSettings.WARM_UP_PROP_NAME, "y");
+        props.setProperty(ServerSettings.WARM_UP_REQUESTS_PROP_NAME, "50");
+    }
+
+    /**
+     * Test the warm-up requests are not counted as hits of the files
+     */
+    @Test
+    public void testNoHits() {
+        ServerSettings serverSettings = new ServerSettings(props);
+        new WarmUp(serverSettings).run();
+        assertTrue(serverSettings.getFileCache().size() >= 4);
+        for (FileEntry entry : serverSettings.getFileCache().entries()) {
+            assertEquals(entry.getFile().getName(), 0, entry.getHits());
+        }
+    }
+
+    /**
+     * Test a slow request of an unconnected socket, as the ones of the
+     * warm-up, is logged without its client address
+     * @throws IOException If the request fails
+     */
+    @Test
+    public void testSlowRequestUnconnected() throws IOException {
+        props.setProperty(ServerSettings.SLOW_REQUEST_THRESHOLD_PROP_NAME, "1");
+        ServerSettings serverSettings = new ServerSettings(props);
+        MemorySocket socket = new MemorySocket("GET /file0.html HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        long acceptTime = System.nanoTime() - 1000000000L;
+        new HttpHandler(serverSettings, socket, new RequestTimings(acceptTime)).handleConnection();
+        assertTrue(socket.output.toString("ISO-8859-1").startsWith("HTTP/1.1 " + ServerSettings.HTTP_STR_OK));
+    }
+
+    /**
+     * Test the traffic capture records only the HTTP/1.x requests of real
+     * traffic: neither the warm-up requests nor the HTTP/2 connections
+     * @throws IOException If the capture fails
+     */
+    @Test
+    public void testNotCaptured() throws IOException {
+        File file = new File(folder.getRoot(), "capture.wstc");
+        props.setProperty(ServerSettings.TRAFFIC_CAPTURE_PROP_NAME, file.getPath());
+        props.setProperty(ServerSettings.HTTP2_PROP_NAME, "y");
+        ServerSettings serverSettings = new ServerSettings(props);
+        TrafficCapture capture = serverSettings.getTrafficCapture();
+        capture.open();
+        new WarmUp(serverSettings).run();
+        new HttpHandler(serverSettings, new MemorySocket("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n"),
+                new RequestTimings(System.nanoTime())).handleConnection();
+        new HttpHandler(serverSettings, new MemorySocket("GET /file1.html HTTP/1.1\r\nHost: localhost\r\n\r\n"),
+                new RequestTimings(System.nanoTime())).handleConnection();
+        capture.close();
+
+        List<TrafficCapture.Record> records = TrafficCapture.read(file);
+        assertEquals(1, records.size());
+        assertEquals("GET /file1.html HTTP/1.1", records.get(0).getRequestLine());
+        assertEquals(200, records.get(0).getStatus());
+    }
+
+    // Unconnected socket reading a request from memory
+    private static class MemorySocket extends Socket {
+
+        private final InputStream input;
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        MemorySocket(String request) {
+            this.input = new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public synchronized void setSoTimeout(int timeout) {
+            // No timeout reading from memory
+        }
+    }
+}
@@ -6,10 +6,14 @@ package webserver;
 
 import static org.junit.Assert.assertEquals;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.net.Socket;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -35,6 +39,7 @@ public class WebServerTest {
     private static StringBuilder testUrl = new StringBuilder(LOCAL_HOST_TEXT);
     private static StringBuilder testBadRequestUrl = new StringBuilder(LOCAL_HOST_TEXT);
     private static StringBuilder testNotFoundUrl = new StringBuilder(LOCAL_HOST_TEXT);
+    private static int serverPort;
 
     /**
      * Setup before tests
@@ -42,7 +47,7 @@ public class WebServerTest {
     @BeforeClass 
     public static void setUpBeforeClass() {
         ServerSettings serverSettings = new ServerSettings(true);
-        int serverPort = serverSettings.getServerPort();
+        serverPort = serverSettings.getServerPort();
         logger.info("\nServerPort : " + serverPort);
         testUrl.append(Integer.toString(serverPort)).append("/index.html");
         logger.info( testUrl );
@@ -276,6 +281,51 @@ public class WebServerTest {
         }
     }
     
+    /**
+     * Test HTTP/2 request with prior knowledge (h2c)
+     */
+    @Test
+    public void testHttp2PriorKnowledge() {
+        // :method GET, :path /index.html, :scheme http (indexed from the static table)
+        byte[] headerBlock = {(byte) 0x82, (byte) 0x85, (byte) 0x86};
+        
+        try (Socket socket = new Socket("localhost", serverPort)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            writeHttp2Frame(out, 0x4, 0x0, 0, new byte[0]);  // SETTINGS
+            writeHttp2Frame(out, 0x1, 0x5, 1, headerBlock);  // HEADERS with END_STREAM and END_HEADERS
+            out.flush();
+            logger.info("\nSending HTTP/2 'GET' request to URL : /index.html");
+            int responseCode = 0;
+            while (responseCode == 0) {
+                int length = (in.readUnsignedShort() << 8) | in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                in.readUnsignedByte();
+                int streamId = in.readInt();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (type == 0x1 && streamId == 1) {  // :status 200 is the entry 8 of the static table
+                    responseCode = ((payload[0] & 0xff) == 0x88) ? HttpURLConnection.HTTP_OK : -1;
+                }
+            }
+            logger.info(RESPONSE_CODE_MESSAGE + responseCode);
+        
+            assertEquals(HttpURLConnection.HTTP_OK, responseCode);
+        } catch (IOException e) {
+            logger.error("testHttp2PriorKnowledge: ", e);
+        }
+    }
+    
+    private void writeHttp2Frame(DataOutputStream out, int type, int flags, int streamId, byte[] payload) throws IOException {
+        out.writeShort(payload.length >>> 8);
+        out.writeByte(payload.length);
+        out.writeByte(type);
+        out.writeByte(flags);
+        out.writeInt(streamId);
+        out.write(payload);
+    }
+    
     private void notImplementedCommand(String command) {
         try {
             String url = testUrl.toString();